@@ -1,11 +1,9 @@
 package org.wyh.gateway.common.config;
 
-import org.apache.commons.collections.CollectionUtils;
 import org.wyh.gateway.common.utils.TimeUtil;
 
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.stream.Collectors;
 
 /**
  * @BelongsProject: my-api-gateway
@@ -19,8 +17,8 @@ public class DynamicConfigManager {
     //缓存服务定义的集合。key为uniqueId，是服务定义的唯一标识
     private ConcurrentHashMap<String, ServiceDefinition> serviceDefinitionMap =
             new ConcurrentHashMap<>();
-    //缓存服务实例的集合。key为uniqueId，是服务实例所属的服务定义的唯一标识。一个服务定义与一组服务实例对应。
-    private ConcurrentHashMap<String, Set<ServiceInstance>> serviceInstanceMap =
+    //缓存服务实例快照的集合。key为uniqueId，是服务实例所属的服务定义的唯一标识。一个服务定义与一组服务实例对应。
+    private ConcurrentHashMap<String, ServiceInstanceSnapshot> serviceInstanceMap =
             new ConcurrentHashMap<>();
     //缓存规则的集合。key为ruleId，是规则的唯一标识。
     private ConcurrentHashMap<String, Rule> ruleMap = new ConcurrentHashMap<>();
@@ -93,37 +91,28 @@ public class DynamicConfigManager {
     }
     /*
      * 对服务实例的相关操作
+     * 服务实例以不可变快照的形式保存，所有修改操作都基于原快照创建新的快照，再通过ConcurrentHashMap.compute原子地替换，
+     * 因此nacos回调线程对服务实例的修改，不会与处理请求的线程对服务实例的读取产生数据竞争。
      */
+    /**
+     * @date: 2024-12-11 10:30
+     * @description: 根据uniqueId获取对应的服务实例快照（只需一次volatile读，不会创建任何对象）
+     * @Param uniqueId:
+     * @return: org.wyh.gateway.common.config.ServiceInstanceSnapshot 若不存在，则返回空快照
+     */
+    public ServiceInstanceSnapshot getServiceInstanceSnapshot(String uniqueId){
+        ServiceInstanceSnapshot snapshot = serviceInstanceMap.get(uniqueId);
+        return snapshot == null ? ServiceInstanceSnapshot.EMPTY : snapshot;
+    }
     /**
      * @date: 2024-01-22 15:36
-     * @description: 根据uniqueId获取对应的服务实例集合
+     * @description: 根据uniqueId获取对应的服务实例分组（预先划分好的灰度实例组或正常实例组）
      * @Param uniqueId:
-     * @Param gray: 标识是否要获取灰度服务实例的集合
-     * @return: java.util.Set<org.wyh.common.config.ServiceInstance>
+     * @Param gray: 标识是否要获取灰度服务实例的分组
+     * @return: org.wyh.gateway.common.config.InstanceGroup
      */
-    public Set<ServiceInstance> getServiceInstanceByUniqueId(String uniqueId, boolean gray){
-        Set<ServiceInstance> serviceInstances = serviceInstanceMap.get(uniqueId);
-        //判断服务实例集合是否为空
-        if(CollectionUtils.isEmpty(serviceInstances)){
-            return Collections.emptySet();
-        }
-        //判断要获取的是灰度服务实例集合还是正常（非灰度）服务实例集合
-        if(gray){
-            /*
-             * 以下代码的作用是从服务实例集合中筛选出灰度服务实例集合
-             * stream方法可以将集合转换为（元素）流
-             * filter方法的作用是过滤，具体来说，它会遍历流中的每一个元素，并检查表达式结果是否为真。
-             * 只有当结果为真，对应元素才会被保留在流中。
-             * collect(Collectors.toSet())的作用是将流中的元素收集到一个Set集合中。
-             */
-            return serviceInstances.stream()
-                    .filter(instance->instance.isGray())
-                    .collect(Collectors.toSet());
-        }
-        //从服务实例集合中筛选出正常（非灰度）服务实例集合
-        return serviceInstances.stream()
-                .filter(instance->!(instance.isGray()))
-                .collect(Collectors.toSet());
+    public InstanceGroup getServiceInstanceGroup(String uniqueId, boolean gray){
+        return getServiceInstanceSnapshot(uniqueId).getGroup(gray);
     }
     /**
      * @date: 2024-01-22 15:36
@@ -133,40 +122,29 @@ public class DynamicConfigManager {
      * @return: void
      */
     public void addServiceInstance(String uniqueId, ServiceInstance serviceInstance) {
-        Set<ServiceInstance> set = serviceInstanceMap.get(uniqueId);
-        set.add(serviceInstance);
+        serviceInstanceMap.compute(uniqueId, (key, snapshot) ->
+                (snapshot == null ? ServiceInstanceSnapshot.EMPTY : snapshot).withInstance(serviceInstance));
     }
     /**
      * @date: 2024-01-22 15:38
-     * @description: 添加服务实例集合
+     * @description: 添加服务实例集合（覆盖该服务原有的全部服务实例）
      * @Param uniqueId:
      * @Param serviceInstanceSet:
      * @return: void
      */
     public void addServiceInstance(String uniqueId, Set<ServiceInstance> serviceInstanceSet) {
         //put方法是覆盖的：如果新插入entry的key在map中已经存在，那么它会覆盖掉旧的entry
-        serviceInstanceMap.put(uniqueId, serviceInstanceSet);
+        serviceInstanceMap.put(uniqueId, ServiceInstanceSnapshot.of(serviceInstanceSet));
     }
     /**
      * @date: 2024-01-22 15:39
-     * @description: 更新服务实例
+     * @description: 更新服务实例（服务实例id相同的旧实例会被替换）
      * @Param uniqueId:
      * @Param serviceInstance:
      * @return: void
      */
     public void updateServiceInstance(String uniqueId, ServiceInstance serviceInstance) {
-        Set<ServiceInstance> set = serviceInstanceMap.get(uniqueId);
-        Iterator<ServiceInstance> it = set.iterator();
-        while(it.hasNext()) {
-            ServiceInstance is = it.next();
-            if(is.getServiceInstanceId().equals(serviceInstance.getServiceInstanceId())) {
-                //先移除旧值
-                it.remove();
-                break;
-            }
-        }
-        //移除旧值后，再添加新值
-        set.add(serviceInstance);
+        addServiceInstance(uniqueId, serviceInstance);
     }
     /**
      * @date: 2024-01-22 15:43
@@ -176,15 +154,7 @@ public class DynamicConfigManager {
      * @return: void
      */
     public void removeServiceInstance(String uniqueId, String serviceInstanceId) {
-        Set<ServiceInstance> set = serviceInstanceMap.get(uniqueId);
-        Iterator<ServiceInstance> it = set.iterator();
-        while(it.hasNext()) {
-            ServiceInstance is = it.next();
-            if(is.getServiceInstanceId().equals(serviceInstanceId)) {
-                it.remove();
-                break;
-            }
-        }
+        serviceInstanceMap.computeIfPresent(uniqueId, (key, snapshot) -> snapshot.withoutInstance(serviceInstanceId));
     }
     /**
      * @date: 2024-01-22 15:44
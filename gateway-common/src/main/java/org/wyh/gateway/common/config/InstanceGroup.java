@@ -0,0 +1,303 @@
+package org.wyh.gateway.common.config;
+
+import org.wyh.gateway.common.constant.GatewayConst;
+import org.wyh.gateway.common.utils.TimeUtil;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.IntPredicate;
+import java.util.function.IntToDoubleFunction;
+import java.util.function.IntToLongFunction;
+
+/**
+ * @BelongsProject: api-gateway-server
+ * @BelongsPackage: org.wyh.gateway.common.config
+ * @Author: wyh
+ * @Date: 2024-12-11 9:30
+ * @Description: 服务实例分组（正常实例组或灰度实例组），是服务实例快照的组成部分，创建后不可变。
+                 实例以数组形式保存（按服务实例id排序，保证顺序稳定），并预先计算好各实例的标准权重，总权重，
+                 以及是否所有实例的权重都相同，负载均衡时可以直接使用，不需要复制实例集合，也不需要重复计算权重。
+                 预热权重与当前时间有关，无法预先计算，因此这里只记录各实例的预热开始时间和结束时间：
+                 只有当分组中还有实例处于预热期时，才需要按当前时间重新计算权重。
+                 此外，还可以基于已有分组派生出新的分组（如摘除异常实例，让恢复的实例慢启动，或调整实例的权重），派生分组同样不可变。
+ */
+public final class InstanceGroup {
+    //空分组
+    public static final InstanceGroup EMPTY = new InstanceGroup(new ServiceInstance[0]);
+    //服务实例数组
+    private final ServiceInstance[] instances;
+    //各实例的标准权重
+    private final int[] weights;
+    //各实例的预热开始时间（通常是注册时间；从摘除状态恢复的实例为恢复时间，即慢启动）
+    private final long[] warmUpStartTimes;
+    //各实例的预热结束时间
+    private final long[] warmUpEndTimes;
+    //所有实例的标准权重之和
+    private final int totalWeight;
+    //标识是否所有实例的标准权重都相同
+    private final boolean sameWeight;
+    //所有实例中最晚的预热结束时间，当前时间超过该值后，所有实例都已完成预热
+    private final long maxWarmUpEndTime;
+    /**
+     * @date: 2024-12-11 9:35
+     * @description: 有参构造器。根据实例的配置计算各实例的标准权重和预热时间
+     * @Param instances: 调用方保证该数组不会再被修改
+     * @return: null
+     */
+    InstanceGroup(ServiceInstance[] instances){
+        this(instances, null, null, null);
+    }
+    /**
+     * @date: 2024-12-14 14:00
+     * @description: private修饰的有参构造器。
+                     若weights为null，则根据实例的配置计算各实例的标准权重和预热时间，否则直接使用传入的数组（派生分组）
+     * @Param instances:
+     * @Param weights:
+     * @Param warmUpStartTimes:
+     * @Param warmUpEndTimes:
+     * @return: null
+     */
+    private InstanceGroup(ServiceInstance[] instances, int[] weights, long[] warmUpStartTimes, long[] warmUpEndTimes){
+        if(weights == null){
+            weights = new int[instances.length];
+            warmUpStartTimes = new long[instances.length];
+            warmUpEndTimes = new long[instances.length];
+            for (int i = 0; i < instances.length; i++) {
+                ServiceInstance instance = instances[i];
+                //若未设置实例的权重，或者权重值不合理，则使用默认权重
+                Integer weight = instance.getWeight();
+                weights[i] = (weight == null || weight < 0) ? GatewayConst.DEFAULT_WEIGHT : weight;
+                //若未设置实例的预热时间，或者预热时间不合理，则使用默认预热时间
+                Integer warmUpTime = instance.getWarmUpTime();
+                int warmUp = (warmUpTime == null || warmUpTime < 0) ? GatewayConst.DEFAULT_WARMUP_MS : warmUpTime;
+                warmUpStartTimes[i] = instance.getRegisterTime();
+                warmUpEndTimes[i] = instance.getRegisterTime() + warmUp;
+            }
+        }
+        this.instances = instances;
+        this.weights = weights;
+        this.warmUpStartTimes = warmUpStartTimes;
+        this.warmUpEndTimes = warmUpEndTimes;
+        int total = 0;
+        boolean same = true;
+        long maxEndTime = 0;
+        for (int i = 0; i < instances.length; i++) {
+            maxEndTime = Math.max(maxEndTime, warmUpEndTimes[i]);
+            total += weights[i];
+            if(same && i > 0 && weights[i] != weights[i - 1]){
+                same = false;
+            }
+        }
+        this.totalWeight = total;
+        this.sameWeight = same;
+        this.maxWarmUpEndTime = maxEndTime;
+    }
+    /**
+     * @date: 2024-12-11 9:40
+     * @description: 获取实例的数量
+     * @return: int
+     */
+    public int size(){
+        return instances.length;
+    }
+    /**
+     * @date: 2024-12-11 9:40
+     * @description: 判断分组是否为空
+     * @return: boolean
+     */
+    public boolean isEmpty(){
+        return instances.length == 0;
+    }
+    /**
+     * @date: 2024-12-11 9:41
+     * @description: 获取第index个实例
+     * @Param index:
+     * @return: org.wyh.gateway.common.config.ServiceInstance
+     */
+    public ServiceInstance get(int index){
+        return instances[index];
+    }
+    /**
+     * @date: 2024-12-11 9:42
+     * @description: 获取第index个实例的标准权重（不考虑预热）
+     * @Param index:
+     * @return: int
+     */
+    public int getStaticWeight(int index){
+        return weights[index];
+    }
+    /**
+     * @date: 2024-12-11 9:43
+     * @description: 获取所有实例的标准权重之和（不考虑预热）
+     * @return: int
+     */
+    public int getTotalWeight(){
+        return totalWeight;
+    }
+    /**
+     * @date: 2024-12-11 9:43
+     * @description: 判断是否所有实例的标准权重都相同（不考虑预热）
+     * @return: boolean
+     */
+    public boolean isSameWeight(){
+        return sameWeight;
+    }
+    /**
+     * @date: 2024-12-11 9:45
+     * @description: 判断在指定时间，分组中是否还有实例处于预热期。
+                     若返回false，则所有实例的当前权重都等于标准权重，可以直接使用预先计算好的结果
+     * @Param now:
+     * @return: boolean
+     */
+    public boolean isWarmingUp(long now){
+        return now < maxWarmUpEndTime;
+    }
+    /**
+     * @date: 2024-12-11 9:48
+     * @description: 获取第index个实例在指定时间的权重（若该实例处于预热期，则返回其预热权重）
+     * @Param index:
+     * @Param now:
+     * @return: int
+     */
+    public int getWeight(int index, long now){
+        int weight = weights[index];
+        long remaining = warmUpEndTimes[index] - now;
+        if(remaining <= 0 || weight == 0){
+            return weight;
+        }
+        long warmUp = warmUpEndTimes[index] - warmUpStartTimes[index];
+        //预热权重随运行时间线性增加。刚注册的实例至少保留1的权重，避免总权重为0
+        int ww = (int)((float)weight / (float)warmUp * (warmUp - remaining));
+        return Math.max(ww, 1);
+    }
+    /**
+     * @date: 2024-12-11 9:50
+     * @description: 获取第index个实例的当前权重
+     * @Param index:
+     * @return: int
+     */
+    public int getWeight(int index){
+        return getWeight(index, TimeUtil.currentTimeMillis());
+    }
+    /**
+     * @date: 2024-12-14 14:10
+     * @description: 创建只包含满足条件的实例的新分组（各实例的权重和预热时间保持不变），原分组不变
+     * @Param keep: 根据实例下标判断是否保留该实例
+     * @return: org.wyh.gateway.common.config.InstanceGroup 若所有实例都被保留，则返回原分组
+     */
+    public InstanceGroup filter(IntPredicate keep){
+        int kept = 0;
+        boolean[] flags = new boolean[instances.length];
+        for (int i = 0; i < instances.length; i++) {
+            if(flags[i] = keep.test(i)){
+                kept++;
+            }
+        }
+        if(kept == instances.length){
+            return this;
+        }
+        if(kept == 0){
+            return EMPTY;
+        }
+        ServiceInstance[] newInstances = new ServiceInstance[kept];
+        int[] newWeights = new int[kept];
+        long[] newStartTimes = new long[kept];
+        long[] newEndTimes = new long[kept];
+        for (int i = 0, j = 0; i < instances.length; i++) {
+            if(flags[i]){
+                newInstances[j] = instances[i];
+                newWeights[j] = weights[i];
+                newStartTimes[j] = warmUpStartTimes[i];
+                newEndTimes[j] = warmUpEndTimes[i];
+                j++;
+            }
+        }
+        return new InstanceGroup(newInstances, newWeights, newStartTimes, newEndTimes);
+    }
+    /**
+     * @date: 2024-12-16 9:30
+     * @description: 创建按比例调整各实例标准权重的新分组（预热时间保持不变），原分组不变。
+                     调整后的权重四舍五入，标准权重大于0的实例至少保留1的权重
+     * @Param factors: 根据实例下标返回其权重的调整比例
+     * @return: org.wyh.gateway.common.config.InstanceGroup 若所有实例的权重都不变，则返回原分组
+     */
+    public InstanceGroup scaleWeights(IntToDoubleFunction factors){
+        int[] newWeights = null;
+        for (int i = 0; i < instances.length; i++) {
+            int weight = weights[i];
+            int scaled = weight == 0 ? 0 : (int)Math.max(Math.min(Math.round(weight * factors.applyAsDouble(i)),
+                    Integer.MAX_VALUE / Math.max(instances.length, 1)), 1);
+            if(scaled == weight){
+                continue;
+            }
+            if(newWeights == null){
+                newWeights = weights.clone();
+            }
+            newWeights[i] = scaled;
+        }
+        if(newWeights == null){
+            return this;
+        }
+        return new InstanceGroup(instances, newWeights, warmUpStartTimes, warmUpEndTimes);
+    }
+    /**
+     * @date: 2024-12-14 14:15
+     * @description: 创建一个部分实例重新进入预热期（慢启动）的新分组，原分组不变。
+                     用于从摘除状态恢复的实例：恢复后其权重从很小的值开始，在指定时间内线性增加到标准权重
+     * @Param startTimes: 根据实例下标返回其慢启动的开始时间，返回0表示该实例不需要慢启动
+     * @Param window: 慢启动的持续时间（ms）
+     * @return: org.wyh.gateway.common.config.InstanceGroup 若没有实例需要慢启动，则返回原分组
+     */
+    public InstanceGroup withSlowStart(IntToLongFunction startTimes, long window){
+        long[] newStartTimes = null;
+        long[] newEndTimes = null;
+        for (int i = 0; i < instances.length; i++) {
+            long start = startTimes.applyAsLong(i);
+            //只有慢启动比原有的预热期结束得更晚时才需要调整
+            if(start <= 0 || start + window <= warmUpEndTimes[i]){
+                continue;
+            }
+            if(newStartTimes == null){
+                newStartTimes = warmUpStartTimes.clone();
+                newEndTimes = warmUpEndTimes.clone();
+            }
+            newStartTimes[i] = start;
+            newEndTimes[i] = start + window;
+        }
+        if(newStartTimes == null){
+            return this;
+        }
+        return new InstanceGroup(instances, weights, newStartTimes, newEndTimes);
+    }
+    /**
+     * @date: 2024-12-14 14:20
+     * @description: 判断两个分组的内容是否完全相同（实例，权重和预热时间都相同）
+     * @Param other:
+     * @return: boolean
+     */
+    public boolean contentEquals(InstanceGroup other){
+        if(this == other){
+            return true;
+        }
+        if(other == null || instances.length != other.instances.length){
+            return false;
+        }
+        for (int i = 0; i < instances.length; i++) {
+            if(instances[i] != other.instances[i] || weights[i] != other.weights[i]
+                    || warmUpStartTimes[i] != other.warmUpStartTimes[i]
+                    || warmUpEndTimes[i] != other.warmUpEndTimes[i]){
+                return false;
+            }
+        }
+        return true;
+    }
+    /**
+     * @date: 2024-12-11 9:52
+     * @description: 获取实例列表的只读视图（会创建包装对象，不要在请求处理的热路径上使用）
+     * @return: java.util.List<org.wyh.gateway.common.config.ServiceInstance>
+     */
+    public List<ServiceInstance> asList(){
+        return Collections.unmodifiableList(Arrays.asList(instances));
+    }
+}
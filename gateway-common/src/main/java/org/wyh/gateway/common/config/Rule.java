@@ -6,6 +6,7 @@ import lombok.Setter;
 import java.io.Serializable;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 
@@ -56,6 +57,8 @@ public class Rule implements Comparable<Rule>, Serializable{
         private String filterId;
         //该过滤器的配置信息，通常是一个json串
         private String config;
+        //该过滤器的启用条件。为空表示对所有请求都执行该过滤器
+        private FilterCondition condition;
 
         @Override
         public int hashCode() {
@@ -83,6 +86,41 @@ public class Rule implements Comparable<Rule>, Serializable{
             return "FilterConfig{" +
                     "filterId='" + filterId + '\'' +
                     ", Config='" + config + '\'' +
+                    ", condition=" + condition +
+                    '}';
+        }
+    }
+    /**
+     * @BelongsProject: api-gateway-server
+     * @BelongsPackage: org.wyh.gateway.common.config
+     * @Author: wyh
+     * @Date: 2024-12-06 9:30
+     * @Description: 内部类，用于定义过滤器的启用条件。
+                     只有当请求满足所有已设置的条件时，才会执行对应的过滤器（未设置的条件视为满足）
+                     这样就可以按方法，路径，请求头等区分过滤器的执行，而不需要为此复制多条规则
+     */
+    @Setter
+    @Getter
+    public static class FilterCondition{
+        //请求方法集合（满足其一即可），如GET，POST
+        private Set<String> methods;
+        //请求路径的通配符模式。其中，?匹配单个字符，*匹配单层路径中的任意字符，**匹配任意多层路径
+        private String path;
+        //请求头条件。key为请求头名称（不区分大小写），value为期望值，*表示只要求请求中存在该请求头
+        private Map<String, String> headers;
+        //查询参数条件。key为参数名称，value为期望值（与原始的查询字符串比较），*表示只要求请求中存在该参数
+        private Map<String, String> queryParams;
+        //客户端ip的CIDR列表（满足其一即可），如10.0.0.0/8。目前只支持IPv4
+        private List<String> clientCidrs;
+
+        @Override
+        public String toString() {
+            return "FilterCondition{" +
+                    "methods=" + methods +
+                    ", path='" + path + '\'' +
+                    ", headers=" + headers +
+                    ", queryParams=" + queryParams +
+                    ", clientCidrs=" + clientCidrs +
                     '}';
         }
     }
@@ -31,6 +31,8 @@ public class ServiceDefinition implements Serializable {
     private String protocol;
     //服务的匹配规则，是一个ANT风格的表达式（正则匹配的效率太低，所以使用ANT）
     private String patternPath;
+    //服务绑定的域名（不包括端口号）。请求中未携带uniqueId时，网关会根据Host，匹配规则和版本号来确定目标服务。为空表示不限制域名
+    private String host;
     //环境类型，例如开发环境，测试环境等
     private String envType;
     //服务启用或禁用
@@ -39,6 +41,7 @@ public class ServiceDefinition implements Serializable {
     private String desc;
     //服务的方法调用集合。一个服务可以向外暴露多个调用方法。
     //Map中的key表示方法调用的路径，即url中ip:port后面的路径部分
+    //路径中可以包含路径变量（如/orders/{id}），*（匹配单段路径）和**（匹配多段路径）
     private Map<String, ServiceInvoker> invokerMap;
     /**
      * @date: 2024-01-17 14:30
@@ -56,19 +59,23 @@ public class ServiceDefinition implements Serializable {
      * @Param version:
      * @Param protocol:
      * @Param patternPath:
+     * @Param host:
      * @Param envType:
      * @Param enable:
+     * @Param desc:
      * @Param invokerMap:
      * @return: null
      */
     public ServiceDefinition(String uniqueId, String serviceId, String version, String protocol, String patternPath,
-                             String envType, boolean enable, String desc, Map<String, ServiceInvoker> invokerMap) {
+                             String host, String envType, boolean enable, String desc,
+                             Map<String, ServiceInvoker> invokerMap) {
         super();
         this.uniqueId = uniqueId;
         this.serviceId = serviceId;
         this.version = version;
         this.protocol = protocol;
         this.patternPath = patternPath;
+        this.host = host;
         this.envType = envType;
         this.enable = enable;
         this.desc = desc;
@@ -101,6 +108,7 @@ public class ServiceDefinition implements Serializable {
                 ", version='" + version + '\'' +
                 ", protocol='" + protocol + '\'' +
                 ", patternPath='" + patternPath + '\'' +
+                ", host='" + host + '\'' +
                 ", envType='" + envType + '\'' +
                 ", enable=" + enable +
                 ", desc='" + desc + '\'' +
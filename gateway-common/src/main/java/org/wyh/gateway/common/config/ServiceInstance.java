@@ -27,6 +27,10 @@ public class ServiceInstance implements Serializable {
     protected int port;
     //标签信息
     protected String tags;
+    //服务实例所在的可用区（负载均衡时优先选择与网关位于同一可用区的实例）
+    protected String zone;
+    //服务实例所在的地域
+    protected String region;
     //权重信息（负载均衡时要用到）
     protected Integer weight;
     //服务实例的预热时间，单位为ms，默认为3分钟（负载均衡时要用到）
@@ -84,6 +88,8 @@ public class ServiceInstance implements Serializable {
                 ", ip='" + ip + '\'' +
                 ", port=" + port +
                 ", tags='" + tags + '\'' +
+                ", zone='" + zone + '\'' +
+                ", region='" + region + '\'' +
                 ", weight=" + weight +
                 ", warmUpTime=" + warmUpTime +
                 ", registerTime=" + registerTime +
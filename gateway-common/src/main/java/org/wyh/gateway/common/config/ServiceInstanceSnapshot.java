@@ -0,0 +1,124 @@
+package org.wyh.gateway.common.config;
+
+import java.util.*;
+
+/**
+ * @BelongsProject: api-gateway-server
+ * @BelongsPackage: org.wyh.gateway.common.config
+ * @Author: wyh
+ * @Date: 2024-12-11 10:00
+ * @Description: 服务实例快照，创建后不可变。
+                 包含某个服务的全部服务实例，以及预先划分好的正常实例组和灰度实例组（已禁用的实例不会放入任何分组）。
+                 服务实例发生变更时，基于原快照创建新的快照并整体替换（写时复制），
+                 因此处理请求的线程只需读取一次当前快照，之后使用的数据不会再被其他线程修改。
+ */
+public final class ServiceInstanceSnapshot {
+    //空快照
+    public static final ServiceInstanceSnapshot EMPTY = new ServiceInstanceSnapshot(Collections.emptyMap());
+    //服务实例id及其服务实例的集合（只读）
+    private final Map<String, ServiceInstance> instanceMap;
+    //正常（非灰度）实例组
+    private final InstanceGroup normalGroup;
+    //灰度实例组
+    private final InstanceGroup grayGroup;
+    /**
+     * @date: 2024-12-11 10:05
+     * @description: private修饰的构造器。按服务实例id排序后，划分正常实例组和灰度实例组
+     * @Param instanceMap: 调用方保证该集合不会再被修改
+     * @return: null
+     */
+    private ServiceInstanceSnapshot(Map<String, ServiceInstance> instanceMap){
+        this.instanceMap = Collections.unmodifiableMap(instanceMap);
+        List<ServiceInstance> normal = new ArrayList<>();
+        List<ServiceInstance> gray = new ArrayList<>();
+        for (ServiceInstance instance : instanceMap.values()) {
+            if(!instance.isEnable()){
+                continue;
+            }
+            (instance.isGray() ? gray : normal).add(instance);
+        }
+        this.normalGroup = toGroup(normal);
+        this.grayGroup = toGroup(gray);
+    }
+    /**
+     * @date: 2024-12-11 10:08
+     * @description: 将实例列表按服务实例id排序后转换为实例分组
+     * @Param instances:
+     * @return: org.wyh.gateway.common.config.InstanceGroup
+     */
+    private static InstanceGroup toGroup(List<ServiceInstance> instances){
+        if(instances.isEmpty()){
+            return InstanceGroup.EMPTY;
+        }
+        instances.sort(Comparator.comparing(ServiceInstance::getServiceInstanceId,
+                Comparator.nullsFirst(Comparator.naturalOrder())));
+        return new InstanceGroup(instances.toArray(new ServiceInstance[0]));
+    }
+    /**
+     * @date: 2024-12-11 10:10
+     * @description: 根据服务实例集合创建快照
+     * @Param instances:
+     * @return: org.wyh.gateway.common.config.ServiceInstanceSnapshot
+     */
+    public static ServiceInstanceSnapshot of(Collection<ServiceInstance> instances){
+        if(instances == null || instances.isEmpty()){
+            return EMPTY;
+        }
+        Map<String, ServiceInstance> map = new HashMap<>();
+        for (ServiceInstance instance : instances) {
+            map.put(instance.getServiceInstanceId(), instance);
+        }
+        return new ServiceInstanceSnapshot(map);
+    }
+    /**
+     * @date: 2024-12-11 10:12
+     * @description: 创建一个添加（或替换）了指定服务实例的新快照，原快照不变
+     * @Param instance:
+     * @return: org.wyh.gateway.common.config.ServiceInstanceSnapshot
+     */
+    public ServiceInstanceSnapshot withInstance(ServiceInstance instance){
+        Map<String, ServiceInstance> map = new HashMap<>(instanceMap);
+        map.put(instance.getServiceInstanceId(), instance);
+        return new ServiceInstanceSnapshot(map);
+    }
+    /**
+     * @date: 2024-12-11 10:14
+     * @description: 创建一个删除了指定服务实例的新快照，原快照不变
+     * @Param serviceInstanceId:
+     * @return: org.wyh.gateway.common.config.ServiceInstanceSnapshot
+     */
+    public ServiceInstanceSnapshot withoutInstance(String serviceInstanceId){
+        if(!instanceMap.containsKey(serviceInstanceId)){
+            return this;
+        }
+        Map<String, ServiceInstance> map = new HashMap<>(instanceMap);
+        map.remove(serviceInstanceId);
+        return map.isEmpty() ? EMPTY : new ServiceInstanceSnapshot(map);
+    }
+    /**
+     * @date: 2024-12-11 10:16
+     * @description: 获取正常实例组或灰度实例组
+     * @Param gray: 标识是否要获取灰度实例组
+     * @return: org.wyh.gateway.common.config.InstanceGroup
+     */
+    public InstanceGroup getGroup(boolean gray){
+        return gray ? grayGroup : normalGroup;
+    }
+    /**
+     * @date: 2024-12-11 10:18
+     * @description: 根据服务实例id获取服务实例
+     * @Param serviceInstanceId:
+     * @return: org.wyh.gateway.common.config.ServiceInstance
+     */
+    public ServiceInstance getInstance(String serviceInstanceId){
+        return instanceMap.get(serviceInstanceId);
+    }
+    /**
+     * @date: 2024-12-11 10:20
+     * @description: 获取全部服务实例（只读，包括已禁用的实例）
+     * @return: java.util.Collection<org.wyh.gateway.common.config.ServiceInstance>
+     */
+    public Collection<ServiceInstance> getInstances(){
+        return instanceMap.values();
+    }
+}
@@ -8,8 +8,6 @@ package org.wyh.gateway.common.constant;
  * @Description: 定义了一些过滤器相关的常量
  */
 public interface FilterConst {
-    //过滤器配置缓存的名称/id
-    String FILTER_CONFIG_CACHE_ID = "filter_config_cache";
     /*
      * 负载均衡过滤器相关常量
      */
@@ -18,6 +16,9 @@ public interface FilterConst {
     int LOAD_BALANCE_FILTER_ORDER = 100;
     String LOAD_BALANCE_STRATEGY_RANDOM = "Random";
     String LOAD_BALANCE_STRATEGY_ROUND_ROBIN = "RoundRobin";
+    String LOAD_BALANCE_STRATEGY_LEAST_REQUEST = "LeastRequest";
+    String LOAD_BALANCE_STRATEGY_PEAK_EWMA = "PeakEwma";
+    String LOAD_BALANCE_STRATEGY_CONSISTENT_HASH = "ConsistentHash";
     /*
      * 流量控制过滤器相关常量
      */
@@ -44,6 +45,13 @@ public interface FilterConst {
     int GRAY_FILTER_ORDER = 1;
     //请求头中灰度标记参数的key
     String GRAY_FLAG_KEY = "gray";
+    /*
+     * 响应缓存过滤器相关常量
+     */
+    String RESPONSE_CACHE_FILTER_ID = "response_cache_filter";
+    String RESPONSE_CACHE_FILTER_NAME = "response_cache_filter";
+    //在流量控制之后（缓存命中的请求同样计入限流），负载均衡之前执行
+    int RESPONSE_CACHE_FILTER_ORDER = 60;
     /*
      * 路由过滤器相关常量
      */
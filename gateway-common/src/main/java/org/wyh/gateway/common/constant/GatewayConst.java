@@ -9,11 +9,19 @@ package org.wyh.gateway.common.constant;
  */
 public interface GatewayConst {
     String UNIQUE_ID = "uniqueId";
+    //请求头中指定目标服务版本号的参数（只在请求未携带uniqueId时使用）
+    String VERSION = "version";
 
     String DEFAULT_VERSION = "1.0.0";
 
     String PROTOCOL_KEY = "protocol";
+    //服务协议：HTTP/2明文（不经过协议升级，直接使用HTTP/2）
+    String PROTOCOL_H2C = "h2c";
+    //服务协议：基于TLS的HTTP/2（通过ALPN协商）
+    String PROTOCOL_H2 = "h2";
     String SERVICE_INSTANCE = "service_instance";
     String SERVICE_DEFINITION = "service_definition";
     int DEFAULT_WEIGHT = 100;
+    //默认的服务实例预热时间，单位为ms
+    int DEFAULT_WARMUP_MS = 3 * 60 * 1000;
 }
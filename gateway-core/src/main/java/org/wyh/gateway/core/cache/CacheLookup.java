@@ -0,0 +1,38 @@
+package org.wyh.gateway.core.cache;
+
+/**
+ * @BelongsProject: api-gateway-server
+ * @BelongsPackage: org.wyh.gateway.core.cache
+ * @Author: wyh
+ * @Date: 2024-12-16 17:36
+ * @Description: 响应缓存的查找结果。缓存未命中（或缓存的响应需要重新验证）时保存在上下文中，
+                 收到服务实例的响应后，响应缓存管理类根据它来保存响应，或者用重新验证的结果更新缓存。
+                 该类只由响应缓存管理类使用。
+ */
+public class CacheLookup {
+    //请求的主缓存键（不包括Vary指定的请求头）
+    final String primaryKey;
+    //规则设置的新鲜时间（ms），小于等于0表示根据响应头计算
+    final long ttl;
+    //请求是否携带了Authorization请求头
+    final boolean authorized;
+    //服务实例出现故障时，缓存的响应在过期后仍可使用的时间（ms），小于等于0表示不使用过期的响应
+    final long maxStale;
+    //需要重新验证的缓存响应（已向服务实例发送条件请求），为null表示未命中
+    CachedResponse entry;
+    /**
+     * @date: 2024-12-16 17:37
+     * @description: 有参构造器
+     * @Param primaryKey:
+     * @Param ttl:
+     * @Param authorized:
+     * @Param maxStale:
+     * @return: null
+     */
+    CacheLookup(String primaryKey, long ttl, boolean authorized, long maxStale) {
+        this.primaryKey = primaryKey;
+        this.ttl = ttl;
+        this.authorized = authorized;
+        this.maxStale = maxStale;
+    }
+}
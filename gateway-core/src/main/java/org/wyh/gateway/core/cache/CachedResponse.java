@@ -0,0 +1,103 @@
+package org.wyh.gateway.core.cache;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.http.HttpHeaders;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+
+/**
+ * @BelongsProject: api-gateway-server
+ * @BelongsPackage: org.wyh.gateway.core.cache
+ * @Author: wyh
+ * @Date: 2024-12-16 17:38
+ * @Description: 缓存的响应（元数据），创建后不可变。重新验证成功时，使用新的对象替换，响应体保持不变。
+                 响应体单独保存在按字节数限制大小的缓存中，元数据只持有其引用。
+ */
+final class CachedResponse {
+    //缓存键（包括Vary指定的请求头）
+    final String key;
+    //响应状态码
+    final int status;
+    //缓存的响应头（不包括逐跳的响应头和Content-Length）
+    final HttpHeaders headers;
+    //验证器：ETag和Last-Modified响应头，可能为null
+    final String etag;
+    final String lastModified;
+    //保存（或最近一次重新验证）的时间
+    final long storedAt;
+    //保存时响应的年龄（ms）
+    final long initialAge;
+    //新鲜时间（ms）
+    final long lifetime;
+    //响应体
+    final Body body;
+    /**
+     * @BelongsProject: api-gateway-server
+     * @BelongsPackage: org.wyh.gateway.core.cache
+     * @Author: wyh
+     * @Date: 2024-12-16 17:39
+     * @Description: （静态内部类）缓存的响应体，保存在堆内存或内存映射文件中。
+                     内容在创建后不会被修改，每次使用时创建共享内容的只读ByteBuf，因此不需要引用计数：
+                     响应体被移出缓存后，正在写回的响应仍可以安全地读取，内存由GC在不再使用后回收。
+     */
+    static final class Body {
+        //只读的响应体内容（position始终为0）
+        final ByteBuffer buffer;
+        //内存映射文件的路径，保存在堆内存中时为null
+        final Path file;
+
+        Body(ByteBuffer buffer, Path file) {
+            this.buffer = buffer;
+            this.file = file;
+        }
+
+        int length(){
+            return buffer.remaining();
+        }
+
+        ByteBuf content(){
+            return Unpooled.wrappedBuffer(buffer.duplicate());
+        }
+    }
+
+    CachedResponse(String key, int status, HttpHeaders headers, String etag, String lastModified,
+                   long storedAt, long initialAge, long lifetime, Body body) {
+        this.key = key;
+        this.status = status;
+        this.headers = headers;
+        this.etag = etag;
+        this.lastModified = lastModified;
+        this.storedAt = storedAt;
+        this.initialAge = initialAge;
+        this.lifetime = lifetime;
+        this.body = body;
+    }
+    /**
+     * @date: 2024-12-16 17:40
+     * @description: 获取响应当前的年龄（ms）
+     * @Param now:
+     * @return: long
+     */
+    long currentAge(long now){
+        return initialAge + Math.max(0, now - storedAt);
+    }
+    /**
+     * @date: 2024-12-16 17:40
+     * @description: 判断响应是否新鲜（新鲜的响应可以不经验证直接使用）
+     * @Param now:
+     * @return: boolean
+     */
+    boolean isFresh(long now){
+        return currentAge(now) < lifetime;
+    }
+    /**
+     * @date: 2024-12-16 17:41
+     * @description: 判断响应是否带有验证器（可以向服务实例发送条件请求）
+     * @return: boolean
+     */
+    boolean hasValidators(){
+        return etag != null || lastModified != null;
+    }
+}
@@ -13,7 +13,7 @@ import java.util.function.Function;
  * @Date: 2024-03-27 13:42
  * @Description: 基于caffeine的（本地）缓存管理器，用于统一管理系统中用到的各种缓存。
                  （也就是说，系统中的其他部分应该通过该缓存管理器来操作缓存，而不是直接操作）
-                 实际上，目前只有过滤器链部分使用到了缓存。
+                 注意：过滤器的配置信息已改为在规则发布时一次性解析，不再使用缓存。
  */
 public class GatewayCacheManager {
     /*
@@ -0,0 +1,859 @@
+package org.wyh.gateway.core.cache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Metrics;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.DateFormatter;
+import io.netty.handler.codec.http.DefaultHttpHeaders;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaderValues;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.util.AsciiString;
+import lombok.extern.slf4j.Slf4j;
+import org.asynchttpclient.Response;
+import org.wyh.gateway.core.config.Config;
+import org.wyh.gateway.core.config.ConfigLoader;
+import org.wyh.gateway.core.context.AttributeKey;
+import org.wyh.gateway.core.context.GatewayContext;
+import org.wyh.gateway.core.request.GatewayRequest;
+import org.wyh.gateway.core.response.GatewayResponse;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * @BelongsProject: api-gateway-server
+ * @BelongsPackage: org.wyh.gateway.core.cache
+ * @Author: wyh
+ * @Date: 2024-12-16 17:42
+ * @Description: 响应缓存管理类，按照HTTP缓存语义（Cache-Control，Expires，Vary，ETag/Last-Modified）缓存服务实例的响应。
+                 缓存命中时，由响应缓存过滤器直接写回响应，请求不会经过负载均衡和路由过滤器；
+                 缓存的响应过期后，若带有验证器，则向服务实例发送条件请求，收到304响应时继续使用缓存的响应体。
+                 元数据和响应体分别保存在两个缓存中：元数据按条目数限制大小，响应体按字节数限制大小，
+                 较大的响应体可以保存在内存映射文件中（单独限制大小），从而不占用堆内存。
+                 任意一方被淘汰时，另一方也会被移除。
+                 对于启用了stale-if-error的规则，还会保存没有缓存相关响应头的成功响应（只用于降级）：
+                 服务实例出现故障（超时，连接失败，熔断降级，5xx响应，或没有可用的实例）时，
+                 使用该请求最近一次成功的响应（即使已过期）代替异常响应，并标记为过期的响应。
+ */
+@Slf4j
+public class ResponseCacheManager {
+    //表示缓存处理结果的响应头
+    public static final String CACHE_STATUS_HEADER = "X-Cache";
+    //默认可以缓存的响应状态码
+    private static final Set<Integer> CACHEABLE_STATUS = Set.of(200, 203, 204, 300, 301, 308, 404, 405, 410, 414, 501);
+    //不应被缓存的逐跳响应头（Keep-Alive和Proxy-Connection在HttpHeaderNames中已被废弃，单独定义）
+    private static final List<CharSequence> HOP_BY_HOP_HEADERS = Arrays.asList(HttpHeaderNames.CONNECTION,
+            AsciiString.cached("keep-alive"), HttpHeaderNames.PROXY_AUTHENTICATE, AsciiString.cached("proxy-connection"),
+            HttpHeaderNames.TE, HttpHeaderNames.TRAILER, HttpHeaderNames.TRANSFER_ENCODING, HttpHeaderNames.UPGRADE);
+    //内存映射文件的文件名前缀
+    private static final String BODY_FILE_PREFIX = "body-";
+    //故障时使用过期的响应所添加的Warning响应头
+    private static final String STALE_WARNING = "111 - \"Revalidation Failed\"";
+    //可以使用过期的响应代替的服务实例响应状态码
+    private static final Set<Integer> STALE_IF_ERROR_STATUS = Set.of(500, 502, 503, 504);
+    //网关配置信息
+    private final Config config;
+    //缓存的响应（元数据），键为缓存键
+    private final Cache<String, CachedResponse> entries;
+    //保存在堆内存中的响应体，键为缓存键
+    private final Cache<String, CachedResponse.Body> memoryBodies;
+    //保存在内存映射文件中的响应体，键为缓存键。未启用时为null
+    private final Cache<String, CachedResponse.Body> fileBodies;
+    //内存映射文件的存放目录
+    private final Path fileDir;
+    //各请求对应的Vary请求头名称，键为主缓存键
+    private final Cache<String, String[]> varyIndex;
+    //命中，未命中和重新验证成功的请求数量
+    private final Counter hitCounter;
+    private final Counter missCounter;
+    private final Counter revalidationCounter;
+    //被淘汰的元数据，堆内存和内存映射文件中的响应体数量
+    private final Counter entryEvictionCounter;
+    private final Counter memoryEvictionCounter;
+    private final Counter fileEvictionCounter;
+    /**
+     * @BelongsProject: api-gateway-server
+     * @BelongsPackage: org.wyh.gateway.core.cache
+     * @Author: wyh
+     * @Date: 2024-12-16 17:44
+     * @Description: 静态内部类，用于实现单例模式
+     */
+    private static class SingletonHolder {
+        private static final ResponseCacheManager INSTANCE = new ResponseCacheManager();
+    }
+    /**
+     * @date: 2024-12-16 17:44
+     * @description: private修饰的无参构造器，负责创建缓存和注册相关指标
+     * @return: null
+     */
+    private ResponseCacheManager(){
+        this.config = ConfigLoader.getConfig();
+        this.entries = Caffeine.newBuilder()
+                .maximumSize(config.getResponseCacheMaxEntries())
+                .removalListener(this::onEntryRemoved)
+                .build();
+        this.memoryBodies = Caffeine.newBuilder()
+                .maximumWeight(Math.max(config.getResponseCacheMaxBytes(), 0))
+                .weigher((String key, CachedResponse.Body body) -> body.length())
+                .removalListener(this::onBodyRemoved)
+                .build();
+        this.fileDir = Paths.get(config.getResponseCacheFileDir());
+        this.fileBodies = config.getResponseCacheFileMaxBytes() > 0 && prepareFileDir()
+                ? Caffeine.newBuilder()
+                        .maximumWeight(config.getResponseCacheFileMaxBytes())
+                        .weigher((String key, CachedResponse.Body body) -> body.length())
+                        .removalListener(this::onBodyRemoved)
+                        .build()
+                : null;
+        this.varyIndex = Caffeine.newBuilder()
+                .maximumSize(config.getResponseCacheMaxEntries())
+                .build();
+        this.hitCounter = Metrics.counter("gateway.response.cache.hits");
+        this.missCounter = Metrics.counter("gateway.response.cache.misses");
+        this.revalidationCounter = Metrics.counter("gateway.response.cache.revalidations");
+        this.entryEvictionCounter = Metrics.counter("gateway.response.cache.evictions", "tier", "entry");
+        this.memoryEvictionCounter = Metrics.counter("gateway.response.cache.evictions", "tier", "memory");
+        this.fileEvictionCounter = Metrics.counter("gateway.response.cache.evictions", "tier", "file");
+        Gauge.builder("gateway.response.cache.entries", entries, Cache::estimatedSize)
+                .description("当前缓存的响应数量")
+                .register(Metrics.globalRegistry);
+        Gauge.builder("gateway.response.cache.bytes", memoryBodies, ResponseCacheManager::weightedSize)
+                .tag("tier", "memory")
+                .description("当前缓存的响应体的总大小")
+                .register(Metrics.globalRegistry);
+        if(fileBodies != null){
+            Gauge.builder("gateway.response.cache.bytes", fileBodies, ResponseCacheManager::weightedSize)
+                    .tag("tier", "file")
+                    .description("当前缓存的响应体的总大小")
+                    .register(Metrics.globalRegistry);
+        }
+    }
+    /**
+     * @date: 2024-12-16 17:47
+     * @description: 获取该类的唯一实例
+     * @return: org.wyh.gateway.core.cache.ResponseCacheManager
+     */
+    public static ResponseCacheManager getInstance(){
+        return SingletonHolder.INSTANCE;
+    }
+    /**
+     * @date: 2024-12-16 17:48
+     * @description: 查找请求对应的缓存响应。命中时返回可直接写回的网关响应对象；
+                     否则返回null，并在上下文中保存查找结果，以便收到服务实例的响应后更新缓存。
+                     缓存的响应已过期但带有验证器时，向请求中添加条件请求头（客户端自己发送了条件请求时除外）
+     * @Param ctx:
+     * @Param ttl: 规则设置的新鲜时间（s），小于等于0表示根据响应头计算
+     * @Param cachePost: 是否缓存POST请求（请求体的摘要会作为缓存键的一部分）
+     * @Param maxStale: 服务实例故障时，响应在过期后仍可使用的时间（s），小于等于0表示不使用过期的响应
+     * @return: org.wyh.gateway.core.response.GatewayResponse
+     */
+    public GatewayResponse lookup(GatewayContext ctx, long ttl, boolean cachePost, long maxStale){
+        GatewayRequest request = ctx.getRequest();
+        HttpMethod method = request.getMethod();
+        //HEAD请求的响应没有响应体，既不能用于之后的GET请求，也不能由缓存的GET响应直接构建（Content-Length会被改写为0），
+        //因此HEAD请求不经过缓存，直接发往服务实例
+        if(!HttpMethod.GET.equals(method) && !(cachePost && HttpMethod.POST.equals(method))){
+            return null;
+        }
+        HttpHeaders headers = request.getHeaders();
+        Map<String, String> cacheControl = parseCacheControl(headers.getAll(HttpHeaderNames.CACHE_CONTROL));
+        //客户端要求不使用缓存：既不读取，也不保存
+        if(cacheControl.containsKey(HttpHeaderValues.NO_STORE.toString())){
+            return null;
+        }
+        String primaryKey = getPrimaryKey(ctx);
+        CacheLookup lookup = new CacheLookup(primaryKey, ttl > 0 ? ttl * 1000 : 0,
+                headers.contains(HttpHeaderNames.AUTHORIZATION), maxStale > 0 ? maxStale * 1000 : 0);
+        ctx.setAttribute(AttributeKey.CACHE_LOOKUP, lookup);
+        CachedResponse entry = getEntry(primaryKey, headers);
+        if(entry == null){
+            missCounter.increment();
+            return null;
+        }
+        long now = System.currentTimeMillis();
+        boolean noCache = cacheControl.containsKey(HttpHeaderValues.NO_CACHE.toString())
+                || headers.contains(HttpHeaderNames.PRAGMA, HttpHeaderValues.NO_CACHE, true);
+        if(!noCache && entry.isFresh(now)){
+            hitCounter.increment();
+            log.debug("【响应缓存】请求: {} 命中缓存", request.getUri());
+            if(isNotModified(entry, method, headers)){
+                return buildNotModified(entry);
+            }
+            return buildResponse(entry, now, "HIT");
+        }
+        missCounter.increment();
+        //缓存的响应已过期（或客户端要求重新验证），发送条件请求，服务实例返回304时继续使用缓存的响应体
+        if(entry.hasValidators() && !headers.contains(HttpHeaderNames.IF_NONE_MATCH)
+                && !headers.contains(HttpHeaderNames.IF_MODIFIED_SINCE)){
+            if(entry.etag != null){
+                request.setHeader(HttpHeaderNames.IF_NONE_MATCH, entry.etag);
+            }
+            if(entry.lastModified != null){
+                request.setHeader(HttpHeaderNames.IF_MODIFIED_SINCE, entry.lastModified);
+            }
+            lookup.entry = entry;
+        }
+        return null;
+    }
+    /**
+     * @date: 2024-12-16 17:53
+     * @description: 处理服务实例的响应：可缓存时保存到缓存中；若是对条件请求的304响应，则更新缓存并返回缓存的响应。
+                     返回用于写回客户端的网关响应对象。缓存过程中的异常不影响响应的写回
+     * @Param ctx:
+     * @Param response:
+     * @return: org.wyh.gateway.core.response.GatewayResponse
+     */
+    public GatewayResponse onResponse(GatewayContext ctx, Response response){
+        CacheLookup lookup = ctx.getAttribute(AttributeKey.CACHE_LOOKUP);
+        if(lookup == null){
+            return GatewayResponse.buildGatewayResponse(response);
+        }
+        long now = System.currentTimeMillis();
+        if(lookup.entry != null && response.getStatusCode() == HttpResponseStatus.NOT_MODIFIED.code()){
+            revalidationCounter.increment();
+            CachedResponse entry = lookup.entry;
+            try{
+                CachedResponse refreshed = refresh(lookup, entry, response, now);
+                if(refreshed != null){
+                    entry = refreshed;
+                }
+            }catch (Exception e){
+                log.warn("【响应缓存】更新请求: {} 的缓存失败: {}", ctx.getRequest().getUri(), e.getMessage());
+            }
+            return buildResponse(entry, now, "REVALIDATED");
+        }
+        if(lookup.maxStale > 0 && STALE_IF_ERROR_STATUS.contains(response.getStatusCode())){
+            GatewayResponse stale = getStaleResponse(ctx, "status");
+            if(stale != null){
+                return stale;
+            }
+        }
+        try{
+            store(lookup, ctx.getRequest(), response, now);
+        }catch (Exception e){
+            log.warn("【响应缓存】缓存请求: {} 的响应失败: {}", ctx.getRequest().getUri(), e.getMessage());
+        }
+        GatewayResponse gatewayResponse = GatewayResponse.buildGatewayResponse(response);
+        gatewayResponse.putExtraHeader(CACHE_STATUS_HEADER, "MISS");
+        return gatewayResponse;
+    }
+    /**
+     * @date: 2024-12-16 18:45
+     * @description: 服务实例出现故障时调用，获取该请求最近一次成功的响应（即使已过期）。
+                     只对启用了stale-if-error的规则生效，响应过期超过允许的时间，或没有缓存的响应时返回null。
+                     响应直接来自缓存，不会访问服务实例
+     * @Param ctx:
+     * @Param reason: 故障原因，用于统计
+     * @return: org.wyh.gateway.core.response.GatewayResponse
+     */
+    public GatewayResponse getStaleResponse(GatewayContext ctx, String reason){
+        CacheLookup lookup = ctx.getAttribute(AttributeKey.CACHE_LOOKUP);
+        if(lookup == null || lookup.maxStale <= 0){
+            return null;
+        }
+        //正在重新验证的响应，即使在此期间被淘汰，其响应体也仍然可用
+        CachedResponse entry = lookup.entry != null ? lookup.entry
+                : getEntry(lookup.primaryKey, ctx.getRequest().getHeaders());
+        long now = System.currentTimeMillis();
+        if(entry == null || entry.currentAge(now) - entry.lifetime > lookup.maxStale){
+            return null;
+        }
+        Metrics.counter("gateway.response.cache.stale", "reason", reason).increment();
+        log.debug("【响应缓存】请求: {} 的服务实例出现故障: {}，使用过期的缓存响应", ctx.getRequest().getUri(), reason);
+        GatewayResponse response = buildResponse(entry, now, "STALE");
+        response.getResponseHeaders().add(HttpHeaderNames.WARNING, STALE_WARNING);
+        return response;
+    }
+    /**
+     * @date: 2024-12-16 17:56
+     * @description: 清空缓存，并删除所有内存映射文件
+     * @return: void
+     */
+    public void shutdown(){
+        entries.invalidateAll();
+        varyIndex.invalidateAll();
+        memoryBodies.invalidateAll();
+        if(fileBodies != null){
+            fileBodies.invalidateAll();
+            //移除监听器是异步执行的，这里直接删除目录中剩余的文件
+            deleteBodyFiles();
+        }
+    }
+    /**
+     * @date: 2024-12-16 17:57
+     * @description: 根据主缓存键和请求头获取缓存的响应。响应体已被淘汰（移除监听器尚未执行）时视为未命中
+     * @Param primaryKey:
+     * @Param headers:
+     * @return: org.wyh.gateway.core.cache.CachedResponse
+     */
+    private CachedResponse getEntry(String primaryKey, HttpHeaders headers){
+        String[] vary = varyIndex.getIfPresent(primaryKey);
+        if(vary == null){
+            return null;
+        }
+        CachedResponse entry = entries.getIfPresent(getKey(primaryKey, vary, headers));
+        if(entry == null || bodiesOf(entry.body).getIfPresent(entry.key) != entry.body){
+            return null;
+        }
+        return entry;
+    }
+    /**
+     * @date: 2024-12-16 17:58
+     * @description: 保存服务实例的响应（不可缓存时不做处理）
+     * @Param lookup:
+     * @Param request:
+     * @Param response:
+     * @Param now:
+     * @return: void
+     */
+    private void store(CacheLookup lookup, GatewayRequest request, Response response, long now){
+        if(!CACHEABLE_STATUS.contains(response.getStatusCode())){
+            return;
+        }
+        HttpHeaders responseHeaders = response.getHeaders();
+        //带有Set-Cookie的响应属于特定用户
+        if(responseHeaders.contains(HttpHeaderNames.SET_COOKIE)){
+            return;
+        }
+        Map<String, String> cacheControl = parseCacheControl(responseHeaders.getAll(HttpHeaderNames.CACHE_CONTROL));
+        if(!isStorable(lookup, cacheControl)){
+            return;
+        }
+        long lifetime = getLifetime(lookup, cacheControl, responseHeaders, now);
+        String etag = responseHeaders.get(HttpHeaderNames.ETAG);
+        String lastModified = responseHeaders.get(HttpHeaderNames.LAST_MODIFIED);
+        //既不新鲜，也无法重新验证的响应没有保存的意义（启用了stale-if-error时，仍保存成功的响应用于降级）
+        if(lifetime <= 0 && etag == null && lastModified == null
+                && !(lookup.maxStale > 0 && response.getStatusCode() / 100 == 2)){
+            return;
+        }
+        String[] vary = parseVary(responseHeaders);
+        if(vary == null){
+            return;
+        }
+        ByteBuffer content = response.getResponseBodyAsByteBuffer();
+        if(content.remaining() > config.getResponseCacheMaxBodySize()){
+            return;
+        }
+        String key = getKey(lookup.primaryKey, vary, request.getHeaders());
+        CachedResponse.Body body = storeBody(key, content);
+        varyIndex.put(lookup.primaryKey, vary);
+        put(new CachedResponse(key, response.getStatusCode(), copyHeaders(responseHeaders), etag, lastModified,
+                now, getAge(responseHeaders, now), lifetime, body));
+    }
+    /**
+     * @date: 2024-12-16 18:02
+     * @description: 使用304响应更新缓存的响应：合并响应头，重新计算新鲜时间，响应体保持不变。
+                     返回更新后的响应，304响应要求不再缓存时返回null（该响应仍可用于本次请求）
+     * @Param lookup:
+     * @Param entry:
+     * @Param response:
+     * @Param now:
+     * @return: org.wyh.gateway.core.cache.CachedResponse
+     */
+    private CachedResponse refresh(CacheLookup lookup, CachedResponse entry, Response response, long now){
+        HttpHeaders headers = new DefaultHttpHeaders().add(entry.headers);
+        HttpHeaders updates = copyHeaders(response.getHeaders());
+        for (String name : updates.names()) {
+            headers.set(name, updates.getAll(name));
+        }
+        Map<String, String> cacheControl = parseCacheControl(headers.getAll(HttpHeaderNames.CACHE_CONTROL));
+        if(!isStorable(lookup, cacheControl)){
+            entries.asMap().remove(entry.key, entry);
+            return null;
+        }
+        CachedResponse refreshed = new CachedResponse(entry.key, entry.status, headers,
+                headers.get(HttpHeaderNames.ETAG), headers.get(HttpHeaderNames.LAST_MODIFIED),
+                now, getAge(response.getHeaders(), now), getLifetime(lookup, cacheControl, headers, now), entry.body);
+        //响应体在此期间已被淘汰时不再放回缓存，只用于本次请求
+        if(bodiesOf(entry.body).getIfPresent(entry.key) == entry.body){
+            put(refreshed);
+        }
+        return refreshed;
+    }
+    /**
+     * @date: 2024-12-16 18:05
+     * @description: 保存元数据。替换的旧元数据使用不同的响应体时（如响应体的存放位置发生了变化），移除旧的响应体
+     * @Param entry:
+     * @return: void
+     */
+    private void put(CachedResponse entry){
+        CachedResponse previous = entries.asMap().put(entry.key, entry);
+        if(previous != null && previous.body != entry.body){
+            removeBody(previous.key, previous.body);
+        }
+    }
+    /**
+     * @date: 2024-12-16 18:06
+     * @description: 将响应体复制到堆内存或内存映射文件中。写入文件失败时改为保存在堆内存中。
+                     不使用堆外内存：直接分配的堆外内存只能等待GC回收，响应体被淘汰后无法及时释放，实际占用可能远超响应体总大小上限
+     * @Param key:
+     * @Param content:
+     * @return: org.wyh.gateway.core.cache.CachedResponse.Body
+     */
+    private CachedResponse.Body storeBody(String key, ByteBuffer content){
+        int length = content.remaining();
+        if(fileBodies != null && length >= config.getResponseCacheFileThreshold()){
+            CachedResponse.Body body = writeFile(content);
+            if(body != null){
+                fileBodies.put(key, body);
+                return body;
+            }
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        buffer.put(content.duplicate()).flip();
+        CachedResponse.Body body = new CachedResponse.Body(buffer.asReadOnlyBuffer(), null);
+        memoryBodies.put(key, body);
+        return body;
+    }
+    /**
+     * @date: 2024-12-16 18:08
+     * @description: 将响应体写入新的文件，并以只读方式映射到内存中。写入失败时返回null
+     * @Param content:
+     * @return: org.wyh.gateway.core.cache.CachedResponse.Body
+     */
+    private CachedResponse.Body writeFile(ByteBuffer content){
+        Path file = null;
+        try{
+            file = Files.createTempFile(fileDir, BODY_FILE_PREFIX, null);
+            try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)){
+                ByteBuffer src = content.duplicate();
+                while(src.hasRemaining()){
+                    channel.write(src);
+                }
+                //关闭文件通道后，映射仍然有效
+                MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, content.remaining());
+                return new CachedResponse.Body(mapped, file);
+            }
+        }catch (IOException e){
+            log.warn("【响应缓存】响应体写入文件失败: {}", e.getMessage());
+            deleteFile(file);
+            return null;
+        }
+    }
+    /**
+     * @date: 2024-12-16 18:10
+     * @description: 元数据的移除监听器：元数据被淘汰或删除时，一并移除其响应体（被替换时由put方法处理）
+     * @Param key:
+     * @Param entry:
+     * @Param cause:
+     * @return: void
+     */
+    private void onEntryRemoved(String key, CachedResponse entry, RemovalCause cause){
+        if(cause.wasEvicted()){
+            entryEvictionCounter.increment();
+        }
+        if(key != null && entry != null && cause != RemovalCause.REPLACED){
+            removeBody(key, entry.body);
+        }
+    }
+    /**
+     * @date: 2024-12-16 18:11
+     * @description: 响应体的移除监听器：删除对应的文件；响应体被淘汰时，一并移除引用它的元数据
+     * @Param key:
+     * @Param body:
+     * @Param cause:
+     * @return: void
+     */
+    private void onBodyRemoved(String key, CachedResponse.Body body, RemovalCause cause){
+        if(body == null){
+            return;
+        }
+        deleteFile(body.file);
+        if(cause.wasEvicted()){
+            (body.file != null ? fileEvictionCounter : memoryEvictionCounter).increment();
+            entries.asMap().computeIfPresent(key, (k, entry) -> entry.body == body ? null : entry);
+        }
+    }
+    /**
+     * @date: 2024-12-16 18:13
+     * @description: 移除指定的响应体（只在其仍对应该缓存键时移除）
+     * @Param key:
+     * @Param body:
+     * @return: void
+     */
+    private void removeBody(String key, CachedResponse.Body body){
+        bodiesOf(body).asMap().remove(key, body);
+    }
+    /**
+     * @date: 2024-12-16 18:13
+     * @description: 获取保存该响应体的缓存
+     * @Param body:
+     * @return: com.github.benmanes.caffeine.cache.Cache<java.lang.String,org.wyh.gateway.core.cache.CachedResponse.Body>
+     */
+    private Cache<String, CachedResponse.Body> bodiesOf(CachedResponse.Body body){
+        return body.file != null ? fileBodies : memoryBodies;
+    }
+    /**
+     * @date: 2024-12-16 18:14
+     * @description: 创建内存映射文件的存放目录，并删除上次运行遗留的文件。失败时不使用内存映射文件
+     * @return: boolean
+     */
+    private boolean prepareFileDir(){
+        try{
+            Files.createDirectories(fileDir);
+            deleteBodyFiles();
+            return true;
+        }catch (IOException e){
+            log.error("【响应缓存】无法创建目录: {}，将不使用内存映射文件缓存响应体", fileDir, e);
+            return false;
+        }
+    }
+    /**
+     * @date: 2024-12-16 18:15
+     * @description: 删除目录中所有的响应体文件
+     * @return: void
+     */
+    private void deleteBodyFiles(){
+        try(DirectoryStream<Path> files = Files.newDirectoryStream(fileDir, BODY_FILE_PREFIX + "*")){
+            for (Path file : files) {
+                deleteFile(file);
+            }
+        }catch (IOException e){
+            log.warn("【响应缓存】清理目录: {} 失败: {}", fileDir, e.getMessage());
+        }
+    }
+    /**
+     * @date: 2024-12-16 18:16
+     * @description: 删除响应体文件（已映射的内存在不再使用后由GC回收）
+     * @Param file:
+     * @return: void
+     */
+    private static void deleteFile(Path file){
+        if(file == null){
+            return;
+        }
+        try{
+            Files.deleteIfExists(file);
+        }catch (IOException e){
+            log.warn("【响应缓存】删除文件: {} 失败: {}", file, e.getMessage());
+        }
+    }
+    /**
+     * @date: 2024-12-16 18:17
+     * @description: 根据缓存的响应构建网关响应对象，并添加Age和缓存状态响应头
+     * @Param entry:
+     * @Param now:
+     * @Param cacheStatus:
+     * @return: org.wyh.gateway.core.response.GatewayResponse
+     */
+    private static GatewayResponse buildResponse(CachedResponse entry, long now, String cacheStatus){
+        HttpHeaders headers = new DefaultHttpHeaders().add(entry.headers);
+        headers.set(HttpHeaderNames.AGE, entry.currentAge(now) / 1000);
+        headers.set(CACHE_STATUS_HEADER, cacheStatus);
+        return GatewayResponse.buildGatewayResponse(HttpResponseStatus.valueOf(entry.status), headers,
+                entry.body.content());
+    }
+    /**
+     * @date: 2024-12-16 18:18
+     * @description: 构建304响应（只包含验证器和缓存相关的响应头）
+     * @Param entry:
+     * @return: org.wyh.gateway.core.response.GatewayResponse
+     */
+    private static GatewayResponse buildNotModified(CachedResponse entry){
+        HttpHeaders headers = new DefaultHttpHeaders();
+        for (CharSequence name : new CharSequence[]{HttpHeaderNames.ETAG, HttpHeaderNames.LAST_MODIFIED,
+                HttpHeaderNames.CACHE_CONTROL, HttpHeaderNames.EXPIRES, HttpHeaderNames.VARY,
+                HttpHeaderNames.DATE, HttpHeaderNames.CONTENT_LOCATION}) {
+            List<String> values = entry.headers.getAll(name);
+            if(!values.isEmpty()){
+                headers.set(name, values);
+            }
+        }
+        headers.set(CACHE_STATUS_HEADER, "HIT");
+        return GatewayResponse.buildGatewayResponse(HttpResponseStatus.NOT_MODIFIED, headers, Unpooled.EMPTY_BUFFER);
+    }
+    /**
+     * @date: 2024-12-16 18:20
+     * @description: 判断客户端的条件请求是否可以用缓存的响应直接返回304（If-None-Match优先于If-Modified-Since）
+     * @Param entry:
+     * @Param method:
+     * @Param headers:
+     * @return: boolean
+     */
+    private static boolean isNotModified(CachedResponse entry, HttpMethod method, HttpHeaders headers){
+        if(entry.status != HttpResponseStatus.OK.code() || !HttpMethod.GET.equals(method)){
+            return false;
+        }
+        String ifNoneMatch = headers.get(HttpHeaderNames.IF_NONE_MATCH);
+        if(ifNoneMatch != null){
+            if(entry.etag == null){
+                return false;
+            }
+            String etag = stripWeak(entry.etag);
+            for (String tag : ifNoneMatch.split(",")) {
+                tag = tag.trim();
+                if("*".equals(tag) || stripWeak(tag).equals(etag)){
+                    return true;
+                }
+            }
+            return false;
+        }
+        String ifModifiedSince = headers.get(HttpHeaderNames.IF_MODIFIED_SINCE);
+        if(ifModifiedSince == null || entry.lastModified == null){
+            return false;
+        }
+        Date since = DateFormatter.parseHttpDate(ifModifiedSince);
+        Date lastModified = DateFormatter.parseHttpDate(entry.lastModified);
+        return since != null && lastModified != null && !lastModified.after(since);
+    }
+    /**
+     * @date: 2024-12-16 18:22
+     * @description: 去掉弱验证器的前缀（If-None-Match使用弱比较）
+     * @Param etag:
+     * @return: java.lang.String
+     */
+    private static String stripWeak(String etag){
+        return etag.startsWith("W/") ? etag.substring(2) : etag;
+    }
+    /**
+     * @date: 2024-12-16 18:23
+     * @description: 判断响应是否允许被共享缓存保存。
+                     携带Authorization的请求，只有响应明确允许（public，s-maxage或must-revalidate）时才能保存
+     * @Param lookup:
+     * @Param cacheControl:
+     * @return: boolean
+     */
+    private static boolean isStorable(CacheLookup lookup, Map<String, String> cacheControl){
+        if(cacheControl.containsKey(HttpHeaderValues.NO_STORE.toString())
+                || cacheControl.containsKey(HttpHeaderValues.PRIVATE.toString())){
+            return false;
+        }
+        return !lookup.authorized || cacheControl.containsKey(HttpHeaderValues.PUBLIC.toString())
+                || cacheControl.containsKey(HttpHeaderValues.S_MAXAGE.toString())
+                || cacheControl.containsKey(HttpHeaderValues.MUST_REVALIDATE.toString());
+    }
+    /**
+     * @date: 2024-12-16 18:25
+     * @description: 计算响应的新鲜时间（ms）：规则设置的新鲜时间 > s-maxage > max-age > Expires - Date。
+                     响应要求每次使用前都重新验证（no-cache）时为0
+     * @Param lookup:
+     * @Param cacheControl:
+     * @Param headers:
+     * @Param now:
+     * @return: long
+     */
+    private static long getLifetime(CacheLookup lookup, Map<String, String> cacheControl, HttpHeaders headers, long now){
+        if(cacheControl.containsKey(HttpHeaderValues.NO_CACHE.toString())){
+            return 0;
+        }
+        if(lookup.ttl > 0){
+            return lookup.ttl;
+        }
+        long seconds = parseSeconds(cacheControl.get(HttpHeaderValues.S_MAXAGE.toString()));
+        if(seconds < 0){
+            seconds = parseSeconds(cacheControl.get(HttpHeaderValues.MAX_AGE.toString()));
+        }
+        if(seconds >= 0){
+            return seconds * 1000;
+        }
+        String expires = headers.get(HttpHeaderNames.EXPIRES);
+        if(expires == null){
+            return 0;
+        }
+        //无法解析的Expires（如"0"）表示已过期
+        Date expiresDate = DateFormatter.parseHttpDate(expires);
+        if(expiresDate == null){
+            return 0;
+        }
+        String date = headers.get(HttpHeaderNames.DATE);
+        Date responseDate = date != null ? DateFormatter.parseHttpDate(date) : null;
+        return Math.max(0, expiresDate.getTime() - (responseDate != null ? responseDate.getTime() : now));
+    }
+    /**
+     * @date: 2024-12-16 18:28
+     * @description: 计算响应收到时的年龄（ms）：Age响应头与根据Date计算的年龄中的较大值
+     * @Param headers:
+     * @Param now:
+     * @return: long
+     */
+    private static long getAge(HttpHeaders headers, long now){
+        long age = Math.max(parseSeconds(headers.get(HttpHeaderNames.AGE)), 0) * 1000;
+        String date = headers.get(HttpHeaderNames.DATE);
+        Date responseDate = date != null ? DateFormatter.parseHttpDate(date) : null;
+        if(responseDate != null){
+            age = Math.max(age, now - responseDate.getTime());
+        }
+        return age;
+    }
+    /**
+     * @date: 2024-12-16 18:30
+     * @description: 解析以秒为单位的数值，无法解析时返回-1
+     * @Param value:
+     * @return: long
+     */
+    private static long parseSeconds(String value){
+        if(value == null){
+            return -1;
+        }
+        try{
+            return Long.parseLong(value.trim());
+        }catch (NumberFormatException e){
+            return -1;
+        }
+    }
+    /**
+     * @date: 2024-12-16 18:31
+     * @description: 解析Cache-Control，返回指令（小写）及其参数值（没有参数时为空字符串）
+     * @Param values:
+     * @return: java.util.Map<java.lang.String,java.lang.String>
+     */
+    private static Map<String, String> parseCacheControl(List<String> values){
+        if(values.isEmpty()){
+            return Collections.emptyMap();
+        }
+        Map<String, String> directives = new HashMap<>();
+        for (String value : values) {
+            for (String directive : value.split(",")) {
+                int index = directive.indexOf('=');
+                String name = (index < 0 ? directive : directive.substring(0, index)).trim().toLowerCase();
+                if(name.isEmpty()){
+                    continue;
+                }
+                String argument = index < 0 ? "" : directive.substring(index + 1).trim();
+                if(argument.length() >= 2 && argument.startsWith("\"") && argument.endsWith("\"")){
+                    argument = argument.substring(1, argument.length() - 1);
+                }
+                directives.putIfAbsent(name, argument);
+            }
+        }
+        return directives;
+    }
+    /**
+     * @date: 2024-12-16 18:33
+     * @description: 解析Vary响应头，返回排序后的请求头名称（小写）。Vary为*时返回null，表示无法缓存
+     * @Param headers:
+     * @return: java.lang.String[]
+     */
+    private static String[] parseVary(HttpHeaders headers){
+        List<String> values = headers.getAll(HttpHeaderNames.VARY);
+        if(values.isEmpty()){
+            return new String[0];
+        }
+        String[] names = values.stream()
+                .flatMap(value -> Arrays.stream(value.split(",")))
+                .map(name -> name.trim().toLowerCase())
+                .filter(name -> !name.isEmpty())
+                .distinct()
+                .sorted()
+                .toArray(String[]::new);
+        return Arrays.asList(names).contains("*") ? null : names;
+    }
+    /**
+     * @date: 2024-12-16 18:35
+     * @description: 复制需要缓存的响应头（去掉逐跳的响应头，以及Content-Length，Age等写回时重新设置的响应头）
+     * @Param headers:
+     * @return: io.netty.handler.codec.http.HttpHeaders
+     */
+    private static HttpHeaders copyHeaders(HttpHeaders headers){
+        HttpHeaders copy = new DefaultHttpHeaders().add(headers);
+        for (String connection : headers.getAll(HttpHeaderNames.CONNECTION)) {
+            for (String name : connection.split(",")) {
+                copy.remove(name.trim());
+            }
+        }
+        for (CharSequence name : HOP_BY_HOP_HEADERS) {
+            copy.remove(name);
+        }
+        copy.remove(HttpHeaderNames.CONTENT_LENGTH);
+        copy.remove(HttpHeaderNames.AGE);
+        copy.remove(CACHE_STATUS_HEADER);
+        return copy;
+    }
+    /**
+     * @date: 2024-12-16 18:37
+     * @description: 计算主缓存键：服务，规则，请求方法和uri，以及灰度标记和用户id（网关会将它们传给服务实例）。
+                     POST请求还包括请求体的摘要
+     * @Param ctx:
+     * @return: java.lang.String
+     */
+    private static String getPrimaryKey(GatewayContext ctx){
+        GatewayRequest request = ctx.getRequest();
+        StringBuilder sb = new StringBuilder(128)
+                .append(ctx.getUniqueId()).append('\n')
+                .append(ctx.getRule().getRuleId()).append('\n')
+                .append(request.getMethod()).append(' ')
+                .append(request.getUri());
+        if(Boolean.TRUE.equals(ctx.getAttribute(AttributeKey.GRAY_FLAG))){
+            sb.append("\ngray");
+        }
+        if(request.getUserId() > 0){
+            sb.append("\nuser:").append(request.getUserId());
+        }
+        if(HttpMethod.POST.equals(request.getMethod())){
+            sb.append("\nbody:").append(digest(request));
+        }
+        return sb.toString();
+    }
+    /**
+     * @date: 2024-12-16 18:39
+     * @description: 计算请求体的SHA-256摘要（不改变请求体的读索引）
+     * @Param request:
+     * @return: java.lang.String
+     */
+    private static String digest(GatewayRequest request){
+        try{
+            MessageDigest messageDigest = MessageDigest.getInstance("SHA-256");
+            messageDigest.update(request.getFullHttpRequest().content().nioBuffer());
+            return ByteBufUtil.hexDump(messageDigest.digest());
+        }catch (NoSuchAlgorithmException e){
+            throw new IllegalStateException(e);
+        }
+    }
+    /**
+     * @date: 2024-12-16 18:40
+     * @description: 在主缓存键的基础上，加上Vary指定的请求头的值，得到缓存键
+     * @Param primaryKey:
+     * @Param vary:
+     * @Param headers:
+     * @return: java.lang.String
+     */
+    private static String getKey(String primaryKey, String[] vary, HttpHeaders headers){
+        if(vary.length == 0){
+            return primaryKey;
+        }
+        StringBuilder sb = new StringBuilder(primaryKey);
+        for (String name : vary) {
+            sb.append('\n').append(name).append(':');
+            for (String value : headers.getAll(name)) {
+                sb.append(value).append(',');
+            }
+        }
+        return sb.toString();
+    }
+    /**
+     * @date: 2024-12-16 18:41
+     * @description: 获取响应体缓存的当前总大小
+     * @Param cache:
+     * @return: double
+     */
+    private static double weightedSize(Cache<String, CachedResponse.Body> cache){
+        return cache.policy().eviction()
+                .map(eviction -> eviction.weightedSize().orElse(0))
+                .orElse(0L);
+    }
+}
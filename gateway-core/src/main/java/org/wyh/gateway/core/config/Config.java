@@ -24,6 +24,10 @@ public class Config {
     private String version = "1.0.0";
     //网关服务的端口号
     private int port = 8888;
+    //网关所在的可用区（为空表示不启用按可用区优先的负载均衡）
+    private String zone;
+    //网关所在的地域
+    private String region;
     //提供给Prometheus拉取数据的api接口的端口号
     private int prometheusPort = 17777;
     //提供给Prometheus拉取数据的api接口的路径
@@ -44,13 +48,94 @@ public class Config {
     private int clientWorkerEventLoopGroupNum = Runtime.getRuntime().availableProcessors() / 2 + 1;
     //http报文中数据的最大长度
     private int maxContentLength = 64 * 1024 * 1024;
+    //服务定义变更后，重建全局路由表的延迟（ms）。延迟内的多次变更只重建一次，小于等于0表示每次变更立即重建
+    private int routeTableRebuildDelay = 100;
     /*
      * 单/双异步模式，默认单异步模式。
      * 实际上这里的单/双异步指的是使用whenComplete还是whenCompleteAysnc来处理请求的响应结果
      * 前者使用同一个工作线程来负责发送请求和接收响应
      * 后者使用一个线程负责发送，另一个线程负责接收
+     * 该配置对所有异步过滤器都生效：单异步模式下由完成异步操作的线程恢复过滤器链的执行，双异步模式下由继续点线程池恢复执行
      */
     private boolean whenComplete = true;
+    /*
+     * 以下是异步过滤器的配置参数
+     */
+    //异步过滤器的默认超时时间（毫秒）。异步操作超过该时间仍未完成，就会被取消，并以超时异常的方式结束
+    private int asyncFilterTimeout = 3 * 1000;
+    //异步过滤器执行阻塞式I/O操作（如redis分布式限流）的线程数
+    private int asyncFilterIoThreadCount = Runtime.getRuntime().availableProcessors() * 2;
+    //双异步模式下，异步过滤器完成后负责恢复过滤器链执行的线程数
+    private int asyncFilterContinuationThreadCount = Runtime.getRuntime().availableProcessors() / 2 + 1;
+    //上述两个线程池中等待队列的最大长度
+    private int asyncFilterQueueSize = 16 * 1024;
+    /*
+     * 以下是负载均衡的配置参数
+     */
+    //Peak EWMA负载均衡中延迟统计值的衰减时间常数（毫秒）。值越小，历史延迟被遗忘得越快
+    private int loadBalanceEwmaDecayTime = 10 * 1000;
+    /*
+     * 以下是异常实例检测（被动健康检查）的配置参数
+     */
+    //是否启用异常实例检测
+    private boolean outlierDetectionEnabled = true;
+    //异常实例检测的统计周期（毫秒）。每个周期结束时，根据该周期内的统计数据检测异常实例，并恢复摘除时间已到的实例
+    private int outlierDetectionInterval = 1000;
+    //连续失败多少次后摘除实例（连续失败会在请求结束时立即检测，不等待统计周期结束）
+    private int outlierConsecutiveFailures = 5;
+    //统计周期内的失败率（百分比）超过该值时摘除实例
+    private int outlierFailureRateThreshold = 50;
+    //统计周期内的请求数达到该值时，才根据失败率判断实例是否异常
+    private int outlierMinRequestVolume = 20;
+    //实例的延迟统计值超过同组实例延迟中位数的多少倍时摘除实例（小于等于0表示不检测延迟）
+    private double outlierLatencyFactor = 3.0;
+    //实例的基础摘除时间（毫秒）。同一实例被连续摘除时，摘除时间按指数增长
+    private int outlierBaseEjectionTime = 30 * 1000;
+    //实例的最大摘除时间（毫秒）
+    private int outlierMaxEjectionTime = 300 * 1000;
+    //同一实例分组中被摘除实例的最大比例（百分比），保证始终有足够的实例可用
+    private int outlierMaxEjectionPercent = 50;
+    //被摘除的实例恢复后的慢启动时间（毫秒），期间其权重从很小的值线性增加到标准权重
+    private int outlierSlowStartWindow = 30 * 1000;
+    //是否启用主动健康检查（默认关闭，此时实例的存活状态只取决于注册中心）
+    private boolean healthCheckEnabled = false;
+    //主动健康检查的方式：http（请求指定路径，响应状态码小于400视为健康）或tcp（能够建立连接视为健康）
+    private String healthCheckType = "http";
+    //http方式健康检查请求的路径
+    private String healthCheckPath = "/health";
+    //主动健康检查的周期（毫秒）。每个周期内，各实例的检查时间在周期内随机分散
+    private int healthCheckInterval = 5 * 1000;
+    //单次健康检查的超时时间（毫秒）
+    private int healthCheckTimeout = 1000;
+    //不健康的实例连续检查成功多少次后恢复为健康
+    private int healthCheckHealthyThreshold = 2;
+    //健康的实例连续检查失败多少次后标记为不健康
+    private int healthCheckUnhealthyThreshold = 3;
+    //同一服务同时进行的健康检查的最大数量
+    private int healthCheckMaxConcurrency = 8;
+    //按可用区优先的负载均衡的超额系数：某一层级的可用实例比例乘以该系数后，即为该层级承担的流量比例（最大为1），
+    //不足的部分溢出到下一层级（同地域的其他可用区，再到其他地域）。例如系数为1.4时，本可用区的实例可用比例低于约71%才开始溢出
+    private double localityOverprovisioningFactor = 1.4;
+    //对冲请求的全局预算：对冲请求的数量最多为可对冲请求数量的百分之几
+    private int hedgeBudgetPercent = 5;
+    //对冲预算最多可以累积多少次对冲请求（允许短时间的突发）
+    private int hedgeBudgetBurst = 100;
+    //每个网关节点访问的每个服务的实例子集的最小规模（小于等于0表示不启用子集划分，网关节点访问服务的所有实例）
+    private int subsetSize = 0;
+    //是否根据服务实例上报的负载调整实例的权重（默认关闭）
+    private boolean loadReportEnabled = false;
+    //服务实例上报负载所用的响应头，值为0~1之间的利用率（由服务实例根据CPU，队列长度/容量等自行换算）
+    private String loadReportHeader = "X-Load-Report";
+    //实例利用率统计值的衰减时间常数（毫秒）
+    private int loadReportDecayTime = 10 * 1000;
+    //负载上报的有效期（毫秒），超过该时间没有新的上报时，实例恢复为标准权重
+    private int loadReportExpireTime = 30 * 1000;
+    //根据负载上报重新计算实例权重的周期（毫秒）
+    private int loadReportUpdateInterval = 1000;
+    //根据负载调整后的权重相对于标准权重的最小比例
+    private double loadReportMinWeightFactor = 0.1;
+    //根据负载调整后的权重相对于标准权重的最大比例
+    private double loadReportMaxWeightFactor = 2.0;
 
     /*
      * 以下是AsyncHttpClient的配置参数
@@ -67,6 +152,46 @@ public class Config {
     private int httpConnectionsPerHost = 8000;
     //空闲连接超时时间（AsyncHttpClient连接池中的连接在空闲状态下可以保持多长时间）
     private int httpPooledConnectionIdleTimeout = 60 * 1000;
+    //发现新的服务实例时，预先与其建立的连接数（小于等于0表示不预先建立连接）
+    private int httpPreconnectCount = 0;
+    //每个服务实例至少保持的空闲连接数（小于等于0表示不维护空闲连接）
+    private int httpMinIdleConnections = 0;
+    //检查各服务实例空闲连接数的周期（毫秒）
+    private int httpPoolMaintenanceInterval = 5 * 1000;
+    //预先建立连接时发送的HEAD请求的路径（只用于建立连接，响应内容和状态码会被忽略）
+    private String httpWarmUpPath = "/";
+    /*
+     * 以下是HTTP/2上游客户端的配置参数（只用于协议为h2c或h2的服务）
+     */
+    //与每个服务实例建立的HTTP/2连接的最大数量
+    private int http2MaxConnectionsPerInstance = 2;
+    //每个HTTP/2连接上同时进行的请求（流）的最大数量，实际值还会受到服务实例通告的限制
+    private int http2MaxConcurrentStreams = 256;
+    //HTTP/2连接和流的初始接收窗口大小（字节）
+    private int http2InitialWindowSize = 1024 * 1024;
+    //所有连接都达到流数量上限时，每个服务实例最多可以排队等待的请求数
+    private int http2MaxPendingRequests = 1024;
+    /*
+     * 以下是原生上游客户端的配置参数
+     */
+    //是否启用原生上游客户端。启用后，网关客户端与服务端共用worker eventLoopGroup，
+    //协议为http的请求直接在接收该请求的EventLoop上与服务实例通信，不再经过AsyncHttpClient
+    private boolean nativeHttpClientEnabled = false;
+    /*
+     * 以下是响应缓存的配置参数（只对启用了响应缓存过滤器的规则生效）
+     */
+    //缓存的响应的最大数量（元数据，不包括响应体）
+    private int responseCacheMaxEntries = 10000;
+    //堆内存中缓存的响应体的总大小上限（字节）
+    private long responseCacheMaxBytes = 64L * 1024 * 1024;
+    //可以缓存的单个响应体的最大大小（字节）
+    private int responseCacheMaxBodySize = 8 * 1024 * 1024;
+    //响应体大小达到该值时，存放在内存映射文件中（需要同时设置文件的总大小上限）
+    private int responseCacheFileThreshold = 1024 * 1024;
+    //内存映射文件中缓存的响应体的总大小上限（字节），小于等于0表示不使用内存映射文件
+    private long responseCacheFileMaxBytes = 0;
+    //内存映射文件的存放目录
+    private String responseCacheFileDir = System.getProperty("java.io.tmpdir") + "/gateway-response-cache";
     /*
      * 以下是（流量控制组件中使用到的）redis的配置参数
      */
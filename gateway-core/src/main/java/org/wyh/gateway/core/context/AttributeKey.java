@@ -1,12 +1,15 @@
 package org.wyh.gateway.core.context;
 
 import io.micrometer.core.instrument.Timer;
+import org.wyh.gateway.common.config.InstanceGroup;
 import org.wyh.gateway.common.config.ServiceInstance;
 import org.wyh.gateway.common.config.ServiceInvoker;
+import org.wyh.gateway.core.cache.CacheLookup;
+import org.wyh.gateway.core.instance.InstanceStats;
+import org.wyh.gateway.core.route.RouteMatch;
 
 import java.util.HashMap;
 import java.util.Map;
-import java.util.Set;
 
 /**
  * @BelongsProject: api-gateway-server
@@ -24,23 +27,44 @@ import java.util.Set;
 public abstract class AttributeKey<T> {
     //保存预定义好（即已经命名好）的AttributeKey对象。其中，key是AttributeKey的名称。
     private static Map<String, AttributeKey<?>> namedMap = new HashMap<>();
-    //表示“匹配的服务实例集合”参数的key
-    public static final AttributeKey<Set<ServiceInstance>> MATCHED_INSTANCES = create(Set.class);
+    //表示“匹配的服务实例分组”参数的key
+    public static final AttributeKey<InstanceGroup> MATCHED_INSTANCES = create(InstanceGroup.class);
+    //表示“服务实例快照中的实例分组”参数的key（未经过子集划分和可选实例过滤）
+    public static final AttributeKey<InstanceGroup> SNAPSHOT_INSTANCES = create(InstanceGroup.class);
+    //表示“一致性哈希负载均衡的哈希键”参数的key
+    public static final AttributeKey<String> HASH_KEY = create(String.class);
+    //表示“负载均衡选择的位置层级”参数的key（0表示本可用区，层级越大距离越远）
+    public static final AttributeKey<Integer> LOCALITY_TIER = create(Integer.class);
     //表示“负载均衡选中的服务实例”参数的key
     public static final AttributeKey<ServiceInstance> SELECTED_INSTANCE = create(ServiceInstance.class);
+    //表示“请求正在访问的服务实例的统计信息”参数的key（请求结束时会被清空）
+    public static final AttributeKey<InstanceStats> INSTANCE_STATS = create(InstanceStats.class);
+    //表示“请求发往服务实例的时间（System.nanoTime）”参数的key
+    public static final AttributeKey<Long> UPSTREAM_START_TIME = create(Long.class);
     //表示“http方法调用”参数的key
     public static final AttributeKey<ServiceInvoker> HTTP_INVOKER = create(ServiceInvoker.class);
+    //表示“路由匹配结果”参数的key（其中包含了请求路径中捕获的路径变量）
+    public static final AttributeKey<RouteMatch<ServiceInvoker>> ROUTE_MATCH = create(RouteMatch.class);
     //表示”Prometheus Timer.Sample数据采集器实例“参数的key
     public static final AttributeKey<Timer.Sample> PROMETHEUS_TIMER_SAMPLE = create(Timer.Sample.class);
     //表示”灰度标记“参数的key
     public static final AttributeKey<Boolean> GRAY_FLAG = create(Boolean.class);
+    //表示“响应缓存的查找结果”参数的key（缓存未命中或需要重新验证时设置，用于在收到响应后更新缓存）
+    public static final AttributeKey<CacheLookup> CACHE_LOOKUP = create(CacheLookup.class);
     //静态代码块，用于将预定义好的AttributeKey对象及其名称放入namedMap集合中
     static{
         namedMap.put("MATCHED_INSTANCES", MATCHED_INSTANCES);
+        namedMap.put("SNAPSHOT_INSTANCES", SNAPSHOT_INSTANCES);
+        namedMap.put("HASH_KEY", HASH_KEY);
+        namedMap.put("LOCALITY_TIER", LOCALITY_TIER);
         namedMap.put("SELECTED_INSTANCE", SELECTED_INSTANCE);
+        namedMap.put("INSTANCE_STATS", INSTANCE_STATS);
+        namedMap.put("UPSTREAM_START_TIME", UPSTREAM_START_TIME);
         namedMap.put("HTTP_INVOKER", HTTP_INVOKER);
+        namedMap.put("ROUTE_MATCH", ROUTE_MATCH);
         namedMap.put("PROMETHEUS_TIMER_SAMPLE", PROMETHEUS_TIMER_SAMPLE);
         namedMap.put("GRAY_FLAG", GRAY_FLAG);
+        namedMap.put("CACHE_LOOKUP", CACHE_LOOKUP);
     }
     /**
      * @BelongsProject: api-gateway-server
@@ -50,20 +74,24 @@ public abstract class AttributeKey<T> {
      * @Description: 静态内部类，用于实现AttributeKey抽象类。
      */
     public static class SimpleAttributeKey<T> extends AttributeKey<T>{
-        //参数value的类型的class对象
-        private Class<T> valueClass;
+        //参数value的类型的class对象（对于泛型类型，是其原始类型的class对象）
+        private final Class<? super T> valueClass;
         /**
          * @date: 2024-05-14 9:48
          * @description: 有参构造器
          * @Param valueClass:
          * @return: null
          */
-        SimpleAttributeKey(Class<T> valueClass) {
+        SimpleAttributeKey(Class<? super T> valueClass) {
             this.valueClass = valueClass;
         }
+        /*
+         * 运行时只能检查原始类型，泛型参数由AttributeKey<T>的声明保证（参数只能通过setAttribute(AttributeKey<T>, T)设置）
+         */
         @Override
+        @SuppressWarnings("unchecked")
         public T cast(Object value) {
-            return valueClass.cast(value);
+            return (T) valueClass.cast(value);
         }
     }
     /**
@@ -89,6 +117,6 @@ public abstract class AttributeKey<T> {
      * @return: org.wyh.gateway.core.context.AttributeKey<T>
      */
     public static <T> AttributeKey<T> create(Class<? super T> valueClass){
-        return new SimpleAttributeKey(valueClass);
+        return new SimpleAttributeKey<>(valueClass);
     }
 }
@@ -2,6 +2,7 @@ package org.wyh.gateway.core.context;
 
 import io.netty.channel.ChannelHandlerContext;
 import org.wyh.gateway.common.config.Rule;
+import org.wyh.gateway.common.enumeration.ResponseCode;
 
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -30,6 +31,8 @@ public abstract class BasicContext implements IContext{
     protected final Map<AttributeKey<?>, Object> attributes = new HashMap<>();
     //异常
     protected Throwable throwable;
+    //拒绝该请求时使用的响应码（为null表示请求未被拒绝）
+    protected volatile ResponseCode rejectCode;
     //长连接标识
     protected final boolean keepAlive;
     //请求资源释放标识
@@ -109,6 +112,23 @@ public abstract class BasicContext implements IContext{
         return this.throwable;
     }
 
+    @Override
+    public void reject(ResponseCode responseCode) {
+        this.rejectCode = responseCode;
+        //请求被拒绝，（正常）过滤器链执行结束
+        this.status = IContext.TERMINATED;
+    }
+
+    @Override
+    public boolean isRejected() {
+        return this.rejectCode != null;
+    }
+
+    @Override
+    public ResponseCode getRejectCode() {
+        return this.rejectCode;
+    }
+
     @Override
     public <T> void setAttribute(AttributeKey<T> key, T value) {
         this.attributes.put(key, value);
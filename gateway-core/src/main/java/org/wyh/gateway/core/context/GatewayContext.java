@@ -7,6 +7,8 @@ import io.netty.util.ReferenceCountUtil;
 import lombok.Getter;
 import lombok.Setter;
 import org.wyh.gateway.common.config.Rule;
+import org.wyh.gateway.core.filter.common.CompiledRule;
+import org.wyh.gateway.core.filter.common.GatewayFilterChain;
 import org.wyh.gateway.common.utils.AssertUtil;
 import org.wyh.gateway.core.request.GatewayRequest;
 import org.wyh.gateway.core.response.GatewayResponse;
@@ -23,9 +25,11 @@ public class GatewayContext extends BasicContext{
     private final GatewayRequest gatewayRequest;
     //网关响应对象
     private GatewayResponse gatewayResponse;
-    //规则对象
-    private final Rule rule;
-
+    //（编译后的）规则对象
+    private final CompiledRule compiledRule;
+    //过滤器链的继续点：暂停执行时所在的过滤器链，以及异步过滤器在其中的位置
+    private GatewayFilterChain filterChain;
+    private int filterIndex;
 
     /**
      * @date: 2024-01-11 15:11
@@ -34,14 +38,14 @@ public class GatewayContext extends BasicContext{
      * @Param nettyCtx:
      * @Param keepAlive:
      * @Param gatewayRequest:
-     * @Param rule:
+     * @Param compiledRule:
      * @return: null
      */
     public GatewayContext(String protocol, ChannelHandlerContext nettyCtx, boolean keepAlive,
-                          GatewayRequest gatewayRequest, Rule rule) {
+                          GatewayRequest gatewayRequest, CompiledRule compiledRule) {
         super(protocol, nettyCtx, keepAlive);
         this.gatewayRequest = gatewayRequest;
-        this.rule = rule;
+        this.compiledRule = compiledRule;
     }
     /**
      * @BelongsProject: my-api-gateway
@@ -59,8 +63,8 @@ public class GatewayContext extends BasicContext{
         private boolean keepAlive;
         //网关请求
         private GatewayRequest gatewayRequest;
-        //规则
-        private Rule rule;
+        //（编译后的）规则
+        private CompiledRule compiledRule;
         /**
          * @date: 2024-01-11 15:45
          * @description: 无参构造器
@@ -111,12 +115,12 @@ public class GatewayContext extends BasicContext{
         }
         /**
          * @date: 2024-01-11 15:49
-         * @description: 设置rule属性。返回对象本身，因此可以使用链式编程。
-         * @Param rule:
+         * @description: 设置compiledRule属性。返回对象本身，因此可以使用链式编程。
+         * @Param compiledRule:
          * @return: org.wyh.core.context.GatewayContext.Builder
          */
-        public Builder setRule(Rule rule) {
-            this.rule = rule;
+        public Builder setCompiledRule(CompiledRule compiledRule) {
+            this.compiledRule = compiledRule;
             return this;
         }
         /**
@@ -129,8 +133,8 @@ public class GatewayContext extends BasicContext{
             AssertUtil.notNull(protocol, "protocol不能为空");
             AssertUtil.notNull(nettyCtx, "nettyCtx不能为空");
             AssertUtil.notNull(gatewayRequest, "request不能为空");
-            AssertUtil.notNull(rule, "rule不能为空");
-            return new GatewayContext(protocol, nettyCtx, keepAlive, gatewayRequest, rule);
+            AssertUtil.notNull(compiledRule, "rule不能为空");
+            return new GatewayContext(protocol, nettyCtx, keepAlive, gatewayRequest, compiledRule);
         }
     }
     /**
@@ -161,7 +165,7 @@ public class GatewayContext extends BasicContext{
      * @return: org.wyh.common.config.Rule.FilterConfig
      */
     public Rule.FilterConfig getFilterConfig(String configId){
-        return rule.getFilterConfig(configId);
+        return compiledRule.getRule().getFilterConfig(configId);
     }
     /**
      * @date: 2024-02-21 14:43
@@ -196,6 +200,41 @@ public class GatewayContext extends BasicContext{
     }
     @Override
     public Rule getRule() {
-        return rule;
+        return compiledRule.getRule();
+    }
+    /**
+     * @date: 2024-12-03 11:40
+     * @description: 获取编译后的规则对象，其中包含该请求要执行的过滤器链
+     * @return: org.wyh.gateway.core.filter.common.CompiledRule
+     */
+    public CompiledRule getCompiledRule() {
+        return compiledRule;
+    }
+    /**
+     * @date: 2024-12-03 11:42
+     * @description: 记录过滤器链的继续点（由过滤器链在执行异步过滤器之前调用）
+     * @Param filterChain: 当前执行的过滤器链
+     * @Param filterIndex: 异步过滤器在过滤器链中的位置
+     * @return: void
+     */
+    public void setFilterChainCursor(GatewayFilterChain filterChain, int filterIndex) {
+        this.filterChain = filterChain;
+        this.filterIndex = filterIndex;
+    }
+    /**
+     * @date: 2024-12-03 11:43
+     * @description: 获取继续点所在的过滤器链
+     * @return: org.wyh.gateway.core.filter.common.GatewayFilterChain
+     */
+    public GatewayFilterChain getFilterChain() {
+        return filterChain;
+    }
+    /**
+     * @date: 2024-12-03 11:43
+     * @description: 获取继续点对应的异步过滤器在过滤器链中的位置
+     * @return: int
+     */
+    public int getFilterIndex() {
+        return filterIndex;
     }
 }
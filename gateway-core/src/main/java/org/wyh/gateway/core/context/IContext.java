@@ -3,6 +3,7 @@ package org.wyh.gateway.core.context;
 
 import io.netty.channel.ChannelHandlerContext;
 import org.wyh.gateway.common.config.Rule;
+import org.wyh.gateway.common.enumeration.ResponseCode;
 
 import java.util.function.Consumer;
 
@@ -27,7 +28,7 @@ public interface IContext {
     /*
      * 表示网关对该次请求的过滤处理链已经完全结束
      * 注意，网关会先写回响应，再执行后置过滤器，所以在写回响应后，过滤器链的执行并没有结束。
-     * 此外，若前置或路由过滤器执行出现异常，会先将状态设置为terminated，表示正常过滤器链的执行已经结束。
+     * 此外，若前置或路由过滤器执行出现异常（或请求被拒绝），会先将状态设置为terminated，表示正常过滤器链的执行已经结束。
      * 然后再将其设置为running，表示开始执行异常过滤器链
      */
     int TERMINATED = -1;
@@ -87,6 +88,27 @@ public interface IContext {
      * @return: java.lang.Throwable
      */
     Throwable getThrowable();
+    /**
+     * @date: 2024-12-02 10:15
+     * @description: 拒绝该请求，并结束正常过滤器链的执行（将上下文状态设置为terminated）
+                     限流，用户未登录，服务实例不存在等属于预期内的结果，过滤器应使用该方法来标识，而不是抛出异常。
+                     异常只保留给真正的程序错误，因为异常的构建（尤其是异常栈）开销较大。
+     * @Param responseCode: 拒绝该请求时，需要写回的响应码
+     * @return: void
+     */
+    void reject(ResponseCode responseCode);
+    /**
+     * @date: 2024-12-02 10:16
+     * @description: 判断该请求是否已经被拒绝
+     * @return: boolean
+     */
+    boolean isRejected();
+    /**
+     * @date: 2024-12-02 10:16
+     * @description: 获取拒绝该请求时使用的响应码
+     * @return: org.wyh.gateway.common.enumeration.ResponseCode
+     */
+    ResponseCode getRejectCode();
     /**
      * @date: 2024-01-08 10:00
      * @description: 设置上下文参数
@@ -0,0 +1,134 @@
+package org.wyh.gateway.core.filter.common;
+
+import lombok.extern.slf4j.Slf4j;
+import org.wyh.gateway.core.config.ConfigLoader;
+import org.wyh.gateway.core.context.GatewayContext;
+import org.wyh.gateway.core.filter.common.chainfactory.GatewayFilterChainFactory;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+/**
+ * @BelongsProject: api-gateway-server
+ * @BelongsPackage: org.wyh.gateway.core.filter.common
+ * @Author: wyh
+ * @Date: 2024-12-05 10:00
+ * @Description: 异步网关过滤器的抽象类。需要执行I/O操作的过滤器（如redis分布式限流，服务调用等）应当继承该类。
+                 具体过滤器只需在doFilterAsync方法中发起异步操作，并返回表示该操作的CompletableFuture，
+                 然后在onComplete方法中根据异步操作的结果更新上下文，不需要关心过滤器链的暂停和恢复。
+                 该类负责给异步操作设置超时时间，并在异步操作完成（或超时）后，在选定的执行器上调用onComplete方法，
+                 最后从下一个过滤器开始恢复过滤器链的执行。
+                 注意：超时后，返回的future会以TimeoutException的方式提前结束，
+                 因此发起异步操作时，应当将future的提前结束传递给底层操作（即取消底层操作），
+                 AsyncHttpHelper和AsyncFilterExecutor返回的future均已实现了这一点。
+ */
+@Slf4j
+public abstract class AbstractAsyncGatewayFilter<C> extends AbstractGatewayFilter<C> {
+    /**
+     * @date: 2024-12-05 10:05
+     * @description: 有参构造器。负责属性初始化，并指定/实例化泛型参数。
+     * @Param filterConfigClass: 具体过滤器的配置类的Class对象
+     * @return: null
+     */
+    public AbstractAsyncGatewayFilter(Class<C> filterConfigClass){
+        super(filterConfigClass);
+    }
+
+    @Override
+    public final boolean isAsync() {
+        return true;
+    }
+
+    @Override
+    public final void doFilter(GatewayContext ctx, Object... args) throws Throwable {
+        //args[0]其实就是该过滤器的配置类实例
+        C filterConfig = filterConfigClass.cast(args[0]);
+        //发起异步操作（发起阶段的异常会直接抛给过滤器链，由其执行异常过滤器链）
+        CompletableFuture<?> future = doFilterAsync(ctx, filterConfig);
+        //给异步操作设置超时时间，超时后future会以TimeoutException的方式提前结束
+        long timeout = getTimeout(ctx, filterConfig);
+        if(timeout > 0 && !future.isDone()){
+            future.orTimeout(timeout, TimeUnit.MILLISECONDS);
+        }
+        //异步操作完成后，处理其结果，并从下一个过滤器开始恢复过滤器链的执行
+        BiConsumer<Object, Throwable> continuation = (result, throwable) -> {
+            Throwable error = null;
+            try{
+                onComplete(ctx, filterConfig, result, unwrap(throwable));
+            }catch (Throwable t){
+                //过滤器执行过程出现异常，（正常）过滤器链执行结束，将上下文状态设置为terminated
+                ctx.setTerminated();
+                log.error("异步过滤器: {} 处理异步操作结果时出现异常: {}", filterAnnotation.id(), t.getMessage());
+                error = t;
+            }
+            GatewayFilterChainFactory.getInstance().resumeFilterChain(ctx, error);
+        };
+        Executor executor = getContinuationExecutor();
+        /*
+         * 若异步操作已经完成（例如结果直接命中了本地缓存），则直接在当前线程中继续执行，避免线程切换的开销
+         * 否则，单异步模式下由完成异步操作的线程继续执行，双异步模式下由继续点线程池继续执行
+         */
+        if(future.isDone() || executor == null){
+            future.whenComplete(continuation);
+        }else{
+            future.whenCompleteAsync(continuation, executor);
+        }
+    }
+    /**
+     * @date: 2024-12-05 10:10
+     * @description: 发起异步操作，并返回表示该操作的CompletableFuture。该方法不应阻塞当前线程。
+                     若结果已经可以同步得到，则直接返回已完成的future即可。
+     * @Param ctx:
+     * @Param filterConfig: 该过滤器的配置类实例
+     * @return: java.util.concurrent.CompletableFuture<?>
+     */
+    protected abstract CompletableFuture<?> doFilterAsync(GatewayContext ctx, C filterConfig) throws Throwable;
+    /**
+     * @date: 2024-12-05 10:12
+     * @description: 异步操作完成（或超时）后调用，负责根据异步操作的结果更新上下文（例如设置响应，或拒绝请求）
+                     该方法抛出的异常会交由异常过滤器链处理
+     * @Param ctx:
+     * @Param filterConfig:
+     * @Param result: 异步操作的结果。若异步操作失败，则为null
+     * @Param throwable: 异步操作的异常（已去掉CompletionException的包装）。若异步操作成功，则为null
+     * @return: void
+     */
+    protected abstract void onComplete(GatewayContext ctx, C filterConfig, Object result, Throwable throwable) throws Throwable;
+    /**
+     * @date: 2024-12-05 10:15
+     * @description: 获取异步操作的超时时间（毫秒），小于等于0表示不设置超时时间。子类可以重写该方法。
+     * @Param ctx:
+     * @Param filterConfig:
+     * @return: long
+     */
+    protected long getTimeout(GatewayContext ctx, C filterConfig){
+        return ConfigLoader.getConfig().getAsyncFilterTimeout();
+    }
+    /**
+     * @date: 2024-12-05 10:16
+     * @description: 获取恢复过滤器链执行的执行器。
+                     单异步模式下返回null，即由完成异步操作的线程继续执行；双异步模式下返回继续点线程池
+     * @return: java.util.concurrent.Executor
+     */
+    protected Executor getContinuationExecutor(){
+        if(ConfigLoader.getConfig().isWhenComplete()){
+            return null;
+        }
+        return AsyncFilterExecutor.getInstance().getContinuationExecutor();
+    }
+    /**
+     * @date: 2024-12-05 10:18
+     * @description: 去掉CompletionException的包装，获取原始异常
+     * @Param throwable:
+     * @return: java.lang.Throwable
+     */
+    private static Throwable unwrap(Throwable throwable){
+        if(throwable instanceof CompletionException && throwable.getCause() != null){
+            return throwable.getCause();
+        }
+        return throwable;
+    }
+}
@@ -0,0 +1,119 @@
+package org.wyh.gateway.core.filter.common;
+
+import io.netty.util.concurrent.DefaultThreadFactory;
+import org.wyh.gateway.core.config.Config;
+import org.wyh.gateway.core.config.ConfigLoader;
+
+import java.util.concurrent.*;
+
+/**
+ * @BelongsProject: api-gateway-server
+ * @BelongsPackage: org.wyh.gateway.core.filter.common
+ * @Author: wyh
+ * @Date: 2024-12-05 9:10
+ * @Description: 异步过滤器使用的执行器，其中包含两个线程池：
+                 I/O线程池，负责执行异步过滤器中无法避免的阻塞式I/O操作（如redis分布式限流），避免阻塞disruptor消费者线程；
+                 继续点线程池，在双异步模式下，负责在异步操作完成后恢复过滤器链的执行。
+ */
+public class AsyncFilterExecutor {
+    //执行阻塞式I/O操作的线程池
+    private final ExecutorService ioExecutor;
+    //恢复过滤器链执行的线程池
+    private final ExecutorService continuationExecutor;
+    /**
+     * @BelongsProject: api-gateway-server
+     * @BelongsPackage: org.wyh.gateway.core.filter.common
+     * @Author: wyh
+     * @Date: 2024-12-05 9:12
+     * @Description: 静态内部类，用于实现单例模式
+     */
+    private static class SingletonHolder {
+        private static final AsyncFilterExecutor INSTANCE = new AsyncFilterExecutor();
+    }
+    /**
+     * @date: 2024-12-05 9:13
+     * @description: private修饰的无参构造器，负责根据配置信息创建两个线程池
+     * @return: null
+     */
+    private AsyncFilterExecutor(){
+        Config config = ConfigLoader.getConfig();
+        this.ioExecutor = newFixedThreadPool(config.getAsyncFilterIoThreadCount(),
+                config.getAsyncFilterQueueSize(), "async-filter-io", new ThreadPoolExecutor.AbortPolicy());
+        /*
+         * 继续点线程池的任务不能被丢弃，否则过滤器链将永远无法恢复执行，
+         * 所以队列满时，由提交任务的线程（也就是完成异步操作的线程）直接恢复过滤器链的执行
+         */
+        this.continuationExecutor = newFixedThreadPool(config.getAsyncFilterContinuationThreadCount(),
+                config.getAsyncFilterQueueSize(), "async-filter-continuation", new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+    /**
+     * @date: 2024-12-05 9:15
+     * @description: 获取该类的唯一实例
+     * @return: org.wyh.gateway.core.filter.common.AsyncFilterExecutor
+     */
+    public static AsyncFilterExecutor getInstance(){
+        return SingletonHolder.INSTANCE;
+    }
+    /**
+     * @date: 2024-12-05 9:16
+     * @description: 创建固定线程数，且等待队列有界的线程池
+     * @Param threadCount:
+     * @Param queueSize:
+     * @Param threadNamePrefix:
+     * @Param handler: 队列满时的拒绝策略
+     * @return: java.util.concurrent.ExecutorService
+     */
+    private static ExecutorService newFixedThreadPool(int threadCount, int queueSize, String threadNamePrefix,
+                                                      RejectedExecutionHandler handler){
+        return new ThreadPoolExecutor(threadCount, threadCount, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(queueSize), new DefaultThreadFactory(threadNamePrefix, true), handler);
+    }
+    /**
+     * @date: 2024-12-05 9:20
+     * @description: 在I/O线程池中执行指定的阻塞式操作，并返回表示该操作的CompletableFuture。
+                     若该future被提前结束（超时或取消），则会取消对应的任务：未开始的任务不再执行，正在执行的任务会被中断
+     * @Param task:
+     * @return: java.util.concurrent.CompletableFuture<T>
+     */
+    public <T> CompletableFuture<T> submit(Callable<T> task){
+        CompletableFuture<T> future = new CompletableFuture<>();
+        Future<?> taskFuture;
+        try{
+            taskFuture = ioExecutor.submit(() -> {
+                try{
+                    future.complete(task.call());
+                }catch (Throwable t){
+                    future.completeExceptionally(t);
+                }
+            });
+        }catch (RejectedExecutionException e){
+            //I/O线程池已满，直接以异常的方式结束该异步操作
+            future.completeExceptionally(e);
+            return future;
+        }
+        //将future的提前结束传递给对应的任务
+        future.whenComplete((result, throwable) -> {
+            if(throwable != null && !taskFuture.isDone()){
+                taskFuture.cancel(true);
+            }
+        });
+        return future;
+    }
+    /**
+     * @date: 2024-12-05 9:25
+     * @description: 获取恢复过滤器链执行的线程池
+     * @return: java.util.concurrent.Executor
+     */
+    public Executor getContinuationExecutor(){
+        return continuationExecutor;
+    }
+    /**
+     * @date: 2024-12-05 9:26
+     * @description: 关闭两个线程池
+     * @return: void
+     */
+    public void shutdown(){
+        ioExecutor.shutdown();
+        continuationExecutor.shutdown();
+    }
+}
@@ -0,0 +1,46 @@
+package org.wyh.gateway.core.filter.common;
+
+import lombok.Getter;
+import org.wyh.gateway.common.config.Rule;
+
+/**
+ * @BelongsProject: api-gateway-server
+ * @BelongsPackage: org.wyh.gateway.core.filter.common
+ * @Author: wyh
+ * @Date: 2024-12-03 10:20
+ * @Description: 编译后的规则（不可变）。
+                 规则发布时，过滤器链工厂会根据规则中启用的过滤器，预先编译出该规则对应的正常过滤器链和异常过滤器链。
+                 这样一来，请求处理时就不再需要逐个检查过滤器是否启用，也不需要再去规则中查找过滤器的配置信息。
+                 规则变更时，会重新编译出一个新的实例，而不是修改原有实例。
+ */
+@Getter
+public class CompiledRule {
+    //原始的规则对象
+    private final Rule rule;
+    //正常情况下的过滤器链，由该规则启用的pre，route和post过滤器依次构成
+    private final GatewayFilterChain defaultFilterChain;
+    //异常情况下的过滤器链，由该规则启用的error和post过滤器依次构成
+    private final GatewayFilterChain errorFilterChain;
+    /**
+     * @date: 2024-12-03 10:24
+     * @description: 有参构造器
+     * @Param rule:
+     * @Param defaultFilterChain:
+     * @Param errorFilterChain:
+     * @return: null
+     */
+    public CompiledRule(Rule rule, GatewayFilterChain defaultFilterChain, GatewayFilterChain errorFilterChain) {
+        this.rule = rule;
+        this.defaultFilterChain = defaultFilterChain;
+        this.errorFilterChain = errorFilterChain;
+    }
+    /**
+     * @date: 2024-12-03 10:26
+     * @description: 判断该规则是否启用了指定id的过滤器
+     * @Param filterId:
+     * @return: boolean
+     */
+    public boolean containsFilter(String filterId){
+        return defaultFilterChain.containsFilter(filterId) || errorFilterChain.containsFilter(filterId);
+    }
+}
@@ -1,5 +1,6 @@
 package org.wyh.gateway.core.filter.common;
 
+import org.wyh.gateway.common.config.Rule;
 import org.wyh.gateway.core.context.GatewayContext;
 
 /**
@@ -11,20 +12,23 @@ import org.wyh.gateway.core.context.GatewayContext;
                  注意，方法中的args参数实际上存放的是过滤器组件的配置类实例
  */
 public interface Filter{
-    /**
-     * @date: 2024-05-14 15:43
-     * @description: 校验/检查是否应该执行该过滤器组件
-     * @Param ctx:
-     * @return: boolean
-     */
-    boolean check(GatewayContext ctx) throws Throwable;
     /**
      * @date: 2024-05-14 15:49
      * @description: 执行过滤器，对指定内容进行过滤处理。（核心过滤逻辑其实是调用doFilter方法完成的）
+                     是否执行该过滤器，已经在编译规则对应的过滤器链时确定，所以不再需要check方法
      * @Param ctx:
+     * @Param filterConfig: 该过滤器的配置类实例（在编译规则时就已解析完成）
      * @return: void
      */
-    void filter(GatewayContext ctx) throws Throwable;
+    void filter(GatewayContext ctx, Object filterConfig) throws Throwable;
+    /**
+     * @date: 2024-12-04 9:30
+     * @description: 将规则中该过滤器的配置信息（json串）解析为配置类实例。该方法只在规则发布（编译规则）时调用一次。
+                     若配置信息格式有误，则抛出异常，以便在发布时就拒绝该规则，而不是等到处理请求时才发现
+     * @Param configInfo:
+     * @return: java.lang.Object 配置类实例。若未设置配置信息，则返回null
+     */
+    Object parseFilterConfig(Rule.FilterConfig configInfo);
     /**
      * @date: 2024-05-14 15:51
      * @description: 真正执行过滤处理逻辑的核心方法
@@ -34,12 +38,16 @@ public interface Filter{
      */
     void doFilter(GatewayContext ctx, Object... args) throws Throwable;
     /**
-     * @date: 2024-05-14 15:53
-     * @description: 根据上下文的当前状态做出相关操作，然后触发/激发下一个过滤器组件
-     * @Param ctx:
-     * @return: void
+     * @date: 2024-12-03 9:20
+     * @description: 判断该过滤器是否为异步过滤器。
+                     异步过滤器的filter方法返回后，过滤器链会暂停执行（此处就是过滤器链的继续点），
+                     之后由该过滤器在处理完成时，调用FilterChainFactory.resumeFilterChain方法恢复过滤器链的执行
+                     （需要异步执行的过滤器通常直接继承AbstractAsyncGatewayFilter即可，由其负责恢复过滤器链的执行）
+     * @return: boolean
      */
-    void fireNext(GatewayContext ctx) throws Throwable;
+    default boolean isAsync(){
+        return false;
+    }
     /**
      * @date: 2024-05-14 15:55
      * @description: 默认方法，用于过滤器初始化。父类方法只是占位，若子类有需求，可以重写覆盖。
@@ -3,6 +3,11 @@ package org.wyh.gateway.core.filter.common;
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 import org.wyh.gateway.core.context.GatewayContext;
+import org.wyh.gateway.core.filter.common.base.FilterAspect;
+import org.wyh.gateway.core.filter.common.condition.FilterPredicate;
+import org.wyh.gateway.core.helper.ResponseHelper;
+
+import java.util.List;
 
 /**
  * @BelongsProject: api-gateway-server
@@ -10,82 +15,124 @@ import org.wyh.gateway.core.context.GatewayContext;
  * @Author: wyh
  * @Date: 2024-05-15 13:43
  * @Description: 网关的过滤器链定义类。
-                 Q: 为什么网关过滤器链中的节点类型是AbstractLinkedFilter而不是AbstractGatewayFilter
-                 A: 因为后者的抽象层次太低了，需要实例化表示过滤器配置类的泛型参数。
-                 而过滤器链中不同过滤器的配置实现类肯定不同，所以会导致相关接口的设计更复杂（需要多提供一个参数）
+                 过滤器链是针对某一规则预先编译好的、不可变的过滤器数组，其中只包含该规则启用的过滤器，以及各过滤器对应的配置信息。
+                 过滤器链通过一个扁平的循环来依次执行各个过滤器（而不是由过滤器递归地激发下一个过滤器），
+                 因此每次请求的开销只与启用的过滤器数量有关，调用栈也更浅。
+                 对于异步过滤器，过滤器链会在其返回后暂停执行，并在上下文中记录当前位置（即继续点），
+                 之后由该过滤器通过FilterChainFactory.resumeFilterChain方法从下一个过滤器开始恢复执行。
+                 此外，若过滤器设置了启用条件，则只有当请求满足该条件时才会执行该过滤器，否则直接跳过。
  */
 @Slf4j
 public class GatewayFilterChain {
     //过滤器链id
     @Getter
-    private String filterChainId;
-    //头指针，指向第一个过滤器。由于本类中使用了虚拟头节点，所以该指针始终指向虚拟头节点。
-    private AbstractLinkedFilter first;
-    //尾指针，指向最后一个过滤器
-    private AbstractLinkedFilter end;
+    private final String filterChainId;
+    //过滤器数组，按照执行顺序排列
+    private final Filter[] filters;
+    //各过滤器对应的配置类实例（在编译规则时就已解析完成），与过滤器数组一一对应
+    private final Object[] filterConfigs;
+    //各过滤器是否为异步过滤器，与过滤器数组一一对应（提前计算好，避免每次请求都去调用isAsync方法）
+    private final boolean[] asyncFlags;
+    //各过滤器的id，与过滤器数组一一对应
+    private final String[] filterIds;
+    //各过滤器启用条件编译后的判断器，与过滤器数组一一对应。为null表示总是执行该过滤器
+    private final FilterPredicate[] predicates;
     /**
      * @date: 2024-05-15 14:09
      * @description: 有参构造器。完成属性初始化工作。
      * @Param filterChainId:
+     * @Param filters: 按执行顺序排列的过滤器集合
+     * @Param filterConfigs: 各过滤器对应的配置类实例，与过滤器集合一一对应
+     * @Param predicates: 各过滤器启用条件的判断器，与过滤器集合一一对应
      * @return: null
      */
-    public GatewayFilterChain(String filterChainId){
+    public GatewayFilterChain(String filterChainId, List<Filter> filters, List<Object> filterConfigs,
+                              List<FilterPredicate> predicates){
         this.filterChainId = filterChainId;
-        //创建虚拟头节点，简化链表相关操作
-        this.first = new AbstractLinkedFilter() {
-            @Override
-            public boolean check(GatewayContext gatewayContext) {
-                //该方法永远不会执行
-                return false;
-            }
-
-            @Override
-            public void filter(GatewayContext ctx) throws Throwable {
-                //该方法永远不会执行
-            }
-
-            @Override
-            public void doFilter(GatewayContext gatewayContext, Object... args) {
-                //该方法永远不会执行
-            }
-        };
-        //初始状态下，尾指针指向虚拟头节点
-        this.end = this.first;
+        this.filters = filters.toArray(new Filter[0]);
+        this.filterConfigs = filterConfigs.toArray();
+        this.predicates = predicates.toArray(new FilterPredicate[0]);
+        this.asyncFlags = new boolean[this.filters.length];
+        this.filterIds = new String[this.filters.length];
+        for (int i = 0; i < this.filters.length; i++) {
+            asyncFlags[i] = this.filters[i].isAsync();
+            FilterAspect annotation = this.filters[i].getClass().getAnnotation(FilterAspect.class);
+            filterIds[i] = annotation == null ? null : annotation.id();
+        }
     }
     /**
-     * @date: 2024-05-15 14:35
-     * @description: 在过滤器链的头部之前添加一个过滤器（添加到虚拟头节点之后）
-     * @Param filter:
-     * @return: void
+     * @date: 2024-12-03 10:02
+     * @description: 判断该过滤器链中是否包含指定id的过滤器
+     * @Param filterId:
+     * @return: boolean
      */
-    public void addFirst(AbstractLinkedFilter filter){
-        filter.setNext(first.getNext());
-        first.setNext(filter);
-        //如果链表之前为空，则更新尾指针
-        if(first == end){
-            end = filter;
+    public boolean containsFilter(String filterId){
+        for (String id : filterIds) {
+            if(filterId.equals(id)){
+                return true;
+            }
         }
+        return false;
     }
     /**
-     * @date: 2024-05-15 14:35
-     * @description: 在过滤器的尾部之后添加一个过滤器
-     * @Param filter:
-     * @return: void
+     * @date: 2024-12-03 10:03
+     * @description: 获取过滤器链中过滤器的数量
+     * @return: int
      */
-    public void addLast(AbstractLinkedFilter filter){
-        end.setNext(filter);
-        end = filter;
+    public int size(){
+        return filters.length;
     }
     /**
      * @date: 2024-05-15 14:38
-     * @description: 启动过滤器链，即激发第一个过滤器实例。
-                     由于过滤器实例的doFilter方法会调用fireNext方法，所以只要激发第一个过滤器实例，就能自动地顺序执行整个过滤器链
-     * @Param ctx: 
-     * @Param args: 
-     * @return: void
+     * @description: 启动过滤器链，即从第一个过滤器开始执行。
+     * @Param ctx:
+     * @return: boolean 过滤器链是否在本次调用中执行结束
+     */
+    public boolean start(GatewayContext ctx) throws Throwable{
+        return doFilter(ctx, 0);
+    }
+    /**
+     * @date: 2024-12-03 10:05
+     * @description: 从指定位置开始，依次执行过滤器链中的过滤器。
+                     每执行完一个过滤器，都会根据上下文的当前状态做出相关操作：
+                     若上下文状态为terminated，则该过滤器链执行结束；若为written，则将响应结果写回客户端。
+                     若遇到异步过滤器，则在上下文中记录继续点，然后直接返回，由该异步过滤器负责恢复过滤器链的执行。
+     * @Param ctx:
+     * @Param fromIndex: 开始执行的过滤器在数组中的位置
+     * @return: boolean 过滤器链是否在本次调用中执行结束。若返回false，说明过滤器链在某个异步过滤器处暂停了执行，
+                        之后的处理（包括请求被拒绝时执行异常过滤器链）都应由恢复执行的一方负责
      */
-    public void start(GatewayContext ctx) throws Throwable{
-        //激发第一个过滤器实例（不激发虚拟头节点）
-        first.fireNext(ctx);
+    public boolean doFilter(GatewayContext ctx, int fromIndex) throws Throwable{
+        for (int i = fromIndex; i < filters.length; i++) {
+            if(ctx.isTerminated()){
+                //（过滤器链中的某个组件执行异常，或请求被拒绝）该过滤器链执行结束
+                return true;
+            }
+            if(ctx.isWritten()){
+                //将响应结果写回客户端
+                ResponseHelper.writeResponse(ctx);
+            }
+            if(predicates[i] != null && !predicates[i].test(ctx)){
+                //请求不满足该过滤器的启用条件，跳过该过滤器
+                continue;
+            }
+            if(asyncFlags[i]){
+                //记录继续点，之后由异步过滤器从下一个位置恢复过滤器链的执行
+                ctx.setFilterChainCursor(this, i);
+                filters[i].filter(ctx, filterConfigs[i]);
+                return false;
+            }
+            filters[i].filter(ctx, filterConfigs[i]);
+        }
+        //所有的过滤器都已执行完毕
+        if(ctx.isTerminated()){
+            return true;
+        }
+        if(ctx.isWritten()){
+            ResponseHelper.writeResponse(ctx);
+        }
+        //由于没有下一个过滤器了，所以将上下文状态设置为terminated
+        ctx.setTerminated();
+        return true;
     }
 }
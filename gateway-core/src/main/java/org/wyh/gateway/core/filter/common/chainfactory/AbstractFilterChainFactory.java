@@ -3,63 +3,71 @@ package org.wyh.gateway.core.filter.common.chainfactory;
 import lombok.Getter;
 import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
-import org.wyh.gateway.core.context.GatewayContext;
+import org.wyh.gateway.common.config.Rule;
+import org.wyh.gateway.core.filter.common.CompiledRule;
+import org.wyh.gateway.core.filter.common.Filter;
+import org.wyh.gateway.core.filter.common.GatewayFilterChain;
 import org.wyh.gateway.core.filter.common.base.FilterAspect;
 import org.wyh.gateway.core.filter.common.base.FilterType;
-import org.wyh.gateway.core.filter.common.GatewayFilterChain;
-import org.wyh.gateway.core.filter.common.AbstractLinkedFilter;
+import org.wyh.gateway.core.filter.common.condition.FilterPredicate;
+import org.wyh.gateway.core.filter.common.condition.FilterPredicateCompiler;
 
+import java.util.ArrayList;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * @BelongsProject: api-gateway-server
  * @BelongsPackage: org.wyh.gateway.core.filter.common
  * @Author: wyh
  * @Date: 2024-05-15 15:47
- * @Description: 过滤器链工厂的抽象类。主要负责实现过滤器链的构建和过滤器集合的维护，以及指定过滤器实例的获取
+ * @Description: 过滤器链工厂的抽象类。主要负责维护过滤器集合，按规则编译过滤器链，以及指定过滤器实例的获取
  */
 @Slf4j
 @Setter
 @Getter
 public abstract class AbstractFilterChainFactory implements FilterChainFactory {
-    //默认/正常情况下的过滤器链，由pre，route和post依次构成
-    protected GatewayFilterChain defaultFilterChain =
-            new GatewayFilterChain("default_filter_chain");
-    //异常情况下的过滤器链，由error和post依次构成
-    protected GatewayFilterChain errorFilterChain =
-            new GatewayFilterChain("error_filter_chain");
+    //默认/正常情况下的过滤器集合，由pre，route和post依次构成。编译规则时，会从中挑选出规则启用的过滤器。
+    protected List<Filter> defaultFilters = new ArrayList<>();
+    //异常情况下的过滤器集合，由error和post依次构成。编译规则时，会从中挑选出规则启用的过滤器。
+    protected List<Filter> errorFilters = new ArrayList<>();
+    /*
+     * 保存规则id及其编译结果的集合
+     * 规则发布时，会重新编译并替换掉原有的编译结果（编译结果本身是不可变的）
+     */
+    protected Map<String, CompiledRule> compiledRuleMap = new ConcurrentHashMap<>();
     /*
      * 保存过滤器类型及其对应过滤器集合的集合。
      * 其中，外层key指的是过滤器类型的描述代码，外层value指的是对应的过滤器集合
      * 内层（也就是上述提到的对应过滤器集合）key指的是过滤器id，内存value指的是过滤器实例
      * 此外，LinkedHashMap可以保证插入和访问的顺序一致
      */
-    protected Map<String, Map<String, AbstractLinkedFilter>> filterTypeMap = new LinkedHashMap<>();
+    protected Map<String, Map<String, Filter>> filterTypeMap = new LinkedHashMap<>();
     /*
      * 保存过滤器id及其对应实例的集合
      * 其中，key指的是过滤器id，value指的是对应的过滤器实例
      * 此外，LinkedHashMap可以保证插入和访问的顺序一致
      */
-    protected Map<String, AbstractLinkedFilter> filterIdMap = new LinkedHashMap<>();
+    protected Map<String, Filter> filterIdMap = new LinkedHashMap<>();
     /**
      * @date: 2024-05-15 16:23
-     * @description: 将单个过滤器添加到指定过滤器链中
-     * @Param filterChain:
+     * @description: 将单个过滤器添加到指定过滤器集合中
+     * @Param filterList:
      * @Param filter:
      * @return: void
      */
-    private void addFilter(GatewayFilterChain filterChain, AbstractLinkedFilter filter){
+    private void addFilter(List<Filter> filterList, Filter filter){
         FilterAspect annotation = filter.getClass().getAnnotation(FilterAspect.class);
         if(annotation != null){
-            filterChain.addLast(filter);
-            log.info("过滤器{}已添加到过滤器链{}中", annotation.name(), filterChain.getFilterChainId());
+            filterList.add(filter);
+            log.info("过滤器{}已注册", annotation.name());
             //以下一系列操作就是将该过滤器实例添加到filterTypeMap和filterIdMap集合中
             String filterId = annotation.id();
             String filterTypeCode = annotation.type().getCode();
             //获取该类型对应的过滤器集合，若不存在，则创建
-            Map<String, AbstractLinkedFilter> filterMap = filterTypeMap.get(filterTypeCode);
+            Map<String, Filter> filterMap = filterTypeMap.get(filterTypeCode);
             if(filterMap == null){
                 filterMap = new LinkedHashMap<>();
             }
@@ -71,41 +79,88 @@ public abstract class AbstractFilterChainFactory implements FilterChainFactory {
     }
     /**
      * @date: 2024-05-15 16:19
-     * @description: 将过滤器列表添加到指定过滤器链中
-     * @Param filterChain:
+     * @description: 将过滤器列表添加到指定过滤器集合中
+     * @Param filterList:
      * @Param filters:
      * @return: void
      */
-    private void addFilters(GatewayFilterChain filterChain, List<AbstractLinkedFilter> filters) throws Throwable{
-        for (AbstractLinkedFilter filter : filters) {
-            //过滤器初始化
-            filter.init();
-            addFilter(filterChain, filter);
+    private void addFilters(List<Filter> filterList, List<Filter> filters){
+        for (Filter filter : filters) {
+            addFilter(filterList, filter);
         }
     }
     @Override
-    public void buildFilterChain(FilterType filterType, List<AbstractLinkedFilter> filters) throws Throwable{
+    public void buildFilterChain(FilterType filterType, List<Filter> filters) throws Throwable{
+        //过滤器初始化（post过滤器会被添加到两个集合中，但只需要初始化一次）
+        for (Filter filter : filters) {
+            filter.init();
+        }
         /*
-         * pre，rout会添加到正常过滤器链中
-         * error会添加到异常过滤器连中
-         * post既会添加到正常过滤器链，也会添加到异常过滤器链
+         * pre，rout会添加到正常过滤器集合中
+         * error会添加到异常过滤器集合中
+         * post既会添加到正常过滤器集合，也会添加到异常过滤器集合
          */
         switch (filterType){
             case PRE:
             case ROUTE:
-                addFilters(defaultFilterChain, filters);
+                addFilters(defaultFilters, filters);
                 break;
             case ERROR:
-                addFilters(errorFilterChain, filters);
+                addFilters(errorFilters, filters);
                 break;
             case POST:
-                addFilters(defaultFilterChain, filters);
-                addFilters(errorFilterChain, filters);
+                addFilters(defaultFilters, filters);
+                addFilters(errorFilters, filters);
                 break;
             default:
                 throw new RuntimeException("不支持的过滤器类型");
         }
     }
+    /**
+     * @date: 2024-12-03 10:55
+     * @description: 从指定的过滤器集合中，挑选出规则启用的过滤器，并解析其配置信息，构建对应的过滤器链
+                     规则中的过滤器id不区分大小写，此处只在编译时比较一次
+                     同时将各过滤器的启用条件编译为判断器
+                     若某个过滤器的配置信息或启用条件格式有误，则抛出异常（即拒绝发布该规则）
+     * @Param filterChainId:
+     * @Param filterList:
+     * @Param rule:
+     * @return: org.wyh.gateway.core.filter.common.GatewayFilterChain
+     */
+    private GatewayFilterChain compileFilterChain(String filterChainId, List<Filter> filterList, Rule rule){
+        List<Filter> filters = new ArrayList<>();
+        List<Object> filterConfigs = new ArrayList<>();
+        List<FilterPredicate> predicates = new ArrayList<>();
+        for (Filter filter : filterList) {
+            String filterId = filter.getClass().getAnnotation(FilterAspect.class).id();
+            Rule.FilterConfig filterConfig = rule.getFilterConfig(filterId);
+            if(filterConfig != null){
+                filters.add(filter);
+                //将json串形式的配置信息解析为具体过滤器的配置类实例
+                filterConfigs.add(filter.parseFilterConfig(filterConfig));
+                //将过滤器的启用条件编译为判断器
+                predicates.add(FilterPredicateCompiler.compile(filterId, filterConfig.getCondition()));
+            }
+        }
+        return new GatewayFilterChain(filterChainId, filters, filterConfigs, predicates);
+    }
+    @Override
+    public CompiledRule compileRule(Rule rule) {
+        String ruleId = rule.getRuleId();
+        CompiledRule compiledRule = new CompiledRule(rule,
+                compileFilterChain(ruleId + ":default_filter_chain", defaultFilters, rule),
+                compileFilterChain(ruleId + ":error_filter_chain", errorFilters, rule));
+        //替换掉该规则原有的编译结果
+        compiledRuleMap.put(ruleId, compiledRule);
+        log.info("规则: {} 编译完成，正常过滤器链包含{}个过滤器，异常过滤器链包含{}个过滤器", ruleId,
+                compiledRule.getDefaultFilterChain().size(), compiledRule.getErrorFilterChain().size());
+        return compiledRule;
+    }
+
+    @Override
+    public CompiledRule getCompiledRule(String ruleId) {
+        return compiledRuleMap.get(ruleId);
+    }
 
     @Override
     public <T> T getFilter(Class<T> filterClass) {
@@ -119,7 +174,7 @@ public abstract class AbstractFilterChainFactory implements FilterChainFactory {
 
     @Override
     public <T> T getFilter(String filterId) {
-        AbstractLinkedFilter filter = null;
+        Filter filter = null;
         if(!filterIdMap.isEmpty()){
             filter = filterIdMap.get(filterId);
         }
@@ -1,8 +1,10 @@
 package org.wyh.gateway.core.filter.common.chainfactory;
 
+import org.wyh.gateway.common.config.Rule;
 import org.wyh.gateway.core.context.GatewayContext;
+import org.wyh.gateway.core.filter.common.CompiledRule;
+import org.wyh.gateway.core.filter.common.Filter;
 import org.wyh.gateway.core.filter.common.base.FilterType;
-import org.wyh.gateway.core.filter.common.AbstractLinkedFilter;
 
 import java.util.List;
 
@@ -16,12 +18,27 @@ import java.util.List;
 public interface FilterChainFactory {
     /**
      * @date: 2024-05-15 15:35
-     * @description: 将指定类型的过滤器列表加入到相应的过滤器链中
+     * @description: 注册指定类型的过滤器列表，之后编译规则时，会从中挑选出规则启用的过滤器来构成过滤器链
      * @Param filterType: 过滤器的类型（过滤器列表中的类型必须一致）
-     * @Param filters: 要加入过滤器链的过滤器列表集合
+     * @Param filters: 要注册的（已按优先级排好序的）过滤器列表集合
      * @return: void
      */
-    void buildFilterChain(FilterType filterType, List<AbstractLinkedFilter> filters) throws Throwable;
+    void buildFilterChain(FilterType filterType, List<Filter> filters) throws Throwable;
+    /**
+     * @date: 2024-12-03 10:40
+     * @description: 编译指定规则，即构建该规则对应的过滤器链（包括解析各过滤器的配置信息），并替换掉该规则原有的编译结果
+                     若某个过滤器的配置信息格式有误，则抛出异常，并保留该规则原有的编译结果
+     * @Param rule:
+     * @return: org.wyh.gateway.core.filter.common.CompiledRule
+     */
+    CompiledRule compileRule(Rule rule);
+    /**
+     * @date: 2024-12-03 10:41
+     * @description: 获取指定规则id对应的编译结果
+     * @Param ruleId:
+     * @return: org.wyh.gateway.core.filter.common.CompiledRule
+     */
+    CompiledRule getCompiledRule(String ruleId);
     /**
      * @date: 2024-05-15 15:43
      * @description: 执行正常情况下的过滤器链
@@ -36,6 +53,22 @@ public interface FilterChainFactory {
      * @return: void
      */
     void doErrorFilterChain(GatewayContext ctx);
+    /**
+     * @date: 2024-12-03 10:42
+     * @description: 从上下文记录的继续点开始，恢复过滤器链的执行（供异步过滤器在处理完成时调用）
+     * @Param ctx:
+     * @return: void
+     */
+    void resumeFilterChain(GatewayContext ctx);
+    /**
+     * @date: 2024-12-05 10:30
+     * @description: 从上下文记录的继续点开始，恢复过滤器链的执行。
+                     若异步过滤器在处理异步操作结果时出现异常，则不再执行后续过滤器，而是交由异常过滤器链处理
+     * @Param ctx:
+     * @Param throwable: 异步过滤器出现的异常，为null表示正常完成
+     * @return: void
+     */
+    void resumeFilterChain(GatewayContext ctx, Throwable throwable);
     /**
      * @date: 2024-05-15 15:44
      * @description: 获取指定类型的过滤器
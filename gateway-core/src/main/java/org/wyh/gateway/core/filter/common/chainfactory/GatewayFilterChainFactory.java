@@ -4,7 +4,8 @@ import lombok.extern.slf4j.Slf4j;
 import org.wyh.gateway.core.context.GatewayContext;
 import org.wyh.gateway.core.filter.common.base.FilterAspect;
 import org.wyh.gateway.core.filter.common.base.FilterType;
-import org.wyh.gateway.core.filter.common.AbstractLinkedFilter;
+import org.wyh.gateway.core.filter.common.CompiledRule;
+import org.wyh.gateway.core.filter.common.GatewayFilterChain;
 import org.wyh.gateway.core.filter.common.Filter;
 
 import java.util.*;
@@ -14,7 +15,7 @@ import java.util.*;
  * @BelongsPackage: org.wyh.gateway.core.filter.common.chainfactory
  * @Author: wyh
  * @Date: 2024-05-15 16:56
- * @Description: 网关的过滤器链工厂类，主要负责实现过滤器实例的SPI加载和过滤器链实例的构建，以及过滤器链的执行。
+ * @Description: 网关的过滤器链工厂类，主要负责实现过滤器实例的SPI加载和（按规则编译）过滤器链实例的构建，以及过滤器链的执行。
                  注意：每个过滤器组件只加载一次，所以网关系统中每个过滤器实际上都是单例的。
  */
 @Slf4j
@@ -39,12 +40,12 @@ public class GatewayFilterChainFactory extends AbstractFilterChainFactory{
     }
     /**
      * @date: 2024-05-15 17:03
-     * @description: private修饰的无参构造器，负责通过java spi来加载过滤器实例，并将其添加到相应过滤器链中
+     * @description: private修饰的无参构造器，负责通过java spi来加载过滤器实例，并将其注册到相应过滤器集合中
      * @return: null
      */
     private GatewayFilterChainFactory(){
         //保存过滤器类型及其对应的过滤器实例集合。其中，key指的是过滤器类型的描述代码。
-        Map<String, List<AbstractLinkedFilter>> filterMap = new LinkedHashMap<>();
+        Map<String, List<Filter>> filterMap = new LinkedHashMap<>();
         /*
          * 以下这段代码的作用是通过java SPI机制来加载/构建各过滤器插件的实例
          * SPI是JDK内置的一种服务提供发现机制，可以动态获取/发现接口的实现类
@@ -64,11 +65,11 @@ public class GatewayFilterChainFactory extends AbstractFilterChainFactory{
             if(annotation != null){
                 //获取该过滤器类型的描述代码，并以此为key，将对应实例加入到相应的list集合中
                 String filterTypeCode = annotation.type().getCode();
-                List<AbstractLinkedFilter> filterList = filterMap.get(filterTypeCode);
+                List<Filter> filterList = filterMap.get(filterTypeCode);
                 if(filterList == null){
-                    filterList = new ArrayList<AbstractLinkedFilter>();
+                    filterList = new ArrayList<Filter>();
                 }
-                filterList.add((AbstractLinkedFilter) filter);
+                filterList.add(filter);
                 filterMap.put(filterTypeCode, filterList);
             }
         });
@@ -79,21 +80,21 @@ public class GatewayFilterChainFactory extends AbstractFilterChainFactory{
          */
         for (FilterType filterType : FilterType.values()) {
             //获取该类型对应的过滤器集合
-            List<AbstractLinkedFilter> filterList = filterMap.get(filterType.getCode());
+            List<Filter> filterList = filterMap.get(filterType.getCode());
             if(filterList == null || filterList.isEmpty()){
                 continue;
             }
             //将集合中的过滤器实例按照优先级进行排序，优先级数字越小，执行位置越靠前
-            Collections.sort(filterList, new Comparator<AbstractLinkedFilter>() {
+            Collections.sort(filterList, new Comparator<Filter>() {
                 @Override
-                public int compare(AbstractLinkedFilter o1, AbstractLinkedFilter o2) {
+                public int compare(Filter o1, Filter o2) {
                     //优先级数字越小，执行位置越靠前
                     return o1.getClass().getAnnotation(FilterAspect.class).order() -
                             o2.getClass().getAnnotation(FilterAspect.class).order();
                 }
             });
             try{
-                //将排好序的过滤器集合添加到相应的过滤器链中
+                //将排好序的过滤器集合注册到相应的过滤器集合中，之后编译规则时会从中挑选出规则启用的过滤器
                 super.buildFilterChain(filterType, filterList);
             }catch (Throwable e){
                 log.error("过滤器链构建异常: {}", e.getMessage());
@@ -103,31 +104,95 @@ public class GatewayFilterChainFactory extends AbstractFilterChainFactory{
     }
     @Override
     public void doFilterChain(GatewayContext ctx) {
+        //启动正常情况下的过滤器链
+        runDefaultFilterChain(ctx, ctx.getCompiledRule().getDefaultFilterChain(), 0);
+    }
+
+    @Override
+    public void doErrorFilterChain(GatewayContext ctx) {
+        //启动异常情况下的过滤器链
+        runErrorFilterChain(ctx, ctx.getCompiledRule().getErrorFilterChain(), 0);
+    }
+
+    @Override
+    public void resumeFilterChain(GatewayContext ctx) {
+        resumeFilterChain(ctx, null);
+    }
+
+    @Override
+    public void resumeFilterChain(GatewayContext ctx, Throwable throwable) {
+        //从上下文记录的继续点的下一个过滤器开始，恢复过滤器链的执行
+        GatewayFilterChain filterChain = ctx.getFilterChain();
+        int nextIndex = ctx.getFilterIndex() + 1;
+        if(filterChain == ctx.getCompiledRule().getErrorFilterChain()){
+            if(throwable != null){
+                log.error("异常处理过滤器链执行异常: {}", throwable.getMessage());
+                ctx.setThrowable(throwable);
+            }
+            runErrorFilterChain(ctx, filterChain, nextIndex);
+        }else if(throwable != null){
+            //异步过滤器出现异常，不再执行正常过滤器链中的后续过滤器
+            handleDefaultFilterChainError(ctx, throwable);
+        }else{
+            runDefaultFilterChain(ctx, filterChain, nextIndex);
+        }
+    }
+    /**
+     * @date: 2024-12-03 11:20
+     * @description: 从指定位置开始，执行正常情况下的过滤器链
+     * @Param ctx:
+     * @Param filterChain:
+     * @Param fromIndex:
+     * @return: void
+     */
+    private void runDefaultFilterChain(GatewayContext ctx, GatewayFilterChain filterChain, int fromIndex){
         try{
-            //启动正常情况下的过滤器链。
-            super.defaultFilterChain.start(ctx);
-        }catch (Throwable e){
+            boolean finished = filterChain.doFilter(ctx, fromIndex);
             /*
-             * 这里只负责捕获前置和路由过滤器（不包括complete方法）中的异常
-             * 对于后置过滤器中的异常，在complete方法中做简单处理即可
+             * 请求被拒绝（限流，未登录，服务实例不存在等）属于预期内的结果，过滤器不会抛出异常，
+             * 而是在上下文中设置拒绝响应码。此时同样需要执行异常过滤器链，由其写回对应的响应
+             * 注意：若过滤器链在异步过滤器处暂停了执行，则由恢复执行的一方负责这一步
              */
-            log.error("过滤器链执行异常: {}", e.getMessage());
-            //在网关上下文中设置异常信息
-            ctx.setThrowable(e);
-            //正常过滤器链执行结束后，开始执行异常过滤器链，所以要更改上下文状态
-            if(ctx.isTerminated()){
+            if(finished && ctx.isRejected()){
                 ctx.setRunning();
+                doErrorFilterChain(ctx);
             }
-            //执行异常情况下的过滤器链
-            doErrorFilterChain(ctx);
+        }catch (Throwable e){
+            handleDefaultFilterChainError(ctx, e);
         }
     }
-
-    @Override
-    public void doErrorFilterChain(GatewayContext ctx) {
+    /**
+     * @date: 2024-12-05 10:35
+     * @description: 处理正常过滤器链执行过程中出现的异常，即在上下文中设置异常信息，然后执行异常过滤器链
+     * @Param ctx:
+     * @Param e:
+     * @return: void
+     */
+    private void handleDefaultFilterChainError(GatewayContext ctx, Throwable e){
+        /*
+         * 这里只负责捕获前置和路由过滤器（包括异步过滤器的onComplete方法）中的异常
+         * 对于后置过滤器中的异常，在其内部做简单处理即可
+         */
+        //过滤器不会自行记录异常，统一在这里记录一次（包括异常栈）
+        log.error("过滤器链执行异常", e);
+        //在网关上下文中设置异常信息
+        ctx.setThrowable(e);
+        //正常过滤器链执行结束，开始执行异常过滤器链，所以要更改上下文状态（抛出异常的过滤器可能已将其设置为written等状态）
+        ctx.setRunning();
+        //执行异常情况下的过滤器链
+        doErrorFilterChain(ctx);
+    }
+    /**
+     * @date: 2024-12-03 11:22
+     * @description: 从指定位置开始，执行异常情况下的过滤器链
+     * @Param ctx:
+     * @Param filterChain:
+     * @Param fromIndex:
+     * @return: void
+     */
+    private void runErrorFilterChain(GatewayContext ctx, GatewayFilterChain filterChain, int fromIndex){
         try{
-            //启动异常情况下的过滤器链
-            super.errorFilterChain.start(ctx);
+            filterChain.doFilter(ctx, fromIndex);
         }catch (Throwable e){
             //实际上，异常和后置过滤器都不会向上抛异常，所以理论上该分支永远也不会执行
             log.error("异常处理过滤器链执行异常: {}", e.getMessage());
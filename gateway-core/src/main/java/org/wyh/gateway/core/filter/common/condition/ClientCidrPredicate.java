@@ -0,0 +1,92 @@
+package org.wyh.gateway.core.filter.common.condition;
+
+import org.wyh.gateway.core.context.GatewayContext;
+
+import java.util.List;
+
+/**
+ * @BelongsProject: api-gateway-server
+ * @BelongsPackage: org.wyh.gateway.core.filter.common.condition
+ * @Author: wyh
+ * @Date: 2024-12-06 10:40
+ * @Description: 客户端ip条件的判断器。客户端ip属于给定CIDR列表中的任意一个网段即可。
+                 CIDR在编译时就被解析为网络地址和掩码，判断时直接将客户端ip逐字符解析为int，不会创建任何对象。
+                 目前只支持IPv4，IPv6的客户端ip永远不满足该条件。
+ */
+final class ClientCidrPredicate implements FilterPredicate {
+    //各网段的网络地址
+    private final int[] networks;
+    //各网段的掩码，与网络地址一一对应
+    private final int[] masks;
+    /**
+     * @date: 2024-12-06 10:42
+     * @description: 有参构造器。解析CIDR列表
+     * @Param cidrs:
+     * @return: null
+     */
+    ClientCidrPredicate(List<String> cidrs){
+        this.networks = new int[cidrs.size()];
+        this.masks = new int[cidrs.size()];
+        for (int i = 0; i < cidrs.size(); i++) {
+            String cidr = cidrs.get(i).trim();
+            int slash = cidr.indexOf('/');
+            String address = slash < 0 ? cidr : cidr.substring(0, slash);
+            int prefixLength = slash < 0 ? 32 : Integer.parseInt(cidr.substring(slash + 1));
+            long ip = parseIpv4(address);
+            if(ip < 0 || prefixLength < 0 || prefixLength > 32){
+                throw new IllegalArgumentException("不支持的CIDR: " + cidr);
+            }
+            masks[i] = prefixLength == 0 ? 0 : -1 << (32 - prefixLength);
+            networks[i] = (int) ip & masks[i];
+        }
+    }
+
+    @Override
+    public boolean test(GatewayContext ctx) {
+        long ip = parseIpv4(ctx.getRequest().getClientIp());
+        if(ip < 0){
+            return false;
+        }
+        for (int i = 0; i < networks.length; i++) {
+            if(((int) ip & masks[i]) == networks[i]){
+                return true;
+            }
+        }
+        return false;
+    }
+    /**
+     * @date: 2024-12-06 10:45
+     * @description: 将点分十进制的IPv4地址解析为整数
+     * @Param address:
+     * @return: long 解析结果（只有低32位有效）。若不是合法的IPv4地址，则返回-1
+     */
+    static long parseIpv4(String address){
+        if(address == null){
+            return -1;
+        }
+        long result = 0;
+        int octet = 0;
+        int digits = 0;
+        int dots = 0;
+        for (int i = 0; i < address.length(); i++) {
+            char c = address.charAt(i);
+            if(c >= '0' && c <= '9'){
+                octet = octet * 10 + (c - '0');
+                if(++digits > 3 || octet > 255){
+                    return -1;
+                }
+            }else if(c == '.' && digits > 0 && dots < 3){
+                result = (result << 8) | octet;
+                octet = 0;
+                digits = 0;
+                dots++;
+            }else{
+                return -1;
+            }
+        }
+        if(dots != 3 || digits == 0){
+            return -1;
+        }
+        return (result << 8) | octet;
+    }
+}
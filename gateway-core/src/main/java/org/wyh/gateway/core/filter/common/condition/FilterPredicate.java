@@ -0,0 +1,22 @@
+package org.wyh.gateway.core.filter.common.condition;
+
+import org.wyh.gateway.core.context.GatewayContext;
+
+/**
+ * @BelongsProject: api-gateway-server
+ * @BelongsPackage: org.wyh.gateway.core.filter.common.condition
+ * @Author: wyh
+ * @Date: 2024-12-06 9:40
+ * @Description: 过滤器启用条件编译后的判断器接口。
+                 判断器在编译规则时创建，是不可变的，可以被多个线程共享。
+                 实现类在判断时不应创建任何对象，因为每个请求都会对每个带条件的过滤器调用一次test方法。
+ */
+public interface FilterPredicate {
+    /**
+     * @date: 2024-12-06 9:42
+     * @description: 判断当前请求是否满足过滤器的启用条件
+     * @Param ctx:
+     * @return: boolean 返回true表示需要执行该过滤器
+     */
+    boolean test(GatewayContext ctx);
+}
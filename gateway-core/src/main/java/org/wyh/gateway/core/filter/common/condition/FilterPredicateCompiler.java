@@ -0,0 +1,94 @@
+package org.wyh.gateway.core.filter.common.condition;
+
+import org.apache.commons.lang3.StringUtils;
+import org.wyh.gateway.common.config.Rule;
+import org.wyh.gateway.common.enumeration.ResponseCode;
+import org.wyh.gateway.common.exception.BaseException;
+import org.wyh.gateway.core.context.GatewayContext;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @BelongsProject: api-gateway-server
+ * @BelongsPackage: org.wyh.gateway.core.filter.common.condition
+ * @Author: wyh
+ * @Date: 2024-12-06 11:00
+ * @Description: 过滤器启用条件的编译器，负责在编译规则时，将规则中的启用条件编译为对应的判断器。
+                 各条件之间是“且”的关系，判断时按开销从小到大的顺序依次判断，只要有一个条件不满足就立即返回。
+ */
+public class FilterPredicateCompiler {
+    /**
+     * @date: 2024-12-06 11:02
+     * @description: private修饰的无参构造器，该类只提供静态方法
+     * @return: null
+     */
+    private FilterPredicateCompiler(){
+    }
+    /**
+     * @date: 2024-12-06 11:05
+     * @description: 将过滤器的启用条件编译为判断器。若条件格式有误，则抛出异常（即拒绝发布该规则）
+     * @Param filterId:
+     * @Param condition:
+     * @return: org.wyh.gateway.core.filter.common.condition.FilterPredicate 若未设置任何条件，则返回null（即总是执行该过滤器）
+     */
+    public static FilterPredicate compile(String filterId, Rule.FilterCondition condition){
+        if(condition == null){
+            return null;
+        }
+        List<FilterPredicate> predicates = new ArrayList<>();
+        try{
+            //按判断开销从小到大的顺序添加
+            if(condition.getMethods() != null && !condition.getMethods().isEmpty()){
+                predicates.add(new MethodPredicate(condition.getMethods()));
+            }
+            if(StringUtils.isNotBlank(condition.getPath())){
+                predicates.add(new PathGlobPredicate(condition.getPath().trim()));
+            }
+            if(condition.getClientCidrs() != null && !condition.getClientCidrs().isEmpty()){
+                predicates.add(new ClientCidrPredicate(condition.getClientCidrs()));
+            }
+            if(condition.getHeaders() != null && !condition.getHeaders().isEmpty()){
+                predicates.add(new HeaderPredicate(condition.getHeaders()));
+            }
+            if(condition.getQueryParams() != null && !condition.getQueryParams().isEmpty()){
+                predicates.add(new QueryParamPredicate(condition.getQueryParams()));
+            }
+        }catch (RuntimeException e){
+            throw new BaseException("过滤器: " + filterId + "的启用条件格式有误: " + e.getMessage(),
+                    e, ResponseCode.FILTER_CONFIG_PARSE_ERROR);
+        }
+        if(predicates.isEmpty()){
+            return null;
+        }
+        if(predicates.size() == 1){
+            return predicates.get(0);
+        }
+        return new AllMatchPredicate(predicates.toArray(new FilterPredicate[0]));
+    }
+    /**
+     * @BelongsProject: api-gateway-server
+     * @BelongsPackage: org.wyh.gateway.core.filter.common.condition
+     * @Author: wyh
+     * @Date: 2024-12-06 11:10
+     * @Description: （静态内部类）组合判断器，只有所有判断器都满足时才满足
+     */
+    private static final class AllMatchPredicate implements FilterPredicate {
+        //按顺序判断的判断器数组
+        private final FilterPredicate[] predicates;
+
+        private AllMatchPredicate(FilterPredicate[] predicates){
+            this.predicates = predicates;
+        }
+
+        @Override
+        public boolean test(GatewayContext ctx) {
+            for (FilterPredicate predicate : predicates) {
+                if(!predicate.test(ctx)){
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package org.wyh.gateway.core.filter.common.condition;
+
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.util.AsciiString;
+import org.wyh.gateway.core.context.GatewayContext;
+
+import java.util.Map;
+
+/**
+ * @BelongsProject: api-gateway-server
+ * @BelongsPackage: org.wyh.gateway.core.filter.common.condition
+ * @Author: wyh
+ * @Date: 2024-12-06 10:20
+ * @Description: 请求头条件的判断器。请求必须满足所有的请求头条件。
+                 请求头名称在编译时转换为AsciiString，查找时可以直接使用其缓存的hash值。
+ */
+final class HeaderPredicate implements FilterPredicate {
+    //表示只要求请求头存在的期望值
+    static final String ANY_VALUE = "*";
+    //请求头名称
+    private final AsciiString[] names;
+    //请求头的期望值，与名称一一对应。为null表示只要求请求头存在
+    private final String[] values;
+    /**
+     * @date: 2024-12-06 10:22
+     * @description: 有参构造器
+     * @Param headers: key为请求头名称，value为期望值
+     * @return: null
+     */
+    HeaderPredicate(Map<String, String> headers){
+        this.names = new AsciiString[headers.size()];
+        this.values = new String[headers.size()];
+        int i = 0;
+        for (Map.Entry<String, String> entry : headers.entrySet()) {
+            names[i] = AsciiString.cached(entry.getKey().trim().toLowerCase());
+            values[i] = ANY_VALUE.equals(entry.getValue()) ? null : entry.getValue();
+            i++;
+        }
+    }
+
+    @Override
+    public boolean test(GatewayContext ctx) {
+        HttpHeaders headers = ctx.getRequest().getHeaders();
+        for (int i = 0; i < names.length; i++) {
+            String value = headers.get(names[i]);
+            if(value == null || (values[i] != null && !values[i].equals(value))){
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,43 @@
+package org.wyh.gateway.core.filter.common.condition;
+
+import io.netty.handler.codec.http.HttpMethod;
+import org.wyh.gateway.core.context.GatewayContext;
+
+import java.util.Set;
+
+/**
+ * @BelongsProject: api-gateway-server
+ * @BelongsPackage: org.wyh.gateway.core.filter.common.condition
+ * @Author: wyh
+ * @Date: 2024-12-06 9:50
+ * @Description: 请求方法条件的判断器。请求方法属于给定方法集合中的任意一个即可。
+ */
+final class MethodPredicate implements FilterPredicate {
+    //允许的请求方法
+    private final HttpMethod[] methods;
+    /**
+     * @date: 2024-12-06 9:52
+     * @description: 有参构造器。将方法名称提前转换为HttpMethod实例
+     * @Param methodNames:
+     * @return: null
+     */
+    MethodPredicate(Set<String> methodNames){
+        this.methods = new HttpMethod[methodNames.size()];
+        int i = 0;
+        for (String methodName : methodNames) {
+            methods[i++] = HttpMethod.valueOf(methodName.trim().toUpperCase());
+        }
+    }
+
+    @Override
+    public boolean test(GatewayContext ctx) {
+        HttpMethod method = ctx.getRequest().getMethod();
+        for (HttpMethod m : methods) {
+            //标准方法的HttpMethod实例是共享的，所以通常只需比较引用即可
+            if(m == method || m.equals(method)){
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,161 @@
+package org.wyh.gateway.core.filter.common.condition;
+
+import org.wyh.gateway.core.context.GatewayContext;
+
+/**
+ * @BelongsProject: api-gateway-server
+ * @BelongsPackage: org.wyh.gateway.core.filter.common.condition
+ * @Author: wyh
+ * @Date: 2024-12-06 10:00
+ * @Description: 请求路径条件的判断器。支持的通配符：?匹配单个字符，*匹配单层路径中的任意字符，**匹配任意多层路径。
+                 编译时会识别出两种最常见的模式，以便直接比较：
+                 不含通配符的模式（精确匹配），以及只以/**结尾的模式（前缀匹配）。
+                 其他模式则在编译时按/切分为多段，匹配时在原字符串上按路径层级逐段匹配，不会创建任何对象。
+                 注意：只有单独成段的**才匹配多层路径，段内的**（如/a**）与*相同。
+ */
+final class PathGlobPredicate implements FilterPredicate {
+    //精确匹配
+    private static final int EXACT = 0;
+    //前缀匹配
+    private static final int PREFIX = 1;
+    //通配符匹配
+    private static final int GLOB = 2;
+    //路径的通配符模式
+    private final String pattern;
+    //匹配方式
+    private final int kind;
+    //前缀匹配时的前缀（不包括结尾的/**）
+    private final String prefix;
+    //通配符匹配时，模式按/分隔后的各段
+    private final String[] segments;
+    //匹配任意多层路径的模式段
+    private static final String DOUBLE_STAR = "**";
+    /**
+     * @date: 2024-12-06 10:02
+     * @description: 有参构造器。分析通配符模式，确定匹配方式
+     * @Param pattern:
+     * @return: null
+     */
+    PathGlobPredicate(String pattern){
+        this.pattern = pattern;
+        String head = pattern.endsWith("/**") ? pattern.substring(0, pattern.length() - 3) : null;
+        if(!hasWildcard(pattern)){
+            this.kind = EXACT;
+            this.prefix = null;
+            this.segments = null;
+        }else if(head != null && !hasWildcard(head)){
+            this.kind = PREFIX;
+            this.prefix = head;
+            this.segments = null;
+        }else{
+            this.kind = GLOB;
+            this.prefix = null;
+            this.segments = pattern.split("/", -1);
+        }
+    }
+    /**
+     * @date: 2024-12-06 10:05
+     * @description: 判断字符串中是否包含通配符
+     * @Param str:
+     * @return: boolean
+     */
+    private static boolean hasWildcard(String str){
+        return str.indexOf('*') >= 0 || str.indexOf('?') >= 0;
+    }
+
+    @Override
+    public boolean test(GatewayContext ctx) {
+        String path = ctx.getRequest().getPath();
+        switch (kind){
+            case EXACT:
+                return pattern.equals(path);
+            case PREFIX:
+                //前缀本身，以及以"前缀/"开头的路径都满足条件
+                return path.startsWith(prefix) &&
+                        (path.length() == prefix.length() || path.charAt(prefix.length()) == '/');
+            default:
+                return match(segments, path);
+        }
+    }
+    /**
+     * @date: 2024-12-16 19:10
+     * @description: 判断路径是否与通配符模式匹配。按路径层级（以/分隔）逐段匹配：
+                     **段可以匹配任意多段路径，使用双指针法，失配时只回退到最近一个**段，多吃掉一段路径后重新匹配，
+                     因此最坏情况下的开销为O(模式段数 * 路径段数 * 段长)，不会出现指数级的回溯
+     * @Param segments: 模式按/分隔后的各段
+     * @Param s: 请求路径
+     * @return: boolean
+     */
+    private static boolean match(String[] segments, String s){
+        int slen = s.length();
+        int pi = 0;
+        //当前路径段的起始位置（大于slen表示路径已经匹配完）
+        int si = 0;
+        //最近一个**段的位置，及其开始匹配的路径段起始位置
+        int starPi = -1;
+        int starSi = 0;
+        while(si <= slen){
+            int end = s.indexOf('/', si);
+            if(end < 0){
+                end = slen;
+            }
+            if(pi < segments.length && DOUBLE_STAR.equals(segments[pi])){
+                //**：先尝试匹配零段路径
+                starPi = pi++;
+                starSi = si;
+            }else if(pi < segments.length && matchSegment(segments[pi], s, si, end)){
+                pi++;
+                si = end + 1;
+            }else if(starPi >= 0){
+                //失配，回退到最近的**段，让它多匹配一段路径
+                pi = starPi + 1;
+                int starEnd = s.indexOf('/', starSi);
+                starSi = (starEnd < 0 ? slen : starEnd) + 1;
+                si = starSi;
+            }else{
+                return false;
+            }
+        }
+        //路径已经匹配完，剩余的模式段只能是**
+        while(pi < segments.length && DOUBLE_STAR.equals(segments[pi])){
+            pi++;
+        }
+        return pi == segments.length;
+    }
+    /**
+     * @date: 2024-12-16 19:12
+     * @description: 判断单段路径是否与单段模式匹配（*匹配段内任意字符，?匹配段内单个字符），使用双指针法
+     * @Param p: 单段模式
+     * @Param s: 请求路径
+     * @Param from: 路径段的起始位置
+     * @Param to: 路径段的结束位置（不包含）
+     * @return: boolean
+     */
+    private static boolean matchSegment(String p, String s, int from, int to){
+        int plen = p.length();
+        int pi = 0;
+        int si = from;
+        //最近一个*的位置，及其已匹配到的路径位置
+        int star = -1;
+        int mark = from;
+        while(si < to){
+            if(pi < plen && (p.charAt(pi) == '?' || p.charAt(pi) == s.charAt(si))){
+                pi++;
+                si++;
+            }else if(pi < plen && p.charAt(pi) == '*'){
+                star = pi++;
+                mark = si;
+            }else if(star >= 0){
+                //失配，回退到最近的*，让它多匹配一个字符
+                pi = star + 1;
+                si = ++mark;
+            }else{
+                return false;
+            }
+        }
+        while(pi < plen && p.charAt(pi) == '*'){
+            pi++;
+        }
+        return pi == plen;
+    }
+}
@@ -0,0 +1,88 @@
+package org.wyh.gateway.core.filter.common.condition;
+
+import org.wyh.gateway.core.context.GatewayContext;
+
+import java.util.Map;
+
+/**
+ * @BelongsProject: api-gateway-server
+ * @BelongsPackage: org.wyh.gateway.core.filter.common.condition
+ * @Author: wyh
+ * @Date: 2024-12-06 10:30
+ * @Description: 查询参数条件的判断器。请求必须满足所有的查询参数条件。
+                 为了避免对查询字符串进行解码（解码会创建大量对象），该判断器直接在原始uri上查找参数，
+                 所以参数的期望值需要与原始的（未解码的）查询字符串中的值一致。
+ */
+final class QueryParamPredicate implements FilterPredicate {
+    //参数名称
+    private final String[] names;
+    //参数的期望值，与名称一一对应。为null表示只要求参数存在
+    private final String[] values;
+    /**
+     * @date: 2024-12-06 10:32
+     * @description: 有参构造器
+     * @Param queryParams: key为参数名称，value为期望值
+     * @return: null
+     */
+    QueryParamPredicate(Map<String, String> queryParams){
+        this.names = new String[queryParams.size()];
+        this.values = new String[queryParams.size()];
+        int i = 0;
+        for (Map.Entry<String, String> entry : queryParams.entrySet()) {
+            names[i] = entry.getKey().trim();
+            values[i] = HeaderPredicate.ANY_VALUE.equals(entry.getValue()) ? null : entry.getValue();
+            i++;
+        }
+    }
+
+    @Override
+    public boolean test(GatewayContext ctx) {
+        String uri = ctx.getRequest().getUri();
+        int queryStart = uri.indexOf('?');
+        if(queryStart < 0){
+            return false;
+        }
+        int queryEnd = uri.indexOf('#', queryStart);
+        if(queryEnd < 0){
+            queryEnd = uri.length();
+        }
+        for (int i = 0; i < names.length; i++) {
+            if(!containsParam(uri, queryStart + 1, queryEnd, names[i], values[i])){
+                return false;
+            }
+        }
+        return true;
+    }
+    /**
+     * @date: 2024-12-06 10:35
+     * @description: 判断查询字符串（uri中的[start, end)区间）中是否存在满足条件的参数
+     * @Param uri:
+     * @Param start:
+     * @Param end:
+     * @Param name: 参数名称
+     * @Param value: 期望值，为null表示只要求参数存在
+     * @return: boolean
+     */
+    private static boolean containsParam(String uri, int start, int end, String name, String value){
+        int pos = start;
+        while(pos < end){
+            int paramEnd = uri.indexOf('&', pos);
+            if(paramEnd < 0 || paramEnd > end){
+                paramEnd = end;
+            }
+            int nameEnd = pos + name.length();
+            if(nameEnd <= paramEnd && uri.startsWith(name, pos)
+                    && (nameEnd == paramEnd || uri.charAt(nameEnd) == '=')){
+                if(value == null){
+                    return true;
+                }
+                int valueStart = nameEnd == paramEnd ? paramEnd : nameEnd + 1;
+                if(paramEnd - valueStart == value.length() && uri.startsWith(value, valueStart)){
+                    return true;
+                }
+            }
+            pos = paramEnd + 1;
+        }
+        return false;
+    }
+}
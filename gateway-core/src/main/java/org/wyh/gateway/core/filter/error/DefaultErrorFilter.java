@@ -19,7 +19,7 @@ import static org.wyh.gateway.common.constant.FilterConst.*;
  * @BelongsPackage: org.wyh.gateway.core.filter.error
  * @Author: wyh
  * @Date: 2024-05-28 9:15
- * @Description: 默认的异常处理过滤器，负责检查上下文中的异常信息，并向客户端写回相应的响应
+ * @Description: 默认的异常处理过滤器，负责检查上下文中的异常信息（或请求的拒绝响应码），并向客户端写回相应的响应
                  注意：路由过滤器中的complete方法即使出现异常，也不会调用异常处理过滤器
  */
 @Slf4j
@@ -59,10 +59,12 @@ public class DefaultErrorFilter extends AbstractGatewayFilter<DefaultErrorFilter
             //异常对应的异常响应码，默认为ResponseCode.INTERNAL_ERROR
             ResponseCode responseCode = ResponseCode.INTERNAL_ERROR;
             Throwable throwable = ctx.getThrowable();
-            //判断异常对象是否属于网关定义的异常类型（注意要使用getCause获取原始异常对象）
-            if(throwable.getCause() instanceof BaseException){
-                BaseException baseException = (BaseException) (throwable.getCause());
-                responseCode = baseException.getCode();
+            if(ctx.isRejected()){
+                //请求被拒绝（预期内的结果），直接使用拒绝响应码
+                responseCode = ctx.getRejectCode();
+            }else if(throwable instanceof BaseException){
+                //过滤器会直接抛出原始异常，所以无需再通过getCause解包
+                responseCode = ((BaseException) throwable).getCode();
             }
             //构建并设置网关响应对象
             ctx.setResponse(GatewayResponse.buildGatewayResponse(responseCode));
@@ -74,13 +76,8 @@ public class DefaultErrorFilter extends AbstractGatewayFilter<DefaultErrorFilter
         }finally {
             log.info("【异常处理过滤器】正在写回异常响应");
             //需写回异常响应，因此将上下文状态设置为written
+            //之后过滤器链会检测到上下文状态变为written，于是执行结果写回方法
             ctx.setWritten();
-            /*
-             * 调用父类AbstractLinkedFilter的fireNext方法，
-             * 根据上下文的当前状态做出相关操作，然后触发/激发下一个过滤器组件
-             * （这是过滤器链能够顺序执行的关键）
-             */
-            super.fireNext(ctx);
         }
     }
 }
@@ -3,6 +3,7 @@ package org.wyh.gateway.core.filter.post;
 import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.HttpHandler;
 import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.Metrics;
 import io.micrometer.core.instrument.Timer;
 import io.micrometer.prometheus.PrometheusConfig;
 import io.micrometer.prometheus.PrometheusMeterRegistry;
@@ -109,13 +110,6 @@ public class StatisticFilter extends AbstractGatewayFilter<StatisticFilter.Confi
             //后置过滤器执行出现异常时，只做简单的日志打印和异常设置，然后继续往下执行
             log.error(EXCEPTION_MSG + e.getMessage());
             ctx.setThrowable(e);
-        }finally {
-            /*
-             * 调用父类AbstractLinkedFilter的fireNext方法，
-             * 根据上下文的当前状态做出相关操作，然后触发/激发下一个过滤器组件
-             * （这是过滤器链能够顺序执行的关键）
-             */
-            super.fireNext(ctx);
         }
     }
     /**
@@ -138,6 +132,8 @@ public class StatisticFilter extends AbstractGatewayFilter<StatisticFilter.Confi
      */
     private void initialized(){
         registry = new PrometheusMeterRegistry(PrometheusConfig.DEFAULT);
+        //其他组件（如异常实例检测器）注册在全局注册中心中的指标，也通过该注册中心导出
+        Metrics.addRegistry(registry);
         //供Prometheus拉取数据的api的端口号
         int port = ConfigLoader.getConfig().getPrometheusPort();
         //供Prometheus拉取数据的api的路径
@@ -1,6 +1,7 @@
 package org.wyh.gateway.core.filter.pre.authentication;
 
 import io.jsonwebtoken.Jwt;
+import io.jsonwebtoken.JwtException;
 import io.jsonwebtoken.Jwts;
 import io.jsonwebtoken.impl.DefaultClaims;
 import io.netty.handler.codec.http.cookie.Cookie;
@@ -8,7 +9,6 @@ import lombok.Getter;
 import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
 import org.wyh.gateway.common.enumeration.ResponseCode;
-import org.wyh.gateway.common.exception.ResponseException;
 import org.wyh.gateway.core.config.ConfigLoader;
 import org.wyh.gateway.core.context.GatewayContext;
 import org.wyh.gateway.core.filter.common.base.FilterAspect;
@@ -47,8 +47,6 @@ public class UserAuthFilter extends AbstractGatewayFilter<UserAuthFilter.Config>
      */
     //从静态配置类中获取生成签名时使用的密钥
     private static final String SECRET_KEY = ConfigLoader.getConfig().getSecretKey();
-    //异常消息
-    private static final String EXCEPTION_MSG = "【用户鉴权过滤器】执行异常: ";
     /**
      * @BelongsProject: my-api-gateway
      * @BelongsPackage: org.wyh.core.filter.authentication
@@ -83,31 +81,27 @@ public class UserAuthFilter extends AbstractGatewayFilter<UserAuthFilter.Config>
     }
     @Override
     public void doFilter(GatewayContext ctx, Object... args) throws Throwable {
+        //从请求对象中获取相应的cookie
+        Cookie cookie = ctx.getRequest().getCookie(COOKIE_NAME);
+        //若存放jwt的cookie不存在，则说明用户未登录
+        if(cookie == null){
+            //拒绝该请求（用户未登录属于预期内的结果，不抛出异常）
+            ctx.reject(ResponseCode.UNAUTHORIZED);
+            return;
+        }
+        String token = cookie.value();
+        //解析jwt，获取用户id
+        long userId;
         try{
-            //从请求对象中获取相应的cookie
-            Cookie cookie = ctx.getRequest().getCookie(COOKIE_NAME);
-            //若存放jwt的cookie不存在，则说明用户未登录
-            if(cookie == null){
-                //抛出用户未登录异常
-                throw new ResponseException(ctx.getUniqueId(), ResponseCode.UNAUTHORIZED);
-            }
-            String token = cookie.value();
-            //解析jwt，获取用户id
-            long userId = parseUserId(token);
-            //设置请求对象中的userId属性，方便下游后台服务获取用户身份信息。
-            ctx.getRequest().setUserId(userId);
-            log.info("【用户鉴权过滤器】用户鉴权成功：{}", userId);
-        } catch(Exception e){
-            //过滤器执行过程出现异常，（正常）过滤器链执行结束，将上下文状态设置为terminated
-            ctx.setTerminated();
-            throw new Exception(EXCEPTION_MSG + e.getMessage(), e);
-        } finally {
-            /*
-             * 调用父类AbstractLinkedFilter的fireNext方法，
-             * 根据上下文的当前状态做出相关操作，然后触发/激发下一个过滤器组件
-             * （这是过滤器链能够顺序执行的关键）
-             */
-            super.fireNext(ctx);
+            userId = parseUserId(token);
+        }catch (JwtException | IllegalArgumentException e){
+            //jwt无效（被篡改，已过期或格式错误），同样视为用户未登录
+            log.warn("【用户鉴权过滤器】jwt解析失败: {}", e.getMessage());
+            ctx.reject(ResponseCode.UNAUTHORIZED);
+            return;
         }
+        //设置请求对象中的userId属性，方便下游后台服务获取用户身份信息。
+        ctx.getRequest().setUserId(userId);
+        log.info("【用户鉴权过滤器】用户鉴权成功：{}", userId);
     }
 }
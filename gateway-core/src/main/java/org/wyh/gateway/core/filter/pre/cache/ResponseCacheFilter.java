@@ -0,0 +1,76 @@
+package org.wyh.gateway.core.filter.pre.cache;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.wyh.gateway.core.cache.ResponseCacheManager;
+import org.wyh.gateway.core.context.GatewayContext;
+import org.wyh.gateway.core.filter.common.AbstractGatewayFilter;
+import org.wyh.gateway.core.filter.common.base.FilterAspect;
+import org.wyh.gateway.core.filter.common.base.FilterConfig;
+import org.wyh.gateway.core.filter.common.base.FilterType;
+import org.wyh.gateway.core.helper.ResponseHelper;
+import org.wyh.gateway.core.response.GatewayResponse;
+
+import static org.wyh.gateway.common.constant.FilterConst.*;
+
+/**
+ * @BelongsProject: api-gateway-server
+ * @BelongsPackage: org.wyh.gateway.core.filter.pre.cache
+ * @Author: wyh
+ * @Date: 2024-12-16 18:42
+ * @Description: 响应缓存过滤器，按照HTTP缓存语义缓存服务实例的响应（具体见ResponseCacheManager）。
+                 缓存命中时直接写回缓存的响应，不再执行后续的过滤器，请求也不会发往服务实例；
+                 未命中时继续执行过滤器链，由路由过滤器在收到响应后更新缓存。
+ */
+@FilterAspect(id=RESPONSE_CACHE_FILTER_ID,
+              name=RESPONSE_CACHE_FILTER_NAME,
+              type=FilterType.PRE,
+              order=RESPONSE_CACHE_FILTER_ORDER)
+public class ResponseCacheFilter extends AbstractGatewayFilter<ResponseCacheFilter.Config> {
+    //未设置配置信息时使用的默认配置
+    private static final Config DEFAULT_CONFIG = new Config();
+    /**
+     * @BelongsProject: api-gateway-server
+     * @BelongsPackage: org.wyh.gateway.core.filter.pre.cache
+     * @Author: wyh
+     * @Date: 2024-12-16 18:43
+     * @Description: （静态内部类）该过滤器的配置类。
+     */
+    @Setter
+    @Getter
+    public static class Config extends FilterConfig{
+        //响应的新鲜时间（s），设置后覆盖响应头中的Cache-Control和Expires。小于等于0表示根据响应头计算
+        private long ttl = 0;
+        //是否缓存POST请求（请求体的摘要会作为缓存键的一部分，只应在查询类的接口上启用）
+        private boolean cachePost = false;
+        //是否在服务实例出现故障（超时，熔断，没有可用实例等）时使用最近一次成功的响应（即使已过期）。
+        //启用后，成功的响应即使没有缓存相关的响应头也会被保存，但只用于故障时的降级
+        private boolean staleIfError = false;
+        //故障时，响应在过期后仍可使用的最长时间（s）
+        private long staleIfErrorMaxAge = 24 * 60 * 60;
+    }
+    /**
+     * @date: 2024-12-16 18:44
+     * @description: 无参构造器，负责初始化父类的filterConfigClass属性
+     * @return: null
+     */
+    public ResponseCacheFilter(){
+        super(ResponseCacheFilter.Config.class);
+    }
+
+    @Override
+    public void doFilter(GatewayContext ctx, Object... args) throws Throwable {
+        //args[0]其实就是该过滤器的配置类实例
+        ResponseCacheFilter.Config filterConfig = args[0] != null ? (ResponseCacheFilter.Config) args[0] : DEFAULT_CONFIG;
+        GatewayResponse response = ResponseCacheManager.getInstance()
+                .lookup(ctx, filterConfig.getTtl(), filterConfig.isCachePost(),
+                        filterConfig.isStaleIfError() ? filterConfig.getStaleIfErrorMaxAge() : 0);
+        if(response != null){
+            //缓存命中，直接写回缓存的响应。写回完成后，将上下文状态设置为结束
+            ctx.setResponse(response);
+            ctx.setWritten();
+            ResponseHelper.writeResponse(ctx);
+            ctx.setTerminated();
+        }
+    }
+}
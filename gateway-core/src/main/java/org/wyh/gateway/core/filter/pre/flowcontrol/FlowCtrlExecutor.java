@@ -1,9 +1,12 @@
 package org.wyh.gateway.core.filter.pre.flowcontrol;
 
 import lombok.extern.slf4j.Slf4j;
+import org.wyh.gateway.core.filter.common.AsyncFilterExecutor;
 import org.wyh.gateway.core.filter.pre.flowcontrol.countlimiter.GuavaCountLimiter;
 import org.wyh.gateway.core.filter.pre.flowcontrol.countlimiter.RedisCountLimiter;
 
+import java.util.concurrent.CompletableFuture;
+
 import static org.wyh.gateway.common.constant.FilterConst.*;
 
 /**
@@ -15,8 +18,6 @@ import static org.wyh.gateway.common.constant.FilterConst.*;
  */
 @Slf4j
 public class FlowCtrlExecutor{
-    //限流时的提示信息
-    private static final String LIMIT_MESSAGE ="您的请求过于频繁，请稍后重试";
     /**
      * @BelongsProject: my-api-gateway
      * @BelongsPackage: org.wyh.core.filter.flowcontrol
@@ -47,9 +48,9 @@ public class FlowCtrlExecutor{
      * @description: 按照指定的配置信息，对目标对象进行流量控制。
      * @Param flowCtrlConfig:
      * @Param value: 限流对象的值。若限流类型为path，则该值就是方法调用的路径；若为service，就是服务的唯一id。
-     * @return: void
+     * @return: boolean 是否放行该次请求。返回false表示该请求被限流（被限流属于预期内的结果，所以不再抛出异常）
      */
-    public void doFlowCtrlFilter(FlowCtrlFilter.Config flowCtrlConfig, String value) {
+    public boolean doFlowCtrlFilter(FlowCtrlFilter.Config flowCtrlConfig, String value) {
         //设定的时间间隔长度（以秒为单位）
         int duration = flowCtrlConfig.getDuration();
         //在上述时间间隔内，设定的最大访问次数
@@ -64,8 +65,21 @@ public class FlowCtrlExecutor{
         }else{
             log.warn("【流量控制过滤器】不支持该限流模式: {}", flowCtrlConfig.getMode());
         }
-        if(!flag){
-            throw new RuntimeException(LIMIT_MESSAGE);
+        return flag;
+    }
+    /**
+     * @date: 2024-12-05 11:00
+     * @description: 异步地对目标对象进行流量控制。
+                     分布式模式需要访问redis，所以放到异步过滤器的I/O线程池中执行，不再阻塞disruptor消费者线程；
+                     单机模式只涉及本地计算，直接在当前线程中执行，并返回已完成的future
+     * @Param flowCtrlConfig:
+     * @Param value: 限流对象的值。
+     * @return: java.util.concurrent.CompletableFuture<java.lang.Boolean> 是否放行该次请求
+     */
+    public CompletableFuture<Boolean> doFlowCtrlFilterAsync(FlowCtrlFilter.Config flowCtrlConfig, String value){
+        if(FLOW_CTRL_MODE_DISTRIBUTED.equals(flowCtrlConfig.getMode())){
+            return AsyncFilterExecutor.getInstance().submit(() -> doFlowCtrlFilter(flowCtrlConfig, value));
         }
+        return CompletableFuture.completedFuture(doFlowCtrlFilter(flowCtrlConfig, value));
     }
 }
@@ -6,11 +6,13 @@ import lombok.extern.slf4j.Slf4j;
 import org.wyh.gateway.common.enumeration.ResponseCode;
 import org.wyh.gateway.core.context.AttributeKey;
 import org.wyh.gateway.core.context.GatewayContext;
-import org.wyh.gateway.core.filter.common.AbstractGatewayFilter;
+import org.wyh.gateway.core.filter.common.AbstractAsyncGatewayFilter;
 import org.wyh.gateway.core.filter.common.base.FilterAspect;
 import org.wyh.gateway.core.filter.common.base.FilterConfig;
 import org.wyh.gateway.core.filter.common.base.FilterType;
 
+import java.util.concurrent.CompletableFuture;
+
 import static org.wyh.gateway.common.constant.FilterConst.*;
 
 /**
@@ -19,15 +21,14 @@ import static org.wyh.gateway.common.constant.FilterConst.*;
  * @Author: wyh
  * @Date: 2024-02-27 10:32
  * @Description: 流量控制/限流过滤器
+                 分布式限流需要访问redis，所以该过滤器属于异步过滤器，redis访问在异步过滤器的I/O线程池中执行
  */
 @Slf4j
 @FilterAspect(id=FLOW_CTRL_FILTER_ID,
               name=FLOW_CTRL_FILTER_NAME,
               type=FilterType.PRE,
               order=FLOW_CTRL_FILTER_ORDER)
-public class FlowCtrlFilter extends AbstractGatewayFilter<FlowCtrlFilter.Config> {
-    //异常消息
-    private static final String EXCEPTION_MSG = "【流量控制过滤器】执行异常: ";
+public class FlowCtrlFilter extends AbstractAsyncGatewayFilter<FlowCtrlFilter.Config> {
     /**
      * @BelongsProject: my-api-gateway
      * @BelongsPackage: org.wyh.core.filter.flowcontrol
@@ -57,40 +58,35 @@ public class FlowCtrlFilter extends AbstractGatewayFilter<FlowCtrlFilter.Config>
         super(FlowCtrlFilter.Config.class);
     }
     @Override
-    public void doFilter(GatewayContext ctx, Object... args) throws Throwable {
-        try{
-            //args[0]其实就是该过滤器的配置类实例
-            FlowCtrlFilter.Config filterConfig = (FlowCtrlFilter.Config)args[0];
-            if(filterConfig == null){
-                log.warn("【流量控制过滤器】未设置配置信息");
-            }else{
-                FlowCtrlExecutor flowCtrlExecutor = FlowCtrlExecutor.getInstance();
-                //当前服务调用的路径
-                String path = ctx.getAttribute(AttributeKey.HTTP_INVOKER).getInvokerPath();
-                //当前访问服务的唯一id
-                String uniqueId = ctx.getUniqueId();
-                if(filterConfig.getType().equals(FLOW_CTRL_TYPE_PATH)){
-                    //对路径限流，则限流对象的值为path
-                    flowCtrlExecutor.doFlowCtrlFilter(filterConfig, path);
-                }else if(filterConfig.getType().equals(FLOW_CTRL_TYPE_SERVICE)){
-                    //对服务限流，则限流对象的值为uniqueId
-                    flowCtrlExecutor.doFlowCtrlFilter(filterConfig, uniqueId);
-                }else{
-                    log.warn("【流量控制过滤器】不支持该限流策略: {}", filterConfig.getType());
-                    //不限流
-                }
-            }
-        }catch (Exception e){
-            //过滤器执行过程出现异常，（正常）过滤器链执行结束，将上下文状态设置为terminated
-            ctx.setTerminated();
-            throw new Exception(EXCEPTION_MSG + e.getMessage(), e);
-        }finally {
-            /*
-             * 调用父类AbstractLinkedFilter的fireNext方法，
-             * 根据上下文的当前状态做出相关操作，然后触发/激发下一个过滤器组件
-             * （这是过滤器链能够顺序执行的关键）
-             */
-            super.fireNext(ctx);
+    protected CompletableFuture<?> doFilterAsync(GatewayContext ctx, FlowCtrlFilter.Config filterConfig) throws Throwable {
+        if(filterConfig == null){
+            log.warn("【流量控制过滤器】未设置配置信息");
+            return CompletableFuture.completedFuture(true);
+        }
+        FlowCtrlExecutor flowCtrlExecutor = FlowCtrlExecutor.getInstance();
+        if(filterConfig.getType().equals(FLOW_CTRL_TYPE_PATH)){
+            //对路径限流，则限流对象的值为当前服务调用的路径
+            String path = ctx.getAttribute(AttributeKey.HTTP_INVOKER).getInvokerPath();
+            return flowCtrlExecutor.doFlowCtrlFilterAsync(filterConfig, path);
+        }else if(filterConfig.getType().equals(FLOW_CTRL_TYPE_SERVICE)){
+            //对服务限流，则限流对象的值为当前访问服务的唯一id
+            return flowCtrlExecutor.doFlowCtrlFilterAsync(filterConfig, ctx.getUniqueId());
+        }else{
+            log.warn("【流量控制过滤器】不支持该限流策略: {}", filterConfig.getType());
+            //不限流
+            return CompletableFuture.completedFuture(true);
+        }
+    }
+
+    @Override
+    protected void onComplete(GatewayContext ctx, FlowCtrlFilter.Config filterConfig, Object result, Throwable throwable) throws Throwable {
+        if(throwable != null){
+            //限流过程出现异常（如redis访问失败或超时），交由异常过滤器链处理（由过滤器链工厂统一记录日志）
+            throw throwable;
+        }
+        if(!(Boolean) result){
+            //请求被限流，直接拒绝该请求（不抛出异常）
+            ctx.reject(ResponseCode.FLOW_CONTROL_LIMITED);
         }
     }
 }
@@ -34,8 +34,6 @@ import static org.wyh.gateway.common.constant.FilterConst.*;
               type=FilterType.PRE,
               order=GRAY_FILTER_ORDER)
 public class GrayFilter extends AbstractGatewayFilter<GrayFilter.Config> {
-    //异常消息
-    private static final String EXCEPTION_MSG = "【灰度过滤器】执行异常: ";
     /**
      * @BelongsProject: my-api-gateway
      * @BelongsPackage: org.wyh.core.filter.gray
@@ -65,50 +63,37 @@ public class GrayFilter extends AbstractGatewayFilter<GrayFilter.Config> {
          * 1、先检查http请求头中是否携带灰度标记。若携带，则直接标记为灰度流量，并跳过第二步
          * 2、再从规则配置中获取灰度ip集合，判断发出请求的客户端ip是否包含在内。若在内，则标为灰度流量。
          */
-        try{
-            //将灰度标记设置到上下文参数中，默认为false
-            ctx.setAttribute(AttributeKey.GRAY_FLAG, false);
-            //尝试从请求头中获取灰度标记参数
-            String grayFlag = ctx.getRequest().getHeaders().get(GRAY_FLAG_KEY);
-            if("true".equals(grayFlag)){
-                ctx.setAttribute(AttributeKey.GRAY_FLAG, true);
+        //将灰度标记设置到上下文参数中，默认为false
+        ctx.setAttribute(AttributeKey.GRAY_FLAG, false);
+        //尝试从请求头中获取灰度标记参数
+        String grayFlag = ctx.getRequest().getHeaders().get(GRAY_FLAG_KEY);
+        if("true".equals(grayFlag)){
+            ctx.setAttribute(AttributeKey.GRAY_FLAG, true);
+        }else{
+            //获取发出请求的客户端的ip地址
+            String clientIp = ctx.getRequest().getClientIp();
+            log.info("【灰度过滤器】客户端ip地址: {}", clientIp);
+            //args[0]其实就是该过滤器的配置类实例
+            GrayFilter.Config filterConfig = (GrayFilter.Config) args[0];
+            if(filterConfig == null){
+                log.warn("【灰度过滤器】未设置配置信息");
             }else{
-                //获取发出请求的客户端的ip地址
-                String clientIp = ctx.getRequest().getClientIp();
-                log.info("【灰度过滤器】客户端ip地址: {}", clientIp);
-                //args[0]其实就是该过滤器的配置类实例
-                GrayFilter.Config filterConfig = (GrayFilter.Config) args[0];
-                if(filterConfig == null){
-                    log.warn("【灰度过滤器】未设置配置信息");
-                }else{
-                    String grayIpSetStr = filterConfig.getGrayIpSet();
-                    if(StringUtils.isNotEmpty(grayIpSetStr)){
-                        String[] grapIpArray = grayIpSetStr.split(";");
-                        // TODO: 2024-05-17 ip地址匹配这一块感觉要重做，并且最好再加一个ip格式验证
-                        //判断当前ip是否在灰度ip数组中
-                        for (String grayIp : grapIpArray) {
-                            if(clientIp.equals(grayIp)){
-                                ctx.setAttribute(AttributeKey.GRAY_FLAG, true);
-                                break;
-                            }
+                String grayIpSetStr = filterConfig.getGrayIpSet();
+                if(StringUtils.isNotEmpty(grayIpSetStr)){
+                    String[] grapIpArray = grayIpSetStr.split(";");
+                    // TODO: 2024-05-17 ip地址匹配这一块感觉要重做，并且最好再加一个ip格式验证
+                    //判断当前ip是否在灰度ip数组中
+                    for (String grayIp : grapIpArray) {
+                        if(clientIp.equals(grayIp)){
+                            ctx.setAttribute(AttributeKey.GRAY_FLAG, true);
+                            break;
                         }
                     }
                 }
             }
-            if(ctx.getAttribute(AttributeKey.GRAY_FLAG)){
-                log.info("【灰度过滤器】当前流量属于灰度流量");
-            }
-        }catch (Exception e){
-            //过滤器执行过程出现异常，（正常）过滤器链执行结束，将上下文状态设置为terminated
-            ctx.setTerminated();
-            throw new Exception(EXCEPTION_MSG + e.getMessage(), e);
-        }finally {
-            /*
-             * 调用父类AbstractLinkedFilter的fireNext方法，
-             * 根据上下文的当前状态做出相关操作，然后触发/激发下一个过滤器组件
-             * （这是过滤器链能够顺序执行的关键）
-             */
-            super.fireNext(ctx);
+        }
+        if(ctx.getAttribute(AttributeKey.GRAY_FLAG)){
+            log.info("【灰度过滤器】当前流量属于灰度流量");
         }
 
     }
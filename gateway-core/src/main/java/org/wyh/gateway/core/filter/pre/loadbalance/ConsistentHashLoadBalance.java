@@ -0,0 +1,167 @@
+package org.wyh.gateway.core.filter.pre.loadbalance;
+
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.LoadingCache;
+import org.wyh.gateway.common.config.InstanceGroup;
+import org.wyh.gateway.common.config.ServiceInstance;
+import org.wyh.gateway.core.context.AttributeKey;
+import org.wyh.gateway.core.context.GatewayContext;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * @BelongsProject: api-gateway-server
+ * @BelongsPackage: org.wyh.gateway.core.filter.pre.loadbalance
+ * @Author: wyh
+ * @Date: 2024-12-13 14:30
+ * @Description: 一致性哈希负载均衡（Maglev查找表）。
+                 根据负载均衡过滤器提取的哈希键（如请求头，查询参数，用户id，客户端ip）选择服务实例，
+                 同一个哈希键总是落到同一个实例上，从而提高后台服务本地缓存的命中率。
+                 每个服务实例快照中的实例分组预先构建一张大小为素数M的Maglev查找表：每个实例按各自的排列顺序轮流填充表中的空槽位，
+                 填充的速度与实例配置的权重成正比。选择时只需计算哈希键的哈希值并对M取模，查表即可，开销为O(1)。
+                 查找表只在服务实例快照变更时重建（同一快照只构建一次，并发的请求等待同一次构建的结果）；
+                 增删实例时，只有很少一部分哈希键会被映射到其他实例上。
+                 查找表只使用快照中实例配置的权重，不考虑预热，负载反馈，子集划分和实例摘除（它们会随时间变化，会破坏哈希键与实例之间的稳定映射）。
+                 选择时，若槽位对应的实例当前不可选（被摘除，健康检查失败，不在子集或所选的位置层级中），则依次探测下一个槽位，
+                 因此只有原本映射到不可选实例的哈希键会暂时落到其他实例上，实例恢复后立即回到原实例。
+                 若请求中不存在哈希键，则在查找表中随机选择一个槽位（相当于带权随机）。
+ */
+public class ConsistentHashLoadBalance extends AbstractLoadBalance{
+    //查找表的大小（素数，且远大于实例数量，保证各实例分到的槽位数与权重成比例）
+    private static final int TABLE_SIZE = 65537;
+    //快照中的实例分组及其查找表（以分组的标识作为键，快照被替换后，旧分组的查找表随之被回收）
+    private final LoadingCache<InstanceGroup, int[]> tableCache = Caffeine.newBuilder()
+            .weakKeys()
+            .build(ConsistentHashLoadBalance::buildTable);
+    //各可选实例分组对应的可选标记
+    private final GroupStateCache<Selectable> selectableCache = new GroupStateCache<>(group -> new Selectable(group, group));
+    /**
+     * @BelongsProject: api-gateway-server
+     * @BelongsPackage: org.wyh.gateway.core.filter.pre.loadbalance
+     * @Author: wyh
+     * @Date: 2024-12-16 19:30
+     * @Description: （静态内部类）快照分组中各实例当前是否可选，创建后不可变
+     */
+    private static final class Selectable {
+        //快照中的实例分组
+        private final InstanceGroup source;
+        //快照分组中第i个实例是否在可选实例分组中
+        private final boolean[] flags;
+
+        private Selectable(InstanceGroup source, InstanceGroup group) {
+            this.source = source;
+            this.flags = new boolean[source.size()];
+            Set<ServiceInstance> selectable = Collections.newSetFromMap(new IdentityHashMap<>());
+            for (int i = 0; i < group.size(); i++) {
+                selectable.add(group.get(i));
+            }
+            for (int i = 0; i < source.size(); i++) {
+                flags[i] = selectable.contains(source.get(i));
+            }
+        }
+    }
+
+    @Override
+    protected ServiceInstance doSelect(GatewayContext ctx, InstanceGroup group) {
+        InstanceGroup source = ctx.getAttribute(AttributeKey.SNAPSHOT_INSTANCES);
+        if(source == null || source.isEmpty()){
+            source = group;
+        }
+        int[] table = tableCache.get(source);
+        InstanceGroup snapshotGroup = source;
+        Selectable selectable = selectableCache.get(ctx, group, g -> new Selectable(snapshotGroup, g));
+        if(selectable.source != source){
+            //可选实例分组未变，但快照已被替换（极少出现），只在本次请求中重新计算
+            selectable = new Selectable(source, group);
+        }
+        String hashKey = ctx.getAttribute(AttributeKey.HASH_KEY);
+        int slot;
+        if(hashKey == null){
+            slot = ThreadLocalRandom.current().nextInt(table.length);
+        }else{
+            slot = (int)Long.remainderUnsigned(hash(hashKey, 0), table.length);
+        }
+        //槽位对应的实例不可选时，依次探测下一个槽位
+        for (int i = 0; i < table.length; i++) {
+            int index = table[slot];
+            if(selectable.flags[index]){
+                return source.get(index);
+            }
+            slot = slot + 1 == table.length ? 0 : slot + 1;
+        }
+        //可选实例都不在查找表中（如权重都为0），随机选择一个可选实例
+        return group.get(ThreadLocalRandom.current().nextInt(group.size()));
+    }
+    /**
+     * @date: 2024-12-13 14:40
+     * @description: 构建快照中实例分组的Maglev查找表（使用实例配置的标准权重）。
+                     每个实例根据其id计算出offset和skip，其偏好的槽位序列为(offset + j * skip) mod M，j = 0, 1, 2...
+                     由于M是素数，该序列是0~M-1的一个排列。各实例每轮按权重累加填充额度，额度每满1，
+                     就沿自己的偏好序列找到下一个空槽位并占据它，直到所有槽位都被填满。
+     * @Param group:
+     * @return: int[] 槽位到实例下标的映射
+     */
+    static int[] buildTable(InstanceGroup group){
+        int size = group.size();
+        int[] table = new int[TABLE_SIZE];
+        Arrays.fill(table, -1);
+        long[] offsets = new long[size];
+        long[] skips = new long[size];
+        //各实例偏好序列的当前位置
+        long[] next = new long[size];
+        double[] shares = new double[size];
+        double[] credits = new double[size];
+        int maxWeight = 0;
+        for (int i = 0; i < size; i++) {
+            maxWeight = Math.max(maxWeight, group.getStaticWeight(i));
+        }
+        for (int i = 0; i < size; i++) {
+            String id = group.get(i).getServiceInstanceId();
+            offsets[i] = Long.remainderUnsigned(hash(id, 0x9E3779B97F4A7C15L), TABLE_SIZE);
+            skips[i] = Long.remainderUnsigned(hash(id, 0xC2B2AE3D27D4EB4FL), TABLE_SIZE - 1) + 1;
+            //所有实例的权重都为0时，按相同权重处理
+            shares[i] = maxWeight == 0 ? 1 : (double)group.getStaticWeight(i) / maxWeight;
+        }
+        int filled = 0;
+        while(filled < TABLE_SIZE){
+            for (int i = 0; i < size && filled < TABLE_SIZE; i++) {
+                credits[i] += shares[i];
+                while(credits[i] >= 1 && filled < TABLE_SIZE){
+                    credits[i] -= 1;
+                    int slot;
+                    do{
+                        slot = (int)((offsets[i] + next[i] * skips[i]) % TABLE_SIZE);
+                        next[i]++;
+                    }while(table[slot] >= 0);
+                    table[slot] = i;
+                    filled++;
+                }
+            }
+        }
+        return table;
+    }
+    /**
+     * @date: 2024-12-13 14:50
+     * @description: 计算字符串的64位哈希值（FNV-1a，再经过murmur3的fmix64混淆，保证分布均匀），不会创建任何对象
+     * @Param key:
+     * @Param seed:
+     * @return: long
+     */
+    static long hash(String key, long seed){
+        long h = 0xcbf29ce484222325L ^ seed;
+        for (int i = 0; i < key.length(); i++) {
+            h ^= key.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
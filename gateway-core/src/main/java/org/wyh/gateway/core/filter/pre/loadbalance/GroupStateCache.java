@@ -0,0 +1,92 @@
+package org.wyh.gateway.core.filter.pre.loadbalance;
+
+import org.wyh.gateway.common.config.InstanceGroup;
+import org.wyh.gateway.core.context.AttributeKey;
+import org.wyh.gateway.core.context.GatewayContext;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Function;
+
+/**
+ * @BelongsProject: api-gateway-server
+ * @BelongsPackage: org.wyh.gateway.core.filter.pre.loadbalance
+ * @Author: wyh
+ * @Date: 2024-12-11 14:00
+ * @Description: 有状态负载均衡策略使用的分组状态缓存。
+                 每个服务的正常实例组和灰度实例组，在每个位置层级（见LocalityRouter）上各对应一份状态，状态与创建它时的实例分组绑定：
+                 服务实例发生变更后，快照中的实例分组会被整体替换，此时发现分组不一致，就会基于新分组重新创建状态，
+                 因此状态总是与当前的实例集合保持一致，不需要额外监听服务实例的变更。
+                 不同服务的状态相互独立，具体策略只需在单个状态内部处理并发。
+ */
+final class GroupStateCache<S> {
+    //每个服务的状态槽位数量
+    private static final int SLOTS = 2 * LocalityRouter.MAX_TIERS;
+    //服务唯一id及其状态槽位的集合。槽位为 位置层级 * 2 + 灰度标识（正常实例组为0，灰度实例组为1）
+    private final ConcurrentHashMap<String, AtomicReferenceArray<Entry<S>>> stateMap = new ConcurrentHashMap<>();
+    //根据实例分组创建状态的方法
+    private final Function<InstanceGroup, S> factory;
+    /**
+     * @BelongsProject: api-gateway-server
+     * @BelongsPackage: org.wyh.gateway.core.filter.pre.loadbalance
+     * @Author: wyh
+     * @Date: 2024-12-11 14:05
+     * @Description: （静态内部类）实例分组及其对应的状态
+     */
+    private static final class Entry<S> {
+        private final InstanceGroup group;
+        private final S state;
+
+        private Entry(InstanceGroup group, S state) {
+            this.group = group;
+            this.state = state;
+        }
+    }
+    /**
+     * @date: 2024-12-11 14:08
+     * @description: 有参构造器
+     * @Param factory: 根据实例分组创建状态的方法
+     * @return: null
+     */
+    GroupStateCache(Function<InstanceGroup, S> factory){
+        this.factory = factory;
+    }
+    /**
+     * @date: 2024-12-11 14:10
+     * @description: 获取该次请求匹配的实例分组对应的状态。若状态不存在，或者实例分组已经变更，则重新创建状态
+     * @Param ctx:
+     * @Param group:
+     * @return: S
+     */
+    S get(GatewayContext ctx, InstanceGroup group){
+        return get(ctx, group, factory);
+    }
+    /**
+     * @date: 2024-12-15 14:00
+     * @description: 获取该次请求匹配的实例分组对应的状态。若需要重新创建状态，则使用指定的方法创建
+     * @Param ctx:
+     * @Param group:
+     * @Param factory:
+     * @return: S
+     */
+    S get(GatewayContext ctx, InstanceGroup group, Function<InstanceGroup, S> factory){
+        String uniqueId = ctx.getUniqueId();
+        AtomicReferenceArray<Entry<S>> slots = stateMap.get(uniqueId);
+        if(slots == null){
+            slots = stateMap.computeIfAbsent(uniqueId, key -> new AtomicReferenceArray<>(SLOTS));
+        }
+        Integer tier = ctx.getAttribute(AttributeKey.LOCALITY_TIER);
+        int slot = (tier == null ? 0 : tier * 2) + (Boolean.TRUE.equals(ctx.getAttribute(AttributeKey.GRAY_FLAG)) ? 1 : 0);
+        Entry<S> entry = slots.get(slot);
+        if(entry != null && entry.group == group){
+            return entry.state;
+        }
+        Entry<S> newEntry = new Entry<>(group, factory.apply(group));
+        if(slots.compareAndSet(slot, entry, newEntry)){
+            return newEntry.state;
+        }
+        //其他线程抢先替换了状态。若替换后的状态属于同一个分组，则使用该状态，否则只在本次请求中使用新创建的状态
+        entry = slots.get(slot);
+        return entry != null && entry.group == group ? entry.state : newEntry.state;
+    }
+}
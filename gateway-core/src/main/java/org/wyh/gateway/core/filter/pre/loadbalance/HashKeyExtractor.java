@@ -0,0 +1,99 @@
+package org.wyh.gateway.core.filter.pre.loadbalance;
+
+import io.netty.handler.codec.http.cookie.Cookie;
+import org.apache.commons.lang3.StringUtils;
+import org.wyh.gateway.core.context.GatewayContext;
+import org.wyh.gateway.core.request.GatewayRequest;
+
+import java.util.List;
+
+/**
+ * @BelongsProject: api-gateway-server
+ * @BelongsPackage: org.wyh.gateway.core.filter.pre.loadbalance
+ * @Author: wyh
+ * @Date: 2024-12-13 14:00
+ * @Description: 一致性哈希负载均衡的哈希键提取器，在解析负载均衡过滤器配置时创建，之后不可变。
+                 哈希键的配置格式如下（未配置时默认使用客户端ip）：
+                 header:请求头名称；query:查询参数名称；cookie:cookie名称；
+                 user，即用户鉴权过滤器从JWT中解析出的用户id；ip，即客户端ip。
+ */
+final class HashKeyExtractor {
+    /**
+     * @BelongsProject: api-gateway-server
+     * @BelongsPackage: org.wyh.gateway.core.filter.pre.loadbalance
+     * @Author: wyh
+     * @Date: 2024-12-13 14:02
+     * @Description: 哈希键的来源
+     */
+    private enum Source {
+        HEADER, QUERY, COOKIE, USER, IP
+    }
+    //哈希键的来源
+    private final Source source;
+    //请求头，查询参数或cookie的名称
+    private final String name;
+    /**
+     * @date: 2024-12-13 14:05
+     * @description: private修饰的构造器，只能通过parse方法创建
+     * @Param source:
+     * @Param name:
+     * @return: null
+     */
+    private HashKeyExtractor(Source source, String name){
+        this.source = source;
+        this.name = name;
+    }
+    /**
+     * @date: 2024-12-13 14:08
+     * @description: 解析哈希键配置
+     * @Param hashKey:
+     * @return: org.wyh.gateway.core.filter.pre.loadbalance.HashKeyExtractor
+     */
+    static HashKeyExtractor parse(String hashKey){
+        if(StringUtils.isBlank(hashKey)){
+            return new HashKeyExtractor(Source.IP, null);
+        }
+        String spec = hashKey.trim();
+        int colon = spec.indexOf(':');
+        String type = (colon < 0 ? spec : spec.substring(0, colon)).trim().toLowerCase();
+        String name = colon < 0 ? null : spec.substring(colon + 1).trim();
+        switch (type){
+            case "header":
+            case "query":
+            case "cookie":
+                if(StringUtils.isEmpty(name)){
+                    throw new IllegalArgumentException("哈希键: " + hashKey + " 缺少名称");
+                }
+                return new HashKeyExtractor(Source.valueOf(type.toUpperCase()), name);
+            case "user":
+                return new HashKeyExtractor(Source.USER, null);
+            case "ip":
+                return new HashKeyExtractor(Source.IP, null);
+            default:
+                throw new IllegalArgumentException("不支持的哈希键: " + hashKey);
+        }
+    }
+    /**
+     * @date: 2024-12-13 14:15
+     * @description: 从请求中提取哈希键
+     * @Param ctx:
+     * @return: java.lang.String 若请求中不存在对应的值，则返回null
+     */
+    String extract(GatewayContext ctx){
+        GatewayRequest request = ctx.getRequest();
+        switch (source){
+            case HEADER:
+                return request.getHeaders().get(name);
+            case QUERY:
+                List<String> values = request.getQueryParametersMultiple(name);
+                return values == null || values.isEmpty() ? null : values.get(0);
+            case COOKIE:
+                Cookie cookie = request.getCookie(name);
+                return cookie == null ? null : cookie.value();
+            case USER:
+                return request.getUserId() == -1 ? null : String.valueOf(request.getUserId());
+            default:
+                return request.getClientIp();
+        }
+    }
+}
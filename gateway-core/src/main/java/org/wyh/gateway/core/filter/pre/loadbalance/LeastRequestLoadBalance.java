@@ -0,0 +1,59 @@
+package org.wyh.gateway.core.filter.pre.loadbalance;
+
+import org.wyh.gateway.common.config.InstanceGroup;
+import org.wyh.gateway.common.config.ServiceInstance;
+import org.wyh.gateway.common.utils.TimeUtil;
+import org.wyh.gateway.core.context.GatewayContext;
+import org.wyh.gateway.core.instance.InstanceStats;
+import org.wyh.gateway.core.instance.InstanceStatsManager;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * @BelongsProject: api-gateway-server
+ * @BelongsPackage: org.wyh.gateway.core.filter.pre.loadbalance
+ * @Author: wyh
+ * @Date: 2024-12-12 10:10
+ * @Description: 最少请求数负载均衡。选择正在处理的请求数（in-flight）最少的服务实例。
+                 当某个服务实例变慢时，其未完成的请求会堆积，后续请求便会自动转向其他实例。
+                 若有多个实例的请求数同为最少，则按权重（处于预热期的实例使用预热权重）在这些实例中随机选择一个。
+                 各实例的统计信息数组缓存在实例分组对应的状态中，选择时只需遍历一遍该数组，不需要查找集合，也不会创建对象。
+ */
+public class LeastRequestLoadBalance extends AbstractLoadBalance{
+    //各服务实例分组对应的统计信息数组
+    private final GroupStateCache<InstanceStats[]> statsCache =
+            new GroupStateCache<>(group -> InstanceStatsManager.getInstance().getStats(group));
+
+    @Override
+    protected ServiceInstance doSelect(GatewayContext ctx, InstanceGroup group) {
+        InstanceStats[] stats = statsCache.get(ctx, group);
+        long now = TimeUtil.currentTimeMillis();
+        boolean warmingUp = group.isWarmingUp(now);
+        int selected = 0;
+        long minInFlight = Long.MAX_VALUE;
+        //请求数同为最少的实例的权重之和
+        int tieWeight = 0;
+        for (int i = 0; i < stats.length; i++) {
+            long inFlight = stats[i].getInFlight();
+            if(inFlight > minInFlight){
+                continue;
+            }
+            int weight = warmingUp ? group.getWeight(i, now) : group.getStaticWeight(i);
+            if(inFlight < minInFlight){
+                minInFlight = inFlight;
+                selected = i;
+                tieWeight = weight;
+            }else{
+                /*
+                 * 按权重的蓄水池抽样：遇到第k个请求数同为最少的实例时，以其权重占已遇到实例权重之和的比例替换已选中的实例，
+                 * 遍历结束后，每个实例被选中的概率都等于其权重占所有请求数同为最少的实例权重之和的比例
+                 */
+                tieWeight += weight;
+                if(weight > 0 && ThreadLocalRandom.current().nextInt(tieWeight) < weight){
+                    selected = i;
+                }
+            }
+        }
+        return group.get(selected);
+    }
+}
@@ -1,6 +1,7 @@
 package org.wyh.gateway.core.filter.pre.loadbalance;
 
 import org.wyh.gateway.common.config.ServiceInstance;
+import org.wyh.gateway.common.constant.GatewayConst;
 import org.wyh.gateway.core.context.GatewayContext;
 
 /**
@@ -12,9 +13,9 @@ import org.wyh.gateway.core.context.GatewayContext;
  */
 public interface LoadBalance {
     //默认的服务实例标准权重
-    int DEFAULT_WEIGHT = 100;
+    int DEFAULT_WEIGHT = GatewayConst.DEFAULT_WEIGHT;
     //默认的服务实例预热时间，单位为ms（服务实例的预热期间，其权重会随时间线性增加）
-    int DEFAULT_WARMUP_MS = 3 * 60 * 1000;
+    int DEFAULT_WARMUP_MS = GatewayConst.DEFAULT_WARMUP_MS;
     /**
      * @date: 2024-05-22 13:59
      * @description: 根据具体的负载均衡策略，从服务实例列表中选择一个实例
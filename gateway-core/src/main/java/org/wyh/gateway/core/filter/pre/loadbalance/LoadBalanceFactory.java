@@ -3,7 +3,7 @@ package org.wyh.gateway.core.filter.pre.loadbalance;
 import java.util.HashMap;
 import java.util.Map;
 
-import static org.wyh.gateway.common.constant.FilterConst.LOAD_BALANCE_STRATEGY_RANDOM;
+import static org.wyh.gateway.common.constant.FilterConst.*;
 
 /**
  * @BelongsProject: api-gateway-server
@@ -31,8 +31,11 @@ public class LoadBalanceFactory {
      * @return: null
      */
     private LoadBalanceFactory(){
-        //目前只支持随机负载均衡
         loadBalanceMap.put(LOAD_BALANCE_STRATEGY_RANDOM, new RandomLoadBalance());
+        loadBalanceMap.put(LOAD_BALANCE_STRATEGY_ROUND_ROBIN, new RoundRobinLoadBalance());
+        loadBalanceMap.put(LOAD_BALANCE_STRATEGY_LEAST_REQUEST, new LeastRequestLoadBalance());
+        loadBalanceMap.put(LOAD_BALANCE_STRATEGY_PEAK_EWMA, new PeakEwmaLoadBalance());
+        loadBalanceMap.put(LOAD_BALANCE_STRATEGY_CONSISTENT_HASH, new ConsistentHashLoadBalance());
     }
     /**
      * @date: 2024-05-22 16:51
@@ -4,17 +4,22 @@ import lombok.Getter;
 import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
 import org.wyh.gateway.common.config.DynamicConfigManager;
+import org.wyh.gateway.common.config.Rule;
+import org.wyh.gateway.common.config.InstanceGroup;
 import org.wyh.gateway.common.config.ServiceInstance;
 import org.wyh.gateway.common.enumeration.ResponseCode;
-import org.wyh.gateway.common.exception.ResponseException;
+import org.wyh.gateway.common.exception.BaseException;
+import org.wyh.gateway.core.cache.ResponseCacheManager;
 import org.wyh.gateway.core.context.AttributeKey;
 import org.wyh.gateway.core.context.GatewayContext;
 import org.wyh.gateway.core.filter.common.AbstractGatewayFilter;
 import org.wyh.gateway.core.filter.common.base.FilterAspect;
 import org.wyh.gateway.core.filter.common.base.FilterConfig;
 import org.wyh.gateway.core.filter.common.base.FilterType;
-
-import java.util.Set;
+import org.wyh.gateway.core.helper.ResponseHelper;
+import org.wyh.gateway.core.instance.SelectableInstanceManager;
+import org.wyh.gateway.core.instance.SubsetManager;
+import org.wyh.gateway.core.response.GatewayResponse;
 
 import static org.wyh.gateway.common.constant.FilterConst.*;
 
@@ -33,8 +38,6 @@ import static org.wyh.gateway.common.constant.FilterConst.*;
               type=FilterType.PRE,
               order=LOAD_BALANCE_FILTER_ORDER)
 public class LoadBalanceFilter extends AbstractGatewayFilter<LoadBalanceFilter.Config> {
-    //异常消息
-    private static final String EXCEPTION_MSG = "【负载均衡过滤器】执行异常: ";
     /**
      * @BelongsProject: api-gateway-server
      * @BelongsPackage: org.wyh.gateway.core.filter.pre.loadbalance
@@ -45,8 +48,12 @@ public class LoadBalanceFilter extends AbstractGatewayFilter<LoadBalanceFilter.C
     @Setter
     @Getter
     public static class Config extends FilterConfig{
-        //采用的负载均衡策略（目前支持随机）
+        //采用的负载均衡策略（目前支持随机，平滑加权轮询，最少请求数，Peak EWMA二选一和一致性哈希）
         private String loadBalanceStrategy;
+        //一致性哈希的哈希键，格式为header:名称，query:名称，cookie:名称，user或ip，默认为ip（只在一致性哈希策略下生效）
+        private String hashKey;
+        //由hashKey解析得到的哈希键提取器（在解析配置时创建，不参与反序列化）
+        private transient HashKeyExtractor hashKeyExtractor;
     }
     /**
      * @date: 2024-05-22 16:38
@@ -57,45 +64,71 @@ public class LoadBalanceFilter extends AbstractGatewayFilter<LoadBalanceFilter.C
         super(LoadBalanceFilter.Config.class);
     }
     @Override
-    public void doFilter(GatewayContext ctx, Object... args) throws Throwable {
-        try{
-            //args[0]其实就是该过滤器的配置类实例
-            LoadBalanceFilter.Config filterConfig = (LoadBalanceFilter.Config) args[0];
-            String strategy = filterConfig.getLoadBalanceStrategy();
-            //获取灰度标记
-            Boolean grayFlag = ctx.getAttribute(AttributeKey.GRAY_FLAG);
-            //获取请求要访问的服务的唯一id
-            String uniqueId = ctx.getUniqueId();
-            //从动态配置管理器中获取该唯一id匹配的服务实例集合
-            Set<ServiceInstance> matchedInstances = DynamicConfigManager.getInstance()
-                    .getServiceInstanceByUniqueId(uniqueId, grayFlag);
-            //将该服务实例集合放入对应的上下文参数中，供之后使用
-            ctx.setAttribute(AttributeKey.MATCHED_INSTANCES, matchedInstances);
-            //获取指定负载均衡策略对应的实例。默认使用随机负载均衡。
-            LoadBalance loadBalance = LoadBalanceFactory.getLoadBalance(strategy);
-            if(loadBalance == null){
-                log.warn("【负载均衡过滤器】不支持该负载均衡策略: {} 默认使用随机负载均衡", strategy);
-                loadBalance = LoadBalanceFactory.getLoadBalance(LOAD_BALANCE_STRATEGY_RANDOM);
+    public LoadBalanceFilter.Config parseFilterConfig(Rule.FilterConfig configInfo) {
+        LoadBalanceFilter.Config filterConfig = super.parseFilterConfig(configInfo);
+        //在编译规则时解析哈希键配置，处理请求时直接使用解析结果
+        if(filterConfig != null && LOAD_BALANCE_STRATEGY_CONSISTENT_HASH.equals(filterConfig.getLoadBalanceStrategy())){
+            try{
+                filterConfig.setHashKeyExtractor(HashKeyExtractor.parse(filterConfig.getHashKey()));
+            }catch (IllegalArgumentException e){
+                throw new BaseException("过滤器: " + filterAnnotation.id() + "的配置信息不合法: " + e.getMessage(),
+                        e, ResponseCode.FILTER_CONFIG_PARSE_ERROR);
             }
-            //调用负载均衡实例的select方法，选择一个服务实例（该实例就是最后要访问的对象）
-            ServiceInstance selectedInstance = loadBalance.select(ctx);
-            if(selectedInstance == null){
-                throw new ResponseException(ctx.getUniqueId(), ResponseCode.SERVICE_INSTANCE_NOT_FOUND);
+        }
+        return filterConfig;
+    }
+    @Override
+    public void doFilter(GatewayContext ctx, Object... args) throws Throwable {
+        //args[0]其实就是该过滤器的配置类实例
+        LoadBalanceFilter.Config filterConfig = (LoadBalanceFilter.Config) args[0];
+        String strategy = filterConfig.getLoadBalanceStrategy();
+        //获取灰度标记
+        Boolean grayFlag = ctx.getAttribute(AttributeKey.GRAY_FLAG);
+        //获取请求要访问的服务的唯一id
+        String uniqueId = ctx.getUniqueId();
+        //从动态配置管理器中获取该唯一id匹配的服务实例分组（直接取自当前的服务实例快照，不会复制实例集合）
+        boolean gray = Boolean.TRUE.equals(grayFlag);
+        InstanceGroup sourceInstances = DynamicConfigManager.getInstance().getServiceInstanceGroup(uniqueId, gray);
+        //一致性哈希策略根据快照中的分组构建查找表（不受子集划分，实例摘除和权重调整的影响）
+        ctx.setAttribute(AttributeKey.SNAPSHOT_INSTANCES, sourceInstances);
+        //只访问当前网关节点的实例子集（未启用子集划分时即为所有实例）
+        sourceInstances = SubsetManager.getInstance().getSubset(uniqueId, gray, sourceInstances);
+        //去除当前不可选的实例（如被摘除的异常实例），结果会被缓存，实例状态不变时不会重复计算
+        InstanceGroup matchedInstances = SelectableInstanceManager.getInstance()
+                .getSelectableGroup(uniqueId, gray, sourceInstances);
+        //一致性哈希策略需要的哈希键（位置层级的选择也会使用，因此需要先于层级选择提取）
+        if(filterConfig.getHashKeyExtractor() != null){
+            ctx.setAttribute(AttributeKey.HASH_KEY, filterConfig.getHashKeyExtractor().extract(ctx));
+        }
+        //优先选择与网关位于同一可用区的实例，可用实例不足时溢出到其他可用区
+        matchedInstances = LocalityRouter.getInstance().route(ctx, sourceInstances, matchedInstances);
+        //将该服务实例分组放入对应的上下文参数中，供之后使用
+        ctx.setAttribute(AttributeKey.MATCHED_INSTANCES, matchedInstances);
+        //获取指定负载均衡策略对应的实例。默认使用随机负载均衡。
+        LoadBalance loadBalance = LoadBalanceFactory.getLoadBalance(strategy);
+        if(loadBalance == null){
+            log.warn("【负载均衡过滤器】不支持该负载均衡策略: {} 默认使用随机负载均衡", strategy);
+            loadBalance = LoadBalanceFactory.getLoadBalance(LOAD_BALANCE_STRATEGY_RANDOM);
+        }
+        //调用负载均衡实例的select方法，选择一个服务实例（该实例就是最后要访问的对象）
+        ServiceInstance selectedInstance = loadBalance.select(ctx);
+        if(selectedInstance == null){
+            //启用了stale-if-error时，直接写回最近一次成功的响应
+            GatewayResponse staleResponse = ResponseCacheManager.getInstance()
+                    .getStaleResponse(ctx, "no_instance");
+            if(staleResponse != null){
+                ctx.setResponse(staleResponse);
+                ctx.setWritten();
+                ResponseHelper.writeResponse(ctx);
+                ctx.setTerminated();
+                return;
             }
-            //设置最终服务的地址（这一步非常关键！！！）
-            log.info("【负载均衡过滤器】最终访问实例地址: {}", selectedInstance.getAddress());
-            ctx.getRequest().setModifyHost(selectedInstance.getAddress());
-        } catch (Exception e){
-            //过滤器执行过程出现异常，（正常）过滤器链执行结束，将上下文状态设置为terminated
-            ctx.setTerminated();
-            throw new Exception(EXCEPTION_MSG + e.getMessage(), e);
-        }finally {
-            /*
-             * 调用父类AbstractLinkedFilter的fireNext方法，
-             * 根据上下文的当前状态做出相关操作，然后触发/激发下一个过滤器组件
-             * （这是过滤器链能够顺序执行的关键）
-             */
-            super.fireNext(ctx);
+            //拒绝该请求（没有可用的服务实例属于预期内的结果，不抛出异常）
+            ctx.reject(ResponseCode.SERVICE_INSTANCE_NOT_FOUND);
+            return;
         }
+        //设置最终服务的地址（这一步非常关键！！！）
+        log.info("【负载均衡过滤器】最终访问实例地址: {}", selectedInstance.getAddress());
+        ctx.getRequest().setModifyHost(selectedInstance.getAddress());
     }
 }
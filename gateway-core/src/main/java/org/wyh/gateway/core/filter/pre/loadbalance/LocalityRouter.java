@@ -0,0 +1,187 @@
+package org.wyh.gateway.core.filter.pre.loadbalance;
+
+import org.wyh.gateway.common.config.InstanceGroup;
+import org.wyh.gateway.common.config.ServiceInstance;
+import org.wyh.gateway.core.config.Config;
+import org.wyh.gateway.core.config.ConfigLoader;
+import org.wyh.gateway.core.context.AttributeKey;
+import org.wyh.gateway.core.context.GatewayContext;
+
+import java.util.Objects;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * @BelongsProject: api-gateway-server
+ * @BelongsPackage: org.wyh.gateway.core.filter.pre.loadbalance
+ * @Author: wyh
+ * @Date: 2024-12-15 14:10
+ * @Description: 按位置（可用区/地域）优先的实例分组选择器，位于所有负载均衡策略之前。
+                 根据服务实例与网关的位置关系，将可选实例分组划分为三个层级：
+                 0：与网关位于同一可用区；1：与网关位于同一地域的其他可用区；2：其他地域的实例（仅在网关设置了地域时使用）。
+                 每个层级承担的流量比例 = min(该层级的可用实例比例（按权重） * 超额系数, 剩余比例)，剩余比例依次溢出到下一层级，
+                 因此本可用区的实例全部可用时，请求不会跨可用区；本可用区的实例大量不可用时，流量逐步溢出到其他可用区。
+                 每次请求先按比例随机选择一个层级，再由具体的负载均衡策略在该层级的实例分组中选择实例。
+                 请求带有哈希键（一致性哈希策略）时，层级由哈希键决定，相同的键在层级划分不变时总是落在同一层级。
+                 层级的划分和流量比例只在可选实例分组变更时计算，结果与分组绑定缓存。
+                 若网关未设置可用区，或者实例都位于同一层级，则不做任何处理。
+ */
+public class LocalityRouter {
+    //位置层级的数量
+    static final int MAX_TIERS = 3;
+    //根据哈希键选择层级时使用的哈希种子（与一致性哈希选择槽位时的种子不同，避免两者相关）
+    private static final long TIER_HASH_SEED = 0x632BE59BD9B4E019L;
+    //网关的核心静态配置
+    private final Config config;
+    //各服务实例分组的层级划分
+    private final GroupStateCache<State> stateCache = new GroupStateCache<>(group -> new State(group, group));
+    /**
+     * @BelongsProject: api-gateway-server
+     * @BelongsPackage: org.wyh.gateway.core.filter.pre.loadbalance
+     * @Author: wyh
+     * @Date: 2024-12-15 14:15
+     * @Description: （内部类）可选实例分组的层级划分，创建后不可变
+     */
+    private final class State {
+        //各层级的实例分组（不存在可选实例的层级为null）
+        private final InstanceGroup[] tiers = new InstanceGroup[MAX_TIERS];
+        //各层级流量比例的累加值，用于按比例随机选择层级
+        private final double[] cumulative = new double[MAX_TIERS];
+        //只有一个层级存在可选实例时，该层级的下标，否则为-1
+        private final int singleTier;
+        /**
+         * @date: 2024-12-15 14:20
+         * @description: 有参构造器，划分层级并计算各层级的流量比例
+         * @Param source: 服务实例快照中的分组，用于计算各层级的可用实例比例
+         * @Param selectable: 可选实例分组
+         * @return: null
+         */
+        private State(InstanceGroup source, InstanceGroup selectable){
+            long[] totalWeights = new long[MAX_TIERS];
+            for (int i = 0; i < source.size(); i++) {
+                totalWeights[tierOf(source.get(i))] += Math.max(source.getStaticWeight(i), 1);
+            }
+            long[] availableWeights = new long[MAX_TIERS];
+            int[] tierIndexes = new int[selectable.size()];
+            for (int i = 0; i < selectable.size(); i++) {
+                tierIndexes[i] = tierOf(selectable.get(i));
+                availableWeights[tierIndexes[i]] += Math.max(selectable.getStaticWeight(i), 1);
+            }
+            double[] loads = new double[MAX_TIERS];
+            double remaining = 1;
+            int available = 0;
+            int last = -1;
+            for (int t = 0; t < MAX_TIERS; t++) {
+                if(availableWeights[t] == 0){
+                    continue;
+                }
+                int tier = t;
+                tiers[t] = selectable.filter(i -> tierIndexes[i] == tier);
+                available++;
+                last = t;
+                double health = Math.min((double)availableWeights[t] / Math.max(totalWeights[t], availableWeights[t]), 1);
+                loads[t] = Math.min(health * config.getLocalityOverprovisioningFactor(), remaining);
+                remaining -= loads[t];
+            }
+            this.singleTier = available == 1 ? last : -1;
+            //所有层级的可用比例都较低时，剩余的流量按各层级已分配的比例分摊
+            double assigned = 1 - remaining;
+            double sum = 0;
+            for (int t = 0; t < MAX_TIERS; t++) {
+                if(tiers[t] != null){
+                    sum += assigned > 0 ? loads[t] / assigned : 1.0 / available;
+                }
+                cumulative[t] = sum;
+            }
+        }
+        /**
+         * @date: 2024-12-15 14:30
+         * @description: 按各层级的流量比例选择一个层级。有哈希键时由哈希键决定，否则随机选择
+         * @Param hashKey: 哈希键，可以为null
+         * @return: int
+         */
+        private int nextTier(String hashKey){
+            if(singleTier >= 0){
+                return singleTier;
+            }
+            //哈希值的高53位换算为[0, 1)之间的小数
+            double r = hashKey == null ? ThreadLocalRandom.current().nextDouble()
+                    : (ConsistentHashLoadBalance.hash(hashKey, TIER_HASH_SEED) >>> 11) * 0x1.0p-53;
+            double u = r * cumulative[MAX_TIERS - 1];
+            for (int t = 0; t < MAX_TIERS; t++) {
+                if(tiers[t] != null && u < cumulative[t]){
+                    return t;
+                }
+            }
+            //浮点误差导致未命中时，选择最后一个存在可选实例的层级
+            for (int t = MAX_TIERS - 1; t >= 0; t--) {
+                if(tiers[t] != null){
+                    return t;
+                }
+            }
+            return 0;
+        }
+    }
+    /**
+     * @BelongsProject: api-gateway-server
+     * @BelongsPackage: org.wyh.gateway.core.filter.pre.loadbalance
+     * @Author: wyh
+     * @Date: 2024-12-15 14:35
+     * @Description: 静态内部类，用于实现单例模式
+     */
+    private static class SingletonHolder {
+        private static final LocalityRouter INSTANCE = new LocalityRouter();
+    }
+    /**
+     * @date: 2024-12-15 14:36
+     * @description: private修饰的无参构造器
+     * @return: null
+     */
+    private LocalityRouter(){
+        this.config = ConfigLoader.getConfig();
+    }
+    /**
+     * @date: 2024-12-15 14:36
+     * @description: 获取该类的唯一实例
+     * @return: org.wyh.gateway.core.filter.pre.loadbalance.LocalityRouter
+     */
+    public static LocalityRouter getInstance(){
+        return SingletonHolder.INSTANCE;
+    }
+    /**
+     * @date: 2024-12-15 14:40
+     * @description: 为该次请求选择一个位置层级，返回该层级的实例分组，并将层级放入上下文参数中
+     * @Param ctx:
+     * @Param source: 服务实例快照中的分组
+     * @Param selectable: 可选实例分组
+     * @return: org.wyh.gateway.common.config.InstanceGroup
+     */
+    public InstanceGroup route(GatewayContext ctx, InstanceGroup source, InstanceGroup selectable){
+        ctx.setAttribute(AttributeKey.LOCALITY_TIER, null);
+        if(config.getZone() == null || config.getZone().isEmpty() || selectable.size() <= 1){
+            return selectable;
+        }
+        State state = stateCache.get(ctx, selectable, group -> new State(source, group));
+        int tier = state.nextTier(ctx.getAttribute(AttributeKey.HASH_KEY));
+        if(tier > 0){
+            ctx.setAttribute(AttributeKey.LOCALITY_TIER, tier);
+        }
+        return state.tiers[tier];
+    }
+    /**
+     * @date: 2024-12-15 14:45
+     * @description: 计算服务实例相对于网关的位置层级
+     * @Param instance:
+     * @return: int
+     */
+    private int tierOf(ServiceInstance instance){
+        String region = config.getRegion();
+        //网关未设置地域时，无法判断其他可用区的远近，统一视为同地域的其他可用区
+        if(region == null || region.isEmpty()){
+            return Objects.equals(config.getZone(), instance.getZone()) ? 0 : 1;
+        }
+        if(!region.equals(instance.getRegion())){
+            return 2;
+        }
+        return Objects.equals(config.getZone(), instance.getZone()) ? 0 : 1;
+    }
+}
@@ -0,0 +1,74 @@
+package org.wyh.gateway.core.filter.pre.loadbalance;
+
+import org.wyh.gateway.common.config.InstanceGroup;
+import org.wyh.gateway.common.config.ServiceInstance;
+import org.wyh.gateway.common.utils.TimeUtil;
+import org.wyh.gateway.core.context.GatewayContext;
+import org.wyh.gateway.core.instance.InstanceStats;
+import org.wyh.gateway.core.instance.InstanceStatsManager;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * @BelongsProject: api-gateway-server
+ * @BelongsPackage: org.wyh.gateway.core.filter.pre.loadbalance
+ * @Author: wyh
+ * @Date: 2024-12-13 10:00
+ * @Description: 基于Peak EWMA延迟的二选一（Power of Two Choices）负载均衡。
+                 每次随机抽取两个不同的实例，选择其中负载代价较低的一个，选择的开销为O(1)，与实例数量无关。
+                 负载代价 = 衰减后的延迟统计值 * (正在处理的请求数 + 1) / 当前权重，
+                 既考虑了实例的响应速度（适应不同配置的机器），也考虑了实例当前的排队情况，同时按权重缩放。
+                 处于预热期的实例权重较低，代价相应较高；但还没有延迟样本且空闲的实例代价为0，被抽中时一定会被选中，
+                 因此新上线的实例在预热期内仍然能获得流量，并尽快积累延迟样本。
+                 还没有延迟样本但已有请求在处理的实例，使用一个很大的惩罚代价，避免在拿到第一个响应之前被大量请求冲击。
+ */
+public class PeakEwmaLoadBalance extends AbstractLoadBalance{
+    //还没有延迟样本的实例的惩罚代价
+    private static final double PENALTY = (double)(Long.MAX_VALUE >> 16);
+    //各服务实例分组对应的统计信息数组
+    private final GroupStateCache<InstanceStats[]> statsCache =
+            new GroupStateCache<>(group -> InstanceStatsManager.getInstance().getStats(group));
+
+    @Override
+    protected ServiceInstance doSelect(GatewayContext ctx, InstanceGroup group) {
+        InstanceStats[] stats = statsCache.get(ctx, group);
+        int size = stats.length;
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        //随机抽取两个不同的实例
+        int a = random.nextInt(size);
+        int b = random.nextInt(size - 1);
+        if(b >= a){
+            b++;
+        }
+        long nowNanos = System.nanoTime();
+        long nowMillis = TimeUtil.currentTimeMillis();
+        long decayNanos = InstanceStatsManager.getDecayNanos();
+        boolean warmingUp = group.isWarmingUp(nowMillis);
+        double costA = cost(stats[a], nowNanos, decayNanos,
+                warmingUp ? group.getWeight(a, nowMillis) : group.getStaticWeight(a));
+        double costB = cost(stats[b], nowNanos, decayNanos,
+                warmingUp ? group.getWeight(b, nowMillis) : group.getStaticWeight(b));
+        return group.get(costA <= costB ? a : b);
+    }
+    /**
+     * @date: 2024-12-13 10:10
+     * @description: 计算实例的负载代价
+     * @Param stats:
+     * @Param nowNanos:
+     * @Param decayNanos:
+     * @Param weight: 实例的当前权重
+     * @return: double
+     */
+    private static double cost(InstanceStats stats, long nowNanos, long decayNanos, int weight){
+        long inFlight = stats.getInFlight();
+        double latency = stats.getLatencyEwma(nowNanos, decayNanos);
+        double cost;
+        if(latency == 0){
+            cost = inFlight == 0 ? 0 : PENALTY + inFlight;
+        }else{
+            cost = latency * (inFlight + 1);
+        }
+        //权重为0的实例只有在两个实例都无法选择时才会被选中
+        return weight > 0 ? cost / weight : Double.MAX_VALUE;
+    }
+}
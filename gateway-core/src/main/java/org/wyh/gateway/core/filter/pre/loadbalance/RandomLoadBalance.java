@@ -1,10 +1,12 @@
 package org.wyh.gateway.core.filter.pre.loadbalance;
 
+import org.wyh.gateway.common.config.InstanceGroup;
 import org.wyh.gateway.common.config.ServiceInstance;
+import org.wyh.gateway.common.utils.TimeUtil;
 import org.wyh.gateway.core.context.GatewayContext;
 
-import java.util.List;
 import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * @BelongsProject: api-gateway-server
@@ -12,41 +14,161 @@ import java.util.concurrent.ThreadLocalRandom;
  * @Author: wyh
  * @Date: 2024-05-22 15:25
  * @Description: （带权）随机负载均衡。服务实例的权重越高，被选中的概率越高。
+                 带权随机使用别名方法（alias method）实现：每个实例分组预先根据有效权重构建一张别名表，
+                 选择时只需一次随机数，查一次表即可，开销为O(1)，与实例数量无关。
+                 别名表与实例分组绑定，服务实例快照变更后会重新构建；
+                 分组中有实例处于预热期时，预热权重随时间变化，此时别名表按固定的时间间隔刷新（由刷新时刻到达后的第一个请求负责重建，
+                 其他请求继续使用旧表，不会阻塞），预热结束后便不再刷新。
  */
 public class RandomLoadBalance extends AbstractLoadBalance{
-    @Override
-    protected ServiceInstance doSelect(GatewayContext ctx, List<ServiceInstance> instances) {
-        int size = instances.size();
-        //总权重
-        int totalWeight = 0;
-        //标识是否每个实例的权重都相同
-        boolean sameWeight = true;
-        for(int i = 0; i < size; i++){
-            int weight = super.getWeight(instances.get(i));
-            totalWeight += weight;
-            //判断当前实例与上一个实例的权重值是否相同。（若sameWeight已经为false，则没有比较的必要）
-            if(sameWeight && i > 0 && weight != super.getWeight(instances.get(i-1))){
-                sameWeight = false;
+    //预热期间别名表的刷新间隔（ms）
+    private static final long WARM_UP_REFRESH_INTERVAL = 1000;
+    //各服务实例分组的别名表状态
+    private final GroupStateCache<State> stateCache = new GroupStateCache<>(State::new);
+    /**
+     * @BelongsProject: api-gateway-server
+     * @BelongsPackage: org.wyh.gateway.core.filter.pre.loadbalance
+     * @Author: wyh
+     * @Date: 2024-12-14 9:30
+     * @Description: （静态内部类）根据有效权重构建的别名表，构建完成后不可变。
+                     表中第i列由实例i占据prob[i]的比例，剩余部分由实例alias[i]占据，每一列的总概率均为1/n。
+     */
+    private static final class AliasTable {
+        //各列中本列实例所占的比例
+        private final double[] prob;
+        //各列中另一个实例（别名）的下标
+        private final int[] alias;
+        //是否所有实例的有效权重都相同（此时不需要查表）
+        private final boolean uniform;
+        /**
+         * @date: 2024-12-14 9:35
+         * @description: 使用Vose算法构建别名表，时间复杂度为O(n)
+         * @Param weights: 各实例的有效权重
+         * @return: null
+         */
+        private AliasTable(int[] weights){
+            int n = weights.length;
+            long total = 0;
+            boolean same = true;
+            for (int i = 0; i < n; i++) {
+                total += weights[i];
+                same = same && weights[i] == weights[0];
+            }
+            this.uniform = same || total == 0;
+            this.prob = new double[n];
+            this.alias = new int[n];
+            if(uniform){
+                return;
+            }
+            //将权重缩放为平均值为1的比例，小于1的放入small栈，其余放入large栈
+            double[] scaled = new double[n];
+            int[] small = new int[n];
+            int[] large = new int[n];
+            int smallSize = 0;
+            int largeSize = 0;
+            for (int i = 0; i < n; i++) {
+                scaled[i] = (double)weights[i] * n / total;
+                if(scaled[i] < 1){
+                    small[smallSize++] = i;
+                }else{
+                    large[largeSize++] = i;
+                }
+            }
+            //每次取一个不足1的列，用一个超过1的实例补足
+            while(smallSize > 0 && largeSize > 0){
+                int s = small[--smallSize];
+                int l = large[--largeSize];
+                prob[s] = scaled[s];
+                alias[s] = l;
+                scaled[l] = scaled[l] + scaled[s] - 1;
+                if(scaled[l] < 1){
+                    small[smallSize++] = l;
+                }else{
+                    large[largeSize++] = l;
+                }
+            }
+            //剩余的列（包括浮点误差导致的剩余）比例均为1
+            while(largeSize > 0){
+                prob[large[--largeSize]] = 1;
+            }
+            while(smallSize > 0){
+                prob[small[--smallSize]] = 1;
+            }
+        }
+        /**
+         * @date: 2024-12-14 9:45
+         * @description: 按权重随机选择一个实例（只使用一个随机数：整数部分选列，小数部分决定选本列实例还是别名）
+         * @return: int 选中实例的下标
+         */
+        private int next(){
+            double u = ThreadLocalRandom.current().nextDouble() * prob.length;
+            int column = (int)u;
+            if(column >= prob.length){
+                column = prob.length - 1;
             }
+            if(uniform){
+                return column;
+            }
+            return u - column < prob[column] ? column : alias[column];
+        }
+    }
+    /**
+     * @BelongsProject: api-gateway-server
+     * @BelongsPackage: org.wyh.gateway.core.filter.pre.loadbalance
+     * @Author: wyh
+     * @Date: 2024-12-14 9:50
+     * @Description: （静态内部类）单个实例分组的别名表状态
+     */
+    private static final class State {
+        //实例分组
+        private final InstanceGroup group;
+        //当前的别名表
+        private volatile AliasTable table;
+        //下一次刷新别名表的时间。为Long.MAX_VALUE表示不再需要刷新
+        private final AtomicLong nextRefreshTime = new AtomicLong();
+
+        private State(InstanceGroup group) {
+            this.group = group;
+            this.table = build(TimeUtil.currentTimeMillis());
+        }
+        /**
+         * @date: 2024-12-14 9:55
+         * @description: 根据指定时间的有效权重构建别名表，并设置下一次刷新的时间
+         * @Param now:
+         * @return: org.wyh.gateway.core.filter.pre.loadbalance.RandomLoadBalance.AliasTable
+         */
+        private AliasTable build(long now){
+            boolean warmingUp = group.isWarmingUp(now);
+            int[] weights = new int[group.size()];
+            for (int i = 0; i < weights.length; i++) {
+                weights[i] = warmingUp ? group.getWeight(i, now) : group.getStaticWeight(i);
+            }
+            nextRefreshTime.set(warmingUp ? now + WARM_UP_REFRESH_INTERVAL : Long.MAX_VALUE);
+            return new AliasTable(weights);
         }
-        //若实例的权重不全都相同，则根据权重进行随机选择（带权随机）
-        if(!sameWeight){
-            /*
-             * 带权随机算法的描述：
-             * 1、将实例列表中的实例依次放到一个一维坐标系上，并将权重值依次累加，以作为这些实例的坐标值
-             * 2、根据总权重值随机出一个偏移量（随机范围为[0,totalWeight)）
-             * 3、在坐标系上，找到第一个坐标值大于该偏移量的实例，该实例就是要选择的实例
-             * 注：ThreadLocalRandom.current().nextInt方法的随机范围也是左闭右开
-             */
-            int offset = ThreadLocalRandom.current().nextInt(totalWeight);
-            for (ServiceInstance instance : instances) {
-                offset -= getWeight(instance);
-                if(offset < 0){
-                    return instance;
+        /**
+         * @date: 2024-12-14 10:00
+         * @description: 获取当前的别名表。若已到刷新时间，则由第一个发现的线程负责重建
+         * @return: org.wyh.gateway.core.filter.pre.loadbalance.RandomLoadBalance.AliasTable
+         */
+        private AliasTable getTable(){
+            long refreshTime = nextRefreshTime.get();
+            if(refreshTime != Long.MAX_VALUE){
+                long now = TimeUtil.currentTimeMillis();
+                if(now >= refreshTime && nextRefreshTime.compareAndSet(refreshTime, Long.MAX_VALUE)){
+                    table = build(now);
                 }
             }
+            return table;
+        }
+    }
+
+    @Override
+    protected ServiceInstance doSelect(GatewayContext ctx, InstanceGroup group) {
+        //没有实例处于预热期，且所有实例的权重都相同时，直接随机选择一个实例即可
+        if(group.isSameWeight() && !group.isWarmingUp(TimeUtil.currentTimeMillis())){
+            return group.get(ThreadLocalRandom.current().nextInt(group.size()));
         }
-        //若实例的权重全都相同，则随机选择一个实例即可
-        return instances.get(ThreadLocalRandom.current().nextInt(size));
+        return group.get(stateCache.get(ctx, group).getTable().next());
     }
 }
@@ -0,0 +1,69 @@
+package org.wyh.gateway.core.filter.pre.loadbalance;
+
+import org.wyh.gateway.common.config.InstanceGroup;
+import org.wyh.gateway.common.config.ServiceInstance;
+import org.wyh.gateway.common.utils.TimeUtil;
+import org.wyh.gateway.core.context.GatewayContext;
+
+/**
+ * @BelongsProject: api-gateway-server
+ * @BelongsPackage: org.wyh.gateway.core.filter.pre.loadbalance
+ * @Author: wyh
+ * @Date: 2024-12-11 14:20
+ * @Description: 平滑加权轮询负载均衡（与nginx的实现方式一致）。
+                 每次选择时，先将每个实例的当前权重加上其有效权重，然后选出当前权重最大的实例，再将该实例的当前权重减去总权重。
+                 例如权重为{5,1,1}的三个实例，选择序列为a,a,b,a,c,a,a，高权重的实例不会被连续集中地选中。
+                 有效权重即实例的权重（处于预热期的实例使用预热权重）。
+                 每个服务的每个实例分组各有一份轮询状态，不同服务之间不会竞争同一把锁；实例分组变更后，轮询状态会重新创建。
+ */
+public class RoundRobinLoadBalance extends AbstractLoadBalance{
+    //各服务实例分组的轮询状态
+    private final GroupStateCache<State> stateCache = new GroupStateCache<>(State::new);
+    /**
+     * @BelongsProject: api-gateway-server
+     * @BelongsPackage: org.wyh.gateway.core.filter.pre.loadbalance
+     * @Author: wyh
+     * @Date: 2024-12-11 14:25
+     * @Description: （静态内部类）单个实例分组的轮询状态
+     */
+    private static final class State {
+        //实例分组
+        private final InstanceGroup group;
+        //各实例的当前权重
+        private final int[] currentWeights;
+
+        private State(InstanceGroup group) {
+            this.group = group;
+            this.currentWeights = new int[group.size()];
+        }
+        /**
+         * @date: 2024-12-11 14:30
+         * @description: 选择下一个实例。一次选择只需遍历一遍实例数组，锁只在单个实例分组内竞争
+         * @Param now: 当前时间（用于计算预热权重）
+         * @return: int 选中实例的下标
+         */
+        private synchronized int next(long now){
+            boolean warmingUp = group.isWarmingUp(now);
+            int totalWeight = 0;
+            int selected = -1;
+            int maxWeight = Integer.MIN_VALUE;
+            for (int i = 0; i < currentWeights.length; i++) {
+                int weight = warmingUp ? group.getWeight(i, now) : group.getStaticWeight(i);
+                totalWeight += weight;
+                currentWeights[i] += weight;
+                if(currentWeights[i] > maxWeight){
+                    maxWeight = currentWeights[i];
+                    selected = i;
+                }
+            }
+            currentWeights[selected] -= totalWeight;
+            return selected;
+        }
+    }
+
+    @Override
+    protected ServiceInstance doSelect(GatewayContext ctx, InstanceGroup group) {
+        State state = stateCache.get(ctx, group);
+        return group.get(state.next(TimeUtil.currentTimeMillis()));
+    }
+}
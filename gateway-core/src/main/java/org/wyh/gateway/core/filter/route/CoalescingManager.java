@@ -0,0 +1,368 @@
+package org.wyh.gateway.core.filter.route;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.http.DefaultHttpHeaders;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaderValues;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpMethod;
+import lombok.extern.slf4j.Slf4j;
+import org.asynchttpclient.HttpResponseBodyPart;
+import org.asynchttpclient.HttpResponseStatus;
+import org.asynchttpclient.Request;
+import org.asynchttpclient.Response;
+import org.asynchttpclient.netty.EagerResponseBodyPart;
+import org.asynchttpclient.netty.NettyResponse;
+import org.wyh.gateway.common.config.ServiceInstance;
+import org.wyh.gateway.common.utils.TimeUtil;
+import org.wyh.gateway.core.config.ConfigLoader;
+import org.wyh.gateway.core.context.AttributeKey;
+import org.wyh.gateway.core.context.GatewayContext;
+import org.wyh.gateway.core.instance.InstanceStatsManager;
+
+import java.net.SocketAddress;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * @BelongsProject: api-gateway-server
+ * @BelongsPackage: org.wyh.gateway.core.filter.route
+ * @Author: wyh
+ * @Date: 2024-12-16 17:10
+ * @Description: 请求合并管理类（single-flight），用于应对热点资源的突发流量（如缓存失效时大量相同的请求同时到达）。
+                 对于开启了请求合并的规则，同时进行的相同GET请求（规则，服务，请求路径和参数，以及配置的请求头都相同）
+                 只有第一个请求会真正发往服务实例，其余请求等待并共用它的结果（包括失败和超时）。
+                 等待的请求最多等到其自身的请求超时时间（从请求进入网关开始计算）耗尽，之后不再等待，改为单独调用一次。
+                 使用共享结果的请求，其选中的服务实例改为实际处理该次调用的实例，保证实例统计和日志的归属正确。
+                 每次调用可合并的请求数有上限，超过上限的请求单独调用，避免一次调用失败影响过多的请求。
+                 响应体只保存一份，由所有请求共享；响应头则为每个请求单独复制，因为写回客户端时会向其中添加额外的响应头。
+                 带有条件请求头（If-None-Match等）或Range请求头的请求不参与合并，因为它们的响应（304，206等）取决于请求本身。
+                 只有200响应会交给等待的请求；其他状态码，以及带有Set-Cookie，或Cache-Control为private/no-store的响应
+                 只属于发起调用的请求，等待的请求会单独再调用一次。
+ */
+@Slf4j
+public class CoalescingManager {
+    //正在进行的调用，键为请求的合并键
+    private final ConcurrentHashMap<String, Flight> inflight = new ConcurrentHashMap<>();
+    //配置的请求头字符串及其解析结果的缓存
+    private final ConcurrentHashMap<String, String[]> varyHeadersCache = new ConcurrentHashMap<>();
+    //被合并的请求数量
+    private final Counter coalescedCounter;
+    //条件请求头和Range请求头，带有这些请求头的请求不参与合并
+    private static final CharSequence[] NON_COALESCIBLE_HEADERS = {
+            HttpHeaderNames.IF_NONE_MATCH, HttpHeaderNames.IF_MODIFIED_SINCE, HttpHeaderNames.IF_MATCH,
+            HttpHeaderNames.IF_UNMODIFIED_SINCE, HttpHeaderNames.IF_RANGE, HttpHeaderNames.RANGE};
+    /**
+     * @BelongsProject: api-gateway-server
+     * @BelongsPackage: org.wyh.gateway.core.filter.route
+     * @Author: wyh
+     * @Date: 2024-12-16 17:12
+     * @Description: （静态内部类）一次正在进行的调用
+     */
+    private static final class Flight {
+        //调用的结果
+        private final CompletableFuture<Shared> future = new CompletableFuture<>();
+        //等待该调用结果的请求数
+        private final AtomicInteger waiters = new AtomicInteger();
+    }
+    /**
+     * @BelongsProject: api-gateway-server
+     * @BelongsPackage: org.wyh.gateway.core.filter.route
+     * @Author: wyh
+     * @Date: 2024-12-16 17:13
+     * @Description: （静态内部类）共享的响应结果，创建后不可变
+     */
+    private static final class Shared {
+        //服务实例返回的原始响应（不会被直接交给任何请求）
+        private final Response response;
+        //实际处理该次调用的服务实例
+        private final ServiceInstance instance;
+        //共享的响应体
+        private final List<HttpResponseBodyPart> bodyParts;
+
+        private Shared(Response response, ServiceInstance instance) {
+            this.response = response;
+            this.instance = instance;
+            this.bodyParts = Collections.singletonList(
+                    new EagerResponseBodyPart(Unpooled.wrappedBuffer(response.getResponseBodyAsBytes()), true));
+        }
+        /**
+         * @date: 2024-12-16 17:14
+         * @description: 为一个请求创建响应对象：响应头单独复制，响应体共享
+         * @return: org.asynchttpclient.Response
+         */
+        private Response copy(){
+            HttpHeaders headers = new DefaultHttpHeaders().add(response.getHeaders());
+            return new NettyResponse(new SharedResponseStatus(response), headers, bodyParts);
+        }
+        /**
+         * @date: 2024-12-16 17:15
+         * @description: 判断响应是否可以交给等待的请求（带有用户相关信息的响应只属于发起调用的请求）
+         * @return: boolean
+         */
+        private boolean isShareable(){
+            //非200的响应（如重定向，错误响应）不一定适用于其他请求
+            if(response.getStatusCode() != 200){
+                return false;
+            }
+            HttpHeaders headers = response.getHeaders();
+            if(headers.contains(HttpHeaderNames.SET_COOKIE)){
+                return false;
+            }
+            for (String value : headers.getAll(HttpHeaderNames.CACHE_CONTROL)) {
+                String lower = value.toLowerCase();
+                if(lower.contains(HttpHeaderValues.PRIVATE) || lower.contains(HttpHeaderValues.NO_STORE)){
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+    /**
+     * @BelongsProject: api-gateway-server
+     * @BelongsPackage: org.wyh.gateway.core.filter.route
+     * @Author: wyh
+     * @Date: 2024-12-16 17:16
+     * @Description: （静态内部类）复制的响应对象的状态行，与原始响应保持一致
+     */
+    private static final class SharedResponseStatus extends HttpResponseStatus {
+        private final int statusCode;
+        private final String statusText;
+        private final SocketAddress remoteAddress;
+        private final SocketAddress localAddress;
+
+        private SharedResponseStatus(Response response) {
+            super(response.getUri());
+            this.statusCode = response.getStatusCode();
+            this.statusText = response.getStatusText();
+            this.remoteAddress = response.getRemoteAddress();
+            this.localAddress = response.getLocalAddress();
+        }
+
+        @Override
+        public int getStatusCode() {
+            return statusCode;
+        }
+
+        @Override
+        public String getStatusText() {
+            return statusText;
+        }
+
+        @Override
+        public String getProtocolName() {
+            return "HTTP";
+        }
+
+        @Override
+        public int getProtocolMajorVersion() {
+            return 1;
+        }
+
+        @Override
+        public int getProtocolMinorVersion() {
+            return 1;
+        }
+
+        @Override
+        public String getProtocolText() {
+            return "HTTP/1.1";
+        }
+
+        @Override
+        public SocketAddress getRemoteAddress() {
+            return remoteAddress;
+        }
+
+        @Override
+        public SocketAddress getLocalAddress() {
+            return localAddress;
+        }
+    }
+    /**
+     * @BelongsProject: api-gateway-server
+     * @BelongsPackage: org.wyh.gateway.core.filter.route
+     * @Author: wyh
+     * @Date: 2024-12-16 17:18
+     * @Description: 静态内部类，用于实现单例模式
+     */
+    private static class SingletonHolder {
+        private static final CoalescingManager INSTANCE = new CoalescingManager();
+    }
+    /**
+     * @date: 2024-12-16 17:18
+     * @description: private修饰的无参构造器
+     * @return: null
+     */
+    private CoalescingManager(){
+        this.coalescedCounter = Metrics.counter("gateway.coalesce.requests");
+    }
+    /**
+     * @date: 2024-12-16 17:19
+     * @description: 获取该类的唯一实例
+     * @return: org.wyh.gateway.core.filter.route.CoalescingManager
+     */
+    public static CoalescingManager getInstance(){
+        return SingletonHolder.INSTANCE;
+    }
+    /**
+     * @date: 2024-12-16 17:20
+     * @description: 发送可合并的请求：存在正在进行的相同请求时等待其结果，否则由该请求发起调用
+     * @Param ctx:
+     * @Param request:
+     * @Param filterConfig:
+     * @Param sender: 实际发送请求的方法
+     * @return: java.util.concurrent.CompletableFuture<org.asynchttpclient.Response>
+     */
+    public CompletableFuture<Response> execute(GatewayContext ctx, Request request, RouteFilter.Config filterConfig,
+                                               Supplier<CompletableFuture<Response>> sender){
+        if(!HttpMethod.GET.equals(ctx.getRequest().getMethod()) || !isCoalescible(request.getHeaders())){
+            return sender.get();
+        }
+        String key = getKey(ctx, request, filterConfig);
+        Flight flight = new Flight();
+        Flight existing = inflight.putIfAbsent(key, flight);
+        if(existing != null){
+            if(existing.waiters.incrementAndGet() > filterConfig.getCoalescingMaxWaiters()){
+                existing.waiters.decrementAndGet();
+                return sender.get();
+            }
+            coalescedCounter.increment();
+            //该请求不会发往选中的服务实例，撤销其统计信息
+            InstanceStatsManager.getInstance().cancel(ctx);
+            log.debug("【路由过滤器】请求: {} 与正在进行的相同请求合并", request.getUri());
+            //在副本上设置超时，避免超时异常影响发起调用的请求和其他等待的请求
+            return existing.future.copy()
+                    .orTimeout(getRemainingTimeout(ctx, request), TimeUnit.MILLISECONDS)
+                    .handle((shared, throwable) -> {
+                        if(throwable != null){
+                            if(existing.future.isCompletedExceptionally()){
+                                //调用本身失败，与发起调用的请求共用失败结果
+                                return CompletableFuture.<Response>failedFuture(throwable);
+                            }
+                            //等待超时，不再等待该次调用，单独调用一次
+                            log.debug("【路由过滤器】请求: {} 等待合并的调用超时，单独发起调用", request.getUri());
+                            InstanceStatsManager.getInstance().acquire(ctx);
+                            return sender.get();
+                        }
+                        if(shared.isShareable()){
+                            if(shared.instance != null){
+                                ctx.setAttribute(AttributeKey.SELECTED_INSTANCE, shared.instance);
+                            }
+                            return CompletableFuture.completedFuture(shared.copy());
+                        }
+                        //响应只属于发起调用的请求，单独再调用一次
+                        InstanceStatsManager.getInstance().acquire(ctx);
+                        return sender.get();
+                    })
+                    .thenCompose(future -> future);
+        }
+        CompletableFuture<Response> upstream;
+        try{
+            upstream = sender.get();
+        }catch (RuntimeException e){
+            inflight.remove(key, flight);
+            flight.future.completeExceptionally(e);
+            throw e;
+        }
+        upstream.whenComplete((response, throwable) -> {
+            //先移出正在进行的调用，之后到达的请求会发起新的调用
+            inflight.remove(key, flight);
+            if(throwable != null){
+                flight.future.completeExceptionally(throwable);
+            }else{
+                //对冲等情况下，实际处理调用的实例可能不是最初选中的实例，因此在调用结束时读取
+                flight.future.complete(new Shared(response, ctx.getAttribute(AttributeKey.SELECTED_INSTANCE)));
+            }
+        });
+        //发起调用的请求同样使用复制的响应对象，原始响应不会被任何请求修改
+        return flight.future.thenApply(Shared::copy);
+    }
+    /**
+     * @date: 2024-12-16 19:40
+     * @description: 计算等待的请求剩余的超时时间（请求自身的超时时间减去请求进入网关后已经经过的时间）
+     * @Param ctx:
+     * @Param request:
+     * @return: long
+     */
+    private static long getRemainingTimeout(GatewayContext ctx, Request request){
+        long timeout = request.getRequestTimeout() > 0 ? request.getRequestTimeout()
+                : ConfigLoader.getConfig().getHttpRequestTimeout();
+        long elapsed = TimeUtil.currentTimeMillis() - ctx.getRequest().getBeginTime();
+        return Math.max(timeout - elapsed, 0);
+    }
+    /**
+     * @date: 2024-12-16 19:00
+     * @description: 判断请求是否可以参与合并（条件请求和范围请求的响应取决于请求本身，不能共享）
+     * @Param headers:
+     * @return: boolean
+     */
+    private static boolean isCoalescible(HttpHeaders headers){
+        for (CharSequence name : NON_COALESCIBLE_HEADERS) {
+            if(headers.contains(name)){
+                return false;
+            }
+        }
+        return true;
+    }
+    /**
+     * @date: 2024-12-16 17:25
+     * @description: 计算请求的合并键。不包含选中的服务实例，因此发往同一服务不同实例的相同请求也可以合并。
+                     网关添加的userId请求头始终参与计算，避免不同用户的请求被合并
+     * @Param ctx:
+     * @Param request:
+     * @Param filterConfig:
+     * @return: java.lang.String
+     */
+    private String getKey(GatewayContext ctx, Request request, RouteFilter.Config filterConfig){
+        StringBuilder sb = new StringBuilder(128)
+                .append(ctx.getRule().getRuleId()).append('\n')
+                .append(ctx.getUniqueId()).append('\n')
+                .append(request.getMethod()).append(' ')
+                .append(request.getUri().toRelativeUrl());
+        HttpHeaders headers = request.getHeaders();
+        appendHeader(sb, headers, "userId");
+        String varyHeaders = filterConfig.getCoalescingVaryHeaders();
+        if(varyHeaders != null && !varyHeaders.isEmpty()){
+            for (String name : varyHeadersCache.computeIfAbsent(varyHeaders, CoalescingManager::parseHeaders)) {
+                appendHeader(sb, headers, name);
+            }
+        }
+        return sb.toString();
+    }
+    /**
+     * @date: 2024-12-16 17:28
+     * @description: 将请求头及其所有值追加到合并键中
+     * @Param sb:
+     * @Param headers:
+     * @Param name:
+     * @return: void
+     */
+    private static void appendHeader(StringBuilder sb, HttpHeaders headers, String name){
+        sb.append('\n').append(name).append(':');
+        for (String value : headers.getAll(name)) {
+            sb.append(value).append(',');
+        }
+    }
+    /**
+     * @date: 2024-12-16 17:29
+     * @description: 解析逗号分隔的请求头名称
+     * @Param varyHeaders:
+     * @return: java.lang.String[]
+     */
+    private static String[] parseHeaders(String varyHeaders){
+        return Arrays.stream(varyHeaders.split(","))
+                .map(String::trim)
+                .filter(name -> !name.isEmpty())
+                .distinct()
+                .toArray(String[]::new);
+    }
+}
@@ -0,0 +1,379 @@
+package org.wyh.gateway.core.filter.route;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timeout;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import lombok.extern.slf4j.Slf4j;
+import org.asynchttpclient.Request;
+import org.asynchttpclient.RequestBuilder;
+import org.asynchttpclient.Response;
+import org.asynchttpclient.uri.Uri;
+import org.wyh.gateway.common.config.InstanceGroup;
+import org.wyh.gateway.common.config.ServiceInstance;
+import org.wyh.gateway.common.utils.TimeUtil;
+import org.wyh.gateway.core.config.Config;
+import org.wyh.gateway.core.config.ConfigLoader;
+import org.wyh.gateway.core.context.AttributeKey;
+import org.wyh.gateway.core.context.GatewayContext;
+import org.wyh.gateway.core.helper.AsyncHttpHelper;
+import org.wyh.gateway.core.instance.InstanceStats;
+import org.wyh.gateway.core.instance.InstanceStatsManager;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @BelongsProject: api-gateway-server
+ * @BelongsPackage: org.wyh.gateway.core.filter.route
+ * @Author: wyh
+ * @Date: 2024-12-15 16:45
+ * @Description: 对冲请求管理类，用于降低尾部延迟。
+                 对于开启了对冲的规则（只对幂等的请求方法生效），若请求发出后在对冲延迟内仍未收到响应，
+                 则向另一个服务实例再发送一次相同的请求，以先到达的响应为准，并取消另一个请求。
+                 对冲延迟优先使用该规则近期响应延迟的指定分位数（样本足够时），否则使用配置的固定延迟。
+                 为了避免放大后台服务的负载，所有对冲请求共用一个全局预算：每个可对冲的请求按预算比例积累额度，
+                 每次对冲消耗一个完整额度，额度不足时不进行对冲。
+                 对冲请求选中的实例会替换上下文中的服务实例，因此后续的统计信息和日志都以实际返回响应的实例为准。
+ */
+@Slf4j
+public class HedgingManager {
+    //额度的精度（一次对冲请求消耗的额度）
+    private static final long TOKEN = 1000;
+    //计算分位数最少需要的样本数
+    private static final long MIN_SAMPLES = 100;
+    //网关的核心静态配置
+    private final Config config;
+    //触发对冲请求的定时器（时间轮，适合大量短时间的定时任务）
+    private final HashedWheelTimer timer;
+    //当前的对冲额度
+    private final AtomicLong tokens = new AtomicLong();
+    //规则id及其近期响应延迟的集合
+    private final ConcurrentHashMap<String, LatencyHistogram> histogramMap = new ConcurrentHashMap<>();
+    //发出的对冲请求数量
+    private final Counter hedgeCounter;
+    //最终采用了对冲请求结果的数量
+    private final Counter hedgeWinCounter;
+    /**
+     * @BelongsProject: api-gateway-server
+     * @BelongsPackage: org.wyh.gateway.core.filter.route
+     * @Author: wyh
+     * @Date: 2024-12-15 16:50
+     * @Description: （静态内部类）一次请求尝试（原请求或对冲请求）
+     */
+    private static final class Attempt {
+        //请求的服务实例
+        private final ServiceInstance instance;
+        //服务实例的统计信息
+        private final InstanceStats stats;
+        //请求的发出时间（System.nanoTime）
+        private final long startTime;
+        //请求的结果
+        private CompletableFuture<Response> future;
+        //请求是否已经结束（由所属的Hedge对象加锁访问）
+        private boolean finished;
+
+        private Attempt(ServiceInstance instance, InstanceStats stats, long startTime) {
+            this.instance = instance;
+            this.stats = stats;
+            this.startTime = startTime;
+        }
+    }
+    /**
+     * @BelongsProject: api-gateway-server
+     * @BelongsPackage: org.wyh.gateway.core.filter.route
+     * @Author: wyh
+     * @Date: 2024-12-15 16:55
+     * @Description: （内部类）一次可对冲的请求，负责协调原请求和对冲请求，决定最终的结果
+     */
+    private final class Hedge {
+        private final GatewayContext ctx;
+        private final Request request;
+        //最终的结果
+        private final CompletableFuture<Response> result = new CompletableFuture<>();
+        //原请求
+        private final Attempt primary;
+        //对冲请求（尚未发出时为null）
+        private Attempt hedge;
+        //对冲请求的定时任务
+        private Timeout timeout;
+        //是否已经得到最终结果
+        private boolean done;
+
+        private Hedge(GatewayContext ctx, Request request, Attempt primary) {
+            this.ctx = ctx;
+            this.request = request;
+            this.primary = primary;
+        }
+        /**
+         * @date: 2024-12-15 17:00
+         * @description: 对冲延迟到期后调用，若原请求仍未结束，则向另一个服务实例发送对冲请求
+         * @return: void
+         */
+        private void fire(){
+            ServiceInstance instance;
+            Attempt attempt;
+            //在锁内发出对冲请求并保存其future，保证原请求结束时能够看到完整的对冲请求，从而正确地取消它
+            synchronized (this){
+                if(done || hedge != null){
+                    return;
+                }
+                instance = selectOther(ctx, primary.instance);
+                if(instance == null || !tryAcquireToken()){
+                    return;
+                }
+                attempt = new Attempt(instance, InstanceStatsManager.getInstance().acquire(instance), System.nanoTime());
+                try{
+                    attempt.future = AsyncHttpHelper.getInstance().executeRequest(redirect(request, instance), ctx.getProtocol(),
+                            ctx.getNettyCtx().channel().eventLoop());
+                }catch (Throwable t){
+                    attempt.future = CompletableFuture.failedFuture(t);
+                }
+                hedge = attempt;
+            }
+            hedgeCounter.increment();
+            log.info("【路由过滤器】请求: {} 在对冲延迟内未收到响应，向服务实例: {} 发送对冲请求",
+                    ctx.getRequest().getPath(), instance.getAddress());
+            attempt.future.whenComplete((response, throwable) -> onAttemptComplete(attempt, response, throwable));
+        }
+        /**
+         * @date: 2024-12-15 17:05
+         * @description: 请求尝试结束时调用。成功的响应立即作为最终结果，并取消另一个尚未结束的请求；
+                         失败时，若另一个请求仍未结束，则等待其结果，否则以失败作为最终结果
+         * @Param attempt:
+         * @Param response:
+         * @Param throwable:
+         * @return: void
+         */
+        private void onAttemptComplete(Attempt attempt, Response response, Throwable throwable){
+            Attempt loser = null;
+            synchronized (this){
+                Attempt other = attempt == primary ? hedge : primary;
+                if(done || attempt.finished){
+                    return;
+                }
+                attempt.finished = true;
+                if(throwable != null && other != null && !other.finished){
+                    //等待另一个请求的结果，当前请求的统计信息在此处单独更新
+                    InstanceStatsManager.getInstance().release(attempt.stats, attempt.startTime, false);
+                    return;
+                }
+                done = true;
+                if(other != null && !other.finished){
+                    other.finished = true;
+                    loser = other;
+                }
+                if(timeout != null){
+                    timeout.cancel();
+                }
+                if(attempt != primary && throwable != null){
+                    //对冲请求在原请求失败之后也失败了：原请求的统计信息已由上面的分支更新，
+                    //此处更新对冲请求的统计信息，并清除上下文中的统计信息，避免路由过滤器再次更新原请求的统计信息
+                    InstanceStatsManager.getInstance().release(attempt.stats, attempt.startTime, false);
+                    ctx.setAttribute(AttributeKey.INSTANCE_STATS, null);
+                }else if(attempt != primary){
+                    //对冲请求胜出：上下文中的服务实例替换为对冲请求的实例，原请求的统计信息由上面的分支或取消逻辑更新
+                    ctx.setAttribute(AttributeKey.SELECTED_INSTANCE, attempt.instance);
+                    ctx.setAttribute(AttributeKey.INSTANCE_STATS, attempt.stats);
+                    ctx.setAttribute(AttributeKey.UPSTREAM_START_TIME, attempt.startTime);
+                    ctx.getRequest().setModifyHost(attempt.instance.getAddress());
+                    hedgeWinCounter.increment();
+                }
+            }
+            if(loser != null){
+                loser.future.cancel(true);
+                InstanceStatsManager.getInstance().cancel(loser.stats, loser.startTime);
+            }
+            if(throwable == null){
+                record(ctx, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - primary.startTime));
+                result.complete(response);
+            }else{
+                result.completeExceptionally(throwable);
+            }
+        }
+    }
+    /**
+     * @BelongsProject: api-gateway-server
+     * @BelongsPackage: org.wyh.gateway.core.filter.route
+     * @Author: wyh
+     * @Date: 2024-12-15 17:15
+     * @Description: 静态内部类，用于实现单例模式
+     */
+    private static class SingletonHolder {
+        private static final HedgingManager INSTANCE = new HedgingManager();
+    }
+    /**
+     * @date: 2024-12-15 17:16
+     * @description: private修饰的无参构造器
+     * @return: null
+     */
+    private HedgingManager(){
+        this.config = ConfigLoader.getConfig();
+        this.timer = new HashedWheelTimer(new DefaultThreadFactory("hedge-timer", true), 1, TimeUnit.MILLISECONDS);
+        this.hedgeCounter = Metrics.counter("gateway.hedge.requests");
+        this.hedgeWinCounter = Metrics.counter("gateway.hedge.wins");
+    }
+    /**
+     * @date: 2024-12-15 17:17
+     * @description: 获取该类的唯一实例
+     * @return: org.wyh.gateway.core.filter.route.HedgingManager
+     */
+    public static HedgingManager getInstance(){
+        return SingletonHolder.INSTANCE;
+    }
+    /**
+     * @date: 2024-12-15 17:20
+     * @description: 发送可对冲的请求。调用前需已通过InstanceStatsManager.acquire记录原请求的统计信息。
+                     若请求方法不是幂等的，或者无法确定对冲延迟，则直接发送原请求
+     * @Param ctx:
+     * @Param request:
+     * @Param filterConfig:
+     * @return: java.util.concurrent.CompletableFuture<org.asynchttpclient.Response>
+     */
+    public CompletableFuture<Response> execute(GatewayContext ctx, Request request, RouteFilter.Config filterConfig){
+        ServiceInstance instance = ctx.getAttribute(AttributeKey.SELECTED_INSTANCE);
+        InstanceStats stats = ctx.getAttribute(AttributeKey.INSTANCE_STATS);
+        Long startTime = ctx.getAttribute(AttributeKey.UPSTREAM_START_TIME);
+        if(!isIdempotent(ctx.getRequest().getMethod()) || instance == null || stats == null || startTime == null){
+            return AsyncHttpHelper.getInstance().executeRequest(request, ctx.getProtocol(),
+                    ctx.getNettyCtx().channel().eventLoop());
+        }
+        long delay = getDelay(ctx, filterConfig);
+        if(delay <= 0){
+            //暂时无法确定对冲延迟，只发送原请求，并记录其延迟（用于之后计算分位数）
+            CompletableFuture<Response> future = AsyncHttpHelper.getInstance().executeRequest(request, ctx.getProtocol(),
+                    ctx.getNettyCtx().channel().eventLoop());
+            future.whenComplete((response, throwable) -> {
+                if(throwable == null){
+                    record(ctx, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime));
+                }
+            });
+            return future;
+        }
+        depositToken();
+        //原请求的统计信息由路由过滤器的complete方法根据上下文更新（对冲请求胜出时除外，见onAttemptComplete）
+        Hedge hedge = new Hedge(ctx, request, new Attempt(instance, stats, startTime));
+        hedge.primary.future = AsyncHttpHelper.getInstance().executeRequest(request, ctx.getProtocol(),
+                ctx.getNettyCtx().channel().eventLoop());
+        synchronized (hedge){
+            hedge.timeout = timer.newTimeout(t -> hedge.fire(), delay, TimeUnit.MILLISECONDS);
+        }
+        hedge.primary.future.whenComplete((response, throwable) -> hedge.onAttemptComplete(hedge.primary, response, throwable));
+        return hedge.result;
+    }
+    /**
+     * @date: 2024-12-15 17:30
+     * @description: 计算对冲延迟：优先使用该规则近期响应延迟的指定分位数，样本不足时使用配置的固定延迟
+     * @Param ctx:
+     * @Param filterConfig:
+     * @return: long 对冲延迟（ms），小于等于0表示不进行对冲
+     */
+    private long getDelay(GatewayContext ctx, RouteFilter.Config filterConfig){
+        if(filterConfig.getHedgePercentile() > 0){
+            LatencyHistogram histogram = histogramMap.get(ctx.getRule().getRuleId());
+            if(histogram != null){
+                long value = histogram.percentile(filterConfig.getHedgePercentile(), MIN_SAMPLES,
+                        TimeUtil.currentTimeMillis());
+                if(value > 0){
+                    return value;
+                }
+            }
+        }
+        return filterConfig.getHedgeDelay();
+    }
+    /**
+     * @date: 2024-12-15 17:32
+     * @description: 记录该规则的一次成功响应的延迟
+     * @Param ctx:
+     * @Param latencyMs:
+     * @return: void
+     */
+    private void record(GatewayContext ctx, long latencyMs){
+        histogramMap.computeIfAbsent(ctx.getRule().getRuleId(), key -> new LatencyHistogram())
+                .record(latencyMs, TimeUtil.currentTimeMillis());
+    }
+    /**
+     * @date: 2024-12-15 17:35
+     * @description: 可对冲的请求到达时，按预算比例积累额度
+     * @return: void
+     */
+    private void depositToken(){
+        long max = Math.max(config.getHedgeBudgetBurst(), 1) * TOKEN;
+        long deposit = Math.max(config.getHedgeBudgetPercent(), 0) * TOKEN / 100;
+        if(deposit <= 0){
+            return;
+        }
+        long current;
+        //并发存入时重试直到成功，避免额度在高并发下被少算
+        do{
+            current = tokens.get();
+            if(current >= max){
+                return;
+            }
+        }while(!tokens.compareAndSet(current, Math.min(current + deposit, max)));
+    }
+    /**
+     * @date: 2024-12-15 17:38
+     * @description: 尝试消耗一次对冲请求的额度
+     * @return: boolean
+     */
+    private boolean tryAcquireToken(){
+        long current;
+        do{
+            current = tokens.get();
+            if(current < TOKEN){
+                return false;
+            }
+        }while(!tokens.compareAndSet(current, current - TOKEN));
+        return true;
+    }
+    /**
+     * @date: 2024-12-15 17:40
+     * @description: 从该次请求匹配的实例分组中，随机选择一个与原请求不同的服务实例
+     * @Param ctx:
+     * @Param exclude:
+     * @return: org.wyh.gateway.common.config.ServiceInstance 没有其他实例时返回null
+     */
+    private static ServiceInstance selectOther(GatewayContext ctx, ServiceInstance exclude){
+        InstanceGroup group = ctx.getAttribute(AttributeKey.MATCHED_INSTANCES);
+        if(group == null || group.size() <= 1){
+            return null;
+        }
+        int start = ThreadLocalRandom.current().nextInt(group.size());
+        for (int i = 0; i < group.size(); i++) {
+            ServiceInstance instance = group.get((start + i) % group.size());
+            if(!instance.getServiceInstanceId().equals(exclude.getServiceInstanceId())){
+                return instance;
+            }
+        }
+        return null;
+    }
+    /**
+     * @date: 2024-12-15 17:45
+     * @description: 复制请求，并将其目标地址替换为指定的服务实例（路径和查询参数不变）
+     * @Param request:
+     * @Param instance:
+     * @return: org.asynchttpclient.Request
+     */
+    private static Request redirect(Request request, ServiceInstance instance){
+        Uri uri = request.getUri();
+        Uri newUri = new Uri(uri.getScheme(), uri.getUserInfo(), instance.getIp(), instance.getPort(),
+                uri.getPath(), uri.getQuery(), uri.getFragment());
+        return new RequestBuilder(request).setUri(newUri).build();
+    }
+    /**
+     * @date: 2024-12-15 17:48
+     * @description: 判断请求方法是否是幂等的（只有幂等的请求才能安全地重复发送）
+     * @Param method:
+     * @return: boolean
+     */
+    private static boolean isIdempotent(HttpMethod method){
+        return HttpMethod.GET.equals(method) || HttpMethod.HEAD.equals(method) || HttpMethod.OPTIONS.equals(method)
+                || HttpMethod.PUT.equals(method) || HttpMethod.DELETE.equals(method);
+    }
+}
@@ -0,0 +1,120 @@
+package org.wyh.gateway.core.filter.route;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * @BelongsProject: api-gateway-server
+ * @BelongsPackage: org.wyh.gateway.core.filter.route
+ * @Author: wyh
+ * @Date: 2024-12-15 16:20
+ * @Description: 近期响应延迟的直方图，用于估计延迟的分位数（如对冲请求的触发延迟）。
+                 延迟按指数增长的桶计数（相邻桶的边界相差20%），记录时只需一次原子加法，不会创建对象；
+                 统计只包含当前和上一个时间窗口的样本，窗口到期时由第一个发现的线程负责切换，旧的样本自然淘汰。
+                 分位数的计算结果会缓存一段时间，避免每个请求都遍历所有桶。
+ */
+final class LatencyHistogram {
+    //桶的数量（第0个桶对应1ms以内，最后一个桶约对应1分钟以上）
+    private static final int BUCKETS = 64;
+    //相邻桶的边界之比
+    private static final double GROWTH = 1.2;
+    //统计窗口的长度（ms）
+    private static final long WINDOW = 10 * 1000;
+    //分位数计算结果的缓存时间（ms）
+    private static final long CACHE_TIME = 1000;
+    //当前窗口的计数
+    private volatile AtomicLongArray current = new AtomicLongArray(BUCKETS);
+    //上一个窗口的计数
+    private volatile AtomicLongArray previous = new AtomicLongArray(BUCKETS);
+    //当前窗口的结束时间
+    private final AtomicLong windowEnd = new AtomicLong();
+    //缓存的分位数结果（ms）
+    private volatile long cachedValue = -1;
+    //缓存结果的过期时间
+    private volatile long cachedUntil;
+    /**
+     * @date: 2024-12-15 16:25
+     * @description: 记录一次响应延迟
+     * @Param latencyMs:
+     * @Param now: 当前时间（ms）
+     * @return: void
+     */
+    void record(long latencyMs, long now){
+        rotate(now);
+        current.incrementAndGet(bucketOf(latencyMs));
+    }
+    /**
+     * @date: 2024-12-15 16:28
+     * @description: 估计指定分位数的延迟
+     * @Param percentile: 分位数（0~100）
+     * @Param minSamples: 最少需要的样本数，样本不足时返回-1
+     * @Param now: 当前时间（ms）
+     * @return: long 延迟（ms），取所在桶的上边界
+     */
+    long percentile(double percentile, long minSamples, long now){
+        if(now < cachedUntil){
+            return cachedValue;
+        }
+        rotate(now);
+        AtomicLongArray cur = current;
+        AtomicLongArray prev = previous;
+        long[] counts = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = cur.get(i) + prev.get(i);
+            total += counts[i];
+        }
+        long value = -1;
+        if(total >= minSamples && total > 0){
+            long target = (long)Math.ceil(total * Math.min(Math.max(percentile, 0), 100) / 100);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += counts[i];
+                if(seen >= Math.max(target, 1)){
+                    value = upperBound(i);
+                    break;
+                }
+            }
+        }
+        cachedValue = value;
+        cachedUntil = now + CACHE_TIME;
+        return value;
+    }
+    /**
+     * @date: 2024-12-15 16:35
+     * @description: 若当前窗口已到期，则切换窗口
+     * @Param now:
+     * @return: void
+     */
+    private void rotate(long now){
+        long end = windowEnd.get();
+        if(now < end || !windowEnd.compareAndSet(end, now + WINDOW)){
+            return;
+        }
+        //距离上次切换已超过两个窗口时，上一个窗口的样本也已过期
+        previous = now - end >= WINDOW ? new AtomicLongArray(BUCKETS) : current;
+        current = new AtomicLongArray(BUCKETS);
+    }
+    /**
+     * @date: 2024-12-15 16:38
+     * @description: 计算延迟所在的桶
+     * @Param latencyMs:
+     * @return: int
+     */
+    private static int bucketOf(long latencyMs){
+        if(latencyMs <= 1){
+            return 0;
+        }
+        int bucket = (int)Math.ceil(Math.log(latencyMs) / Math.log(GROWTH));
+        return Math.min(bucket, BUCKETS - 1);
+    }
+    /**
+     * @date: 2024-12-15 16:40
+     * @description: 计算桶的上边界（ms）
+     * @Param bucket:
+     * @return: long
+     */
+    private static long upperBound(int bucket){
+        return (long)Math.ceil(Math.pow(GROWTH, bucket));
+    }
+}
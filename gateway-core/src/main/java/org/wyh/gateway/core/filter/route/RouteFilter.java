@@ -1,6 +1,7 @@
 package org.wyh.gateway.core.filter.route;
 
 import com.netflix.hystrix.*;
+import io.netty.channel.EventLoop;
 import lombok.Getter;
 import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
@@ -9,19 +10,23 @@ import org.asynchttpclient.Response;
 import org.wyh.gateway.common.enumeration.ResponseCode;
 import org.wyh.gateway.common.exception.ConnectException;
 import org.wyh.gateway.common.exception.ResponseException;
+import org.wyh.gateway.core.cache.ResponseCacheManager;
 import org.wyh.gateway.core.config.ConfigLoader;
 import org.wyh.gateway.core.context.AttributeKey;
 import org.wyh.gateway.core.context.GatewayContext;
-import org.wyh.gateway.core.filter.common.AbstractGatewayFilter;
+import org.wyh.gateway.core.filter.common.AbstractAsyncGatewayFilter;
 import org.wyh.gateway.core.filter.common.base.FilterAspect;
 import org.wyh.gateway.core.filter.common.base.FilterConfig;
 import org.wyh.gateway.core.filter.common.base.FilterType;
 import org.wyh.gateway.core.helper.AsyncHttpHelper;
+import org.wyh.gateway.core.instance.InstanceStatsManager;
+import org.wyh.gateway.core.instance.LoadFeedbackManager;
 import org.wyh.gateway.core.response.GatewayResponse;
 
 import java.util.Objects;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
 
 import static org.wyh.gateway.common.constant.FilterConst.*;
 
@@ -34,8 +39,9 @@ import static org.wyh.gateway.common.constant.FilterConst.*;
                  （在此之前，已经通过负载均衡过滤器确定了要访问的服务实例）
                  该过滤器实际上是通过AsyncHttpClient框架向目标异步发送http请求的。
                  注意：发送请求和接收响应的工作都是在AsyncHttpClient的线程池中执行的。
-                 而处理响应的complete方法具体执行在哪个线程，取决于是否使用hystrix
-                 若使用hystrix，则complete执行在disruptor消费者线程池，否则执行在AsyncHttpClient线程池。
+                 该过滤器属于异步过滤器，处理响应的complete方法由父类在异步操作完成后调用，具体执行在哪个线程，取决于是否使用hystrix
+                 若使用hystrix，则complete执行在disruptor消费者线程池，
+                 否则单异步模式下执行在AsyncHttpClient线程池，双异步模式下执行在异步过滤器的继续点线程池。
                  本系统实际上只用hystrix实现了熔断功能，所谓的降级回退实际上只是熔断时会返回的消息，并不是真正的降级功能。
  */
 @Slf4j
@@ -43,11 +49,9 @@ import static org.wyh.gateway.common.constant.FilterConst.*;
               name=ROUTE_FILTER_NAME,
               type= FilterType.ROUTE,
               order=ROUTE_FILTER_ORDER)
-public class RouteFilter extends AbstractGatewayFilter<RouteFilter.Config> {
+public class RouteFilter extends AbstractAsyncGatewayFilter<RouteFilter.Config> {
     // TODO: 2024-05-22 源码还在相应设置了上下文的RS，RR等属性
     // TODO: 2024-10-22 建议将这个过滤器的名称改为服务调用过滤器
-    //异常消息
-    private static final String EXCEPTION_MSG = "【路由过滤器】执行异常: ";
     /**
      * @BelongsProject: api-gateway-server
      * @BelongsPackage: org.wyh.gateway.core.filter.route
@@ -74,6 +78,18 @@ public class RouteFilter extends AbstractGatewayFilter<RouteFilter.Config> {
         private boolean fallbackEnabled = true;
         //降级回退逻辑中的响应消息
         private String fallbackMessage = "降级消息";
+        //是否启用对冲请求（只应在幂等的路由上启用，且不使用hystrix时才生效）
+        private boolean hedgingEnabled = false;
+        //对冲延迟的分位数（0~100）：请求发出后，超过该规则近期响应延迟的该分位数仍未收到响应时，发送对冲请求。小于等于0表示不使用
+        private double hedgePercentile = 95;
+        //固定的对冲延迟（ms），在未使用分位数或样本不足时生效。小于等于0表示此时不发送对冲请求
+        private int hedgeDelay = 0;
+        //是否启用请求合并（只对GET请求生效）：同时到达的相同请求共用一次对服务实例的调用
+        private boolean coalescingEnabled = false;
+        //请求合并时需要区分的请求头（逗号分隔）。这些请求头的值不同的请求不会被合并
+        private String coalescingVaryHeaders = "Accept,Accept-Encoding,Accept-Language,Authorization,Cookie";
+        //每次调用最多可以合并的请求数（不包括发起调用的请求），超过后的请求单独调用
+        private int coalescingMaxWaiters = 1000;
     }
     /**
      * @BelongsProject: api-gateway-server
@@ -93,6 +109,8 @@ public class RouteFilter extends AbstractGatewayFilter<RouteFilter.Config> {
         private Throwable throwable = null;
         //响应数据（主要用于保存降级回退时的返回消息）
         private Object data = null;
+        //触发降级回退的原因（circuit_open表示断路器处于打开状态，请求没有发往服务实例）
+        private String fallbackReason = null;
     }
     /**
      * @date: 2024-05-22 20:16
@@ -103,41 +121,53 @@ public class RouteFilter extends AbstractGatewayFilter<RouteFilter.Config> {
         super(RouteFilter.Config.class);
     }
     @Override
-    public void doFilter(GatewayContext ctx, Object... args) throws Throwable {
+    protected long getTimeout(GatewayContext ctx, RouteFilter.Config filterConfig) {
+        /*
+         * AsyncHttpClient本身已经设置了请求超时时间（超时后会以TimeoutException的方式结束），
+         * 而使用hystrix时，由其负责超时控制，所以这里不再额外设置超时时间
+         */
+        return 0;
+    }
+    @Override
+    protected CompletableFuture<?> doFilterAsync(GatewayContext ctx, RouteFilter.Config filterConfig) throws Throwable {
         try{
-            //args[0]其实就是该过滤器的配置类实例
-            RouteFilter.Config filterConfig = (RouteFilter.Config)args[0];
             //构建AsyncHttpClient的请求对象
             Request request = ctx.getRequest().build();
+            //记录选中的服务实例正在处理的请求数（在complete中，或者发送失败时减少）
+            InstanceStatsManager.getInstance().acquire(ctx);
+            EventLoop eventLoop = ctx.getNettyCtx().channel().eventLoop();
+            /*
+             * 使用hystrix时，hystrixCommand.execute()会阻塞调用线程直到收到响应。
+             * 若调用线程就是接收该请求的EventLoop（未启用缓冲队列），则不能在该EventLoop上与服务实例通信（响应永远无法被读取），
+             * 此时改用AsyncHttpClient发送请求
+             */
+            if(filterConfig.isUseHystrix() && eventLoop.inEventLoop()){
+                eventLoop = null;
+            }
+            EventLoop sendLoop = eventLoop;
             /*
              * 通过AsyncHttpHelper封装的AsyncHttpClient发送异步http请求。
              * 注意：发送请求，和后续的响应接收，都是在AsyncHttpClient线程池中执行的。
+             * 使用hystrix时，请求在run方法中才发出，断路器打开时不会发往服务实例
              */
-            CompletableFuture<Response> futureResponse = AsyncHttpHelper.getInstance().executeRequest(request);
+            Supplier<CompletableFuture<Response>> upstream;
+            if(filterConfig.isCoalescingEnabled()){
+                //可合并的请求：与正在进行的相同请求共用其结果，或者由该请求发起调用
+                upstream = () -> CoalescingManager.getInstance().execute(ctx, request, filterConfig,
+                        () -> send(ctx, request, filterConfig, sendLoop));
+            }else{
+                upstream = () -> send(ctx, request, filterConfig, sendLoop);
+            }
             /*
              * 根据过滤器配置判断是否要使用hystrix进行熔断降级
              * 注意：
-             * 若不使用hystrix，则需要将complete设置为异步回调方法。这种情况下，complete运行在AsyncHttpClient线程池中。
-             * 若使用hystrix，则在其run方法中，需要阻塞等待请求的响应结果，然后再调用complete方法。
+             * 若不使用hystrix，则直接发送请求并返回其future，由父类在响应到达后调用onComplete（进而调用complete方法）
+             * 若使用hystrix，则在其run方法中，需要阻塞等待请求的响应结果，然后返回已完成的future。
              * 这种情况下，complete运行在disruptor的消费者线程池中
              */
             if(!filterConfig.isUseHystrix()){
-                //单/双异步模式的标识。单异步使用whenComplete，双异步使用whenCompleteAsync
-                boolean whenComplete = ConfigLoader.getConfig().isWhenComplete();
                 //若请求成功，则throwable为空；若请求失败，则response为空。
-                if(whenComplete){
-                    //whenComplete使用同一个线程来负责发送请求和接收响应
-                    futureResponse.whenComplete(((response, throwable) -> {
-                        //调用complete完成响应的处理，并激发下一个过滤器组件
-                        complete(request, response, throwable, ctx, null);
-                    }));
-                }else{
-                    //whenCompleteAsync使用一个线程来发送请求，另一个线程来接收响应
-                    futureResponse.whenCompleteAsync(((response, throwable) -> {
-                        //调用complete完成响应的处理，并激发下一个过滤器组件
-                        complete(request, response, throwable, ctx, null);
-                    }));
-                }
+                return upstream.get();
             }else{
                 /*
                  * Hystrix基础知识：
@@ -197,7 +227,7 @@ public class RouteFilter extends AbstractGatewayFilter<RouteFilter.Config> {
                          */
                         try{
                             log.info("【路由过滤器】正在执行hystrix command run方法");
-                            Response response = futureResponse.get();
+                            Response response = upstream.get().get();
                             wrapper.setResponse(response);
                         }catch (Throwable t){
                             wrapper.setThrowable(t);
@@ -212,77 +242,111 @@ public class RouteFilter extends AbstractGatewayFilter<RouteFilter.Config> {
                         log.error("【路由过滤器】请求: {} 触发降级: {}",
                                 ctx.getRequest().getPath(), filterConfig.getFallbackMessage());
                         wrapper.setData(filterConfig.getFallbackMessage());
+                        if(isResponseShortCircuited()){
+                            //断路器打开，run方法没有执行，请求没有发往选中的服务实例，撤销其统计信息
+                            InstanceStatsManager.getInstance().cancel(ctx);
+                            wrapper.setFallbackReason("circuit_open");
+                        }
                         //注：降级回退默认不属于异常
                         return wrapper;
                     }
                 };
-                ResponseWrapper responseWrapper = hystrixCommand.execute();
-                //调用complete方法完成响应的处理，并激发下一个过滤器组件
-                complete(request, responseWrapper.getResponse(),
-                        responseWrapper.getThrowable(), ctx, responseWrapper.getData());
+                //hystrix命令执行完毕后，结果已经确定，直接返回已完成的future
+                return CompletableFuture.completedFuture(hystrixCommand.execute());
             }
         }catch (Exception e){
-            //过滤器执行过程出现异常，（正常）过滤器链执行结束，将上下文状态设置为terminated
-            ctx.setTerminated();
-            throw new Exception(EXCEPTION_MSG + e.getMessage(), e);
+            //请求没有发出，释放acquire时记录的统计信息。异常由过滤器链工厂统一处理
+            InstanceStatsManager.getInstance().release(ctx, false);
+            throw e;
+        }
+    }
+    /**
+     * @date: 2024-12-16 17:00
+     * @description: 向选中的服务实例发送请求（启用了对冲时，由对冲请求管理类负责发送）
+     * @Param ctx:
+     * @Param request:
+     * @Param filterConfig:
+     * @Param eventLoop: 与服务实例通信使用的EventLoop，为null表示不使用原生上游客户端
+     * @return: java.util.concurrent.CompletableFuture<org.asynchttpclient.Response>
+     */
+    private CompletableFuture<Response> send(GatewayContext ctx, Request request, RouteFilter.Config filterConfig,
+                                             EventLoop eventLoop){
+        if(filterConfig.isHedgingEnabled() && !filterConfig.isUseHystrix()){
+            //可对冲的请求：原请求长时间未响应时，向另一个服务实例发送对冲请求，以先到达的响应为准
+            return HedgingManager.getInstance().execute(ctx, request, filterConfig);
+        }
+        return AsyncHttpHelper.getInstance().executeRequest(request, ctx.getProtocol(), eventLoop);
+    }
+    @Override
+    protected void onComplete(GatewayContext ctx, RouteFilter.Config filterConfig, Object result, Throwable throwable) {
+        if(result instanceof ResponseWrapper){
+            //使用了hystrix，响应对象，异常和降级消息都保存在包装类中
+            ResponseWrapper responseWrapper = (ResponseWrapper) result;
+            complete(responseWrapper.getResponse(), responseWrapper.getThrowable(), ctx,
+                    responseWrapper.getData(), responseWrapper.getFallbackReason());
+        }else{
+            complete((Response) result, throwable, ctx, null, null);
         }
-        /*
-         * 注意，此处不要设置finally子句，没有意义。
-         * 需要在处理响应的complete方法中去设置。
-         */
     }
     /**
      * @date: 2024-05-23 14:48
-     * @description: 负责对响应结果进行处理，并且激发下一个过滤器组件
-                     注意：该方法具体执行在哪个线程，取决于是否使用了hystrix。
-                     若未使用hystrix，则该方法执行在AsyncHttpClient线程池中，并且只有当AsyncHttpClient接收到响应时才会被调用
-                     此时，complete方法无法把异常抛给disruptor消费者线程中的相应方法（具体指FilterChainFactory.doFilterChain），
+     * @description: 负责对响应结果进行处理（过滤器链的恢复由父类负责）
+                     注意：请求过程中的异常（如超时，连接失败）属于上游服务的问题，而不是网关本身的错误，
                      所以complete不应该向上层抛出任何异常，也不应该去执行异常过滤器链
                      由于不会去执行异常处理过滤器，所以出现异常时，需要自己构建对应的网关响应对象
-
-     * @Param request:
      * @Param response:
      * @Param throwable:
      * @Param ctx:
      * @Param data:
+     * @Param fallbackReason: 触发降级回退的原因，为null表示一般的降级回退
      * @return: void
      */
-    private void complete(Request request, Response response, Throwable throwable,
-                          GatewayContext ctx, Object data) {
+    private void complete(Response response, Throwable throwable, GatewayContext ctx, Object data, String fallbackReason) {
         try{
-            log.info("接收到请求: {} 的响应结果", request.getUri());
+            String url = ctx.getRequest().getFinalUrl();
+            log.info("接收到请求: {} 的响应结果", url);
             //释放FullHttpRequest请求对象
             ctx.releaseRequest();
-            String url = request.getUrl();
             /*
              * 检查请求过程中是否存在异常。若有，则进一步判断异常的类型。（getCause的作用是获取原始异常）
              * 注意：此处的异常是请求过程中产生的，而不是由网关本身抛出的
              */
             if(Objects.nonNull(throwable)){
-                //超时异常（hystrix会对原始异常进行封装，所以需要使用getCause获取原始异常）
-                if(throwable.getCause() instanceof TimeoutException || throwable instanceof  TimeoutException){
+                //获取原始异常（hystrix会对原始异常进行封装，所以需要使用getCause获取原始异常）
+                Throwable cause = throwable.getCause() != null ? throwable.getCause() : throwable;
+                //启用了stale-if-error时，优先使用最近一次成功的响应，不再写回异常响应
+                GatewayResponse staleResponse = ResponseCacheManager.getInstance().getStaleResponse(ctx,
+                        cause instanceof TimeoutException ? "timeout" : "error");
+                if(staleResponse != null){
+                    ctx.setResponse(staleResponse);
+                }else if(cause instanceof TimeoutException){
+                    //超时异常
                     log.warn("【路由过滤器】请求: {} 耗时超过{} ms", url,
                             //获取请求超时时间的配置值
-                            (request.getRequestTimeout() == 0 ?
-                                    ConfigLoader.getConfig().getHttpRequestTimeout() :
-                                    request.getRequestTimeout()));
+                            ConfigLoader.getConfig().getHttpRequestTimeout());
                     //在上下文中设置异常信息
-                    ctx.setThrowable(new ResponseException(throwable.getCause(), ctx.getUniqueId(),
+                    ctx.setThrowable(new ResponseException(cause, ctx.getUniqueId(),
                             ResponseCode.REQUEST_TIMEOUT));
                     ctx.setResponse(GatewayResponse.buildGatewayResponse(ResponseCode.REQUEST_TIMEOUT));
                 }else{
                     //其他异常情况
 
                     log.warn("【路由过滤器】请求: {} 出现响应异常", url);
-                    ctx.setThrowable(new ConnectException(throwable.getCause(), ctx.getUniqueId(),
+                    ctx.setThrowable(new ConnectException(cause, ctx.getUniqueId(),
                             url, ResponseCode.HTTP_RESPONSE_ERROR));
                     ctx.setResponse(GatewayResponse.buildGatewayResponse(ResponseCode.HTTP_RESPONSE_ERROR));
                 }
             }else if(Objects.nonNull(response)){
-                ctx.setResponse(GatewayResponse.buildGatewayResponse(response));
+                //读取服务实例通过响应头上报的负载，用于动态调整实例的权重
+                LoadFeedbackManager.getInstance().onResponse(ctx.getAttribute(AttributeKey.INSTANCE_STATS), response);
+                //启用了响应缓存时，保存可缓存的响应（对条件请求的304响应则使用缓存的响应体）
+                ctx.setResponse(ResponseCacheManager.getInstance().onResponse(ctx, response));
             }else{
-                //降级回退默认不属于异常
-                ctx.setResponse(GatewayResponse.buildGatewayResponse(ResponseCode.SUCCESS, data));
+                //降级回退默认不属于异常。启用了stale-if-error时，优先使用最近一次成功的响应代替降级消息
+                GatewayResponse staleResponse = ResponseCacheManager.getInstance().getStaleResponse(ctx,
+                        fallbackReason != null ? fallbackReason : "fallback");
+                ctx.setResponse(staleResponse != null ? staleResponse
+                        : GatewayResponse.buildGatewayResponse(ResponseCode.SUCCESS, data));
             }
         }catch (Exception e){
             //注：此处不要去执行异常过滤器链
@@ -290,24 +354,12 @@ public class RouteFilter extends AbstractGatewayFilter<RouteFilter.Config> {
             ctx.setThrowable(e);
             ctx.setResponse(GatewayResponse.buildGatewayResponse(ResponseCode.INTERNAL_ERROR));
         }finally {
-            try{
-                //需将响应结果写回客户端，将上下文状态设置为written
-                //在接下来的fireNext方法中，便会检测到上下文状态变为written，于是执行结果写回方法
-                ctx.setWritten();
-                /*
-                 * 调用父类AbstractLinkedFilter的fireNext方法，
-                 * 根据上下文的当前状态做出相关操作，然后触发/激发下一个过滤器组件
-                 * （这是过滤器链能够顺序执行的关键）
-                 */
-                super.fireNext(ctx);
-            }catch (Throwable t){
-                /*
-                 * 实际上，后续的写回操作和后置过滤器都不会向上抛异常，
-                 * 所以理论上该分支永远也不会执行
-                 */
-                log.error("【路由过滤器】fireNext执行异常: {}", t.getMessage());
-                ctx.setThrowable(t);
-            }
+            //请求已结束，更新服务实例正在处理的请求数和响应延迟。5xx响应同样视为失败，用于异常实例检测
+            InstanceStatsManager.getInstance().release(ctx,
+                    throwable == null && response != null && response.getStatusCode() < 500);
+            //需将响应结果写回客户端，将上下文状态设置为written
+            //过滤器链恢复执行后，便会检测到上下文状态变为written，于是执行结果写回方法
+            ctx.setWritten();
         }
     }
 }
@@ -1,7 +1,11 @@
 package org.wyh.gateway.core.helper;
 
+import io.netty.channel.EventLoop;
 import lombok.extern.slf4j.Slf4j;
 import org.asynchttpclient.*;
+import org.wyh.gateway.core.netty.client.Http2UpstreamClient;
+import org.wyh.gateway.core.netty.client.NativeHttpClient;
+import org.wyh.gateway.core.netty.client.UpstreamConnectionManager;
 
 import java.util.concurrent.CompletableFuture;
 
@@ -18,6 +22,10 @@ import java.util.concurrent.CompletableFuture;
 public class AsyncHttpHelper {
     //本项目底层通过AsyncHttpClient框架来发送异步http请求
     private AsyncHttpClient asyncHttpClient;
+    //协议为h2c或h2的服务通过HTTP/2上游客户端发送请求
+    private Http2UpstreamClient http2Client;
+    //原生上游客户端（未启用时为null），协议为http的请求在接收该请求的EventLoop上发送
+    private NativeHttpClient nativeClient;
     /**
      * @BelongsProject: my-api-gateway
      * @BelongsPackage: org.wyh.core.helper
@@ -44,12 +52,16 @@ public class AsyncHttpHelper {
     }
     /**
      * @date: 2024-01-18 9:38
-     * @description: 初始化，设置该类的AsyncHttpClient属性
+     * @description: 初始化，设置该类的AsyncHttpClient属性，HTTP/2上游客户端和原生上游客户端
      * @Param asyncHttpClient:
+     * @Param http2Client:
+     * @Param nativeClient: 未启用原生上游客户端时为null
      * @return: void
      */
-    public void initialized(AsyncHttpClient asyncHttpClient){
+    public void initialized(AsyncHttpClient asyncHttpClient, Http2UpstreamClient http2Client, NativeHttpClient nativeClient){
         this.asyncHttpClient = asyncHttpClient;
+        this.http2Client = http2Client;
+        this.nativeClient = nativeClient;
     }
     /**
      * @date: 2024-01-18 10:15
@@ -61,8 +73,33 @@ public class AsyncHttpHelper {
         log.info("请求: {} 已发送", request.getUri());
         //ListenableFuture和CompletableFuture都是对java Future接口的拓展，都提供了回调功能
         //至于两者之间的差异，在该项目中可以忽略
-        ListenableFuture<Response> future = asyncHttpClient.executeRequest(request);
-        return future.toCompletableFuture();
+        //使用记录连接统计信息的响应处理器（其处理响应的方式与默认的响应处理器相同）
+        ListenableFuture<Response> future = asyncHttpClient.executeRequest(request,
+                UpstreamConnectionManager.getInstance().newHandler(request));
+        return toCompletableFuture(future);
+    }
+    /**
+     * @date: 2024-12-16 15:30
+     * @description: 根据服务协议发送异步http请求：协议为h2c或h2时使用HTTP/2上游客户端（多路复用少量连接）；
+                     否则，启用了原生上游客户端时，在接收该请求的EventLoop上发送（https请求除外），
+                     未启用时（或未指定EventLoop时）使用AsyncHttpClient
+     * @Param request:
+     * @Param protocol: 服务协议，即服务定义中的protocol属性
+     * @Param eventLoop: 接收该请求的EventLoop。为null时不使用原生上游客户端（如调用线程会阻塞等待响应时）
+     * @return: java.util.concurrent.CompletableFuture<org.asynchttpclient.Response>
+     */
+    public CompletableFuture<Response> executeRequest(Request request, String protocol, EventLoop eventLoop){
+        Http2UpstreamClient h2Client = http2Client;
+        if(h2Client != null && Http2UpstreamClient.isHttp2(protocol)){
+            log.info("请求: {} 已发送（{}）", request.getUri(), protocol);
+            return h2Client.execute(request, protocol);
+        }
+        NativeHttpClient client = nativeClient;
+        if(client != null && eventLoop != null && !request.getUri().isSecured()){
+            log.info("请求: {} 已发送", request.getUri());
+            return client.execute(request, eventLoop);
+        }
+        return executeRequest(request);
     }
     /**
      * @date: 2024-01-18 10:26
@@ -77,6 +114,22 @@ public class AsyncHttpHelper {
         //ListenableFuture和CompletableFuture都是对java Future接口的拓展，都提供了回调功能
         //至于两者之间的差异，在该项目中可以忽略
         ListenableFuture<T> future = asyncHttpClient.executeRequest(request, handler);
-        return future.toCompletableFuture();
+        return toCompletableFuture(future);
+    }
+    /**
+     * @date: 2024-12-05 10:45
+     * @description: 将ListenableFuture转换为CompletableFuture，并将后者的提前结束（超时或取消）传递给前者，
+                     即中止对应的http请求，避免其继续占用连接
+     * @Param future:
+     * @return: java.util.concurrent.CompletableFuture<T>
+     */
+    private <T> CompletableFuture<T> toCompletableFuture(ListenableFuture<T> future){
+        CompletableFuture<T> completableFuture = future.toCompletableFuture();
+        completableFuture.whenComplete((result, throwable) -> {
+            if(throwable != null && !future.isDone()){
+                future.abort(throwable);
+            }
+        });
+        return completableFuture;
     }
 }
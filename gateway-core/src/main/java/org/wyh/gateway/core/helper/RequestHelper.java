@@ -2,32 +2,31 @@ package org.wyh.gateway.core.helper;
 
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.http.*;
+import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.StringUtils;
-import org.wyh.gateway.common.config.DynamicConfigManager;
-import org.wyh.gateway.common.config.Rule;
 import org.wyh.gateway.common.config.ServiceDefinition;
 import org.wyh.gateway.common.config.ServiceInvoker;
 import org.wyh.gateway.common.constant.BasicConst;
 import org.wyh.gateway.common.constant.GatewayConst;
 import org.wyh.gateway.common.enumeration.ResponseCode;
-import org.wyh.gateway.common.exception.NotFoundException;
-import org.wyh.gateway.common.exception.PathNoMatchedException;
-import org.wyh.gateway.common.exception.ResponseException;
-import org.wyh.gateway.common.utils.AntPathMatcher;
 import org.wyh.gateway.core.context.AttributeKey;
 import org.wyh.gateway.core.context.GatewayContext;
+import org.wyh.gateway.core.filter.common.CompiledRule;
+import org.wyh.gateway.core.filter.common.chainfactory.GatewayFilterChainFactory;
 import org.wyh.gateway.core.filter.post.StatisticFilter;
 import org.wyh.gateway.core.request.GatewayRequest;
+import org.wyh.gateway.core.request.HttpRequestWrapper;
+import org.wyh.gateway.core.route.RouteManager;
+import org.wyh.gateway.core.route.RouteMatch;
+import org.wyh.gateway.core.route.ServiceRoute;
 
 import java.net.InetSocketAddress;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
 
 import static org.wyh.gateway.common.constant.FilterConst.STATISTIC_FILTER_ID;
-import static org.wyh.gateway.common.enumeration.ResponseCode.PATH_NO_MATCHED;
 
 /**
  * @BelongsProject: my-api-gateway
@@ -36,65 +35,102 @@ import static org.wyh.gateway.common.enumeration.ResponseCode.PATH_NO_MATCHED;
  * @Date: 2024-01-17 9:45
  * @Description: 该辅助类主要负责构建网关请求对象和对应的上下文对象。
  */
+@Slf4j
 public class RequestHelper {
-    //ANT路径规则匹配器
-    private static final AntPathMatcher antPathMatcher = new AntPathMatcher();
     /**
      * @date: 2024-01-17 9:55
      * @description: 解析请求对象（FullHttpRequest对象），构建对应的上下文对象（GatewayContext对象）
-     * @Param request:
-     * @Param nettyCtx:
+                     目标服务优先由请求头中的uniqueId确定；若未携带uniqueId，则根据Host，请求路径和版本号从全局路由表中确定
+                     注意：服务定义不存在，路径不匹配，方法调用不存在等情况都属于预期内的结果，
+                     此时不再抛出异常，而是直接向客户端写回相应的响应，并返回null
+     * @Param requestWrapper:
      * @return: org.wyh.core.context.GatewayContext
      */
-    public static GatewayContext doContext(FullHttpRequest request, ChannelHandlerContext nettyCtx){
+    public static GatewayContext doContext(HttpRequestWrapper requestWrapper){
+        FullHttpRequest request = requestWrapper.getFullHttpRequest();
+        ChannelHandlerContext nettyCtx = requestWrapper.getNettyCtx();
+        ServiceRoute serviceRoute;
+        String uniqueId = request.headers().get(GatewayConst.UNIQUE_ID);
+        if(StringUtils.isNotBlank(uniqueId)){
+            //请求头中带有uniqueId属性，则直接从路由管理器中获取该服务（编译好的）路由信息
+            serviceRoute = RouteManager.getInstance().getServiceRoute(uniqueId);
+            if(serviceRoute == null){
+                log.warn("未找到服务: {}的服务定义", uniqueId);
+                return reject(requestWrapper, ResponseCode.SERVICE_DEFINITION_NOT_FOUND);
+            }
+        }else{
+            //否则，根据Host，请求路径和版本号，从全局路由表中确定目标服务
+            String host = request.headers().get(HttpHeaderNames.HOST);
+            String path = new QueryStringDecoder(request.uri()).path();
+            String version = request.headers().get(GatewayConst.VERSION);
+            serviceRoute = RouteManager.getInstance().resolveServiceRoute(host, path, version);
+            if(serviceRoute == null){
+                log.warn("请求: {} 未携带uniqueId，并且未在全局路由表中找到对应的服务", request.uri());
+                return reject(requestWrapper, ResponseCode.SERVICE_DEFINITION_NOT_FOUND);
+            }
+            uniqueId = serviceRoute.getServiceDefinition().getUniqueId();
+        }
+        ServiceDefinition serviceDefinition = serviceRoute.getServiceDefinition();
         //构建GatewayRequest请求对象
-        GatewayRequest gatewayRequest = doRequest(request, nettyCtx);
-        //根据请求对象里的uniqueId，从动态配置管理器中获取服务定义信息
-        ServiceDefinition serviceDefinition =
-                DynamicConfigManager.getInstance().getServiceDefinition(gatewayRequest.getUniqueId());
-        //将服务定义中的ANT风格（匹配）规则与请求中的请求路径进行匹配，如果匹配失败，则直接抛出相应异常（这就是快速失败策略）
-        if(!antPathMatcher.match(serviceDefinition.getPatternPath(), gatewayRequest.getPath())){
-            throw new PathNoMatchedException(gatewayRequest.getPath(),
-                    serviceDefinition.getUniqueId(),serviceDefinition.getPatternPath(), PATH_NO_MATCHED);
+        GatewayRequest gatewayRequest = doRequest(uniqueId, request, nettyCtx);
+        //将服务定义中的（匹配）规则与请求中的请求路径进行匹配，如果匹配失败，则直接写回相应响应（这就是快速失败策略）
+        if(!serviceRoute.matchPattern(gatewayRequest.getPath())){
+            log.warn("请求路径: {} 与服务: {} 的规则: {} 不匹配",
+                    gatewayRequest.getPath(), uniqueId, serviceDefinition.getPatternPath());
+            return reject(requestWrapper, ResponseCode.PATH_NO_MATCHED);
+        }
+        //根据请求对象中的路径信息，通过前缀树查找对应的方法调用对象（同时捕获路径变量）
+        RouteMatch<ServiceInvoker> routeMatch = serviceRoute.matchInvoker(gatewayRequest.getPath());
+        if(routeMatch == null){
+            log.warn("未找到服务: {}的方法调用: {}", uniqueId, gatewayRequest.getPath());
+            return reject(requestWrapper, ResponseCode.SERVICE_INVOKER_NOT_FOUND);
         }
-        //根据请求对象中的路径信息，获取对应的方法调用对象
-        ServiceInvoker serviceInvoker = getServiceInvoker(gatewayRequest, serviceDefinition);
-        //根据方法调用对象中的ruleId，从动态配置管理器中获取对应的规则对象
+        ServiceInvoker serviceInvoker = routeMatch.getValue();
+        //根据方法调用对象中的ruleId，从过滤器链工厂中获取对应的（编译后的）规则对象
         String ruleId = serviceInvoker.getRuleId();
-        Rule rule = DynamicConfigManager.getInstance().getRule(ruleId);
+        CompiledRule compiledRule = GatewayFilterChainFactory.getInstance().getCompiledRule(ruleId);
         //构建该请求的GatewayContext上下文对象
         GatewayContext gatewayContext = new GatewayContext.Builder()
                 .setProtocol(serviceDefinition.getProtocol())
                 .setNettyCtx(nettyCtx)
                 .setKeepAlive(HttpUtil.isKeepAlive(request))
                 .setGatewayRequest(gatewayRequest)
-                .setRule(rule)
+                .setCompiledRule(compiledRule)
                 .build();
         //若启用了统计过滤器，则开始统计（该上下文对象对应的）请求对象的处理时间
-        if(rule.checkFilterExist(STATISTIC_FILTER_ID)){
+        if(compiledRule.containsFilter(STATISTIC_FILTER_ID)){
             StatisticFilter.startSample(gatewayContext);
         }
         //在网关上下文中设置“http方法调用”参数
         gatewayContext.setAttribute(AttributeKey.HTTP_INVOKER, serviceInvoker);
+        //在网关上下文中设置“路由匹配结果”参数，后续过滤器可以从中获取路径变量
+        gatewayContext.setAttribute(AttributeKey.ROUTE_MATCH, routeMatch);
         return gatewayContext;
     }
+    /**
+     * @date: 2024-12-02 11:05
+     * @description: 在构建上下文之前拒绝该请求，即直接向客户端写回指定响应码对应的响应
+     * @Param requestWrapper:
+     * @Param responseCode:
+     * @return: org.wyh.gateway.core.context.GatewayContext 始终返回null，表示未构建上下文
+     */
+    private static GatewayContext reject(HttpRequestWrapper requestWrapper, ResponseCode responseCode){
+        ResponseHelper.writeResponse(requestWrapper, responseCode);
+        return null;
+    }
     /**
      * @date: 2024-01-17 9:58
      * @description: 根据FullHttpRequest请求对象，构建内部的GatewayRequest请求对象
+     * @Param uniqueId:
      * @Param request:
      * @Param nettyCtx:
      * @return: org.wyh.core.request.GatewayRequest
      */
-    private static GatewayRequest doRequest(FullHttpRequest request, ChannelHandlerContext nettyCtx){
+    private static GatewayRequest doRequest(String uniqueId, FullHttpRequest request, ChannelHandlerContext nettyCtx){
         /*
          * 以下一系列操作主要是在获取构建GatewayRequest对象需要的参数
          */
         HttpHeaders headers = request.headers();
-        String uniqueId = headers.get(GatewayConst.UNIQUE_ID);
-        //请求头中必须带有uniqueId属性
-        if(StringUtils.isBlank(uniqueId)){
-            throw new ResponseException(uniqueId, ResponseCode.REQUEST_PARSE_ERROR_NO_UNIQUEID);
-        }
         String host = headers.get(HttpHeaderNames.HOST);
         HttpMethod method = request.method();
         String uri = request.uri();
@@ -138,21 +174,4 @@ public class RequestHelper {
         }
         return clientIp;
     }
-    /**
-     * @date: 2024-05-13 16:03
-     * @description: 根据请求对象中的路径信息，获取对应的方法调用对象
-     * @Param request:
-     * @Param serviceDefinition:
-     * @return: org.wyh.gateway.common.config.ServiceInvoker
-     */
-    private static ServiceInvoker getServiceInvoker(GatewayRequest request,
-                                                    ServiceDefinition serviceDefinition){
-        Map<String, ServiceInvoker> invokerMap = serviceDefinition.getInvokerMap();
-        //根据请求对象中的路径信息，获取对应的方法调用对象
-        ServiceInvoker serviceInvoker = invokerMap.get(request.getPath());
-        if(serviceInvoker == null){
-            throw new NotFoundException(request.getUniqueId(), ResponseCode.SERVICE_INVOKER_NOT_FOUND);
-        }
-        return serviceInvoker;
-    }
 }
@@ -57,6 +57,19 @@ public class ResponseHelper {
      * @return: io.netty.handler.codec.http.FullHttpResponse
      */
     private static FullHttpResponse getHttpResponse(GatewayResponse gatewayResponse){
+        //来自响应缓存的响应：直接使用缓存的响应头和响应体（响应体的类型由缓存的响应头决定，不再设为json）
+        if(Objects.nonNull(gatewayResponse.getCachedContent())){
+            DefaultFullHttpResponse httpResponse = new DefaultFullHttpResponse(HTTP_VERSION,
+                    gatewayResponse.getHttpResponseStatus(),
+                    gatewayResponse.getCachedContent());
+            httpResponse.headers().add(gatewayResponse.getResponseHeaders());
+            httpResponse.headers().add(gatewayResponse.getExtraResponseHeaders());
+            //304响应没有响应体，不设置Content-Length
+            if(!HttpResponseStatus.NOT_MODIFIED.equals(httpResponse.status())){
+                httpResponse.headers().set(HttpHeaderNames.CONTENT_LENGTH, httpResponse.content().readableBytes());
+            }
+            return httpResponse;
+        }
         ByteBuf content;
         /*
          * 优先从网关响应对象的futureResponse属性中获取响应体
@@ -132,7 +145,9 @@ public class ResponseHelper {
                     ctx.getNettyCtx().writeAndFlush(httpResponse);
                 }
                 //打印相关日志
-                if(Objects.nonNull(ctx.getThrowable())){
+                if(ctx.isRejected()){
+                    log.info("请求: {} 被拒绝: {}", ctx.getRequest().getPath(), ctx.getRejectCode().getMessage());
+                }else if(Objects.nonNull(ctx.getThrowable())){
                     log.info("请求: {} 异常，已写回异常响应", ctx.getRequest().getPath());
                 }else{
                     log.info("请求: {} 成功，已写回响应结果", ctx.getRequest().getPath());
@@ -0,0 +1,378 @@
+package org.wyh.gateway.core.instance;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Metrics;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpClientCodec;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaderValues;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import io.netty.util.concurrent.Promise;
+import io.netty.util.concurrent.ScheduledFuture;
+import lombok.extern.slf4j.Slf4j;
+import org.wyh.gateway.common.config.DynamicConfigManager;
+import org.wyh.gateway.common.config.InstanceGroup;
+import org.wyh.gateway.common.config.ServiceInstance;
+import org.wyh.gateway.common.config.ServiceInstanceSnapshot;
+import org.wyh.gateway.core.config.Config;
+import org.wyh.gateway.core.config.ConfigLoader;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @BelongsProject: api-gateway-server
+ * @BelongsPackage: org.wyh.gateway.core.instance
+ * @Author: wyh
+ * @Date: 2024-12-15 9:30
+ * @Description: 主动健康检查器。定期对注册中心中的每个服务实例发起检查（http请求指定路径，或者只建立tcp连接），
+                 连续失败达到阈值的实例被标记为不健康，并从可选实例分组中去除；连续成功达到阈值后恢复。
+                 所有检查都运行在一个专用的单线程事件循环上，检查状态只在该线程中修改，不需要加锁。
+                 为了避免瞬时的连接风暴：每个周期内各实例的检查时间在整个周期内随机分散；
+                 同一服务同时进行的检查数量有上限，超出的检查进入该服务的等待队列，前面的检查结束后再依次执行。
+                 若实例分组中所有实例都不健康，则不进行过滤（此时更可能是健康检查本身出了问题，如网络分区）。
+ */
+@Slf4j
+public class HealthChecker implements InstanceGroupFilter {
+    //tcp方式的健康检查
+    private static final String TYPE_TCP = "tcp";
+    //http健康检查响应的最大长度
+    private static final int MAX_CONTENT_LENGTH = 64 * 1024;
+    //网关的核心静态配置
+    private final Config config;
+    //服务实例id及其健康状态的集合（请求线程只读取其中的健康标识）
+    private final ConcurrentHashMap<String, HealthState> stateMap = new ConcurrentHashMap<>();
+    //服务唯一id及其检查队列的集合（只在事件循环线程中访问）
+    private final Map<String, ProbeQueue> queueMap = new HashMap<>();
+    //健康检查专用的事件循环
+    private EventLoopGroup eventLoopGroup;
+    //建立检查连接使用的Bootstrap
+    private Bootstrap bootstrap;
+    /**
+     * @BelongsProject: api-gateway-server
+     * @BelongsPackage: org.wyh.gateway.core.instance
+     * @Author: wyh
+     * @Date: 2024-12-15 9:32
+     * @Description: （静态内部类）服务实例的健康状态。除healthy外，其他字段只在事件循环线程中访问
+     */
+    private static final class HealthState {
+        //服务实例（每个检查周期开始时更新为注册中心中的最新对象）
+        private ServiceInstance instance;
+        //是否健康。实例默认是健康的，直到连续检查失败达到阈值
+        private volatile boolean healthy = true;
+        //连续检查成功的次数
+        private int successes;
+        //连续检查失败的次数
+        private int failures;
+        //是否有尚未结束的检查（包括在等待队列中的检查），避免同一实例的检查堆积
+        private boolean probing;
+    }
+    /**
+     * @BelongsProject: api-gateway-server
+     * @BelongsPackage: org.wyh.gateway.core.instance
+     * @Author: wyh
+     * @Date: 2024-12-15 9:35
+     * @Description: （静态内部类）单个服务的检查队列，用于限制同一服务同时进行的检查数量
+     */
+    private static final class ProbeQueue {
+        //正在进行的检查数量
+        private int active;
+        //等待执行的检查
+        private final ArrayDeque<HealthState> pending = new ArrayDeque<>();
+    }
+    /**
+     * @BelongsProject: api-gateway-server
+     * @BelongsPackage: org.wyh.gateway.core.instance
+     * @Author: wyh
+     * @Date: 2024-12-15 9:38
+     * @Description: （静态内部类）处理http健康检查的响应
+     */
+    private static final class ProbeHandler extends SimpleChannelInboundHandler<FullHttpResponse> {
+        //检查结果
+        private final Promise<Boolean> result;
+
+        private ProbeHandler(Promise<Boolean> result) {
+            this.result = result;
+        }
+
+        @Override
+        protected void channelRead0(ChannelHandlerContext ctx, FullHttpResponse response) {
+            result.trySuccess(response.status().code() < 400);
+        }
+
+        @Override
+        public void channelInactive(ChannelHandlerContext ctx) {
+            result.trySuccess(false);
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            result.trySuccess(false);
+            ctx.close();
+        }
+    }
+    /**
+     * @BelongsProject: api-gateway-server
+     * @BelongsPackage: org.wyh.gateway.core.instance
+     * @Author: wyh
+     * @Date: 2024-12-15 9:40
+     * @Description: 静态内部类，用于实现单例模式
+     */
+    private static class SingletonHolder {
+        private static final HealthChecker INSTANCE = new HealthChecker();
+    }
+    /**
+     * @date: 2024-12-15 9:41
+     * @description: private修饰的无参构造器，负责注册不健康实例数量的指标
+     * @return: null
+     */
+    private HealthChecker(){
+        this.config = ConfigLoader.getConfig();
+        Gauge.builder("gateway.health.unhealthy", this, HealthChecker::countUnhealthy)
+                .description("当前主动健康检查不通过的服务实例数量")
+                .register(Metrics.globalRegistry);
+    }
+    /**
+     * @date: 2024-12-15 9:42
+     * @description: 获取该类的唯一实例
+     * @return: org.wyh.gateway.core.instance.HealthChecker
+     */
+    public static HealthChecker getInstance(){
+        return SingletonHolder.INSTANCE;
+    }
+    /**
+     * @date: 2024-12-15 9:45
+     * @description: 创建事件循环，并启动周期检查
+     * @return: void
+     */
+    public synchronized void start(){
+        if(!config.isHealthCheckEnabled() || eventLoopGroup != null){
+            return;
+        }
+        boolean http = !TYPE_TCP.equalsIgnoreCase(config.getHealthCheckType());
+        eventLoopGroup = new NioEventLoopGroup(1, new DefaultThreadFactory("health-checker", true));
+        bootstrap = new Bootstrap()
+                .group(eventLoopGroup)
+                .channel(NioSocketChannel.class)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, Math.max(config.getHealthCheckTimeout(), 1))
+                .option(ChannelOption.TCP_NODELAY, true)
+                .handler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(SocketChannel ch) {
+                        if(http){
+                            ch.pipeline().addLast(new HttpClientCodec(), new HttpObjectAggregator(MAX_CONTENT_LENGTH));
+                        }
+                    }
+                });
+        long interval = Math.max(config.getHealthCheckInterval(), 100);
+        eventLoopGroup.scheduleAtFixedRate(() -> {
+            try{
+                schedule(interval, http);
+            }catch (Throwable t){
+                log.error("主动健康检查调度失败", t);
+            }
+        }, 0, interval, TimeUnit.MILLISECONDS);
+        log.info("主动健康检查启动，检查方式: {}，检查周期: {}ms", http ? "http" : TYPE_TCP, interval);
+    }
+    /**
+     * @date: 2024-12-15 9:48
+     * @description: 关闭事件循环
+     * @return: void
+     */
+    public synchronized void shutdown(){
+        if(eventLoopGroup != null){
+            eventLoopGroup.shutdownGracefully();
+            eventLoopGroup = null;
+        }
+    }
+    /**
+     * @date: 2024-12-15 9:50
+     * @description: 判断服务实例是否健康（未进行过检查的实例视为健康）
+     * @Param serviceInstanceId:
+     * @return: boolean
+     */
+    public boolean isHealthy(String serviceInstanceId){
+        HealthState state = stateMap.get(serviceInstanceId);
+        return state == null || state.healthy;
+    }
+    /**
+     * @date: 2024-12-15 9:55
+     * @description: 安排一个周期内的检查：每个（属于当前网关节点实例子集的）实例在周期内的随机时刻提交检查，并清理已下线实例的健康状态（在事件循环线程中执行）
+     * @Param interval:
+     * @Param http:
+     * @return: void
+     */
+    private void schedule(long interval, boolean http){
+        DynamicConfigManager manager = DynamicConfigManager.getInstance();
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        Set<String> alive = new HashSet<>();
+        Set<String> services = manager.getServiceDefinitionMap().keySet();
+        for (String uniqueId : services) {
+            ServiceInstanceSnapshot snapshot = manager.getServiceInstanceSnapshot(uniqueId);
+            ProbeQueue queue = null;
+            for (int g = 0; g < 2; g++) {
+                boolean gray = g == 1;
+                //只检查当前网关节点会访问的实例子集
+                InstanceGroup group = SubsetManager.getInstance().getSubset(uniqueId, gray, snapshot.getGroup(gray));
+                for (int i = 0; i < group.size(); i++) {
+                    ServiceInstance instance = group.get(i);
+                    if(queue == null){
+                        queue = queueMap.computeIfAbsent(uniqueId, key -> new ProbeQueue());
+                    }
+                    HealthState state = stateMap.computeIfAbsent(instance.getServiceInstanceId(), key -> new HealthState());
+                    state.instance = instance;
+                    alive.add(instance.getServiceInstanceId());
+                    ProbeQueue probeQueue = queue;
+                    eventLoopGroup.schedule(() -> submit(probeQueue, state, http),
+                            random.nextLong(interval), TimeUnit.MILLISECONDS);
+                }
+            }
+        }
+        stateMap.keySet().retainAll(alive);
+        queueMap.keySet().retainAll(services);
+    }
+    /**
+     * @date: 2024-12-15 10:00
+     * @description: 提交检查。若该服务正在进行的检查数量已达上限，则进入等待队列
+     * @Param queue:
+     * @Param state:
+     * @Param http:
+     * @return: void
+     */
+    private void submit(ProbeQueue queue, HealthState state, boolean http){
+        if(state.probing){
+            return;
+        }
+        state.probing = true;
+        if(queue.active >= Math.max(config.getHealthCheckMaxConcurrency(), 1)){
+            queue.pending.add(state);
+            return;
+        }
+        probe(queue, state, http);
+    }
+    /**
+     * @date: 2024-12-15 10:05
+     * @description: 执行检查，检查结束后更新健康状态，并执行该服务等待队列中的下一个检查
+     * @Param queue:
+     * @Param state:
+     * @Param http:
+     * @return: void
+     */
+    private void probe(ProbeQueue queue, HealthState state, boolean http){
+        queue.active++;
+        ServiceInstance instance = state.instance;
+        Promise<Boolean> result = eventLoopGroup.next().newPromise();
+        result.addListener(future -> {
+            queue.active--;
+            state.probing = false;
+            update(state, Boolean.TRUE.equals(future.getNow()));
+            HealthState next = queue.pending.poll();
+            if(next != null){
+                probe(queue, next, http);
+            }
+        });
+        bootstrap.connect(instance.getIp(), instance.getPort()).addListener((ChannelFutureListener) future -> {
+            if(!future.isSuccess()){
+                result.trySuccess(false);
+                return;
+            }
+            Channel channel = future.channel();
+            if(!http){
+                result.trySuccess(true);
+                channel.close();
+                return;
+            }
+            ScheduledFuture<?> timeout = channel.eventLoop().schedule(() -> result.trySuccess(false),
+                    config.getHealthCheckTimeout(), TimeUnit.MILLISECONDS);
+            result.addListener(f -> {
+                timeout.cancel(false);
+                channel.close();
+            });
+            channel.pipeline().addLast(new ProbeHandler(result));
+            FullHttpRequest request = new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET,
+                    config.getHealthCheckPath(), Unpooled.EMPTY_BUFFER);
+            request.headers()
+                    .set(HttpHeaderNames.HOST, instance.getAddress())
+                    .set(HttpHeaderNames.CONNECTION, HttpHeaderValues.CLOSE);
+            channel.writeAndFlush(request).addListener(f -> {
+                if(!f.isSuccess()){
+                    result.trySuccess(false);
+                }
+            });
+        });
+    }
+    /**
+     * @date: 2024-12-15 10:10
+     * @description: 根据检查结果更新实例的健康状态。状态发生变化时，使可选实例分组的缓存失效
+     * @Param state:
+     * @Param success:
+     * @return: void
+     */
+    private void update(HealthState state, boolean success){
+        if(success){
+            state.failures = 0;
+            state.successes++;
+            if(!state.healthy && state.successes >= config.getHealthCheckHealthyThreshold()){
+                state.healthy = true;
+                log.info("服务实例: {} 主动健康检查恢复正常", state.instance.getServiceInstanceId());
+                SelectableInstanceManager.getInstance().invalidate();
+            }
+        }else{
+            state.successes = 0;
+            state.failures++;
+            if(state.healthy && state.failures >= config.getHealthCheckUnhealthyThreshold()){
+                state.healthy = false;
+                log.warn("服务实例: {} 连续{}次主动健康检查失败，标记为不健康",
+                        state.instance.getServiceInstanceId(), state.failures);
+                SelectableInstanceManager.getInstance().invalidate();
+            }
+        }
+    }
+    /**
+     * @date: 2024-12-15 10:15
+     * @description: 统计当前不健康的服务实例数量
+     * @return: int
+     */
+    private int countUnhealthy(){
+        int count = 0;
+        for (HealthState state : stateMap.values()) {
+            if(!state.healthy){
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public InstanceGroup apply(String uniqueId, InstanceGroup group, long now) {
+        if(!config.isHealthCheckEnabled()){
+            return group;
+        }
+        InstanceGroup healthy = group.filter(i -> isHealthy(group.get(i).getServiceInstanceId()));
+        //所有实例都不健康时不进行过滤
+        return healthy.isEmpty() ? group : healthy;
+    }
+}
@@ -0,0 +1,24 @@
+package org.wyh.gateway.core.instance;
+
+import org.wyh.gateway.common.config.InstanceGroup;
+
+/**
+ * @BelongsProject: api-gateway-server
+ * @BelongsPackage: org.wyh.gateway.core.instance
+ * @Author: wyh
+ * @Date: 2024-12-14 15:30
+ * @Description: 实例分组过滤器接口，负责根据网关本地掌握的实例状态（如异常实例检测的结果），
+                 从注册中心提供的实例分组中派生出可供负载均衡选择的实例分组。
+                 过滤器只在实例分组或实例状态发生变更时执行（结果由SelectableInstanceManager缓存），不在每个请求中执行。
+ */
+public interface InstanceGroupFilter {
+    /**
+     * @date: 2024-12-14 15:32
+     * @description: 根据实例状态派生出新的实例分组
+     * @Param uniqueId: 实例分组所属服务的唯一id
+     * @Param group: 上一个过滤器的输出（第一个过滤器的输入为服务实例快照中的分组）
+     * @Param now: 当前时间（ms）
+     * @return: org.wyh.gateway.common.config.InstanceGroup 若不需要调整，则直接返回group
+     */
+    InstanceGroup apply(String uniqueId, InstanceGroup group, long now);
+}
@@ -0,0 +1,236 @@
+package org.wyh.gateway.core.instance;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * @BelongsProject: api-gateway-server
+ * @BelongsPackage: org.wyh.gateway.core.instance
+ * @Author: wyh
+ * @Date: 2024-12-12 9:30
+ * @Description: 服务实例的运行时统计信息，由路由过滤器在请求发出和响应到达时更新，供负载均衡策略使用。
+                 正在处理的请求数（in-flight）使用LongAdder计数，多个线程同时更新时分散在不同的计数单元上，不会竞争同一个变量。
+                 响应延迟使用对峰值敏感的指数加权移动平均值（Peak EWMA）统计：
+                 新的延迟高于当前统计值时，直接以新延迟作为统计值（立即反映变慢）；
+                 否则按距上次更新的时间进行指数衰减后，再与新延迟加权平均（缓慢反映变快）。
+                 读取时同样按时间衰减，长时间没有请求的实例，其统计值会逐渐趋于0，从而重新获得流量。
+                 此外还记录了异常实例检测所需的连续失败次数，统计周期内的成功/失败次数，实例的摘除状态，
+                 以及服务实例通过响应头上报的负载（利用率，同样按时间衰减平均）。
+                 所有统计值都保存在基本类型字段中，更新和读取都不会创建对象。
+ */
+public final class InstanceStats {
+    //服务实例id
+    private final String serviceInstanceId;
+    //正在处理（已发出但尚未收到响应）的请求数
+    private final LongAdder inFlight = new LongAdder();
+    //响应延迟的统计值，单位为ns（为0表示还没有任何样本）
+    private volatile double latencyEwma;
+    //延迟统计值最后一次更新的时间（System.nanoTime）
+    private volatile long latencyStamp;
+    //连续失败的次数
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+    //当前统计周期内成功的请求数
+    private final LongAdder windowSuccesses = new LongAdder();
+    //当前统计周期内失败的请求数
+    private final LongAdder windowFailures = new LongAdder();
+    //摘除结束时间（ms），为0表示未被摘除
+    private volatile long ejectedUntil;
+    //最近一次从摘除状态恢复的时间（ms），用于慢启动
+    private volatile long returnTime;
+    //连续被摘除的次数，决定下一次摘除的时长（只在加锁的方法中修改）
+    private int ejectionLevel;
+    //服务实例上报的利用率的统计值（0~1）
+    private volatile double utilization;
+    //最近一次收到负载上报的时间（ms），为0表示还没有收到过
+    private volatile long utilizationStamp;
+    /**
+     * @date: 2024-12-12 9:32
+     * @description: 有参构造器
+     * @Param serviceInstanceId:
+     * @return: null
+     */
+    InstanceStats(String serviceInstanceId){
+        this.serviceInstanceId = serviceInstanceId;
+    }
+
+    public String getServiceInstanceId() {
+        return serviceInstanceId;
+    }
+    /**
+     * @date: 2024-12-12 9:35
+     * @description: 请求发出时调用，正在处理的请求数加1
+     * @return: void
+     */
+    public void onRequestStart(){
+        inFlight.increment();
+    }
+    /**
+     * @date: 2024-12-12 9:36
+     * @description: 请求结束（收到响应，或请求失败）时调用，正在处理的请求数减1
+     * @return: void
+     */
+    public void onRequestEnd(){
+        inFlight.decrement();
+    }
+    /**
+     * @date: 2024-12-12 9:38
+     * @description: 获取正在处理的请求数（并发更新时是近似值，负载均衡只需要近似值）
+     * @return: long
+     */
+    public long getInFlight(){
+        return Math.max(inFlight.sum(), 0);
+    }
+    /**
+     * @date: 2024-12-13 9:30
+     * @description: 记录一次响应延迟，更新延迟统计值。
+                     每个响应只更新一次，且计算量很小，所以直接在实例级别加锁，保证统计值和更新时间的一致性
+     * @Param latencyNanos: 响应延迟（ns）
+     * @Param now: 当前时间（System.nanoTime）
+     * @Param decayNanos: 衰减时间常数（ns）
+     * @return: void
+     */
+    public synchronized void observeLatency(long latencyNanos, long now, long decayNanos){
+        double current = latencyEwma;
+        if(latencyNanos > current){
+            //峰值敏感：延迟升高时立即生效
+            latencyEwma = latencyNanos;
+        }else{
+            double w = Math.exp(-(double)Math.max(now - latencyStamp, 0) / decayNanos);
+            latencyEwma = current * w + latencyNanos * (1 - w);
+        }
+        latencyStamp = now;
+    }
+    /**
+     * @date: 2024-12-13 9:35
+     * @description: 获取按当前时间衰减后的延迟统计值（只读，不加锁）
+     * @Param now: 当前时间（System.nanoTime）
+     * @Param decayNanos: 衰减时间常数（ns）
+     * @return: double 为0表示还没有任何样本（或已经完全衰减）
+     */
+    public double getLatencyEwma(long now, long decayNanos){
+        double current = latencyEwma;
+        if(current == 0){
+            return 0;
+        }
+        return current * Math.exp(-(double)Math.max(now - latencyStamp, 0) / decayNanos);
+    }
+    /**
+     * @date: 2024-12-14 15:00
+     * @description: 记录一次请求的结果
+     * @Param success:
+     * @return: int 记录后的连续失败次数
+     */
+    public int onResult(boolean success){
+        if(success){
+            windowSuccesses.increment();
+            if(consecutiveFailures.get() != 0){
+                consecutiveFailures.set(0);
+            }
+            return 0;
+        }
+        windowFailures.increment();
+        return consecutiveFailures.incrementAndGet();
+    }
+    /**
+     * @date: 2024-12-14 15:05
+     * @description: 获取当前统计周期内成功的请求数，并开始新的统计周期
+     * @return: long
+     */
+    long drainWindowSuccesses(){
+        return windowSuccesses.sumThenReset();
+    }
+    /**
+     * @date: 2024-12-14 15:05
+     * @description: 获取当前统计周期内失败的请求数，并开始新的统计周期
+     * @return: long
+     */
+    long drainWindowFailures(){
+        return windowFailures.sumThenReset();
+    }
+    /**
+     * @date: 2024-12-14 15:08
+     * @description: 判断实例是否处于摘除状态
+     * @return: boolean
+     */
+    public boolean isEjected(){
+        return ejectedUntil != 0;
+    }
+
+    public long getReturnTime() {
+        return returnTime;
+    }
+    /**
+     * @date: 2024-12-14 15:10
+     * @description: 摘除实例。摘除时长 = 基础摘除时间 * 2^(连续被摘除次数 - 1)，且不超过最大摘除时间
+     * @Param now:
+     * @Param baseEjectionTime:
+     * @Param maxEjectionTime:
+     * @return: boolean 是否摘除成功（实例已处于摘除状态时返回false）
+     */
+    synchronized boolean eject(long now, long baseEjectionTime, long maxEjectionTime){
+        if(ejectedUntil != 0){
+            return false;
+        }
+        ejectionLevel = Math.min(ejectionLevel + 1, 30);
+        long duration = Math.min(baseEjectionTime << (ejectionLevel - 1), maxEjectionTime);
+        ejectedUntil = now + Math.max(duration, 1);
+        consecutiveFailures.set(0);
+        return true;
+    }
+    /**
+     * @date: 2024-12-14 15:15
+     * @description: 若摘除时间已到，则恢复实例，并记录恢复时间
+     * @Param now:
+     * @return: boolean 是否恢复了实例
+     */
+    synchronized boolean tryReturn(long now){
+        if(ejectedUntil == 0 || now < ejectedUntil){
+            return false;
+        }
+        ejectedUntil = 0;
+        returnTime = now;
+        return true;
+    }
+    /**
+     * @date: 2024-12-14 15:18
+     * @description: 实例在一个统计周期内没有失败时调用，逐步降低连续被摘除次数，使下一次摘除的时长逐渐恢复
+     * @return: void
+     */
+    synchronized void decayEjectionLevel(){
+        if(ejectedUntil == 0 && ejectionLevel > 0){
+            ejectionLevel--;
+        }
+    }
+    /**
+     * @date: 2024-12-16 10:30
+     * @description: 记录一次服务实例上报的利用率，按距上次上报的时间进行指数衰减后，与新的上报值加权平均
+     * @Param value: 上报的利用率（0~1）
+     * @Param now: 当前时间（ms）
+     * @Param decayTime: 衰减时间常数（ms）
+     * @return: void
+     */
+    synchronized void observeUtilization(double value, long now, long decayTime){
+        long last = utilizationStamp;
+        if(last == 0){
+            utilization = value;
+        }else{
+            double w = Math.exp(-(double)Math.max(now - last, 0) / decayTime);
+            utilization = utilization * w + value * (1 - w);
+        }
+        utilizationStamp = now;
+    }
+    /**
+     * @date: 2024-12-16 10:32
+     * @description: 获取利用率的统计值（只读，不加锁）
+     * @Param now: 当前时间（ms）
+     * @Param expireTime: 上报的有效期（ms），超过该时间没有新的上报时，视为没有上报
+     * @return: double 为-1表示没有有效的上报
+     */
+    double getUtilization(long now, long expireTime){
+        long last = utilizationStamp;
+        if(last == 0 || now - last > expireTime){
+            return -1;
+        }
+        return utilization;
+    }
+}
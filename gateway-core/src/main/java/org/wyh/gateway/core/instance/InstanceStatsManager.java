@@ -0,0 +1,215 @@
+package org.wyh.gateway.core.instance;
+
+import org.wyh.gateway.common.config.InstanceGroup;
+import org.wyh.gateway.common.config.ServiceInstance;
+import org.wyh.gateway.core.config.ConfigLoader;
+import org.wyh.gateway.core.context.AttributeKey;
+import org.wyh.gateway.core.context.GatewayContext;
+
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @BelongsProject: api-gateway-server
+ * @BelongsPackage: org.wyh.gateway.core.instance
+ * @Author: wyh
+ * @Date: 2024-12-12 9:40
+ * @Description: 服务实例统计信息管理类，负责保存所有服务实例的运行时统计信息（按服务实例id区分）。
+                 路由过滤器在请求发出时调用acquire，在请求结束时调用release，两者总是成对出现。
+                 服务实例下线时，由注册中心监听器调用removeStats删除对应的统计信息。
+ */
+public class InstanceStatsManager {
+    //服务实例id及其统计信息的集合
+    private final ConcurrentHashMap<String, InstanceStats> statsMap = new ConcurrentHashMap<>();
+    /**
+     * @BelongsProject: api-gateway-server
+     * @BelongsPackage: org.wyh.gateway.core.instance
+     * @Author: wyh
+     * @Date: 2024-12-12 9:42
+     * @Description: 静态内部类，用于实现单例模式
+     */
+    private static class SingletonHolder {
+        private static final InstanceStatsManager INSTANCE = new InstanceStatsManager();
+    }
+    /**
+     * @date: 2024-12-12 9:43
+     * @description: private修饰的无参构造器
+     * @return: null
+     */
+    private InstanceStatsManager(){
+    }
+    /**
+     * @date: 2024-12-12 9:43
+     * @description: 获取该类的唯一实例
+     * @return: org.wyh.gateway.core.instance.InstanceStatsManager
+     */
+    public static InstanceStatsManager getInstance(){
+        return SingletonHolder.INSTANCE;
+    }
+    /**
+     * @date: 2024-12-12 9:45
+     * @description: 获取指定服务实例的统计信息。若不存在，则创建
+     * @Param serviceInstanceId:
+     * @return: org.wyh.gateway.core.instance.InstanceStats
+     */
+    public InstanceStats getStats(String serviceInstanceId){
+        InstanceStats stats = statsMap.get(serviceInstanceId);
+        if(stats == null){
+            stats = statsMap.computeIfAbsent(serviceInstanceId, InstanceStats::new);
+        }
+        return stats;
+    }
+    /**
+     * @date: 2024-12-12 9:47
+     * @description: 获取实例分组中各实例的统计信息，数组下标与实例在分组中的下标一致
+                     （负载均衡策略可以在实例分组对应的状态中缓存该数组，避免每次选择时都查找集合）
+     * @Param group:
+     * @return: org.wyh.gateway.core.instance.InstanceStats[]
+     */
+    public InstanceStats[] getStats(InstanceGroup group){
+        InstanceStats[] stats = new InstanceStats[group.size()];
+        for (int i = 0; i < stats.length; i++) {
+            stats[i] = getStats(group.get(i).getServiceInstanceId());
+        }
+        return stats;
+    }
+    /**
+     * @date: 2024-12-12 9:50
+     * @description: 删除已下线服务实例的统计信息。
+                     尚未结束的请求仍持有原统计信息对象，结束时只会更新该对象，不会影响新的统计信息
+     * @Param serviceInstanceId:
+     * @return: void
+     */
+    public void removeStats(String serviceInstanceId){
+        statsMap.remove(serviceInstanceId);
+    }
+    /**
+     * @date: 2024-12-12 9:52
+     * @description: 服务实例集合变更时调用，删除旧集合中存在但新集合中已不存在的服务实例的统计信息
+     * @Param oldInstances:
+     * @Param newInstances:
+     * @return: void
+     */
+    public void retainStats(Collection<ServiceInstance> oldInstances, Collection<ServiceInstance> newInstances){
+        for (ServiceInstance instance : oldInstances) {
+            if(newInstances == null || !newInstances.contains(instance)){
+                removeStats(instance.getServiceInstanceId());
+            }
+        }
+    }
+    /**
+     * @date: 2024-12-12 9:55
+     * @description: 请求发往选中的服务实例之前调用，记录该实例正在处理的请求数和请求的发出时间，并将统计信息放入上下文参数中
+     * @Param ctx:
+     * @return: void
+     */
+    public void acquire(GatewayContext ctx){
+        ServiceInstance instance = ctx.getAttribute(AttributeKey.SELECTED_INSTANCE);
+        if(instance == null){
+            return;
+        }
+        ctx.setAttribute(AttributeKey.INSTANCE_STATS, acquire(instance));
+        ctx.setAttribute(AttributeKey.UPSTREAM_START_TIME, System.nanoTime());
+    }
+    /**
+     * @date: 2024-12-15 16:00
+     * @description: 请求发往指定的服务实例之前调用，记录该实例正在处理的请求数（用于不通过上下文参数记录的请求，如对冲请求）
+     * @Param instance:
+     * @return: org.wyh.gateway.core.instance.InstanceStats
+     */
+    public InstanceStats acquire(ServiceInstance instance){
+        InstanceStats stats = getStats(instance.getServiceInstanceId());
+        stats.onRequestStart();
+        return stats;
+    }
+    /**
+     * @date: 2024-12-16 17:05
+     * @description: 请求最终没有发往选中的服务实例时调用（如合并到了其他相同的请求中），
+                     撤销acquire时记录的正在处理的请求数，不更新响应延迟和请求结果。之后的release不再生效
+     * @Param ctx:
+     * @return: void
+     */
+    public void cancel(GatewayContext ctx){
+        InstanceStats stats = ctx.getAttribute(AttributeKey.INSTANCE_STATS);
+        if(stats == null){
+            return;
+        }
+        ctx.setAttribute(AttributeKey.INSTANCE_STATS, null);
+        stats.onRequestEnd();
+    }
+    /**
+     * @date: 2024-12-12 9:58
+     * @description: 请求结束时调用，更新acquire时记录的统计信息。同一个请求多次调用时，只有第一次生效。
+     * @Param ctx:
+     * @Param success: 请求是否成功
+     * @return: void
+     */
+    public void release(GatewayContext ctx, boolean success){
+        InstanceStats stats = ctx.getAttribute(AttributeKey.INSTANCE_STATS);
+        if(stats == null){
+            return;
+        }
+        ctx.setAttribute(AttributeKey.INSTANCE_STATS, null);
+        Long startTime = ctx.getAttribute(AttributeKey.UPSTREAM_START_TIME);
+        release(stats, startTime == null ? 0 : startTime, success);
+    }
+    /**
+     * @date: 2024-12-15 16:05
+     * @description: 请求结束时调用，更新统计信息（正在处理的请求数和响应延迟），并将请求结果交给异常实例检测器。
+                     失败的请求（超时，连接失败等）至少按请求超时时间记录延迟，
+                     避免快速失败的实例因为“响应快”而吸引更多流量
+     * @Param stats:
+     * @Param startTime: 请求的发出时间（System.nanoTime），为0表示未记录
+     * @Param success: 请求是否成功
+     * @return: void
+     */
+    public void release(InstanceStats stats, long startTime, boolean success){
+        stats.onRequestEnd();
+        if(startTime != 0){
+            long now = System.nanoTime();
+            long latency = now - startTime;
+            if(!success){
+                latency = Math.max(latency,
+                        TimeUnit.MILLISECONDS.toNanos(ConfigLoader.getConfig().getHttpRequestTimeout()));
+            }
+            stats.observeLatency(latency, now, getDecayNanos());
+        }
+        OutlierDetector.getInstance().onResult(stats, success);
+    }
+    /**
+     * @date: 2024-12-15 16:08
+     * @description: 请求被主动取消时调用（如对冲请求中落后的一方）。
+                     只记录已经等待的时间作为延迟（说明该实例较慢），不作为失败交给异常实例检测器
+     * @Param stats:
+     * @Param startTime: 请求的发出时间（System.nanoTime）
+     * @return: void
+     */
+    public void cancel(InstanceStats stats, long startTime){
+        stats.onRequestEnd();
+        long now = System.nanoTime();
+        stats.observeLatency(now - startTime, now, getDecayNanos());
+    }
+    /**
+     * @date: 2024-12-14 16:35
+     * @description: 统计当前处于摘除状态的服务实例数量
+     * @return: int
+     */
+    public int countEjected(){
+        int count = 0;
+        for (InstanceStats stats : statsMap.values()) {
+            if(stats.isEjected()){
+                count++;
+            }
+        }
+        return count;
+    }
+    /**
+     * @date: 2024-12-13 9:40
+     * @description: 获取延迟统计值的衰减时间常数（ns）
+     * @return: long
+     */
+    public static long getDecayNanos(){
+        return TimeUnit.MILLISECONDS.toNanos(Math.max(ConfigLoader.getConfig().getLoadBalanceEwmaDecayTime(), 1));
+    }
+}
@@ -0,0 +1,159 @@
+package org.wyh.gateway.core.instance;
+
+import io.netty.util.concurrent.DefaultThreadFactory;
+import lombok.extern.slf4j.Slf4j;
+import org.asynchttpclient.Response;
+import org.wyh.gateway.common.config.InstanceGroup;
+import org.wyh.gateway.common.utils.TimeUtil;
+import org.wyh.gateway.core.config.Config;
+import org.wyh.gateway.core.config.ConfigLoader;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @BelongsProject: api-gateway-server
+ * @BelongsPackage: org.wyh.gateway.core.instance
+ * @Author: wyh
+ * @Date: 2024-12-16 10:20
+ * @Description: 负载反馈管理类，根据服务实例通过响应头上报的利用率动态调整实例的权重。
+                 路由过滤器收到响应时，读取负载上报响应头，更新该实例按时间衰减的利用率统计值；
+                 作为实例分组过滤器时，按各实例的剩余容量（1 - 利用率）与同组上报实例的平均剩余容量之比调整其权重，
+                 比例限制在配置的上下限之间，且按5%取整，避免利用率的微小波动导致负载均衡策略的状态频繁重建。
+                 没有上报（或上报已过期）的实例保持标准权重；所有上报实例的利用率相同时，权重也保持不变。
+                 利用率是持续变化的，因此在收到上报期间（以及最后一次上报过期之前）定期使可选实例分组的缓存失效，重新计算权重。
+ */
+@Slf4j
+public class LoadFeedbackManager implements InstanceGroupFilter {
+    //剩余容量的最小值，避免利用率接近1时除数过小
+    private static final double MIN_HEADROOM = 0.01;
+    //权重调整比例的取整单位
+    private static final double FACTOR_STEP = 0.05;
+    //网关的核心静态配置
+    private final Config config;
+    //最近一次收到负载上报的时间（ms）
+    private volatile long lastReportTime;
+    //定期使可选实例分组失效的线程
+    private ScheduledExecutorService scheduler;
+    /**
+     * @BelongsProject: api-gateway-server
+     * @BelongsPackage: org.wyh.gateway.core.instance
+     * @Author: wyh
+     * @Date: 2024-12-16 10:22
+     * @Description: 静态内部类，用于实现单例模式
+     */
+    private static class SingletonHolder {
+        private static final LoadFeedbackManager INSTANCE = new LoadFeedbackManager();
+    }
+    /**
+     * @date: 2024-12-16 10:23
+     * @description: private修饰的无参构造器
+     * @return: null
+     */
+    private LoadFeedbackManager(){
+        this.config = ConfigLoader.getConfig();
+    }
+    /**
+     * @date: 2024-12-16 10:23
+     * @description: 获取该类的唯一实例
+     * @return: org.wyh.gateway.core.instance.LoadFeedbackManager
+     */
+    public static LoadFeedbackManager getInstance(){
+        return SingletonHolder.INSTANCE;
+    }
+    /**
+     * @date: 2024-12-16 10:24
+     * @description: 启动权重的定期更新
+     * @return: void
+     */
+    public synchronized void start(){
+        if(!config.isLoadReportEnabled() || scheduler != null){
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(new DefaultThreadFactory("load-feedback", true));
+        long interval = Math.max(config.getLoadReportUpdateInterval(), 100);
+        scheduler.scheduleWithFixedDelay(() -> {
+            //最后一次上报过期之后，各实例已恢复为标准权重，不再需要重新计算
+            long now = TimeUtil.currentTimeMillis();
+            if(now - lastReportTime <= config.getLoadReportExpireTime() + interval){
+                SelectableInstanceManager.getInstance().invalidate();
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+    }
+    /**
+     * @date: 2024-12-16 10:25
+     * @description: 停止权重的定期更新
+     * @return: void
+     */
+    public synchronized void shutdown(){
+        if(scheduler != null){
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+    /**
+     * @date: 2024-12-16 10:26
+     * @description: 收到服务实例的响应时调用，读取其中的负载上报，并更新该实例的利用率统计值
+     * @Param stats: 该次请求所访问实例的统计信息
+     * @Param response:
+     * @return: void
+     */
+    public void onResponse(InstanceStats stats, Response response){
+        if(!config.isLoadReportEnabled() || stats == null || response == null){
+            return;
+        }
+        String value = response.getHeader(config.getLoadReportHeader());
+        if(value == null || value.isEmpty()){
+            return;
+        }
+        double utilization;
+        try{
+            utilization = Double.parseDouble(value.trim());
+        }catch (NumberFormatException e){
+            log.debug("服务实例: {} 的负载上报格式错误: {}", stats.getServiceInstanceId(), value);
+            return;
+        }
+        if(Double.isNaN(utilization)){
+            return;
+        }
+        utilization = Math.max(Math.min(utilization, 1), 0);
+        long now = TimeUtil.currentTimeMillis();
+        stats.observeUtilization(utilization, now, Math.max(config.getLoadReportDecayTime(), 1));
+        if(lastReportTime != now){
+            lastReportTime = now;
+        }
+    }
+
+    @Override
+    public InstanceGroup apply(String uniqueId, InstanceGroup group, long now) {
+        if(!config.isLoadReportEnabled()){
+            return group;
+        }
+        InstanceStats[] stats = InstanceStatsManager.getInstance().getStats(group);
+        double[] utilizations = new double[stats.length];
+        double sum = 0;
+        int reported = 0;
+        for (int i = 0; i < stats.length; i++) {
+            utilizations[i] = stats[i].getUtilization(now, config.getLoadReportExpireTime());
+            if(utilizations[i] >= 0){
+                sum += utilizations[i];
+                reported++;
+            }
+        }
+        if(reported == 0){
+            return group;
+        }
+        double meanHeadroom = Math.max(1 - sum / reported, MIN_HEADROOM);
+        double minFactor = config.getLoadReportMinWeightFactor();
+        double maxFactor = Math.max(config.getLoadReportMaxWeightFactor(), minFactor);
+        return group.scaleWeights(i -> {
+            if(utilizations[i] < 0){
+                return 1;
+            }
+            double factor = Math.max(1 - utilizations[i], MIN_HEADROOM) / meanHeadroom;
+            factor = Math.max(Math.min(factor, maxFactor), minFactor);
+            return Math.round(factor / FACTOR_STEP) * FACTOR_STEP;
+        });
+    }
+}
@@ -0,0 +1,233 @@
+package org.wyh.gateway.core.instance;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Metrics;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import lombok.extern.slf4j.Slf4j;
+import org.wyh.gateway.common.config.DynamicConfigManager;
+import org.wyh.gateway.common.config.InstanceGroup;
+import org.wyh.gateway.common.config.ServiceInstanceSnapshot;
+import org.wyh.gateway.common.utils.TimeUtil;
+import org.wyh.gateway.core.config.Config;
+import org.wyh.gateway.core.config.ConfigLoader;
+
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @BelongsProject: api-gateway-server
+ * @BelongsPackage: org.wyh.gateway.core.instance
+ * @Author: wyh
+ * @Date: 2024-12-14 16:00
+ * @Description: 异常实例检测器（被动健康检查）。根据路由过滤器反馈的请求结果，找出异常的服务实例，并暂时将其摘除。
+                 检测依据有三种：
+                 连续失败次数，在请求结束时立即检测；
+                 统计周期内的失败率，以及延迟统计值是否远高于同组其他实例（延迟离群），在每个统计周期结束时检测。
+                 被摘除的实例在摘除时间到达后恢复，并进入慢启动；同一实例被反复摘除时，摘除时间按指数增长。
+                 为了保证服务可用，同一实例分组中被摘除的实例不会超过最大比例，超出部分的实例仍然可以被选择。
+                 当前被摘除的实例数量，以及各实例被摘除的次数（按原因区分），会作为指标注册到Micrometer的全局注册中心。
+ */
+@Slf4j
+public class OutlierDetector implements InstanceGroupFilter {
+    //摘除原因：连续失败
+    private static final String REASON_CONSECUTIVE_FAILURES = "consecutive_failures";
+    //摘除原因：失败率过高
+    private static final String REASON_FAILURE_RATE = "failure_rate";
+    //摘除原因：延迟离群
+    private static final String REASON_LATENCY = "latency";
+    //网关的核心静态配置
+    private final Config config;
+    //执行周期检测的线程
+    private ScheduledExecutorService scheduler;
+    /**
+     * @BelongsProject: api-gateway-server
+     * @BelongsPackage: org.wyh.gateway.core.instance
+     * @Author: wyh
+     * @Date: 2024-12-14 16:02
+     * @Description: 静态内部类，用于实现单例模式
+     */
+    private static class SingletonHolder {
+        private static final OutlierDetector INSTANCE = new OutlierDetector();
+    }
+    /**
+     * @date: 2024-12-14 16:03
+     * @description: private修饰的无参构造器，负责注册被摘除实例数量的指标
+     * @return: null
+     */
+    private OutlierDetector(){
+        this.config = ConfigLoader.getConfig();
+        Gauge.builder("gateway.outlier.ejected", InstanceStatsManager.getInstance(),
+                        InstanceStatsManager::countEjected)
+                .description("当前被摘除的服务实例数量")
+                .register(Metrics.globalRegistry);
+    }
+    /**
+     * @date: 2024-12-14 16:04
+     * @description: 获取该类的唯一实例
+     * @return: org.wyh.gateway.core.instance.OutlierDetector
+     */
+    public static OutlierDetector getInstance(){
+        return SingletonHolder.INSTANCE;
+    }
+    /**
+     * @date: 2024-12-14 16:05
+     * @description: 启动周期检测
+     * @return: void
+     */
+    public synchronized void start(){
+        if(!config.isOutlierDetectionEnabled() || scheduler != null){
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(new DefaultThreadFactory("outlier-detector", true));
+        long interval = Math.max(config.getOutlierDetectionInterval(), 100);
+        scheduler.scheduleWithFixedDelay(() -> {
+            try{
+                detect();
+            }catch (Throwable t){
+                log.error("异常实例检测执行失败", t);
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+    }
+    /**
+     * @date: 2024-12-14 16:06
+     * @description: 停止周期检测
+     * @return: void
+     */
+    public synchronized void shutdown(){
+        if(scheduler != null){
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+    /**
+     * @date: 2024-12-14 16:10
+     * @description: 请求结束时调用，记录请求结果，并检测实例是否连续失败
+     * @Param stats:
+     * @Param success:
+     * @return: void
+     */
+    public void onResult(InstanceStats stats, boolean success){
+        if(!config.isOutlierDetectionEnabled()){
+            return;
+        }
+        int consecutiveFailures = stats.onResult(success);
+        if(!success && consecutiveFailures >= config.getOutlierConsecutiveFailures()){
+            eject(stats, TimeUtil.currentTimeMillis(), REASON_CONSECUTIVE_FAILURES);
+        }
+    }
+    /**
+     * @date: 2024-12-14 16:15
+     * @description: 周期检测：恢复摘除时间已到的实例，并根据统计周期内的数据检测失败率过高和延迟离群的实例
+     * @return: void
+     */
+    void detect(){
+        long now = TimeUtil.currentTimeMillis();
+        DynamicConfigManager manager = DynamicConfigManager.getInstance();
+        for (String uniqueId : manager.getServiceDefinitionMap().keySet()) {
+            ServiceInstanceSnapshot snapshot = manager.getServiceInstanceSnapshot(uniqueId);
+            detect(snapshot.getGroup(false), now);
+            detect(snapshot.getGroup(true), now);
+        }
+    }
+    /**
+     * @date: 2024-12-14 16:20
+     * @description: 对单个实例分组进行周期检测
+     * @Param group:
+     * @Param now:
+     * @return: void
+     */
+    private void detect(InstanceGroup group, long now){
+        if(group.isEmpty()){
+            return;
+        }
+        InstanceStatsManager statsManager = InstanceStatsManager.getInstance();
+        InstanceStats[] stats = statsManager.getStats(group);
+        //计算未被摘除且已有延迟样本的实例的延迟中位数
+        long nowNanos = System.nanoTime();
+        long decayNanos = InstanceStatsManager.getDecayNanos();
+        double[] latencies = new double[stats.length];
+        int sampled = 0;
+        for (InstanceStats s : stats) {
+            double latency = s.getLatencyEwma(nowNanos, decayNanos);
+            if(!s.isEjected() && latency > 0){
+                latencies[sampled++] = latency;
+            }
+        }
+        double median = 0;
+        //至少需要3个实例才能判断延迟是否离群
+        if(config.getOutlierLatencyFactor() > 0 && sampled >= 3){
+            Arrays.sort(latencies, 0, sampled);
+            median = latencies[sampled / 2];
+        }
+        for (InstanceStats s : stats) {
+            if(s.tryReturn(now)){
+                log.info("服务实例: {} 摘除时间已到，恢复并进入慢启动", s.getServiceInstanceId());
+                SelectableInstanceManager.getInstance().invalidate();
+            }
+            long successes = s.drainWindowSuccesses();
+            long failures = s.drainWindowFailures();
+            if(s.isEjected()){
+                continue;
+            }
+            long total = successes + failures;
+            if(total >= config.getOutlierMinRequestVolume() && total > 0
+                    && failures * 100 > config.getOutlierFailureRateThreshold() * total){
+                eject(s, now, REASON_FAILURE_RATE);
+                continue;
+            }
+            if(median > 0 && s.getLatencyEwma(nowNanos, decayNanos) > median * config.getOutlierLatencyFactor()){
+                eject(s, now, REASON_LATENCY);
+                continue;
+            }
+            if(failures == 0){
+                s.decayEjectionLevel();
+            }
+        }
+    }
+    /**
+     * @date: 2024-12-14 16:30
+     * @description: 摘除实例，并使可选实例分组的缓存失效
+     * @Param stats:
+     * @Param now:
+     * @Param reason:
+     * @return: void
+     */
+    private void eject(InstanceStats stats, long now, String reason){
+        if(stats.eject(now, config.getOutlierBaseEjectionTime(), config.getOutlierMaxEjectionTime())){
+            log.warn("服务实例: {} 被判定为异常实例并摘除，原因: {}", stats.getServiceInstanceId(), reason);
+            Metrics.counter("gateway.outlier.ejections",
+                    "instance", stats.getServiceInstanceId(), "reason", reason).increment();
+            SelectableInstanceManager.getInstance().invalidate();
+        }
+    }
+
+    @Override
+    public InstanceGroup apply(String uniqueId, InstanceGroup group, long now) {
+        if(!config.isOutlierDetectionEnabled()){
+            return group;
+        }
+        InstanceStats[] stats = InstanceStatsManager.getInstance().getStats(group);
+        //同一实例分组中最多可以摘除的实例数量
+        int maxEjected = group.size() * Math.max(Math.min(config.getOutlierMaxEjectionPercent(), 100), 0) / 100;
+        int[] ejected = new int[1];
+        InstanceGroup selectable = group.filter(i -> {
+            if(stats[i].isEjected() && ejected[0] < maxEjected){
+                ejected[0]++;
+                return false;
+            }
+            return true;
+        });
+        //最近恢复的实例进入慢启动
+        long window = config.getOutlierSlowStartWindow();
+        if(window <= 0 || selectable.isEmpty()){
+            return selectable;
+        }
+        InstanceStats[] selectableStats = selectable == group ? stats : InstanceStatsManager.getInstance().getStats(selectable);
+        return selectable.withSlowStart(i -> {
+            long returnTime = selectableStats[i].getReturnTime();
+            return returnTime > 0 && now - returnTime < window ? returnTime : 0;
+        }, window);
+    }
+}
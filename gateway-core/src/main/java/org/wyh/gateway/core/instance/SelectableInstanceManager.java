@@ -0,0 +1,139 @@
+package org.wyh.gateway.core.instance;
+
+import org.wyh.gateway.common.config.InstanceGroup;
+import org.wyh.gateway.common.utils.TimeUtil;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * @BelongsProject: api-gateway-server
+ * @BelongsPackage: org.wyh.gateway.core.instance
+ * @Author: wyh
+ * @Date: 2024-12-14 15:40
+ * @Description: 可选实例管理类，负责提供负载均衡实际可以选择的实例分组。
+                 注册中心提供的实例分组依次经过所有实例分组过滤器（如主动健康检查，异常实例摘除，根据负载上报调整权重），得到可选实例分组，结果按服务缓存。
+                 实例状态发生变更（如摘除或恢复实例）时，调用invalidate方法递增全局版本号，
+                 之后每个服务的下一个请求发现版本号变化，便会重新计算其可选实例分组。
+                 因此在实例状态稳定时，获取可选实例分组只需要几次volatile读，不会创建任何对象。
+ */
+public class SelectableInstanceManager {
+    //实例状态的全局版本号
+    private final AtomicLong version = new AtomicLong();
+    //实例分组过滤器列表，按添加顺序执行
+    private final List<InstanceGroupFilter> filters = new CopyOnWriteArrayList<>();
+    //服务唯一id及其可选实例分组的缓存。槽位0保存正常实例组，槽位1保存灰度实例组
+    private final ConcurrentHashMap<String, AtomicReferenceArray<Entry>> cache = new ConcurrentHashMap<>();
+    /**
+     * @BelongsProject: api-gateway-server
+     * @BelongsPackage: org.wyh.gateway.core.instance
+     * @Author: wyh
+     * @Date: 2024-12-14 15:42
+     * @Description: （静态内部类）缓存项，记录计算可选实例分组时使用的原始分组和版本号
+     */
+    private static final class Entry {
+        private final InstanceGroup source;
+        private final long version;
+        private final InstanceGroup selectable;
+
+        private Entry(InstanceGroup source, long version, InstanceGroup selectable) {
+            this.source = source;
+            this.version = version;
+            this.selectable = selectable;
+        }
+    }
+    /**
+     * @BelongsProject: api-gateway-server
+     * @BelongsPackage: org.wyh.gateway.core.instance
+     * @Author: wyh
+     * @Date: 2024-12-14 15:43
+     * @Description: 静态内部类，用于实现单例模式
+     */
+    private static class SingletonHolder {
+        private static final SelectableInstanceManager INSTANCE = new SelectableInstanceManager();
+    }
+    /**
+     * @date: 2024-12-14 15:44
+     * @description: private修饰的无参构造器，负责添加默认的实例分组过滤器
+     * @return: null
+     */
+    private SelectableInstanceManager(){
+        filters.add(HealthChecker.getInstance());
+        filters.add(OutlierDetector.getInstance());
+        filters.add(LoadFeedbackManager.getInstance());
+    }
+    /**
+     * @date: 2024-12-14 15:45
+     * @description: 获取该类的唯一实例
+     * @return: org.wyh.gateway.core.instance.SelectableInstanceManager
+     */
+    public static SelectableInstanceManager getInstance(){
+        return SingletonHolder.INSTANCE;
+    }
+    /**
+     * @date: 2024-12-14 15:46
+     * @description: 添加实例分组过滤器（在现有过滤器之后执行）
+     * @Param filter:
+     * @return: void
+     */
+    public void addFilter(InstanceGroupFilter filter){
+        filters.add(filter);
+        invalidate();
+    }
+    /**
+     * @date: 2024-12-14 15:47
+     * @description: 实例状态发生变更时调用，使所有缓存的可选实例分组失效
+     * @return: void
+     */
+    public void invalidate(){
+        version.incrementAndGet();
+    }
+    /**
+     * @date: 2024-12-14 15:50
+     * @description: 获取可选实例分组
+     * @Param uniqueId:
+     * @Param gray:
+     * @Param source: 服务实例快照中的分组
+     * @return: org.wyh.gateway.common.config.InstanceGroup
+     */
+    public InstanceGroup getSelectableGroup(String uniqueId, boolean gray, InstanceGroup source){
+        if(source.isEmpty()){
+            return source;
+        }
+        AtomicReferenceArray<Entry> slots = cache.get(uniqueId);
+        if(slots == null){
+            slots = cache.computeIfAbsent(uniqueId, key -> new AtomicReferenceArray<>(2));
+        }
+        int slot = gray ? 1 : 0;
+        long currentVersion = version.get();
+        Entry entry = slots.get(slot);
+        if(entry != null && entry.source == source && entry.version == currentVersion){
+            return entry.selectable;
+        }
+        InstanceGroup selectable = source;
+        long now = TimeUtil.currentTimeMillis();
+        for (InstanceGroupFilter filter : filters) {
+            selectable = filter.apply(uniqueId, selectable, now);
+        }
+        //若计算结果与之前的结果相同（版本号变化是由其他服务的实例状态变更引起的），则沿用之前的分组对象，
+        //避免负载均衡策略中与分组绑定的状态被无谓地重建
+        if(entry != null && entry.source == source && entry.selectable.contentEquals(selectable)){
+            selectable = entry.selectable;
+        }
+        //并发计算时，以最后写入的结果为准（各线程的计算结果相同）
+        slots.set(slot, new Entry(source, currentVersion, selectable));
+        return selectable;
+    }
+    /**
+     * @date: 2024-12-14 15:55
+     * @description: 删除指定服务的可选实例分组缓存
+     * @Param uniqueId:
+     * @return: void
+     */
+    public void remove(String uniqueId){
+        cache.remove(uniqueId);
+    }
+}
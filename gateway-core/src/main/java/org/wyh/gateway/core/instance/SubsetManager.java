@@ -0,0 +1,276 @@
+package org.wyh.gateway.core.instance;
+
+import lombok.extern.slf4j.Slf4j;
+import org.wyh.gateway.common.config.InstanceGroup;
+import org.wyh.gateway.common.config.ServiceInstance;
+import org.wyh.gateway.common.utils.NetUtils;
+import org.wyh.gateway.core.config.Config;
+import org.wyh.gateway.core.config.ConfigLoader;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * @BelongsProject: api-gateway-server
+ * @BelongsPackage: org.wyh.gateway.core.instance
+ * @Author: wyh
+ * @Date: 2024-12-16 9:40
+ * @Description: 实例子集管理类，负责为当前网关节点确定每个服务要访问的实例子集（确定性子集划分），
+                 从而限制每个网关节点与后台服务之间的连接数量。
+                 划分方式：最高随机权重哈希（rendezvous hashing）。对每个服务实例，以（网关节点id, 实例id）计算每个网关节点的得分，
+                 该实例分配给得分最高的c个网关节点（c为整数，保证每个网关节点平均至少分到配置的子集规模个实例），
+                 因此每个实例恰好被c个网关节点访问，所有实例承担的流量相同（假设各网关节点的流量相同）。
+                 得分只取决于两个id本身，与节点在列表中的位置无关：网关节点增减时只有约1/G的分配关系发生变化，
+                 服务实例增减时也只影响该实例本身，其余实例仍保留在原来的子集中。
+                 哈希的随机性会使各节点分到的实例数略有差异，分到的实例数少于子集规模时，按当前节点的得分补足。
+                 子集只取决于网关节点列表和服务实例列表，所有网关节点独立计算，不需要相互协调。
+ */
+@Slf4j
+public class SubsetManager {
+    //网关的核心静态配置
+    private final Config config;
+    //网关服务的唯一id
+    private final String gatewayUniqueId;
+    //当前网关节点的服务实例id
+    private final String selfId;
+    //当前网关节点及其所有对等节点
+    private volatile Position position;
+    //服务唯一id及其子集的缓存。槽位0保存正常实例组的子集，槽位1保存灰度实例组的子集
+    private final ConcurrentHashMap<String, AtomicReferenceArray<Entry>> cache = new ConcurrentHashMap<>();
+    /**
+     * @BelongsProject: api-gateway-server
+     * @BelongsPackage: org.wyh.gateway.core.instance
+     * @Author: wyh
+     * @Date: 2024-12-16 9:45
+     * @Description: （静态内部类）当前网关节点及其所有对等节点，创建后不可变
+     */
+    private static final class Position {
+        //所有网关节点的id（已排序，仅用于判断节点列表是否变化）
+        private final String[] ids;
+        //所有网关节点id的哈希值，作为计算得分时的种子
+        private final long[] seeds;
+        //当前网关节点在ids中的下标
+        private final int self;
+
+        private Position(String[] ids, String selfId) {
+            this.ids = ids;
+            this.seeds = new long[ids.length];
+            for (int i = 0; i < ids.length; i++) {
+                seeds[i] = hash(ids[i]);
+            }
+            this.self = Arrays.binarySearch(ids, selfId);
+        }
+    }
+    /**
+     * @BelongsProject: api-gateway-server
+     * @BelongsPackage: org.wyh.gateway.core.instance
+     * @Author: wyh
+     * @Date: 2024-12-16 9:46
+     * @Description: （静态内部类）缓存项，记录计算子集时使用的原始分组和网关节点位置
+     */
+    private static final class Entry {
+        private final InstanceGroup source;
+        private final Position position;
+        private final InstanceGroup subset;
+
+        private Entry(InstanceGroup source, Position position, InstanceGroup subset) {
+            this.source = source;
+            this.position = position;
+            this.subset = subset;
+        }
+    }
+    /**
+     * @BelongsProject: api-gateway-server
+     * @BelongsPackage: org.wyh.gateway.core.instance
+     * @Author: wyh
+     * @Date: 2024-12-16 9:47
+     * @Description: 静态内部类，用于实现单例模式
+     */
+    private static class SingletonHolder {
+        private static final SubsetManager INSTANCE = new SubsetManager();
+    }
+    /**
+     * @date: 2024-12-16 9:48
+     * @description: private修饰的无参构造器。网关服务的唯一id和当前节点的id与注册到注册中心的网关服务保持一致
+     * @return: null
+     */
+    private SubsetManager(){
+        this.config = ConfigLoader.getConfig();
+        this.gatewayUniqueId = config.getApplicationName() + ":" + config.getVersion();
+        this.selfId = NetUtils.getLocalIp() + ":" + config.getPort();
+        this.position = new Position(new String[]{selfId}, selfId);
+    }
+    /**
+     * @date: 2024-12-16 9:49
+     * @description: 获取该类的唯一实例
+     * @return: org.wyh.gateway.core.instance.SubsetManager
+     */
+    public static SubsetManager getInstance(){
+        return SingletonHolder.INSTANCE;
+    }
+    /**
+     * @date: 2024-12-16 11:00
+     * @description: 判断指定服务是否是网关服务本身
+     * @Param uniqueId:
+     * @return: boolean
+     */
+    public boolean isGatewayService(String uniqueId){
+        return gatewayUniqueId.equals(uniqueId);
+    }
+    /**
+     * @date: 2024-12-16 9:50
+     * @description: 服务实例变更时调用。若变更的是网关服务本身，则重新计算当前网关节点的位置
+     * @Param uniqueId:
+     * @Param instances:
+     * @return: void
+     */
+    public void onServiceInstancesChange(String uniqueId, Collection<ServiceInstance> instances){
+        if(!isGatewayService(uniqueId)){
+            return;
+        }
+        List<String> ids = new ArrayList<>();
+        for (ServiceInstance instance : instances) {
+            if(instance.isEnable() && !selfId.equals(instance.getServiceInstanceId())){
+                ids.add(instance.getServiceInstanceId());
+            }
+        }
+        //当前节点可能尚未出现在注册中心中，始终将其计入
+        ids.add(selfId);
+        Collections.sort(ids);
+        String[] newIds = ids.toArray(new String[0]);
+        if(!Arrays.equals(position.ids, newIds)){
+            position = new Position(newIds, selfId);
+            log.info("网关节点变更，当前节点: {} 共有 {} 个网关节点", selfId, newIds.length);
+        }
+    }
+    /**
+     * @date: 2024-12-16 9:55
+     * @description: 获取当前网关节点访问的实例子集（结果会被缓存，实例和网关节点都不变时不会重复计算）
+     * @Param uniqueId:
+     * @Param gray:
+     * @Param source: 服务实例快照中的分组
+     * @return: org.wyh.gateway.common.config.InstanceGroup
+     */
+    public InstanceGroup getSubset(String uniqueId, boolean gray, InstanceGroup source){
+        int subsetSize = config.getSubsetSize();
+        Position currentPosition = position;
+        if(subsetSize <= 0 || currentPosition.seeds.length <= 1 || source.size() <= subsetSize){
+            return source;
+        }
+        AtomicReferenceArray<Entry> slots = cache.get(uniqueId);
+        if(slots == null){
+            slots = cache.computeIfAbsent(uniqueId, key -> new AtomicReferenceArray<>(2));
+        }
+        int slot = gray ? 1 : 0;
+        Entry entry = slots.get(slot);
+        if(entry != null && entry.source == source && entry.position == currentPosition){
+            return entry.subset;
+        }
+        InstanceGroup subset = subset(source, currentPosition.seeds, currentPosition.self, subsetSize);
+        slots.set(slot, new Entry(source, currentPosition, subset));
+        return subset;
+    }
+    /**
+     * @date: 2024-12-16 10:00
+     * @description: 计算第self个网关节点访问的实例子集。每个实例分配给得分最高的coverage个网关节点，
+                     不足子集规模时按当前节点的得分从高到低补足
+     * @Param group:
+     * @Param seeds: 所有网关节点id的哈希值
+     * @Param self: 当前网关节点的下标
+     * @Param subsetSize: 子集的最小规模
+     * @return: org.wyh.gateway.common.config.InstanceGroup
+     */
+    static InstanceGroup subset(InstanceGroup group, long[] seeds, int self, int subsetSize){
+        int n = group.size();
+        int count = seeds.length;
+        //每个实例分配给多少个网关节点（取整数，保证所有实例被访问的次数相同）
+        int coverage = (int)Math.min(((long)subsetSize * count + n - 1) / n, count);
+        if(coverage >= count){
+            return group;
+        }
+        long[] selfScores = new long[n];
+        boolean[] kept = new boolean[n];
+        int keptCount = 0;
+        for (int j = 0; j < n; j++) {
+            long instanceHash = hash(group.get(j).getServiceInstanceId());
+            long selfScore = score(seeds[self], instanceHash);
+            selfScores[j] = selfScore;
+            //得分高于当前节点的网关节点数量，少于coverage则当前节点排在前coverage位
+            int higher = 0;
+            for (int g = 0; g < count && higher < coverage; g++) {
+                if(g != self && ranksAbove(score(seeds[g], instanceHash), g, selfScore, self)){
+                    higher++;
+                }
+            }
+            if(higher < coverage){
+                kept[j] = true;
+                keptCount++;
+            }
+        }
+        //哈希的随机性可能使分到的实例数不足子集规模，按当前节点的得分补足
+        while(keptCount < subsetSize){
+            int best = -1;
+            for (int j = 0; j < n; j++) {
+                if(!kept[j] && (best < 0 || Long.compareUnsigned(selfScores[j], selfScores[best]) > 0)){
+                    best = j;
+                }
+            }
+            kept[best] = true;
+            keptCount++;
+        }
+        return group.filter(j -> kept[j]);
+    }
+    /**
+     * @date: 2024-12-16 10:10
+     * @description: 判断网关节点a的得分是否高于网关节点b（得分相同时按下标决定，保证排名唯一）
+     * @Param scoreA:
+     * @Param a:
+     * @Param scoreB:
+     * @Param b:
+     * @return: boolean
+     */
+    private static boolean ranksAbove(long scoreA, int a, long scoreB, int b){
+        int cmp = Long.compareUnsigned(scoreA, scoreB);
+        return cmp > 0 || (cmp == 0 && a < b);
+    }
+    /**
+     * @date: 2024-12-16 19:35
+     * @description: 计算网关节点对某个实例的得分（murmur3的fmix64混淆，只取决于两个id本身）
+     * @Param seed: 网关节点id的哈希值
+     * @Param instanceHash: 实例id的哈希值
+     * @return: long
+     */
+    private static long score(long seed, long instanceHash){
+        long h = seed ^ (instanceHash * 0x9e3779b97f4a7c15L);
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+    /**
+     * @date: 2024-12-16 19:36
+     * @description: 计算字符串的64位哈希值（FNV-1a，再经过fmix64混淆），不会创建任何对象
+     * @Param key:
+     * @return: long
+     */
+    private static long hash(String key){
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            h ^= key.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
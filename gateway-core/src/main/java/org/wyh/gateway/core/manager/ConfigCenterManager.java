@@ -3,9 +3,11 @@ package org.wyh.gateway.core.manager;
 import lombok.extern.slf4j.Slf4j;
 import org.wyh.gateway.common.config.DynamicConfigManager;
 import org.wyh.gateway.common.config.Rule;
+import org.wyh.gateway.common.exception.BaseException;
 import org.wyh.gateway.config.api.ConfigCenter;
 import org.wyh.gateway.config.api.ConfigCenterListener;
 import org.wyh.gateway.core.config.Config;
+import org.wyh.gateway.core.filter.common.chainfactory.GatewayFilterChainFactory;
 import org.wyh.gateway.register.api.RegisterCenterListener;
 
 import java.util.ServiceLoader;
@@ -27,7 +29,16 @@ public class ConfigCenterManager {
         @Override
         public void onRulesChange(Rule rule) {
             DynamicConfigManager manager = DynamicConfigManager.getInstance();
-            //将更新后的规则缓存到本地
+            /*
+             * 先编译该规则对应的过滤器链（替换掉原有的编译结果），再将更新后的规则缓存到本地
+             * 编译时会将各过滤器的配置信息解析为配置类实例，若配置信息格式有误，则拒绝发布该规则（继续使用原有规则）
+             */
+            try{
+                GatewayFilterChainFactory.getInstance().compileRule(rule);
+            }catch (BaseException e){
+                log.error("规则: {} 发布失败，继续使用原有规则: {}", rule.getRuleId(), e.getMessage(), e);
+                return;
+            }
             manager.putRule(rule.getRuleId(), rule);
         }
     };
@@ -5,9 +5,14 @@ import lombok.extern.slf4j.Slf4j;
 import org.wyh.gateway.common.config.DynamicConfigManager;
 import org.wyh.gateway.common.config.ServiceDefinition;
 import org.wyh.gateway.common.config.ServiceInstance;
+import org.wyh.gateway.common.config.ServiceInstanceSnapshot;
 import org.wyh.gateway.common.utils.NetUtils;
 import org.wyh.gateway.common.utils.TimeUtil;
 import org.wyh.gateway.core.config.Config;
+import org.wyh.gateway.core.instance.InstanceStatsManager;
+import org.wyh.gateway.core.instance.SubsetManager;
+import org.wyh.gateway.core.netty.client.UpstreamConnectionManager;
+import org.wyh.gateway.core.route.RouteManager;
 import org.wyh.gateway.register.api.RegisterCenter;
 import org.wyh.gateway.register.api.RegisterCenterListener;
 
@@ -38,8 +43,22 @@ public class RegisterCenterManager {
             DynamicConfigManager manager = DynamicConfigManager.getInstance();
             //将新的服务定义缓存到本地
             manager.putServiceDefinition(serviceDefinition.getUniqueId(), serviceDefinition);
-            //将新的服务实例缓存到本地。
+            if(serviceInstanceSet.isEmpty()){
+                //服务已没有任何实例（服务下线），删除其路由信息，使其不再占用全局路由表中的匹配规则
+                RouteManager.getInstance().removeServiceRoute(serviceDefinition.getUniqueId());
+            }else{
+                //编译该服务的路由信息（匹配规则和方法调用路径），之后处理请求时直接使用编译结果进行匹配
+                RouteManager.getInstance().putServiceDefinition(serviceDefinition);
+            }
+            //将新的服务实例缓存到本地（以新快照替换旧快照），并删除已下线服务实例的统计信息
+            ServiceInstanceSnapshot oldSnapshot = manager.getServiceInstanceSnapshot(serviceDefinition.getUniqueId());
             manager.addServiceInstance(serviceDefinition.getUniqueId(), serviceInstanceSet);
+            InstanceStatsManager.getInstance().retainStats(oldSnapshot.getInstances(), serviceInstanceSet);
+            //若变更的是网关服务本身，则重新计算当前网关节点的实例子集位置
+            SubsetManager.getInstance().onServiceInstancesChange(serviceDefinition.getUniqueId(), serviceInstanceSet);
+            //向新发现的服务实例预先建立连接，并排空已下线服务实例的连接
+            UpstreamConnectionManager.getInstance().onServiceInstancesChange(serviceDefinition.getUniqueId(),
+                    oldSnapshot.getInstances(), serviceInstanceSet);
         }
     };
     /**
@@ -120,6 +139,8 @@ public class RegisterCenterManager {
         serviceInstance.setServiceInstanceId(localIp + ":" + port);
         serviceInstance.setIp(localIp);
         serviceInstance.setPort(port);
+        serviceInstance.setZone(config.getZone());
+        serviceInstance.setRegion(config.getRegion());
         serviceInstance.setRegisterTime(TimeUtil.currentTimeMillis());
         return serviceInstance;
     }
@@ -1,7 +1,12 @@
 package org.wyh.gateway.core.netty;
 
 import lombok.extern.slf4j.Slf4j;
+import org.wyh.gateway.core.cache.ResponseCacheManager;
 import org.wyh.gateway.core.config.Config;
+import org.wyh.gateway.core.filter.common.AsyncFilterExecutor;
+import org.wyh.gateway.core.instance.HealthChecker;
+import org.wyh.gateway.core.instance.LoadFeedbackManager;
+import org.wyh.gateway.core.instance.OutlierDetector;
 import org.wyh.gateway.core.netty.client.NettyHttpClient;
 import org.wyh.gateway.core.netty.server.NettyHttpServer;
 import org.wyh.gateway.core.netty.processor.DisruptorNettyCoreProcessor;
@@ -50,11 +55,14 @@ public class Container implements LifeCycle{
             this.nettyProcessor = nettyCoreProcessor;
         }
         nettyHttpServer = new NettyHttpServer(config, nettyProcessor);
-//        //以下代码中，NettyHttpClient与NettyHttpServer共用了一个worker EventLoopGroup（理论上是应该是分开的）
-//        nettyHttpClient = new NettyHttpClient(config,
-//                nettyHttpServer.getEventLoopGroupWorker());
-        //以下代码中，NettyHttpClient与NettyHttpServer都有各自的worker EventLoopGroup
-        nettyHttpClient = new NettyHttpClient(config);
+        if(config.isNativeHttpClientEnabled()){
+            //启用原生上游客户端时，NettyHttpClient与NettyHttpServer共用一个worker EventLoopGroup，
+            //使请求可以在接收它的EventLoop上直接发送给服务实例，避免线程切换
+            nettyHttpClient = new NettyHttpClient(config, nettyHttpServer.getEventLoopGroupWorker());
+        }else{
+            //以下代码中，NettyHttpClient与NettyHttpServer都有各自的worker EventLoopGroup
+            nettyHttpClient = new NettyHttpClient(config);
+        }
     }
 
     @Override
@@ -62,14 +70,29 @@ public class Container implements LifeCycle{
         nettyHttpServer.start();
         nettyProcessor.start();
         nettyHttpClient.start();
+        //启动主动健康检查，异常实例检测和负载反馈
+        HealthChecker.getInstance().start();
+        OutlierDetector.getInstance().start();
+        LoadFeedbackManager.getInstance().start();
         log.info("API网关容器启动");
     }
 
     @Override
     public void shutdown() {
+        /*
+         * 先关闭NettyHttpClient：启用原生上游客户端时，其连接池属于server的worker EventLoop，
+         * 需要在这些EventLoop中关闭。若先关闭server，关闭连接池的任务会被已关闭的EventLoop拒绝，连接无法正常释放
+         */
+        nettyHttpClient.shutdown();
         nettyHttpServer.shutdown();
         nettyProcessor.shutdown();
-        nettyHttpClient.shutdown();
+        //关闭异步过滤器使用的线程池
+        AsyncFilterExecutor.getInstance().shutdown();
+        HealthChecker.getInstance().shutdown();
+        OutlierDetector.getInstance().shutdown();
+        LoadFeedbackManager.getInstance().shutdown();
+        //清空响应缓存，删除内存映射文件
+        ResponseCacheManager.getInstance().shutdown();
         log.info("API网关容器关闭");
     }
 }
@@ -0,0 +1,647 @@
+package org.wyh.gateway.core.netty.client;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelPipeline;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.handler.codec.http2.DefaultHttp2WindowUpdateFrame;
+import io.netty.handler.codec.http2.Http2CodecUtil;
+import io.netty.handler.codec.http2.Http2FrameCodecBuilder;
+import io.netty.handler.codec.http2.Http2GoAwayFrame;
+import io.netty.handler.codec.http2.Http2MultiplexHandler;
+import io.netty.handler.codec.http2.Http2Settings;
+import io.netty.handler.codec.http2.Http2SettingsFrame;
+import io.netty.handler.codec.http2.Http2StreamChannel;
+import io.netty.handler.codec.http2.Http2StreamChannelBootstrap;
+import io.netty.handler.codec.http2.Http2StreamFrameToHttpObjectCodec;
+import io.netty.handler.codec.http2.HttpConversionUtil;
+import io.netty.handler.ssl.ApplicationProtocolNames;
+import io.netty.handler.ssl.ApplicationProtocolNegotiationHandler;
+import io.netty.handler.timeout.IdleStateEvent;
+import io.netty.handler.timeout.IdleStateHandler;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.GenericFutureListener;
+import io.netty.util.concurrent.ScheduledFuture;
+import lombok.extern.slf4j.Slf4j;
+import org.asynchttpclient.Request;
+import org.asynchttpclient.Response;
+import org.asynchttpclient.uri.Uri;
+import org.wyh.gateway.core.config.Config;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * @BelongsProject: api-gateway-server
+ * @BelongsPackage: org.wyh.gateway.core.netty.client
+ * @Author: wyh
+ * @Date: 2024-12-16 14:30
+ * @Description: 单个服务实例的HTTP/2连接池。
+                 每个请求对应连接上的一个流（子channel），请求总是发往正在进行的流最少，且未达到流数量上限的连接；
+                 流数量上限取网关配置和服务实例通过SETTINGS帧通告的限制中较小的一个。
+                 所有连接都已达到上限时，若连接数还未达到上限，则建立新连接，请求在队列中等待，有空闲的流时再发出。
+                 收到GOAWAY帧的连接不再承载新的请求，已有的请求继续完成；长时间没有任何请求的连接会被关闭。
+                 流量控制由netty的HTTP/2编解码器负责：子channel读取数据后会自动归还接收窗口，
+                 这里只是在连接建立后，将连接级别的接收窗口扩大到配置的大小（流级别的窗口通过SETTINGS帧设置）。
+                 连接池的状态只在加锁的方法中修改，同一实例的请求之间的竞争很小。
+ */
+@Slf4j
+final class Http2ConnectionPool {
+    //所属的HTTP/2上游客户端
+    private final Http2UpstreamClient client;
+    //网关配置信息
+    private final Config config;
+    //服务实例的主机和端口
+    private final String host;
+    private final int port;
+    //是否使用TLS（h2协议）
+    private final boolean tls;
+    //已建立的连接
+    private final List<Connection> connections = new ArrayList<>();
+    //等待空闲流的请求
+    private final ArrayDeque<Exchange> pending = new ArrayDeque<>();
+    //正在建立的连接数
+    private int connecting;
+    //连接池是否已关闭
+    private boolean closed;
+    /**
+     * @BelongsProject: api-gateway-server
+     * @BelongsPackage: org.wyh.gateway.core.netty.client
+     * @Author: wyh
+     * @Date: 2024-12-16 14:32
+     * @Description: （内部类）HTTP/2连接，其状态只在连接池加锁时访问
+     */
+    private final class Connection {
+        private Channel channel;
+        //是否已建立完成（包括TLS握手和协议协商）或已确定建立失败
+        private boolean settled;
+        //建立失败的原因
+        private Throwable failure;
+        //正在进行的流数量
+        private int activeStreams;
+        //流数量上限
+        private int maxStreams = Math.max(config.getHttp2MaxConcurrentStreams(), 1);
+        //是否收到了GOAWAY帧
+        private boolean goAway;
+
+        private boolean hasCapacity(){
+            return !goAway && channel.isActive() && activeStreams < maxStreams;
+        }
+    }
+    /**
+     * @BelongsProject: api-gateway-server
+     * @BelongsPackage: org.wyh.gateway.core.netty.client
+     * @Author: wyh
+     * @Date: 2024-12-16 14:34
+     * @Description: （静态内部类）一次请求的交换过程
+     */
+    private static final class Exchange {
+        private final Uri uri;
+        private final CompletableFuture<Response> future = new CompletableFuture<>();
+        //尚未发出的请求对象（发出或丢弃后为null）
+        private FullHttpRequest request;
+        //承载该请求的流（尚未建立时为null）
+        private volatile Http2StreamChannel stream;
+        //超时的定时任务
+        private ScheduledFuture<?> timeoutTask;
+
+        private Exchange(Uri uri, FullHttpRequest request) {
+            this.uri = uri;
+            this.request = request;
+        }
+        /**
+         * @date: 2024-12-16 14:35
+         * @description: 取出尚未发出的请求对象（只能取出一次）
+         * @return: io.netty.handler.codec.http.FullHttpRequest
+         */
+        private synchronized FullHttpRequest take(){
+            FullHttpRequest r = request;
+            request = null;
+            return r;
+        }
+        /**
+         * @date: 2024-12-16 14:36
+         * @description: 丢弃尚未发出的请求对象
+         * @return: void
+         */
+        private void discard(){
+            ReferenceCountUtil.release(take());
+        }
+    }
+    /**
+     * @date: 2024-12-16 14:40
+     * @description: 有参构造器
+     * @Param client:
+     * @Param host:
+     * @Param port:
+     * @Param tls:
+     * @return: null
+     */
+    Http2ConnectionPool(Http2UpstreamClient client, String host, int port, boolean tls){
+        this.client = client;
+        this.config = client.getConfig();
+        this.host = host;
+        this.port = port;
+        this.tls = tls;
+    }
+    /**
+     * @date: 2024-12-16 14:42
+     * @description: 发送请求。请求超时后，对应的流会被重置（RST_STREAM），不影响同一连接上的其他请求
+     * @Param request:
+     * @return: java.util.concurrent.CompletableFuture<org.asynchttpclient.Response>
+     */
+    CompletableFuture<Response> execute(Request request){
+        Exchange exchange;
+        try{
+            exchange = new Exchange(request.getUri(), Http2UpstreamClient.toHttpRequest(request));
+        }catch (Exception e){
+            return CompletableFuture.failedFuture(e);
+        }
+        long timeout = request.getRequestTimeout() > 0 ? request.getRequestTimeout() : config.getHttpRequestTimeout();
+        exchange.timeoutTask = client.getEventLoopGroup().schedule(() ->
+                exchange.future.completeExceptionally(new TimeoutException(
+                        "请求: " + exchange.uri + " 在" + timeout + " ms内未收到响应")), timeout, TimeUnit.MILLISECONDS);
+        exchange.future.whenComplete((response, throwable) -> {
+            exchange.timeoutTask.cancel(false);
+            if(throwable != null){
+                abort(exchange);
+            }
+        });
+        dispatch(exchange);
+        return exchange.future;
+    }
+    /**
+     * @date: 2024-12-16 14:45
+     * @description: 为请求分配连接：有可用的连接时立即发出，否则放入等待队列，必要时建立新连接
+     * @Param exchange:
+     * @return: void
+     */
+    private void dispatch(Exchange exchange){
+        Connection connection = null;
+        boolean connect = false;
+        IOException reject = null;
+        synchronized (this){
+            if(closed){
+                reject = new IOException("与服务实例: " + host + ":" + port + " 的HTTP/2连接池已关闭");
+            }else{
+                connection = select();
+                if(connection != null){
+                    connection.activeStreams++;
+                }else if(pending.size() >= config.getHttp2MaxPendingRequests()){
+                    reject = new IOException("等待与服务实例: " + host + ":" + port + " 的HTTP/2连接的请求过多");
+                }else{
+                    pending.add(exchange);
+                    connect = canConnect();
+                    if(connect){
+                        connecting++;
+                    }
+                }
+            }
+        }
+        if(reject != null){
+            exchange.discard();
+            exchange.future.completeExceptionally(reject);
+            return;
+        }
+        if(connection != null){
+            openStream(connection, exchange);
+        }
+        if(connect){
+            connect();
+        }
+    }
+    /**
+     * @date: 2024-12-16 14:48
+     * @description: 选择正在进行的流最少，且未达到流数量上限的连接（需在加锁时调用）
+     * @return: org.wyh.gateway.core.netty.client.Http2ConnectionPool.Connection 没有可用的连接时返回null
+     */
+    private Connection select(){
+        Connection best = null;
+        for (Connection connection : connections) {
+            if(connection.hasCapacity() && (best == null || connection.activeStreams < best.activeStreams)){
+                best = connection;
+            }
+        }
+        return best;
+    }
+    /**
+     * @date: 2024-12-16 14:49
+     * @description: 判断是否还可以建立新连接（需在加锁时调用）。收到GOAWAY帧的连接不计入连接数
+     * @return: boolean
+     */
+    private boolean canConnect(){
+        int usable = connecting;
+        for (Connection connection : connections) {
+            if(!connection.goAway){
+                usable++;
+            }
+        }
+        return !closed && usable < Math.max(config.getHttp2MaxConnectionsPerInstance(), 1);
+    }
+    /**
+     * @date: 2024-12-16 14:50
+     * @description: 将等待队列中的请求分配给有空闲流的连接（需在加锁时调用），返回分配结果，由调用方在锁外发出请求
+     * @return: java.util.List<java.lang.Object[]> 每一项为{连接, 请求}
+     */
+    private List<Object[]> assign(){
+        List<Object[]> assigned = null;
+        while (!pending.isEmpty()){
+            Exchange exchange = pending.peek();
+            if(exchange.future.isDone()){
+                pending.poll();
+                continue;
+            }
+            Connection connection = select();
+            if(connection == null){
+                break;
+            }
+            pending.poll();
+            connection.activeStreams++;
+            if(assigned == null){
+                assigned = new ArrayList<>();
+            }
+            assigned.add(new Object[]{connection, exchange});
+        }
+        return assigned == null ? Collections.emptyList() : assigned;
+    }
+    /**
+     * @date: 2024-12-16 14:52
+     * @description: 发出分配好的请求
+     * @Param assigned:
+     * @return: void
+     */
+    private void openStreams(List<Object[]> assigned){
+        for (Object[] pair : assigned) {
+            openStream((Connection) pair[0], (Exchange) pair[1]);
+        }
+    }
+    /**
+     * @date: 2024-12-16 14:55
+     * @description: 建立新连接。h2c直接使用HTTP/2（prior knowledge），h2在TLS握手时通过ALPN协商HTTP/2
+     * @return: void
+     */
+    private void connect(){
+        Connection connection = new Connection();
+        ChannelInitializer<Channel> initializer = new ChannelInitializer<>() {
+            @Override
+            protected void initChannel(Channel ch) {
+                //连接在该时间内没有任何读写时触发空闲事件，若此时没有正在进行的流，则关闭连接
+                ch.pipeline().addLast(new IdleStateHandler(0, 0,
+                        config.getHttpPooledConnectionIdleTimeout(), TimeUnit.MILLISECONDS));
+                if(!tls){
+                    configureHttp2(ch.pipeline(), connection);
+                    return;
+                }
+                ch.pipeline().addLast(client.getSslContext().newHandler(ch.alloc(), host, port),
+                        new ApplicationProtocolNegotiationHandler(ApplicationProtocolNames.HTTP_1_1) {
+                            @Override
+                            protected void configurePipeline(ChannelHandlerContext ctx, String protocol) {
+                                if(!ApplicationProtocolNames.HTTP_2.equals(protocol)){
+                                    connection.failure = new IOException("服务实例: " + host + ":" + port
+                                            + " 不支持HTTP/2，协商的协议为: " + protocol);
+                                    ctx.close();
+                                    return;
+                                }
+                                configureHttp2(ctx.pipeline(), connection);
+                            }
+
+                            @Override
+                            protected void handshakeFailure(ChannelHandlerContext ctx, Throwable cause) {
+                                connection.failure = cause;
+                                ctx.close();
+                            }
+                        });
+            }
+        };
+        io.netty.channel.ChannelFuture future = client.getBootstrap().clone().handler(initializer).connect(host, port);
+        connection.channel = future.channel();
+        connection.channel.closeFuture().addListener(f -> onClosed(connection));
+        future.addListener(f -> {
+            if(!f.isSuccess()){
+                connection.failure = f.cause();
+            }
+        });
+    }
+    /**
+     * @date: 2024-12-16 15:00
+     * @description: 在连接的pipeline中添加HTTP/2编解码器和流的多路复用处理器
+     * @Param pipeline:
+     * @Param connection:
+     * @return: void
+     */
+    private void configureHttp2(ChannelPipeline pipeline, Connection connection){
+        Http2Settings settings = Http2Settings.defaultSettings()
+                .pushEnabled(false)
+                .initialWindowSize(config.getHttp2InitialWindowSize());
+        pipeline.addLast(Http2FrameCodecBuilder.forClient()
+                        .initialSettings(settings)
+                        //关闭连接时，等待已发出的请求完成的最长时间
+                        .gracefulShutdownTimeoutMillis(config.getHttpRequestTimeout())
+                        .build(),
+                //网关不接受服务端推送，不会有服务端发起的流
+                new Http2MultiplexHandler(new ChannelInboundHandlerAdapter()),
+                new ConnectionHandler(connection));
+    }
+    /**
+     * @date: 2024-12-16 15:05
+     * @description: 收到服务实例的第一个SETTINGS帧（即连接建立完成，且已知其流数量上限）时调用，
+                     扩大连接级别的接收窗口，并发出等待中的请求
+     * @Param connection:
+     * @return: void
+     */
+    private void onConnected(Connection connection){
+        List<Object[]> assigned;
+        boolean close = false;
+        synchronized (this){
+            connection.settled = true;
+            connecting--;
+            if(closed){
+                close = true;
+                assigned = Collections.emptyList();
+            }else{
+                connections.add(connection);
+                assigned = assign();
+            }
+        }
+        if(close){
+            connection.channel.close();
+            return;
+        }
+        int increment = config.getHttp2InitialWindowSize() - Http2CodecUtil.DEFAULT_WINDOW_SIZE;
+        if(increment > 0){
+            connection.channel.writeAndFlush(new DefaultHttp2WindowUpdateFrame(increment));
+        }
+        log.info("与服务实例: {}:{} 建立HTTP/2连接", host, port);
+        openStreams(assigned);
+    }
+    /**
+     * @date: 2024-12-16 15:08
+     * @description: 连接关闭时调用。若连接尚未建立完成（即建立失败），且没有其他连接可用，则等待中的请求全部失败；
+                     若仍有等待中的请求，则建立新连接
+     * @Param connection:
+     * @return: void
+     */
+    private void onClosed(Connection connection){
+        List<Exchange> failed = Collections.emptyList();
+        boolean connect = false;
+        synchronized (this){
+            if(!connection.settled){
+                connection.settled = true;
+                connecting--;
+                if(connections.isEmpty() && connecting == 0){
+                    failed = new ArrayList<>(pending);
+                    pending.clear();
+                }
+            }else{
+                connections.remove(connection);
+                connect = !pending.isEmpty() && canConnect();
+                if(connect){
+                    connecting++;
+                }
+            }
+        }
+        if(!failed.isEmpty()){
+            Throwable cause = connection.failure != null ? connection.failure
+                    : new IOException("与服务实例: " + host + ":" + port + " 建立HTTP/2连接失败");
+            log.warn("与服务实例: {}:{} 建立HTTP/2连接失败: {}", host, port, cause.getMessage());
+            for (Exchange exchange : failed) {
+                exchange.discard();
+                exchange.future.completeExceptionally(cause);
+            }
+        }
+        if(connect){
+            connect();
+        }
+    }
+    /**
+     * @date: 2024-12-16 15:10
+     * @description: 在连接上打开一个流并发出请求。流关闭时（无论是否收到响应）释放其占用的名额
+     * @Param connection:
+     * @Param exchange:
+     * @return: void
+     */
+    private void openStream(Connection connection, Exchange exchange){
+        if(exchange.future.isDone()){
+            exchange.discard();
+            onStreamClosed(connection);
+            return;
+        }
+        new Http2StreamChannelBootstrap(connection.channel)
+                .handler(new ChannelInitializer<Http2StreamChannel>() {
+                    @Override
+                    protected void initChannel(Http2StreamChannel ch) {
+                        ch.pipeline().addLast(new Http2StreamFrameToHttpObjectCodec(false),
+                                new HttpObjectAggregator(config.getMaxContentLength()),
+                                new StreamHandler(exchange));
+                    }
+                })
+                .open()
+                .addListener((GenericFutureListener<Future<Http2StreamChannel>>) f -> {
+                    if(!f.isSuccess()){
+                        exchange.discard();
+                        exchange.future.completeExceptionally(f.cause());
+                        onStreamClosed(connection);
+                        return;
+                    }
+                    Http2StreamChannel stream = f.getNow();
+                    stream.closeFuture().addListener(c -> {
+                        //子channel可能在编解码器处理响应的最后一帧时就被关闭，此时编解码器尚未将该流移出活跃的流，
+                        //因此稍后再释放名额，避免新的流超出服务实例的流数量上限
+                        connection.channel.eventLoop().execute(() -> onStreamClosed(connection));
+                        exchange.future.completeExceptionally(new IOException("请求: " + exchange.uri + " 的HTTP/2流在收到完整响应之前被关闭"));
+                    });
+                    exchange.stream = stream;
+                    FullHttpRequest request = exchange.future.isDone() ? null : exchange.take();
+                    if(request == null){
+                        exchange.discard();
+                        stream.close();
+                        return;
+                    }
+                    stream.writeAndFlush(request).addListener(w -> {
+                        if(!w.isSuccess()){
+                            exchange.future.completeExceptionally(w.cause());
+                            stream.close();
+                        }
+                    });
+                });
+    }
+    /**
+     * @date: 2024-12-16 15:15
+     * @description: 流关闭时调用，释放其占用的名额，并发出等待中的请求
+     * @Param connection:
+     * @return: void
+     */
+    private void onStreamClosed(Connection connection){
+        List<Object[]> assigned;
+        synchronized (this){
+            connection.activeStreams--;
+            assigned = assign();
+        }
+        openStreams(assigned);
+    }
+    /**
+     * @date: 2024-12-16 15:16
+     * @description: 请求提前结束（超时，被取消或失败）时调用：重置其对应的流，或将其移出等待队列
+     * @Param exchange:
+     * @return: void
+     */
+    private void abort(Exchange exchange){
+        Http2StreamChannel stream = exchange.stream;
+        if(stream != null){
+            stream.close();
+            return;
+        }
+        synchronized (this){
+            pending.remove(exchange);
+        }
+        exchange.discard();
+    }
+    /**
+     * @date: 2024-12-16 15:18
+     * @description: 关闭连接池：等待中的请求全部失败，已发出的请求在优雅关闭的超时时间内仍可完成
+     * @return: void
+     */
+    void close(){
+        List<Connection> toClose;
+        List<Exchange> failed;
+        synchronized (this){
+            closed = true;
+            toClose = new ArrayList<>(connections);
+            failed = new ArrayList<>(pending);
+            pending.clear();
+        }
+        IOException cause = new IOException("与服务实例: " + host + ":" + port + " 的HTTP/2连接池已关闭");
+        for (Exchange exchange : failed) {
+            exchange.discard();
+            exchange.future.completeExceptionally(cause);
+        }
+        for (Connection connection : toClose) {
+            //HTTP/2编解码器会先发送GOAWAY帧，等待已有的流结束后再关闭连接
+            connection.channel.close();
+        }
+    }
+    /**
+     * @BelongsProject: api-gateway-server
+     * @BelongsPackage: org.wyh.gateway.core.netty.client
+     * @Author: wyh
+     * @Date: 2024-12-16 15:20
+     * @Description: （内部类）连接级别的处理器，负责处理SETTINGS帧，GOAWAY帧和空闲事件
+     */
+    private final class ConnectionHandler extends ChannelInboundHandlerAdapter {
+        private final Connection connection;
+
+        private ConnectionHandler(Connection connection) {
+            this.connection = connection;
+        }
+
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) {
+            try{
+                if(msg instanceof Http2SettingsFrame){
+                    Long maxConcurrentStreams = ((Http2SettingsFrame) msg).settings().maxConcurrentStreams();
+                    List<Object[]> assigned = Collections.emptyList();
+                    boolean connected;
+                    synchronized (Http2ConnectionPool.this){
+                        if(maxConcurrentStreams != null){
+                            connection.maxStreams = (int)Math.max(Math.min(maxConcurrentStreams,
+                                    config.getHttp2MaxConcurrentStreams()), 1);
+                        }
+                        connected = connection.settled;
+                        if(connected){
+                            assigned = assign();
+                        }
+                    }
+                    if(connected){
+                        openStreams(assigned);
+                    }else{
+                        onConnected(connection);
+                    }
+                }else if(msg instanceof Http2GoAwayFrame){
+                    boolean connect;
+                    synchronized (Http2ConnectionPool.this){
+                        connection.goAway = true;
+                        connect = !pending.isEmpty() && canConnect();
+                        if(connect){
+                            connecting++;
+                        }
+                    }
+                    log.info("服务实例: {}:{} 发送了GOAWAY帧，该连接不再承载新的请求", host, port);
+                    if(connect){
+                        connect();
+                    }
+                }
+            }finally {
+                ReferenceCountUtil.release(msg);
+            }
+        }
+
+        @Override
+        public void userEventTriggered(ChannelHandlerContext ctx, Object evt) throws Exception {
+            if(evt instanceof IdleStateEvent){
+                boolean idle;
+                synchronized (Http2ConnectionPool.this){
+                    idle = connection.activeStreams == 0;
+                    if(idle){
+                        //先移出连接池，避免新的请求被分配到即将关闭的连接
+                        connection.goAway = true;
+                    }
+                }
+                if(idle){
+                    ctx.close();
+                }
+                return;
+            }
+            super.userEventTriggered(ctx, evt);
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            log.warn("与服务实例: {}:{} 的HTTP/2连接出现异常: {}", host, port, cause.getMessage());
+            ctx.close();
+        }
+    }
+    /**
+     * @BelongsProject: api-gateway-server
+     * @BelongsPackage: org.wyh.gateway.core.netty.client
+     * @Author: wyh
+     * @Date: 2024-12-16 15:25
+     * @Description: （静态内部类）流级别的处理器，负责将聚合后的响应转换为AsyncHttpClient的响应对象
+     */
+    private static final class StreamHandler extends SimpleChannelInboundHandler<FullHttpResponse> {
+        private final Exchange exchange;
+
+        private StreamHandler(Exchange exchange) {
+            this.exchange = exchange;
+        }
+
+        @Override
+        protected void channelRead0(ChannelHandlerContext ctx, FullHttpResponse msg) {
+            HttpHeaders headers = msg.headers();
+            //去除编解码器添加的扩展请求头
+            headers.remove(HttpConversionUtil.ExtensionHeaderNames.STREAM_ID.text());
+            headers.remove(HttpConversionUtil.ExtensionHeaderNames.SCHEME.text());
+            headers.remove(HttpConversionUtil.ExtensionHeaderNames.PATH.text());
+            exchange.future.complete(UpstreamResponseStatus.toResponse(exchange.uri, msg, ctx.channel().parent(), 2));
+            ctx.close();
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            exchange.future.completeExceptionally(cause);
+            ctx.close();
+        }
+    }
+}
@@ -0,0 +1,233 @@
+package org.wyh.gateway.core.netty.client;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaderValues;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.ssl.ApplicationProtocolConfig;
+import io.netty.handler.ssl.ApplicationProtocolNames;
+import io.netty.handler.ssl.SslContext;
+import io.netty.handler.ssl.SslContextBuilder;
+import lombok.extern.slf4j.Slf4j;
+import org.asynchttpclient.Param;
+import org.asynchttpclient.Request;
+import org.asynchttpclient.Response;
+import org.asynchttpclient.uri.Uri;
+import org.wyh.gateway.common.constant.GatewayConst;
+import org.wyh.gateway.core.config.Config;
+import org.wyh.gateway.core.netty.LifeCycle;
+
+import javax.net.ssl.SSLException;
+import java.net.URLEncoder;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * @BelongsProject: api-gateway-server
+ * @BelongsPackage: org.wyh.gateway.core.netty.client
+ * @Author: wyh
+ * @Date: 2024-12-16 14:00
+ * @Description: HTTP/2上游客户端，用于访问协议为h2c（HTTP/2明文）或h2（基于TLS的HTTP/2）的服务。
+                 AsyncHttpClient只支持HTTP/1.1，每个连接同时只能处理一个请求，并发量越大，需要的连接就越多；
+                 而HTTP/2可以在一个连接上同时进行多个请求（流），因此每个服务实例只需要少量的连接。
+                 该客户端直接基于netty的HTTP/2编解码器实现，为每个服务实例维护一个连接池（见Http2ConnectionPool），
+                 并与AsyncHttpClient共用同一个EventLoopGroup。
+                 为了让路由过滤器等组件无需区分协议，请求和响应都使用AsyncHttpClient的Request和Response对象表示。
+ */
+@Slf4j
+public class Http2UpstreamClient implements LifeCycle {
+    //网关配置信息
+    private final Config config;
+    //连接使用的EventLoopGroup
+    private final EventLoopGroup eventLoopGroup;
+    //建立连接的模板（每个连接使用其副本，设置各自的处理器）
+    private Bootstrap bootstrap;
+    //h2协议使用的TLS上下文（通过ALPN协商HTTP/2），初始化失败时为null
+    private SslContext sslContext;
+    //连接池的集合，键为协议和服务实例地址（如h2c://ip:port）
+    private final ConcurrentHashMap<String, Http2ConnectionPool> pools = new ConcurrentHashMap<>();
+    /**
+     * @date: 2024-12-16 14:05
+     * @description: 有参构造器，与AsyncHttpClient共用同一个EventLoopGroup
+     * @Param config:
+     * @Param eventLoopGroup:
+     * @return: null
+     */
+    public Http2UpstreamClient(Config config, EventLoopGroup eventLoopGroup){
+        this.config = config;
+        this.eventLoopGroup = eventLoopGroup;
+        init();
+    }
+
+    @Override
+    public void init() {
+        this.bootstrap = new Bootstrap()
+                .group(eventLoopGroup)
+                .channel(eventLoopGroup instanceof EpollEventLoopGroup ? EpollSocketChannel.class : NioSocketChannel.class)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, config.getHttpConnectTimeout())
+                .option(ChannelOption.TCP_NODELAY, true)
+                .option(ChannelOption.SO_KEEPALIVE, true)
+                .option(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT);
+        try{
+            this.sslContext = SslContextBuilder.forClient()
+                    .applicationProtocolConfig(new ApplicationProtocolConfig(
+                            ApplicationProtocolConfig.Protocol.ALPN,
+                            ApplicationProtocolConfig.SelectorFailureBehavior.NO_ADVERTISE,
+                            ApplicationProtocolConfig.SelectedListenerFailureBehavior.ACCEPT,
+                            ApplicationProtocolNames.HTTP_2))
+                    .build();
+        }catch (SSLException e){
+            log.error("HTTP/2上游客户端的TLS上下文初始化失败，将无法访问协议为h2的服务", e);
+        }
+    }
+
+    @Override
+    public void start() {
+    }
+
+    @Override
+    public void shutdown() {
+        //关闭所有连接（已发出的请求在优雅关闭的超时时间内仍可完成）
+        for (Http2ConnectionPool pool : pools.values()) {
+            pool.close();
+        }
+        pools.clear();
+    }
+    /**
+     * @date: 2024-12-16 14:10
+     * @description: 判断服务协议是否需要使用HTTP/2上游客户端
+     * @Param protocol:
+     * @return: boolean
+     */
+    public static boolean isHttp2(String protocol){
+        return GatewayConst.PROTOCOL_H2C.equalsIgnoreCase(protocol) || GatewayConst.PROTOCOL_H2.equalsIgnoreCase(protocol);
+    }
+    /**
+     * @date: 2024-12-16 14:12
+     * @description: 通过HTTP/2发送异步请求
+     * @Param request:
+     * @Param protocol: 服务协议（h2c或h2）
+     * @return: java.util.concurrent.CompletableFuture<org.asynchttpclient.Response>
+     */
+    public CompletableFuture<Response> execute(Request request, String protocol){
+        boolean tls = GatewayConst.PROTOCOL_H2.equalsIgnoreCase(protocol);
+        if(tls && sslContext == null){
+            return CompletableFuture.failedFuture(new IllegalStateException("TLS上下文不可用，无法访问协议为h2的服务"));
+        }
+        Uri uri = request.getUri();
+        String key = (tls ? GatewayConst.PROTOCOL_H2 : GatewayConst.PROTOCOL_H2C) + "://"
+                + uri.getHost() + ":" + uri.getExplicitPort();
+        Http2ConnectionPool pool = pools.get(key);
+        if(pool == null){
+            pool = pools.computeIfAbsent(key, k -> new Http2ConnectionPool(this, uri.getHost(), uri.getExplicitPort(), tls));
+        }
+        return pool.execute(request);
+    }
+    /**
+     * @date: 2024-12-16 14:15
+     * @description: 服务实例下线时调用，优雅地关闭与其建立的所有HTTP/2连接
+     * @Param address: 服务实例地址（ip:port）
+     * @return: void
+     */
+    public void close(String address){
+        for (String protocol : new String[]{GatewayConst.PROTOCOL_H2C, GatewayConst.PROTOCOL_H2}) {
+            Http2ConnectionPool pool = pools.remove(protocol + "://" + address);
+            if(pool != null){
+                pool.close();
+            }
+        }
+    }
+
+    Config getConfig() {
+        return config;
+    }
+
+    EventLoopGroup getEventLoopGroup() {
+        return eventLoopGroup;
+    }
+
+    Bootstrap getBootstrap() {
+        return bootstrap;
+    }
+
+    SslContext getSslContext() {
+        return sslContext;
+    }
+    /**
+     * @date: 2024-12-16 14:20
+     * @description: 将AsyncHttpClient的请求对象转换为netty的请求对象（HTTP/2上游客户端和原生上游客户端共用）。
+                     HTTP/2连接上，连接相关的请求头（如Connection，Transfer-Encoding）会在转换为HTTP/2帧时被去除
+     * @Param request:
+     * @return: io.netty.handler.codec.http.FullHttpRequest
+     */
+    static FullHttpRequest toHttpRequest(Request request){
+        Uri uri = request.getUri();
+        Charset charset = request.getCharset() != null ? request.getCharset() : StandardCharsets.UTF_8;
+        ByteBuf content;
+        boolean form = false;
+        if(request.getByteData() != null){
+            content = Unpooled.wrappedBuffer(request.getByteData());
+        }else if(request.getCompositeByteData() != null){
+            content = Unpooled.wrappedBuffer(request.getCompositeByteData().toArray(new byte[0][]));
+        }else if(request.getStringData() != null){
+            content = Unpooled.copiedBuffer(request.getStringData(), charset);
+        }else if(request.getByteBufferData() != null){
+            content = Unpooled.wrappedBuffer(request.getByteBufferData().duplicate());
+        }else if(request.getFormParams() != null && !request.getFormParams().isEmpty()){
+            content = Unpooled.copiedBuffer(encodeForm(request.getFormParams(), charset), charset);
+            form = true;
+        }else if(request.getStreamData() != null || request.getBodyGenerator() != null){
+            throw new IllegalArgumentException("HTTP/2上游客户端不支持流式的请求体");
+        }else{
+            content = Unpooled.EMPTY_BUFFER;
+        }
+        FullHttpRequest httpRequest = new DefaultFullHttpRequest(HttpVersion.HTTP_1_1,
+                HttpMethod.valueOf(request.getMethod()), uri.toRelativeUrl(), content);
+        httpRequest.headers().set(request.getHeaders());
+        if(!httpRequest.headers().contains(HttpHeaderNames.HOST)){
+            httpRequest.headers().set(HttpHeaderNames.HOST, uri.getHost() + ":" + uri.getExplicitPort());
+        }
+        if(form && !httpRequest.headers().contains(HttpHeaderNames.CONTENT_TYPE)){
+            httpRequest.headers().set(HttpHeaderNames.CONTENT_TYPE, HttpHeaderValues.APPLICATION_X_WWW_FORM_URLENCODED);
+        }
+        httpRequest.headers().remove(HttpHeaderNames.TRANSFER_ENCODING);
+        if(content.isReadable()){
+            httpRequest.headers().set(HttpHeaderNames.CONTENT_LENGTH, content.readableBytes());
+        }
+        return httpRequest;
+    }
+    /**
+     * @date: 2024-12-16 14:25
+     * @description: 将表单参数编码为application/x-www-form-urlencoded格式
+     * @Param params:
+     * @Param charset:
+     * @return: java.lang.String
+     */
+    private static String encodeForm(List<Param> params, Charset charset){
+        StringBuilder sb = new StringBuilder();
+        for (Param param : params) {
+            if(sb.length() > 0){
+                sb.append('&');
+            }
+            sb.append(URLEncoder.encode(param.getName(), charset));
+            if(param.getValue() != null){
+                sb.append('=').append(URLEncoder.encode(param.getValue(), charset));
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,475 @@
+package org.wyh.gateway.core.netty.client;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoop;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpClientCodec;
+import io.netty.handler.codec.http.HttpContentDecompressor;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.handler.codec.http.HttpUtil;
+import io.netty.handler.timeout.IdleStateEvent;
+import io.netty.handler.timeout.IdleStateHandler;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.ScheduledFuture;
+import lombok.extern.slf4j.Slf4j;
+import org.asynchttpclient.Request;
+import org.asynchttpclient.Response;
+import org.asynchttpclient.uri.Uri;
+import org.wyh.gateway.core.config.Config;
+import org.wyh.gateway.core.netty.LifeCycle;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * @BelongsProject: api-gateway-server
+ * @BelongsPackage: org.wyh.gateway.core.netty.client
+ * @Author: wyh
+ * @Date: 2024-12-16 16:10
+ * @Description: 原生上游客户端，直接基于netty实现的HTTP/1.1客户端，与网关服务端共用worker eventLoopGroup。
+                 使用AsyncHttpClient时，请求需要从服务端的worker线程转交给AsyncHttpClient的线程发送，
+                 响应又要从AsyncHttpClient的线程转交回服务端的worker线程写回客户端，每个请求都会有多次线程切换。
+                 该客户端为每个EventLoop单独维护一组连接池，请求总是在接收该请求的EventLoop上，
+                 使用该EventLoop的连接与服务实例通信，因此请求的发送，响应的接收和写回都在同一个线程中完成。
+                 连接池只在其所属的EventLoop中访问，无需加锁。
+                 每个EventLoop与同一服务实例的连接数上限为：每台主机的最大连接数 / EventLoop的数量。
+                 复用的连接在收到响应之前被关闭时（如服务实例恰好关闭了空闲连接），幂等请求会使用新连接重试一次。
+                 连接的统计信息（连接数，正在使用和等待建立的连接数，建立连接的耗时）与AsyncHttpClient共用
+                 UpstreamConnectionManager中按服务实例汇总的统计信息和指标。
+ */
+@Slf4j
+public class NativeHttpClient implements LifeCycle {
+    //网关配置信息
+    private final Config config;
+    //连接使用的EventLoopGroup（即网关服务端的worker eventLoopGroup）
+    private final EventLoopGroup eventLoopGroup;
+    //建立连接的模板（每个连接使用其副本，绑定到各自的EventLoop）
+    private Bootstrap bootstrap;
+    //每个EventLoop的连接池集合（键为服务实例地址ip:port）。创建后不再增减EventLoop，各连接池集合只在对应的EventLoop中访问
+    private final Map<EventExecutor, Map<String, ChannelPool>> loopPools = new IdentityHashMap<>();
+    //每个EventLoop与同一服务实例的最大连接数
+    private int maxConnectionsPerLoop;
+    /**
+     * @BelongsProject: api-gateway-server
+     * @BelongsPackage: org.wyh.gateway.core.netty.client
+     * @Author: wyh
+     * @Date: 2024-12-16 16:12
+     * @Description: （静态内部类）某个EventLoop与某个服务实例之间的连接池，只在该EventLoop中访问
+     */
+    private static final class ChannelPool {
+        //服务实例地址
+        private final String address;
+        //该服务实例的连接统计信息（所有EventLoop共用）
+        private final UpstreamConnectionManager.PoolStats stats;
+        //空闲连接（后进先出，让最近使用的连接保持活跃，多余的连接因空闲超时而关闭）
+        private final ArrayDeque<Channel> idle = new ArrayDeque<>();
+        //已建立（包括正在建立）的连接数
+        private int open;
+        //服务实例是否已下线
+        private boolean closed;
+
+        private ChannelPool(String address) {
+            this.address = address;
+            this.stats = UpstreamConnectionManager.getInstance().getPoolStats(address);
+        }
+        /**
+         * @date: 2024-12-16 16:13
+         * @description: 取出一个可用的空闲连接
+         * @return: io.netty.channel.Channel 没有可用的空闲连接时返回null
+         */
+        private Channel poll(){
+            Channel channel;
+            while ((channel = idle.pollLast()) != null){
+                if(channel.isActive()){
+                    return channel;
+                }
+            }
+            return null;
+        }
+        /**
+         * @date: 2024-12-16 16:14
+         * @description: 归还连接。服务实例已下线或连接已关闭时，直接关闭该连接
+         * @Param channel:
+         * @return: void
+         */
+        private void release(Channel channel){
+            if(closed || !channel.isActive()){
+                channel.close();
+            }else{
+                idle.addLast(channel);
+            }
+        }
+        /**
+         * @date: 2024-12-16 16:15
+         * @description: 服务实例下线时调用，关闭所有空闲连接，正在使用的连接在请求结束后关闭
+         * @return: void
+         */
+        private void close(){
+            closed = true;
+            Channel channel;
+            while ((channel = idle.poll()) != null){
+                channel.close();
+            }
+        }
+    }
+    /**
+     * @BelongsProject: api-gateway-server
+     * @BelongsPackage: org.wyh.gateway.core.netty.client
+     * @Author: wyh
+     * @Date: 2024-12-16 16:16
+     * @Description: （静态内部类）一次请求的交换过程。除future外，其余属性只在所属的EventLoop中访问
+     */
+    private static final class Exchange {
+        private final EventLoop eventLoop;
+        private final Uri uri;
+        private final String address;
+        //是否为幂等请求（幂等请求在复用的连接意外关闭时可以重试）
+        private final boolean idempotent;
+        private final CompletableFuture<Response> future = new CompletableFuture<>();
+        //请求对象，每次发送的是其副本，以便重试（请求结束后释放，并置为null）
+        private FullHttpRequest request;
+        //正在承载该请求的连接
+        private Channel channel;
+        //当前连接是否为复用的连接
+        private boolean reused;
+        //正在使用的连接所属的连接池（用于统计正在使用的连接数），没有使用连接时为null
+        private ChannelPool holding;
+        //是否已经重试过
+        private boolean retried;
+        //超时的定时任务
+        private ScheduledFuture<?> timeoutTask;
+
+        private Exchange(EventLoop eventLoop, Uri uri, FullHttpRequest request) {
+            this.eventLoop = eventLoop;
+            this.uri = uri;
+            this.address = uri.getHost() + ":" + uri.getExplicitPort();
+            this.request = request;
+            HttpMethod method = request.method();
+            this.idempotent = HttpMethod.GET.equals(method) || HttpMethod.HEAD.equals(method)
+                    || HttpMethod.OPTIONS.equals(method) || HttpMethod.PUT.equals(method)
+                    || HttpMethod.DELETE.equals(method);
+        }
+    }
+    /**
+     * @date: 2024-12-16 16:18
+     * @description: 有参构造器
+     * @Param config:
+     * @Param eventLoopGroup: 网关服务端的worker eventLoopGroup
+     * @return: null
+     */
+    public NativeHttpClient(Config config, EventLoopGroup eventLoopGroup){
+        this.config = config;
+        this.eventLoopGroup = eventLoopGroup;
+        init();
+    }
+
+    @Override
+    public void init() {
+        this.bootstrap = new Bootstrap()
+                .channel(eventLoopGroup instanceof EpollEventLoopGroup ? EpollSocketChannel.class : NioSocketChannel.class)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, config.getHttpConnectTimeout())
+                .option(ChannelOption.TCP_NODELAY, true)
+                .option(ChannelOption.SO_KEEPALIVE, true)
+                .option(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT);
+        for (EventExecutor executor : eventLoopGroup) {
+            loopPools.put(executor, new HashMap<>());
+        }
+        this.maxConnectionsPerLoop = Math.max(1,
+                (config.getHttpConnectionsPerHost() + loopPools.size() - 1) / Math.max(loopPools.size(), 1));
+    }
+
+    @Override
+    public void start() {
+    }
+
+    @Override
+    public void shutdown() {
+        for (Map.Entry<EventExecutor, Map<String, ChannelPool>> entry : loopPools.entrySet()) {
+            Map<String, ChannelPool> pools = entry.getValue();
+            runInLoop(entry.getKey(), () -> {
+                for (ChannelPool pool : pools.values()) {
+                    pool.close();
+                }
+                pools.clear();
+            });
+        }
+    }
+    /**
+     * @date: 2024-12-16 16:20
+     * @description: 发送异步请求
+     * @Param request:
+     * @Param eventLoop: 接收该请求的EventLoop。为null或不属于该客户端的EventLoopGroup时，任选一个EventLoop
+     * @return: java.util.concurrent.CompletableFuture<org.asynchttpclient.Response>
+     */
+    public CompletableFuture<Response> execute(Request request, EventLoop eventLoop){
+        FullHttpRequest httpRequest;
+        try{
+            httpRequest = Http2UpstreamClient.toHttpRequest(request);
+        }catch (Exception e){
+            return CompletableFuture.failedFuture(e);
+        }
+        EventLoop loop = eventLoop != null && loopPools.containsKey(eventLoop) ? eventLoop : eventLoopGroup.next();
+        Exchange exchange = new Exchange(loop, request.getUri(), httpRequest);
+        long timeout = request.getRequestTimeout() > 0 ? request.getRequestTimeout() : config.getHttpRequestTimeout();
+        //请求结束（包括超时，被取消）后的清理工作也在所属的EventLoop中执行
+        exchange.future.whenComplete((response, throwable) -> runInLoop(loop, () -> finish(exchange, throwable != null)));
+        runInLoop(loop, () -> {
+            exchange.timeoutTask = loop.schedule(() -> exchange.future.completeExceptionally(new TimeoutException(
+                    "请求: " + exchange.uri + " 在" + timeout + " ms内未收到响应")), timeout, TimeUnit.MILLISECONDS);
+            dispatch(exchange);
+        });
+        return exchange.future;
+    }
+    /**
+     * @date: 2024-12-16 16:25
+     * @description: 服务实例下线时调用，关闭各EventLoop与其建立的连接
+     * @Param address: 服务实例地址（ip:port）
+     * @return: void
+     */
+    public void close(String address){
+        for (Map.Entry<EventExecutor, Map<String, ChannelPool>> entry : loopPools.entrySet()) {
+            Map<String, ChannelPool> pools = entry.getValue();
+            runInLoop(entry.getKey(), () -> {
+                ChannelPool pool = pools.remove(address);
+                if(pool != null){
+                    pool.close();
+                }
+            });
+        }
+    }
+    /**
+     * @date: 2024-12-16 16:26
+     * @description: 在指定的EventLoop中执行任务（当前线程就是该EventLoop时直接执行）
+     * @Param executor:
+     * @Param task:
+     * @return: void
+     */
+    private static void runInLoop(EventExecutor executor, Runnable task){
+        if(executor.inEventLoop()){
+            task.run();
+            return;
+        }
+        try{
+            executor.execute(task);
+        }catch (RejectedExecutionException e){
+            log.warn("EventLoop已关闭，任务被丢弃");
+        }
+    }
+    /**
+     * @date: 2024-12-16 16:28
+     * @description: 为请求分配连接（在所属的EventLoop中调用）：优先复用空闲连接，没有空闲连接时建立新连接
+     * @Param exchange:
+     * @return: void
+     */
+    private void dispatch(Exchange exchange){
+        if(exchange.request == null){
+            return;
+        }
+        ChannelPool pool = loopPools.get(exchange.eventLoop).computeIfAbsent(exchange.address, ChannelPool::new);
+        Channel channel = pool.poll();
+        if(channel != null){
+            send(channel, exchange, true);
+        }else if(pool.open < maxConnectionsPerLoop){
+            pool.open++;
+            pool.stats.getPending().incrementAndGet();
+            connect(pool, exchange);
+        }else{
+            exchange.future.completeExceptionally(new IOException("与服务实例: " + exchange.address + " 的连接数过多"));
+        }
+    }
+    /**
+     * @date: 2024-12-16 16:30
+     * @description: 在请求所属的EventLoop上建立新连接，建立成功后发送请求
+     * @Param pool:
+     * @Param exchange:
+     * @return: void
+     */
+    private void connect(ChannelPool pool, Exchange exchange){
+        ChannelInitializer<Channel> initializer = new ChannelInitializer<>() {
+            @Override
+            protected void initChannel(Channel ch) {
+                ch.pipeline().addLast(new HttpClientCodec(),
+                        //与AsyncHttpClient的行为保持一致（开启了压缩），对压缩的响应体进行解压
+                        new HttpContentDecompressor(),
+                        new HttpObjectAggregator(config.getMaxContentLength()),
+                        new IdleStateHandler(0, 0, config.getHttpPooledConnectionIdleTimeout(), TimeUnit.MILLISECONDS),
+                        new ProxyHandler(pool));
+            }
+        };
+        Uri uri = exchange.uri;
+        long connectStart = System.nanoTime();
+        bootstrap.clone(exchange.eventLoop).handler(initializer).connect(uri.getHost(), uri.getExplicitPort())
+                .addListener((io.netty.channel.ChannelFutureListener) f -> {
+                    Channel channel = f.channel();
+                    pool.stats.getPending().decrementAndGet();
+                    channel.closeFuture().addListener(c -> {
+                        pool.open--;
+                        pool.idle.remove(channel);
+                    });
+                    if(!f.isSuccess()){
+                        exchange.future.completeExceptionally(f.cause());
+                        return;
+                    }
+                    pool.stats.onConnected(channel, System.nanoTime() - connectStart);
+                    send(channel, exchange, false);
+                });
+    }
+    /**
+     * @date: 2024-12-16 16:35
+     * @description: 通过指定连接发送请求（在所属的EventLoop中调用）
+     * @Param channel:
+     * @Param exchange:
+     * @Param reused: 是否为复用的连接
+     * @return: void
+     */
+    private void send(Channel channel, Exchange exchange, boolean reused){
+        if(exchange.request == null){
+            channel.pipeline().get(ProxyHandler.class).pool.release(channel);
+            return;
+        }
+        ProxyHandler handler = channel.pipeline().get(ProxyHandler.class);
+        handler.exchange = exchange;
+        exchange.channel = channel;
+        exchange.reused = reused;
+        exchange.holding = handler.pool;
+        handler.pool.stats.getActive().incrementAndGet();
+        //发送失败时连接会被关闭，由ProxyHandler.channelInactive决定重试或失败
+        channel.writeAndFlush(exchange.request.retainedDuplicate()).addListener(f -> {
+            if(!f.isSuccess()){
+                channel.close();
+            }
+        });
+    }
+    /**
+     * @date: 2024-12-16 16:38
+     * @description: 请求结束时调用（在所属的EventLoop中调用），释放请求对象，并取消超时任务。
+                     请求提前结束（超时，被取消或失败）时，HTTP/1.1无法单独中止正在进行的请求，只能关闭其连接
+     * @Param exchange:
+     * @Param failed:
+     * @return: void
+     */
+    private static void finish(Exchange exchange, boolean failed){
+        if(exchange.timeoutTask != null){
+            exchange.timeoutTask.cancel(false);
+        }
+        ReferenceCountUtil.release(exchange.request);
+        exchange.request = null;
+        Channel channel = exchange.channel;
+        if(failed && channel != null){
+            exchange.channel = null;
+            unhold(exchange);
+            ProxyHandler handler = channel.pipeline().get(ProxyHandler.class);
+            if(handler != null && handler.exchange == exchange){
+                handler.exchange = null;
+            }
+            channel.close();
+        }
+    }
+    /**
+     * @date: 2024-12-16 18:55
+     * @description: 请求不再使用其连接时调用，减少正在使用的连接数
+     * @Param exchange:
+     * @return: void
+     */
+    private static void unhold(Exchange exchange){
+        if(exchange.holding != null){
+            exchange.holding.stats.getActive().decrementAndGet();
+            exchange.holding = null;
+        }
+    }
+    /**
+     * @BelongsProject: api-gateway-server
+     * @BelongsPackage: org.wyh.gateway.core.netty.client
+     * @Author: wyh
+     * @Date: 2024-12-16 16:40
+     * @Description: （内部类）连接的处理器，负责将聚合后的响应交给正在进行的请求，并归还连接
+     */
+    private final class ProxyHandler extends SimpleChannelInboundHandler<FullHttpResponse> {
+        //连接所属的连接池
+        private final ChannelPool pool;
+        //正在进行的请求（连接空闲时为null）
+        private Exchange exchange;
+
+        private ProxyHandler(ChannelPool pool) {
+            this.pool = pool;
+        }
+
+        @Override
+        protected void channelRead0(ChannelHandlerContext ctx, FullHttpResponse msg) {
+            Exchange current = exchange;
+            if(current == null){
+                //没有正在进行的请求时收到的响应，说明连接状态已经不可信
+                ctx.close();
+                return;
+            }
+            exchange = null;
+            current.channel = null;
+            unhold(current);
+            Response response = UpstreamResponseStatus.toResponse(current.uri, msg, ctx.channel(), 1);
+            //先归还连接，使后续的请求（包括在响应回调中同步发出的请求）可以立即复用它
+            if(HttpUtil.isKeepAlive(msg)){
+                pool.release(ctx.channel());
+            }else{
+                ctx.close();
+            }
+            current.future.complete(response);
+        }
+
+        @Override
+        public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+            Exchange current = exchange;
+            if(current != null){
+                exchange = null;
+                current.channel = null;
+                unhold(current);
+                if(current.reused && current.idempotent && !current.retried && !current.future.isDone()){
+                    log.debug("与服务实例: {} 的连接在收到响应之前被关闭，重试请求: {}", pool.address, current.uri);
+                    current.retried = true;
+                    dispatch(current);
+                }else{
+                    current.future.completeExceptionally(new IOException("与服务实例: " + pool.address
+                            + " 的连接在收到完整响应之前被关闭"));
+                }
+            }
+            super.channelInactive(ctx);
+        }
+
+        @Override
+        public void userEventTriggered(ChannelHandlerContext ctx, Object evt) throws Exception {
+            if(evt instanceof IdleStateEvent){
+                //只关闭空闲的连接，正在进行的请求由其超时任务负责
+                if(exchange == null){
+                    ctx.close();
+                }
+                return;
+            }
+            super.userEventTriggered(ctx, evt);
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            log.warn("与服务实例: {} 的连接出现异常: {}", pool.address, cause.getMessage());
+            ctx.close();
+        }
+    }
+}
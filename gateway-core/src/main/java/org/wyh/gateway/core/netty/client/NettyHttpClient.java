@@ -33,6 +33,10 @@ public class NettyHttpClient implements LifeCycle {
     private final Config config;
     //该类维护的AsyncHttpClient对象，用于发送异步http请求
     private AsyncHttpClient asyncHttpClient;
+    //HTTP/2上游客户端，用于访问协议为h2c或h2的服务
+    private Http2UpstreamClient http2Client;
+    //原生上游客户端（只在启用时创建），与网关服务端共用worker eventLoopGroup
+    private NativeHttpClient nativeClient;
     //提供AsyncHttpClient对象需要用到的eventLoopGroup
     private final EventLoopGroup eventLoopGroupWorker;
     /**
@@ -93,16 +97,34 @@ public class NettyHttpClient implements LifeCycle {
                 .setPooledConnectionIdleTimeout(config.getHttpPooledConnectionIdleTimeout());
         //通过传入上述DefaultAsyncHttpClientConfig配置对象来创建相应的AsyncHttpClient对象
         this.asyncHttpClient = new DefaultAsyncHttpClient(builder.build());
+        //HTTP/2上游客户端与AsyncHttpClient共用同一个eventLoopGroup
+        this.http2Client = new Http2UpstreamClient(config, eventLoopGroupWorker);
+        if(config.isNativeHttpClientEnabled()){
+            this.nativeClient = new NativeHttpClient(config, eventLoopGroupWorker);
+        }
     }
 
     @Override
     public void start() {
         //将本类维护的AsyncHttpClient对象传入AsyncHttpHelper对象。
-        AsyncHttpHelper.getInstance().initialized(asyncHttpClient);
+        AsyncHttpHelper.getInstance().initialized(asyncHttpClient, http2Client, nativeClient);
+        http2Client.start();
+        if(nativeClient != null){
+            nativeClient.start();
+        }
+        //启动上游连接的管理（预先建立连接，维护空闲连接等）
+        UpstreamConnectionManager.getInstance().start(asyncHttpClient, http2Client, nativeClient);
     }
 
     @Override
     public void shutdown() {
+        UpstreamConnectionManager.getInstance().shutdown();
+        if (http2Client != null) {
+            http2Client.shutdown();
+        }
+        if (nativeClient != null) {
+            nativeClient.shutdown();
+        }
         if (asyncHttpClient != null) {
             try {
                 //释放AsyncHttpClient对象
@@ -0,0 +1,474 @@
+package org.wyh.gateway.core.netty.client;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+import io.netty.channel.Channel;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import lombok.extern.slf4j.Slf4j;
+import org.asynchttpclient.AsyncCompletionHandlerBase;
+import org.asynchttpclient.AsyncHttpClient;
+import org.asynchttpclient.Request;
+import org.asynchttpclient.RequestBuilder;
+import org.asynchttpclient.Response;
+import org.asynchttpclient.uri.Uri;
+import org.wyh.gateway.common.config.DynamicConfigManager;
+import org.wyh.gateway.common.config.InstanceGroup;
+import org.wyh.gateway.common.config.ServiceInstance;
+import org.wyh.gateway.common.config.ServiceInstanceSnapshot;
+import org.wyh.gateway.core.config.Config;
+import org.wyh.gateway.core.config.ConfigLoader;
+import org.wyh.gateway.core.instance.SelectableInstanceManager;
+import org.wyh.gateway.core.instance.SubsetManager;
+
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @BelongsProject: api-gateway-server
+ * @BelongsPackage: org.wyh.gateway.core.netty.client
+ * @Author: wyh
+ * @Date: 2024-12-16 11:05
+ * @Description: 上游连接管理类，负责按服务实例统计和维护AsyncHttpClient连接池中的连接。
+                 AsyncHttpClient的连接池本身就是按目标主机（ip:port，即服务实例）分区的，这里在其基础上为每个服务实例提供：
+                 1.统计：通过AsyncHandler的连接事件回调，记录每个服务实例正在使用的连接数，空闲连接数，
+                   等待获取连接的请求数，以及建立连接的耗时，并作为指标注册到Micrometer的全局注册中心；
+                 2.预先建立连接：发现新的服务实例时，同时向其发送多个HEAD请求，
+                   AsyncHttpClient会为这些请求建立新的连接，响应结束后连接回到连接池，之后的请求便不需要再建立连接；
+                 3.保持最少空闲连接：定期检查可选服务实例的空闲连接数，不足时以同样的方式补充；
+                 4.下线时排空：服务实例下线时，先关闭其空闲连接，尚未结束的请求不受影响，
+                   等待一个请求超时时间后，再次关闭这些请求归还的连接。
+                 预先建立连接只针对当前网关节点的实例子集，且不包括网关服务本身的实例（即其他网关节点）。
+                 启用了原生上游客户端时，其连接池通过getPoolStats获取并更新同一份统计信息，
+                 预先建立连接和补充空闲连接也改为通过原生上游客户端发送请求（分散到各个EventLoop）。
+ */
+@Slf4j
+public class UpstreamConnectionManager {
+    //网关的核心静态配置
+    private final Config config;
+    //服务实例地址及其连接统计信息的集合
+    private final ConcurrentHashMap<String, PoolStats> pools = new ConcurrentHashMap<>();
+    //发送请求使用的AsyncHttpClient对象
+    private volatile AsyncHttpClient asyncHttpClient;
+    //HTTP/2上游客户端，服务实例下线时同样需要关闭其HTTP/2连接
+    private volatile Http2UpstreamClient http2Client;
+    //原生上游客户端（未启用时为null），服务实例下线时同样需要关闭其连接
+    private volatile NativeHttpClient nativeClient;
+    //维护空闲连接和排空连接的线程
+    private ScheduledExecutorService scheduler;
+    /**
+     * @BelongsProject: api-gateway-server
+     * @BelongsPackage: org.wyh.gateway.core.netty.client
+     * @Author: wyh
+     * @Date: 2024-12-16 11:08
+     * @Description: （静态内部类）单个服务实例的连接统计信息，及其对应的指标（原生上游客户端同样使用）
+     */
+    static final class PoolStats {
+        //服务实例地址
+        private final String address;
+        //已建立（尚未关闭）的连接数
+        private final AtomicInteger open = new AtomicInteger();
+        //正在被请求使用的连接数
+        private final AtomicInteger active = new AtomicInteger();
+        //正在等待获取连接（从连接池中获取，或者建立新连接）的请求数
+        private final AtomicInteger pending = new AtomicInteger();
+        //建立连接的耗时
+        private final Timer connectTimer;
+        //注册的所有指标，服务实例下线时删除
+        private final List<Meter> meters;
+
+        private PoolStats(String address) {
+            this.address = address;
+            this.connectTimer = Timer.builder("gateway.upstream.connect.latency")
+                    .description("与服务实例建立连接的耗时")
+                    .tag("instance", address)
+                    .register(Metrics.globalRegistry);
+            this.meters = Arrays.asList(connectTimer,
+                    Gauge.builder("gateway.upstream.connections.active", active, AtomicInteger::get)
+                            .description("正在被请求使用的连接数")
+                            .tag("instance", address)
+                            .register(Metrics.globalRegistry),
+                    Gauge.builder("gateway.upstream.connections.idle", this, PoolStats::getIdle)
+                            .description("连接池中的空闲连接数")
+                            .tag("instance", address)
+                            .register(Metrics.globalRegistry),
+                    Gauge.builder("gateway.upstream.connections.pending", pending, AtomicInteger::get)
+                            .description("正在等待获取连接的请求数")
+                            .tag("instance", address)
+                            .register(Metrics.globalRegistry));
+        }
+        /**
+         * @date: 2024-12-16 11:10
+         * @description: 获取空闲连接数（已建立的连接中没有被请求使用的部分，并发更新时是近似值）
+         * @return: int
+         */
+        private int getIdle(){
+            return Math.max(open.get() - active.get(), 0);
+        }
+        /**
+         * @date: 2024-12-16 18:50
+         * @description: 连接建立成功时调用，记录建立连接的耗时，并在连接关闭时减少连接数
+         * @Param channel:
+         * @Param connectNanos: 建立连接的耗时（ns）
+         * @return: void
+         */
+        void onConnected(Channel channel, long connectNanos){
+            connectTimer.record(connectNanos, TimeUnit.NANOSECONDS);
+            open.incrementAndGet();
+            channel.closeFuture().addListener(future -> open.decrementAndGet());
+        }
+
+        AtomicInteger getActive() {
+            return active;
+        }
+
+        AtomicInteger getPending() {
+            return pending;
+        }
+    }
+    /**
+     * @BelongsProject: api-gateway-server
+     * @BelongsPackage: org.wyh.gateway.core.netty.client
+     * @Author: wyh
+     * @Date: 2024-12-16 11:12
+     * @Description: （静态内部类）记录连接统计信息的响应处理器，每个请求对应一个实例。
+                     除了统计之外，其行为与AsyncHttpClient默认的响应处理器完全相同。
+                     同一请求的各个回调按顺序发生，但可能位于不同的线程中，因此状态的读写都加锁
+     */
+    private static final class TrackingHandler extends AsyncCompletionHandlerBase {
+        private final PoolStats stats;
+        //是否正在等待获取连接
+        private boolean acquiring;
+        //是否持有连接
+        private boolean holding;
+        //开始建立连接的时间（System.nanoTime）
+        private long connectStart;
+
+        private TrackingHandler(PoolStats stats) {
+            this.stats = stats;
+        }
+
+        @Override
+        public synchronized void onConnectionPoolAttempt() {
+            if(!acquiring){
+                acquiring = true;
+                stats.pending.incrementAndGet();
+            }
+        }
+
+        @Override
+        public synchronized void onConnectionPooled(Channel channel) {
+            acquired();
+        }
+
+        @Override
+        public synchronized void onTcpConnectAttempt(InetSocketAddress remoteAddress) {
+            connectStart = System.nanoTime();
+        }
+
+        @Override
+        public synchronized void onTcpConnectSuccess(InetSocketAddress remoteAddress, Channel channel) {
+            if(connectStart != 0){
+                stats.connectTimer.record(System.nanoTime() - connectStart, TimeUnit.NANOSECONDS);
+                connectStart = 0;
+            }
+            stats.open.incrementAndGet();
+            channel.closeFuture().addListener(future -> stats.open.decrementAndGet());
+            acquired();
+        }
+
+        @Override
+        public synchronized void onTcpConnectFailure(InetSocketAddress remoteAddress, Throwable cause) {
+            connectStart = 0;
+        }
+
+        @Override
+        public synchronized void onRetry() {
+            //请求将在新的连接上重试，原来的连接已不可用
+            release();
+        }
+
+        @Override
+        public Response onCompleted(Response response) throws Exception {
+            synchronized (this){
+                release();
+            }
+            return super.onCompleted(response);
+        }
+
+        @Override
+        public void onThrowable(Throwable t) {
+            synchronized (this){
+                release();
+            }
+            super.onThrowable(t);
+        }
+        /**
+         * @date: 2024-12-16 11:15
+         * @description: 获取到连接时调用
+         * @return: void
+         */
+        private void acquired(){
+            if(acquiring){
+                acquiring = false;
+                stats.pending.decrementAndGet();
+            }
+            if(!holding){
+                holding = true;
+                stats.active.incrementAndGet();
+            }
+        }
+        /**
+         * @date: 2024-12-16 11:16
+         * @description: 请求结束（或放弃当前连接）时调用
+         * @return: void
+         */
+        private void release(){
+            if(acquiring){
+                acquiring = false;
+                stats.pending.decrementAndGet();
+            }
+            if(holding){
+                holding = false;
+                stats.active.decrementAndGet();
+            }
+        }
+    }
+    /**
+     * @BelongsProject: api-gateway-server
+     * @BelongsPackage: org.wyh.gateway.core.netty.client
+     * @Author: wyh
+     * @Date: 2024-12-16 11:18
+     * @Description: 静态内部类，用于实现单例模式
+     */
+    private static class SingletonHolder {
+        private static final UpstreamConnectionManager INSTANCE = new UpstreamConnectionManager();
+    }
+    /**
+     * @date: 2024-12-16 11:19
+     * @description: private修饰的无参构造器
+     * @return: null
+     */
+    private UpstreamConnectionManager(){
+        this.config = ConfigLoader.getConfig();
+    }
+    /**
+     * @date: 2024-12-16 11:19
+     * @description: 获取该类的唯一实例
+     * @return: org.wyh.gateway.core.netty.client.UpstreamConnectionManager
+     */
+    public static UpstreamConnectionManager getInstance(){
+        return SingletonHolder.INSTANCE;
+    }
+    /**
+     * @date: 2024-12-16 11:20
+     * @description: 设置AsyncHttpClient对象，HTTP/2上游客户端和原生上游客户端，并启动空闲连接的定期维护
+     * @Param asyncHttpClient:
+     * @Param http2Client:
+     * @Param nativeClient: 未启用原生上游客户端时为null
+     * @return: void
+     */
+    public synchronized void start(AsyncHttpClient asyncHttpClient, Http2UpstreamClient http2Client,
+                                   NativeHttpClient nativeClient){
+        this.asyncHttpClient = asyncHttpClient;
+        this.http2Client = http2Client;
+        this.nativeClient = nativeClient;
+        if(scheduler != null){
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(new DefaultThreadFactory("upstream-pool", true));
+        if(config.getHttpMinIdleConnections() > 0){
+            long interval = Math.max(config.getHttpPoolMaintenanceInterval(), 100);
+            scheduler.scheduleWithFixedDelay(() -> {
+                try{
+                    maintain();
+                }catch (Throwable t){
+                    log.error("维护服务实例的空闲连接失败", t);
+                }
+            }, interval, interval, TimeUnit.MILLISECONDS);
+        }
+    }
+    /**
+     * @date: 2024-12-16 11:22
+     * @description: 停止空闲连接的维护
+     * @return: void
+     */
+    public synchronized void shutdown(){
+        if(scheduler != null){
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+        asyncHttpClient = null;
+        http2Client = null;
+        nativeClient = null;
+    }
+    /**
+     * @date: 2024-12-16 11:25
+     * @description: 为发往服务实例的请求创建记录连接统计信息的响应处理器
+     * @Param request:
+     * @return: org.asynchttpclient.AsyncCompletionHandlerBase
+     */
+    public AsyncCompletionHandlerBase newHandler(Request request){
+        Uri uri = request.getUri();
+        return new TrackingHandler(getPool(uri.getHost() + ":" + uri.getExplicitPort()));
+    }
+    /**
+     * @date: 2024-12-16 18:52
+     * @description: 获取服务实例的连接统计信息（供原生上游客户端的连接池使用）
+     * @Param address: 服务实例地址（ip:port）
+     * @return: org.wyh.gateway.core.netty.client.UpstreamConnectionManager.PoolStats
+     */
+    PoolStats getPoolStats(String address){
+        return getPool(address);
+    }
+    /**
+     * @date: 2024-12-16 11:26
+     * @description: 获取服务实例的连接统计信息。若不存在，则创建
+     * @Param address:
+     * @return: org.wyh.gateway.core.netty.client.UpstreamConnectionManager.PoolStats
+     */
+    private PoolStats getPool(String address){
+        PoolStats stats = pools.get(address);
+        if(stats == null){
+            stats = pools.computeIfAbsent(address, PoolStats::new);
+        }
+        return stats;
+    }
+    /**
+     * @date: 2024-12-16 11:30
+     * @description: 服务实例变更时调用：向新发现的实例预先建立连接，排空已下线实例的连接
+     * @Param uniqueId:
+     * @Param oldInstances:
+     * @Param newInstances:
+     * @return: void
+     */
+    public void onServiceInstancesChange(String uniqueId, Collection<ServiceInstance> oldInstances,
+                                         Collection<ServiceInstance> newInstances){
+        for (ServiceInstance instance : oldInstances) {
+            if(newInstances == null || !newInstances.contains(instance)){
+                drain(instance.getAddress());
+            }
+        }
+        int count = config.getHttpPreconnectCount();
+        if(count <= 0 || asyncHttpClient == null || SubsetManager.getInstance().isGatewayService(uniqueId)){
+            return;
+        }
+        ServiceInstanceSnapshot snapshot = DynamicConfigManager.getInstance().getServiceInstanceSnapshot(uniqueId);
+        for (boolean gray : new boolean[]{false, true}) {
+            InstanceGroup group = SubsetManager.getInstance().getSubset(uniqueId, gray, snapshot.getGroup(gray));
+            for (int i = 0; i < group.size(); i++) {
+                ServiceInstance instance = group.get(i);
+                if(!oldInstances.contains(instance)){
+                    log.info("发现新的服务实例: {}，预先建立{}个连接", instance.getAddress(), count);
+                    warmUp(instance.getAddress(), count);
+                }
+            }
+        }
+    }
+    /**
+     * @date: 2024-12-16 11:35
+     * @description: 检查所有可选服务实例的空闲连接数，不足时补充
+     * @return: void
+     */
+    private void maintain(){
+        int minIdle = config.getHttpMinIdleConnections();
+        if(asyncHttpClient == null){
+            return;
+        }
+        DynamicConfigManager manager = DynamicConfigManager.getInstance();
+        for (String uniqueId : manager.getServiceDefinitionMap().keySet()) {
+            if(SubsetManager.getInstance().isGatewayService(uniqueId)){
+                continue;
+            }
+            ServiceInstanceSnapshot snapshot = manager.getServiceInstanceSnapshot(uniqueId);
+            for (boolean gray : new boolean[]{false, true}) {
+                InstanceGroup subset = SubsetManager.getInstance().getSubset(uniqueId, gray, snapshot.getGroup(gray));
+                InstanceGroup group = SelectableInstanceManager.getInstance().getSelectableGroup(uniqueId, gray, subset);
+                for (int i = 0; i < group.size(); i++) {
+                    String address = group.get(i).getAddress();
+                    if(getPool(address).getIdle() < minIdle){
+                        //同时发送的请求会先用完已有的空闲连接，再建立新的连接，因此结束后空闲连接数恰好补足
+                        warmUp(address, minIdle);
+                    }
+                }
+            }
+        }
+    }
+    /**
+     * @date: 2024-12-16 11:40
+     * @description: 同时向服务实例发送多个HEAD请求，使连接池中至少有count个与其建立好的连接。
+                     响应的状态码和内容都被忽略，只要连接可以保持，请求结束后便会回到连接池中
+     * @Param address:
+     * @Param count:
+     * @return: void
+     */
+    private void warmUp(String address, int count){
+        AsyncHttpClient client = asyncHttpClient;
+        if(client == null){
+            return;
+        }
+        Request request = new RequestBuilder("HEAD")
+                .setUrl("http://" + address + config.getHttpWarmUpPath())
+                .build();
+        //启用了原生上游客户端时，请求实际使用的是其连接池，因此通过它建立连接（不指定EventLoop，依次分散到各个EventLoop）
+        NativeHttpClient nClient = nativeClient;
+        for (int i = 0; i < count; i++) {
+            try{
+                (nClient != null ? nClient.execute(request, null)
+                        : client.executeRequest(request, newHandler(request)).toCompletableFuture())
+                        .whenComplete((response, throwable) -> {
+                            if(throwable != null){
+                                log.debug("向服务实例: {} 预先建立连接失败: {}", address, throwable.getMessage());
+                            }
+                        });
+            }catch (Exception e){
+                log.debug("向服务实例: {} 预先建立连接失败: {}", address, e.getMessage());
+                return;
+            }
+        }
+    }
+    /**
+     * @date: 2024-12-16 11:45
+     * @description: 排空已下线服务实例的连接：立即关闭空闲连接，尚未结束的请求在请求超时时间内归还的连接稍后再关闭，
+                     最后删除其连接统计信息和指标
+     * @Param address:
+     * @return: void
+     */
+    private void drain(String address){
+        PoolStats stats = pools.remove(address);
+        if(stats != null){
+            for (Meter meter : stats.meters) {
+                Metrics.globalRegistry.remove(meter);
+            }
+        }
+        Http2UpstreamClient h2Client = http2Client;
+        if(h2Client != null){
+            h2Client.close(address);
+        }
+        NativeHttpClient nClient = nativeClient;
+        if(nClient != null){
+            nClient.close(address);
+        }
+        AsyncHttpClient client = asyncHttpClient;
+        if(client == null){
+            return;
+        }
+        //连接池的分区键为目标主机的基础url（如http://ip:port）
+        String suffix = "://" + address;
+        client.flushChannelPoolPartitions(key -> key.toString().endsWith(suffix));
+        ScheduledExecutorService executor = scheduler;
+        if(executor != null){
+            executor.schedule(() -> client.flushChannelPoolPartitions(key -> key.toString().endsWith(suffix)),
+                    config.getHttpRequestTimeout(), TimeUnit.MILLISECONDS);
+        }
+        log.info("服务实例: {} 已下线，排空其连接", address);
+    }
+}
@@ -0,0 +1,107 @@
+package org.wyh.gateway.core.netty.client;
+
+import io.netty.channel.Channel;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaders;
+import org.asynchttpclient.HttpResponseStatus;
+import org.asynchttpclient.Response;
+import org.asynchttpclient.netty.EagerResponseBodyPart;
+import org.asynchttpclient.netty.NettyResponse;
+import org.asynchttpclient.uri.Uri;
+
+import java.net.SocketAddress;
+import java.util.Collections;
+
+/**
+ * @BelongsProject: api-gateway-server
+ * @BelongsPackage: org.wyh.gateway.core.netty.client
+ * @Author: wyh
+ * @Date: 2024-12-16 16:00
+ * @Description: 由netty客户端（HTTP/2上游客户端和原生上游客户端）收到的响应的状态行，用于构建AsyncHttpClient的响应对象，
+                 从而让路由过滤器等组件无需区分发送请求的客户端
+ */
+final class UpstreamResponseStatus extends HttpResponseStatus {
+    //响应状态
+    private final io.netty.handler.codec.http.HttpResponseStatus status;
+    //HTTP协议的主版本号
+    private final int majorVersion;
+    //连接的远程地址和本地地址
+    private final SocketAddress remoteAddress;
+    private final SocketAddress localAddress;
+    /**
+     * @date: 2024-12-16 16:02
+     * @description: 有参构造器
+     * @Param uri:
+     * @Param status:
+     * @Param channel: 与服务实例之间的连接
+     * @Param majorVersion:
+     * @return: null
+     */
+    private UpstreamResponseStatus(Uri uri, io.netty.handler.codec.http.HttpResponseStatus status,
+                                   Channel channel, int majorVersion) {
+        super(uri);
+        this.status = status;
+        this.majorVersion = majorVersion;
+        this.remoteAddress = channel.remoteAddress();
+        this.localAddress = channel.localAddress();
+    }
+    /**
+     * @date: 2024-12-16 16:05
+     * @description: 将netty聚合后的完整响应转换为AsyncHttpClient的响应对象（响应体会被复制，原响应仍由调用方释放）。
+                     写回客户端的是HTTP/1.1响应，因此响应没有携带Content-Length时（如HTTP/2响应），按响应体的长度设置
+     * @Param uri:
+     * @Param msg:
+     * @Param channel: 与服务实例之间的连接
+     * @Param majorVersion: HTTP协议的主版本号
+     * @return: org.asynchttpclient.Response
+     */
+    static Response toResponse(Uri uri, FullHttpResponse msg, Channel channel, int majorVersion){
+        HttpHeaders headers = msg.headers();
+        if(!headers.contains(HttpHeaderNames.CONTENT_LENGTH)){
+            headers.setInt(HttpHeaderNames.CONTENT_LENGTH, msg.content().readableBytes());
+        }
+        return new NettyResponse(new UpstreamResponseStatus(uri, msg.status(), channel, majorVersion),
+                headers, Collections.singletonList(new EagerResponseBodyPart(msg.content(), true)));
+    }
+
+    @Override
+    public int getStatusCode() {
+        return status.code();
+    }
+
+    @Override
+    public String getStatusText() {
+        return status.reasonPhrase();
+    }
+
+    @Override
+    public String getProtocolName() {
+        return "HTTP";
+    }
+
+    @Override
+    public int getProtocolMajorVersion() {
+        return majorVersion;
+    }
+
+    @Override
+    public int getProtocolMinorVersion() {
+        return majorVersion == 1 ? 1 : 0;
+    }
+
+    @Override
+    public String getProtocolText() {
+        return "HTTP/" + majorVersion + "." + getProtocolMinorVersion();
+    }
+
+    @Override
+    public SocketAddress getRemoteAddress() {
+        return remoteAddress;
+    }
+
+    @Override
+    public SocketAddress getLocalAddress() {
+        return localAddress;
+    }
+}
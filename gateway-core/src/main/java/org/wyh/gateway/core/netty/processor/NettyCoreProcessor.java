@@ -8,7 +8,7 @@ import io.netty.util.ReferenceCountUtil;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.skywalking.apm.toolkit.trace.Trace;
 import org.wyh.gateway.common.enumeration.ResponseCode;
-import org.wyh.gateway.common.exception.*;
+import org.wyh.gateway.common.exception.BaseException;
 import org.wyh.gateway.core.config.Config;
 import org.wyh.gateway.core.context.GatewayContext;
 import org.wyh.gateway.core.filter.common.chainfactory.GatewayFilterChainFactory;
@@ -41,33 +41,28 @@ public class NettyCoreProcessor implements NettyProcessor{
     }
     @Override
     public void process(HttpRequestWrapper requestWrapper) {
-        ChannelHandlerContext nettyCtx = requestWrapper.getNettyCtx();
-        FullHttpRequest fullRequest = requestWrapper.getFullHttpRequest();
         try {
-            //解析请求对象，构建该请求在网关中的上下文对象（GatewayContext对象）
-            GatewayContext gatewayContext = RequestHelper.doContext(fullRequest, nettyCtx);
+            /*
+             * 解析请求对象，构建该请求在网关中的上下文对象（GatewayContext对象）
+             * 若请求在构建上下文之前就被拒绝（例如路径不匹配），则doContext方法会直接写回响应，并返回null
+             */
+            GatewayContext gatewayContext = RequestHelper.doContext(requestWrapper);
+            if(gatewayContext == null){
+                return;
+            }
             //执行（正常情况的）过滤器链，对网关上下文进行过滤处理，最终通过路由过滤器发送请求和接收响应。
             filterChainFactory.doFilterChain(gatewayContext);
             /*
-             * 注意：FilterChainFactory.doFilterChain方法并不会向上抛异常
-             * 所以此处捕获的实际上是RequestHelper.doContext抛出的异常
+             * 注意：FilterChainFactory.doFilterChain方法并不会向上抛异常，
+             * RequestHelper.doContext也不会因为预期内的结果（如路径不匹配）抛异常，
+             * 所以此处捕获的实际上是真正的程序错误
              */
-        }catch (ConnectException ce){
-            log.error("服务: {}的连接请求: {}出现异常", ce.getUniqueId(), ce.getRequestUrl());
+        }catch (BaseException be){
+            log.error("请求处理出现异常: {}", be.getCode().getMessage());
             //写回响应。（注意：此时还不一定构建了上下文对象）
-            ResponseHelper.writeResponse(requestWrapper, ce.getCode());
-        }catch (NotFoundException nfe){
-            log.error("未找到服务: {}的资源实例", nfe.getUniqueId());
-            ResponseHelper.writeResponse(requestWrapper, nfe.getCode());
-        }catch (PathNoMatchedException pe){
-            log.error("请求路径: {} 与服务: {} 的规则: {} 不匹配",
-                    pe.getPath(), pe.getUniqueId(), pe.getPatternPath());
-            ResponseHelper.writeResponse(requestWrapper, pe.getCode());
-        }catch (ResponseException re){
-            log.error("服务: {}响应异常 :{}", re.getUniqueId(), re.getCode().getMessage());
-            ResponseHelper.writeResponse(requestWrapper, re.getCode());
+            ResponseHelper.writeResponse(requestWrapper, be.getCode());
         } catch (Throwable t) {
-            log.error("网关内部出现未知异常");
+            log.error("网关内部出现未知异常", t);
             ResponseHelper.writeResponse(requestWrapper, ResponseCode.INTERNAL_ERROR);
         }
     }
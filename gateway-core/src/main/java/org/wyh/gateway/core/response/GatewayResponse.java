@@ -1,6 +1,7 @@
 package org.wyh.gateway.core.response;
 
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.netty.buffer.ByteBuf;
 import io.netty.handler.codec.http.*;
 import lombok.Getter;
 import lombok.Setter;
@@ -30,6 +31,8 @@ public class GatewayResponse {
     private HttpResponseStatus httpResponseStatus;
     //AsyncHttpClient框架接收的原始响应对象
     private Response futureResponse;
+    //响应缓存中保存的响应体（由缓存命中或重新验证的响应使用，此时标准响应头即为缓存的响应头）
+    private ByteBuf cachedContent;
 
 
     /**
@@ -73,6 +76,21 @@ public class GatewayResponse {
         gatewayResponse.setFutureResponse(futureResponse);
         return gatewayResponse;
     }
+    /**
+     * @date: 2024-12-16 17:35
+     * @description: 根据响应缓存中保存的响应信息构建网关响应对象
+     * @Param status: 响应状态码
+     * @Param headers: 缓存的响应头
+     * @Param content: 缓存的响应体
+     * @return: org.wyh.gateway.core.response.GatewayResponse
+     */
+    public static GatewayResponse buildGatewayResponse(HttpResponseStatus status, HttpHeaders headers, ByteBuf content){
+        GatewayResponse gatewayResponse = new GatewayResponse();
+        gatewayResponse.setHttpResponseStatus(status);
+        gatewayResponse.setResponseHeaders(headers);
+        gatewayResponse.setCachedContent(content);
+        return gatewayResponse;
+    }
     /**
      * @date: 2024-01-10 16:00
      * @description: 根据异常响应码，构建一个响应信息为json类型的网关响应对象
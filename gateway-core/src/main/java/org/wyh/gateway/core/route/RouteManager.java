@@ -0,0 +1,139 @@
+package org.wyh.gateway.core.route;
+
+import io.netty.util.concurrent.DefaultThreadFactory;
+import lombok.extern.slf4j.Slf4j;
+import org.wyh.gateway.common.config.ServiceDefinition;
+import org.wyh.gateway.core.config.ConfigLoader;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * @BelongsProject: api-gateway-server
+ * @BelongsPackage: org.wyh.gateway.core.route
+ * @Author: wyh
+ * @Date: 2024-12-09 11:20
+ * @Description: 路由管理类，负责保存各服务编译好的路由信息，以及全局路由表。
+                 服务定义通过注册中心到达（或发生变更）时，重新编译该服务的路由信息，并整体替换掉原有的路由信息，
+                 同时重建全局路由表，并通过volatile变量原子地替换原有的路由表快照，
+                 因此处理请求的线程总是能看到一份完整的路由信息，并且查找时不需要加锁。
+                 全局路由表的重建会延迟一小段时间（routeTableRebuildDelay）并合并执行，
+                 避免网关启动或大量服务同时变更时，每个服务定义都重建一次整个路由表。
+                 在此期间，新的服务定义已经可以通过uniqueId访问，只是暂时不能通过全局路由表查找。
+ */
+@Slf4j
+public class RouteManager {
+    //保存服务唯一id及其路由信息的集合
+    private final ConcurrentHashMap<String, ServiceRoute> serviceRouteMap = new ConcurrentHashMap<>();
+    //全局路由表的当前快照
+    private volatile RouteTable routeTable = RouteTable.EMPTY;
+    //是否已经安排了全局路由表的重建
+    private final AtomicBoolean rebuildScheduled = new AtomicBoolean();
+    //负责延迟重建全局路由表的线程
+    private final ScheduledExecutorService scheduler =
+            Executors.newSingleThreadScheduledExecutor(new DefaultThreadFactory("route-table-rebuild", true));
+    /**
+     * @BelongsProject: api-gateway-server
+     * @BelongsPackage: org.wyh.gateway.core.route
+     * @Author: wyh
+     * @Date: 2024-12-09 11:22
+     * @Description: 静态内部类，用于实现单例模式
+     */
+    private static class SingletonHolder {
+        private static final RouteManager INSTANCE = new RouteManager();
+    }
+    /**
+     * @date: 2024-12-09 11:23
+     * @description: private修饰的无参构造器
+     * @return: null
+     */
+    private RouteManager(){
+    }
+    /**
+     * @date: 2024-12-09 11:24
+     * @description: 获取该类的唯一实例
+     * @return: org.wyh.gateway.core.route.RouteManager
+     */
+    public static RouteManager getInstance(){
+        return SingletonHolder.INSTANCE;
+    }
+    /**
+     * @date: 2024-12-09 11:25
+     * @description: 编译服务定义对应的路由信息，并替换掉该服务原有的路由信息
+     * @Param serviceDefinition:
+     * @return: void
+     */
+    public void putServiceDefinition(ServiceDefinition serviceDefinition){
+        ServiceRoute serviceRoute = new ServiceRoute(serviceDefinition);
+        serviceRouteMap.put(serviceDefinition.getUniqueId(), serviceRoute);
+        scheduleRebuild();
+        log.info("服务: {} 的路由编译完成，共包含{}个方法调用",
+                serviceDefinition.getUniqueId(), serviceRoute.getInvokerTrie().size());
+    }
+    /**
+     * @date: 2024-12-09 11:27
+     * @description: 获取指定服务的路由信息
+     * @Param uniqueId:
+     * @return: org.wyh.gateway.core.route.ServiceRoute
+     */
+    public ServiceRoute getServiceRoute(String uniqueId){
+        return serviceRouteMap.get(uniqueId);
+    }
+    /**
+     * @date: 2024-12-09 11:28
+     * @description: 删除指定服务的路由信息（服务已下线）
+     * @Param uniqueId:
+     * @return: void
+     */
+    public void removeServiceRoute(String uniqueId){
+        if(serviceRouteMap.remove(uniqueId) != null){
+            scheduleRebuild();
+            log.info("服务: {} 的路由信息已删除", uniqueId);
+        }
+    }
+    /**
+     * @date: 2024-12-16 19:05
+     * @description: 安排全局路由表的重建。已经安排但尚未执行时不再重复安排，之后的变更由该次重建一并处理
+     * @return: void
+     */
+    private void scheduleRebuild(){
+        int delay = ConfigLoader.getConfig().getRouteTableRebuildDelay();
+        if(delay <= 0){
+            rebuildRouteTable();
+            return;
+        }
+        if(rebuildScheduled.compareAndSet(false, true)){
+            scheduler.schedule(() -> {
+                //先清除标记再重建，重建期间到达的变更会再安排一次重建，不会被遗漏
+                rebuildScheduled.set(false);
+                rebuildRouteTable();
+            }, delay, TimeUnit.MILLISECONDS);
+        }
+    }
+    /**
+     * @date: 2024-12-16 19:06
+     * @description: 根据当前所有服务的路由信息重建全局路由表，并替换原有的路由表快照
+     * @return: void
+     */
+    private synchronized void rebuildRouteTable(){
+        try{
+            routeTable = RouteTable.build(serviceRouteMap.values());
+        }catch (Exception e){
+            log.error("全局路由表重建失败", e);
+        }
+    }
+    /**
+     * @date: 2024-12-10 10:40
+     * @description: 在请求未携带uniqueId时，根据Host，请求路径和版本号，从全局路由表中确定目标服务
+     * @Param host:
+     * @Param path:
+     * @Param version: 为null表示选择最高版本
+     * @return: org.wyh.gateway.core.route.ServiceRoute 若未找到，则返回null
+     */
+    public ServiceRoute resolveServiceRoute(String host, String path, String version){
+        return routeTable.resolve(host, path, version);
+    }
+}
@@ -0,0 +1,127 @@
+package org.wyh.gateway.core.route;
+
+/**
+ * @BelongsProject: api-gateway-server
+ * @BelongsPackage: org.wyh.gateway.core.route
+ * @Author: wyh
+ * @Date: 2024-12-09 9:30
+ * @Description: 路由匹配结果。包括匹配到的路由值（如方法调用对象），路由模式，以及路径变量的捕获结果。
+                 路径变量只以偏移量的形式记录在请求路径上，只有在真正获取变量值时才会截取对应的子串，
+                 因此匹配过程中不会创建任何对象。
+                 注意：该类是可变的，只能在处理单个请求的过程中使用，不能在多个请求之间共享。
+                 （例外：RouteTrie为不含路径变量的路由预先创建的匹配结果在构建后不再修改，由所有请求共享）
+ */
+public final class RouteMatch<V> {
+    //没有路径变量时共享的空偏移量数组
+    private static final int[] EMPTY_OFFSETS = new int[0];
+    //路径变量在请求路径中的起止偏移量。第i个变量的起始位置为offsets[2i]，结束位置为offsets[2i+1]
+    private final int[] offsets;
+    //请求路径
+    private String path;
+    //匹配到的路由值
+    private V value;
+    //匹配到的路由模式
+    private String pattern;
+    //匹配到的路由模式中的路径变量名称，按出现顺序排列
+    private String[] variableNames;
+    /**
+     * @date: 2024-12-09 9:35
+     * @description: 有参构造器
+     * @Param maxVariableCount: 路由模式中路径变量的最大数量
+     * @return: null
+     */
+    RouteMatch(int maxVariableCount){
+        this.offsets = maxVariableCount == 0 ? EMPTY_OFFSETS : new int[maxVariableCount * 2];
+    }
+    /**
+     * @date: 2024-12-09 9:36
+     * @description: 记录第index个路径变量的起止偏移量
+     * @Param index:
+     * @Param start:
+     * @Param end:
+     * @return: void
+     */
+    void capture(int index, int start, int end){
+        offsets[index * 2] = start;
+        offsets[index * 2 + 1] = end;
+    }
+    /**
+     * @date: 2024-12-09 9:38
+     * @description: 记录匹配成功的结果
+     * @Param path:
+     * @Param value:
+     * @Param pattern:
+     * @Param variableNames:
+     * @return: void
+     */
+    void complete(String path, V value, String pattern, String[] variableNames){
+        this.path = path;
+        this.value = value;
+        this.pattern = pattern;
+        this.variableNames = variableNames;
+    }
+
+    /**
+     * @date: 2024-12-16 19:24
+     * @description: 以当前记录的偏移量，创建一个只包含指定路由路径变量的匹配结果
+     * @Param path:
+     * @Param value:
+     * @Param pattern:
+     * @Param variableNames:
+     * @return: org.wyh.gateway.core.route.RouteMatch<V>
+     */
+    RouteMatch<V> copy(String path, V value, String pattern, String[] variableNames){
+        RouteMatch<V> routeMatch = new RouteMatch<>(variableNames.length);
+        System.arraycopy(offsets, 0, routeMatch.offsets, 0, variableNames.length * 2);
+        routeMatch.complete(path, value, pattern, variableNames);
+        return routeMatch;
+    }
+
+    public V getValue() {
+        return value;
+    }
+
+    public String getPattern() {
+        return pattern;
+    }
+    /**
+     * @date: 2024-12-09 9:40
+     * @description: 获取路径变量的数量
+     * @return: int
+     */
+    public int getVariableCount(){
+        return variableNames == null ? 0 : variableNames.length;
+    }
+    /**
+     * @date: 2024-12-09 9:41
+     * @description: 获取第index个路径变量的名称
+     * @Param index:
+     * @return: java.lang.String
+     */
+    public String getVariableName(int index){
+        return variableNames[index];
+    }
+    /**
+     * @date: 2024-12-09 9:42
+     * @description: 获取第index个路径变量的值
+     * @Param index:
+     * @return: java.lang.String
+     */
+    public String getVariable(int index){
+        return path.substring(offsets[index * 2], offsets[index * 2 + 1]);
+    }
+    /**
+     * @date: 2024-12-09 9:43
+     * @description: 根据名称获取路径变量的值
+     * @Param name:
+     * @return: java.lang.String 若不存在该变量，则返回null
+     */
+    public String getVariable(String name){
+        for (int i = 0; i < getVariableCount(); i++) {
+            if(variableNames[i].equals(name)){
+                return getVariable(i);
+            }
+        }
+        return null;
+    }
+}
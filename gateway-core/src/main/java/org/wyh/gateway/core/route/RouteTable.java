@@ -0,0 +1,173 @@
+package org.wyh.gateway.core.route;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import org.wyh.gateway.common.config.ServiceDefinition;
+
+import java.util.*;
+
+/**
+ * @BelongsProject: api-gateway-server
+ * @BelongsPackage: org.wyh.gateway.core.route
+ * @Author: wyh
+ * @Date: 2024-12-10 10:00
+ * @Description: 全局路由表，用于在请求未携带uniqueId时，根据Host，请求路径和版本号确定目标服务。
+                 路由表由所有服务定义的匹配规则（patternPath）构建而成：
+                 绑定了域名的服务按域名分组，每个域名对应一棵前缀树；未绑定域名的服务放在默认前缀树中。
+                 匹配规则相同的多个服务（通常是同一服务的不同版本）作为同一路由的候选服务，按版本号从高到低排列。
+                 路由表是不可变的快照，服务定义变更时会整体重建并原子地替换，查找时不需要加锁，
+                 查找的开销只与Host和请求路径的长度有关，与服务的数量无关。
+ */
+@Slf4j
+public final class RouteTable {
+    //空路由表
+    static final RouteTable EMPTY = new RouteTable(Collections.emptyMap(), null);
+    //域名及其对应前缀树的集合（域名均为小写）
+    private final Map<String, RouteTrie<ServiceRoute[]>> hostTrieMap;
+    //未绑定域名的服务构成的前缀树
+    private final RouteTrie<ServiceRoute[]> defaultTrie;
+    /**
+     * @date: 2024-12-10 10:05
+     * @description: private修饰的构造器，只能通过build方法构建
+     * @Param hostTrieMap:
+     * @Param defaultTrie:
+     * @return: null
+     */
+    private RouteTable(Map<String, RouteTrie<ServiceRoute[]>> hostTrieMap, RouteTrie<ServiceRoute[]> defaultTrie){
+        this.hostTrieMap = hostTrieMap;
+        this.defaultTrie = defaultTrie;
+    }
+    /**
+     * @date: 2024-12-10 10:10
+     * @description: 根据所有服务的路由信息构建路由表。
+                     未设置匹配规则，已禁用，或匹配规则无法编译为前缀树的服务不会加入路由表（仍可通过uniqueId访问）
+     * @Param serviceRoutes:
+     * @return: org.wyh.gateway.core.route.RouteTable
+     */
+    static RouteTable build(Collection<ServiceRoute> serviceRoutes){
+        //域名 -> 匹配规则 -> 候选服务
+        Map<String, Map<String, List<ServiceRoute>>> grouped = new HashMap<>();
+        for (ServiceRoute serviceRoute : serviceRoutes) {
+            ServiceDefinition serviceDefinition = serviceRoute.getServiceDefinition();
+            if(!serviceDefinition.isEnable() || StringUtils.isBlank(serviceDefinition.getPatternPath())){
+                continue;
+            }
+            String host = StringUtils.isBlank(serviceDefinition.getHost()) ? "" :
+                    serviceDefinition.getHost().trim().toLowerCase();
+            grouped.computeIfAbsent(host, key -> new HashMap<>())
+                    .computeIfAbsent(serviceDefinition.getPatternPath().trim(), key -> new ArrayList<>())
+                    .add(serviceRoute);
+        }
+        Map<String, RouteTrie<ServiceRoute[]>> hostTrieMap = new HashMap<>();
+        RouteTrie<ServiceRoute[]> defaultTrie = null;
+        for (Map.Entry<String, Map<String, List<ServiceRoute>>> hostEntry : grouped.entrySet()) {
+            RouteTrie.Builder<ServiceRoute[]> builder = new RouteTrie.Builder<>();
+            for (Map.Entry<String, List<ServiceRoute>> patternEntry : hostEntry.getValue().entrySet()) {
+                List<ServiceRoute> candidates = patternEntry.getValue();
+                //按版本号从高到低排列，未指定版本号时默认选择最高版本
+                candidates.sort((a, b) -> compareVersion(b.getServiceDefinition().getVersion(),
+                        a.getServiceDefinition().getVersion()));
+                try{
+                    builder.add(patternEntry.getKey(), candidates.toArray(new ServiceRoute[0]));
+                }catch (IllegalArgumentException e){
+                    log.warn("匹配规则: {} 无法加入全局路由表，只能通过uniqueId访问: {}", patternEntry.getKey(), e.getMessage());
+                }
+            }
+            if(hostEntry.getKey().isEmpty()){
+                defaultTrie = builder.build();
+            }else{
+                hostTrieMap.put(hostEntry.getKey(), builder.build());
+            }
+        }
+        return new RouteTable(hostTrieMap, defaultTrie);
+    }
+    /**
+     * @date: 2024-12-10 10:20
+     * @description: 根据Host，请求路径和版本号确定目标服务。
+                     先在Host对应的前缀树中查找，找不到时再到默认前缀树中查找
+     * @Param host: 请求头中的Host（可以包含端口号）
+     * @Param path: 请求路径
+     * @Param version: 请求头中指定的版本号，为null表示选择最高版本
+     * @return: org.wyh.gateway.core.route.ServiceRoute 若未找到，则返回null
+     */
+    public ServiceRoute resolve(String host, String path, String version){
+        if(host != null && !hostTrieMap.isEmpty()){
+            RouteTrie<ServiceRoute[]> hostTrie = hostTrieMap.get(normalizeHost(host));
+            if(hostTrie != null){
+                ServiceRoute serviceRoute = select(hostTrie.lookup(path), version);
+                if(serviceRoute != null){
+                    return serviceRoute;
+                }
+            }
+        }
+        return defaultTrie == null ? null : select(defaultTrie.lookup(path), version);
+    }
+    /**
+     * @date: 2024-12-10 10:25
+     * @description: 从候选服务中选择目标服务
+     * @Param candidates: 按版本号从高到低排列的候选服务
+     * @Param version:
+     * @return: org.wyh.gateway.core.route.ServiceRoute
+     */
+    private static ServiceRoute select(ServiceRoute[] candidates, String version){
+        if(candidates == null){
+            return null;
+        }
+        if(version == null){
+            return candidates[0];
+        }
+        for (ServiceRoute candidate : candidates) {
+            if(version.equals(candidate.getServiceDefinition().getVersion())){
+                return candidate;
+            }
+        }
+        return null;
+    }
+    /**
+     * @date: 2024-12-10 10:28
+     * @description: 去掉Host中的端口号，并转换为小写（只有确实需要时才会创建新的字符串）
+     * @Param host:
+     * @return: java.lang.String
+     */
+    private static String normalizeHost(String host){
+        int colon = host.lastIndexOf(':');
+        //IPv6地址形式的Host（如[::1]:8888）只在最后一个冒号位于]之后时才包含端口号
+        if(colon > 0 && host.indexOf(']') < colon){
+            host = host.substring(0, colon);
+        }
+        for (int i = 0; i < host.length(); i++) {
+            if(Character.isUpperCase(host.charAt(i))){
+                return host.toLowerCase();
+            }
+        }
+        return host;
+    }
+    /**
+     * @date: 2024-12-10 10:30
+     * @description: 比较两个版本号。按.分隔后逐段比较，数字段按数值比较，其他段按字典序比较
+     * @Param v1:
+     * @Param v2:
+     * @return: int
+     */
+    static int compareVersion(String v1, String v2){
+        if(v1 == null || v2 == null){
+            return v1 == null ? (v2 == null ? 0 : -1) : 1;
+        }
+        String[] parts1 = v1.split("\\.");
+        String[] parts2 = v2.split("\\.");
+        for (int i = 0; i < Math.max(parts1.length, parts2.length); i++) {
+            String p1 = i < parts1.length ? parts1[i] : "0";
+            String p2 = i < parts2.length ? parts2[i] : "0";
+            int result;
+            if(StringUtils.isNumeric(p1) && StringUtils.isNumeric(p2)){
+                result = Long.compare(Long.parseLong(p1), Long.parseLong(p2));
+            }else{
+                result = p1.compareTo(p2);
+            }
+            if(result != 0){
+                return result;
+            }
+        }
+        return 0;
+    }
+}
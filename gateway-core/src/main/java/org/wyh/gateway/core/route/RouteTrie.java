@@ -0,0 +1,370 @@
+package org.wyh.gateway.core.route;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * @BelongsProject: api-gateway-server
+ * @BelongsPackage: org.wyh.gateway.core.route
+ * @Author: wyh
+ * @Date: 2024-12-09 10:00
+ * @Description: 按路径分段（以/分隔）构建的路由前缀树，在服务定义发生变更时构建，构建完成后不可变，可以被多个线程共享。
+                 路由模式的每一段可以是：
+                 字面量，如orders；
+                 路径变量，如{id}，匹配任意单段路径，并捕获其值；
+                 *，匹配任意单段路径；
+                 **，匹配任意多段路径（包括零段）。
+                 匹配时的优先级为：字面量 > 路径变量 > * > **，只有当高优先级的分支无法完成匹配时，才会回退尝试低优先级的分支。
+                 字面量子节点保存在开放寻址的哈希表中，查找时直接在请求路径上计算对应分段的哈希值，并逐字符比较，
+                 所以匹配过程不需要截取子串，也不会创建任何对象，匹配的开销只与请求路径的长度有关，与路由的数量无关。
+                 不含路径变量的路由在构建时就创建好共享的匹配结果；含路径变量的路由先在线程私有的匹配结果中记录偏移量，
+                 匹配成功后才复制出该请求自己的匹配结果，因此只有捕获了路径变量的请求才会创建匹配结果对象。
+ */
+public final class RouteTrie<V> {
+    //根节点
+    private final Node<V> root;
+    //所有路由模式中路径变量的最大数量（用于创建大小合适的匹配结果对象）
+    private final int maxVariableCount;
+    //路由的数量
+    private final int size;
+    //线程私有的匹配结果，只在单次匹配的过程中用于记录路径变量的偏移量
+    private final ThreadLocal<RouteMatch<V>> scratch = ThreadLocal.withInitial(this::newMatch);
+    /**
+     * @date: 2024-12-09 10:05
+     * @description: private修饰的构造器，只能通过Builder构建
+     * @Param root:
+     * @Param maxVariableCount:
+     * @Param size:
+     * @return: null
+     */
+    private RouteTrie(Node<V> root, int maxVariableCount, int size){
+        this.root = root;
+        this.maxVariableCount = maxVariableCount;
+        this.size = size;
+    }
+    /**
+     * @BelongsProject: api-gateway-server
+     * @BelongsPackage: org.wyh.gateway.core.route
+     * @Author: wyh
+     * @Date: 2024-12-09 10:10
+     * @Description: （静态内部类）前缀树的节点。构建阶段使用HashMap保存字面量子节点，构建完成后转换为数组形式的哈希表。
+     */
+    private static final class Node<V> {
+        //构建阶段使用的字面量子节点集合
+        private Map<String, Node<V>> literalMap = new HashMap<>();
+        //字面量子节点哈希表的key和value（长度为2的幂）
+        private String[] literalKeys;
+        private Node<V>[] literalNodes;
+        //路径变量子节点
+        private Node<V> variableChild;
+        //*子节点
+        private Node<V> starChild;
+        //**子节点
+        private Node<V> doubleStarChild;
+        //若某个路由模式在该节点结束，则保存该路由的值，模式和路径变量名称
+        private V value;
+        private String pattern;
+        private String[] variableNames;
+        //不含路径变量的路由共享的匹配结果（构建完成后不再修改）
+        private RouteMatch<V> sharedMatch;
+        /**
+         * @date: 2024-12-09 10:15
+         * @description: 将字面量子节点转换为开放寻址的哈希表，并递归处理所有子节点
+         * @return: void
+         */
+        private void freeze(){
+            int capacity = 2;
+            //保证装载因子不超过0.5
+            while(capacity < literalMap.size() * 2){
+                capacity <<= 1;
+            }
+            literalKeys = new String[capacity];
+            literalNodes = newNodeArray(capacity);
+            if(value != null && variableNames.length == 0){
+                sharedMatch = new RouteMatch<>(0);
+                sharedMatch.complete(null, value, pattern, variableNames);
+            }
+            for (Map.Entry<String, Node<V>> entry : literalMap.entrySet()) {
+                int index = spread(entry.getKey().hashCode()) & (capacity - 1);
+                while(literalKeys[index] != null){
+                    index = (index + 1) & (capacity - 1);
+                }
+                literalKeys[index] = entry.getKey();
+                literalNodes[index] = entry.getValue();
+                entry.getValue().freeze();
+            }
+            literalMap = null;
+            if(variableChild != null){
+                variableChild.freeze();
+            }
+            if(starChild != null){
+                starChild.freeze();
+            }
+            if(doubleStarChild != null){
+                doubleStarChild.freeze();
+            }
+        }
+        /**
+         * @date: 2024-12-09 10:20
+         * @description: 查找与请求路径中[start, end)区间的分段相同的字面量子节点
+         * @Param path:
+         * @Param start:
+         * @Param end:
+         * @return: org.wyh.gateway.core.route.RouteTrie.Node<V>
+         */
+        private Node<V> findLiteral(String path, int start, int end){
+            //与String.hashCode的计算方式一致
+            int hash = 0;
+            for (int i = start; i < end; i++) {
+                hash = 31 * hash + path.charAt(i);
+            }
+            int mask = literalKeys.length - 1;
+            int length = end - start;
+            for (int index = spread(hash) & mask; ; index = (index + 1) & mask) {
+                String key = literalKeys[index];
+                if(key == null){
+                    return null;
+                }
+                if(key.length() == length && path.regionMatches(start, key, 0, length)){
+                    return literalNodes[index];
+                }
+            }
+        }
+    }
+    /**
+     * @date: 2024-12-16 19:20
+     * @description: 创建指定长度的节点数组。Java不能直接创建泛型数组，只能创建原始类型的数组再转换，
+                     该数组只在Node内部使用，并且只会存放Node<V>，因此转换是安全的
+     * @Param capacity:
+     * @return: org.wyh.gateway.core.route.RouteTrie.Node<V>[]
+     */
+    @SuppressWarnings("unchecked")
+    private static <V> Node<V>[] newNodeArray(int capacity){
+        return (Node<V>[]) new Node<?>[capacity];
+    }
+    /**
+     * @date: 2024-12-09 10:22
+     * @description: 扰动哈希值，使高位也参与计算哈希表的下标
+     * @Param hash:
+     * @return: int
+     */
+    private static int spread(int hash){
+        return hash ^ (hash >>> 16);
+    }
+    /**
+     * @date: 2024-12-09 10:25
+     * @description: 创建一个大小合适的匹配结果对象，用于之后的match方法
+     * @return: org.wyh.gateway.core.route.RouteMatch<V>
+     */
+    public RouteMatch<V> newMatch(){
+        return new RouteMatch<>(maxVariableCount);
+    }
+    /**
+     * @date: 2024-12-09 10:26
+     * @description: 获取路由的数量
+     * @return: int
+     */
+    public int size(){
+        return size;
+    }
+    /**
+     * @date: 2024-12-09 10:28
+     * @description: 将请求路径与前缀树中的路由进行匹配，并将匹配结果写入指定的匹配结果对象中。该方法不会创建任何对象。
+     * @Param path: 请求路径（必须以/开头）
+     * @Param routeMatch: 由newMatch方法创建的匹配结果对象。若为null，则只判断是否匹配，不记录匹配结果
+     * @return: boolean 是否匹配成功
+     */
+    public boolean match(String path, RouteMatch<V> routeMatch){
+        Node<V> node = find(path, routeMatch);
+        if(node == null){
+            return false;
+        }
+        if(routeMatch != null){
+            routeMatch.complete(path, node.value, node.pattern, node.variableNames);
+        }
+        return true;
+    }
+    /**
+     * @date: 2024-12-16 19:22
+     * @description: 将请求路径与前缀树中的路由进行匹配，并返回匹配结果。
+                     匹配到不含路径变量的路由时返回共享的匹配结果，不会创建任何对象；
+                     否则返回只属于该请求的匹配结果（只包含该路由的路径变量）
+     * @Param path: 请求路径（必须以/开头）
+     * @return: org.wyh.gateway.core.route.RouteMatch<V> 若未匹配到任何路由，则返回null
+     */
+    public RouteMatch<V> match(String path){
+        if(maxVariableCount == 0){
+            Node<V> node = find(path, null);
+            return node == null ? null : node.sharedMatch;
+        }
+        RouteMatch<V> buffer = scratch.get();
+        Node<V> node = find(path, buffer);
+        if(node == null){
+            return null;
+        }
+        if(node.sharedMatch != null){
+            return node.sharedMatch;
+        }
+        return buffer.copy(path, node.value, node.pattern, node.variableNames);
+    }
+    /**
+     * @date: 2024-12-10 9:30
+     * @description: 查找与请求路径匹配的路由值（不捕获路径变量）。该方法不会创建任何对象。
+     * @Param path: 请求路径（必须以/开头）
+     * @return: V 若未匹配到任何路由，则返回null
+     */
+    public V lookup(String path){
+        Node<V> node = find(path, null);
+        return node == null ? null : node.value;
+    }
+    /**
+     * @date: 2024-12-10 9:32
+     * @description: 查找与请求路径匹配的路由模式的结束节点
+     * @Param path:
+     * @Param routeMatch: 用于记录路径变量的匹配结果对象，可以为null
+     * @return: org.wyh.gateway.core.route.RouteTrie.Node<V>
+     */
+    private Node<V> find(String path, RouteMatch<V> routeMatch){
+        if(path == null || path.isEmpty() || path.charAt(0) != '/'){
+            return null;
+        }
+        return match(root, path, 0, routeMatch, 0);
+    }
+    /**
+     * @date: 2024-12-09 10:30
+     * @description: 从指定节点开始，递归匹配请求路径的剩余部分
+     * @Param node: 当前节点
+     * @Param path: 请求路径
+     * @Param pos: 剩余部分的起始位置（指向分隔下一段的/，或等于路径长度表示已经匹配完）
+     * @Param routeMatch:
+     * @Param variableIndex: 下一个路径变量的序号
+     * @return: org.wyh.gateway.core.route.RouteTrie.Node<V> 路由模式的结束节点。若匹配失败，则返回null
+     */
+    private static <V> Node<V> match(Node<V> node, String path, int pos, RouteMatch<V> routeMatch, int variableIndex){
+        int length = path.length();
+        if(pos == length){
+            if(node.value != null){
+                return node;
+            }
+            //**可以匹配零段路径
+            return node.doubleStarChild == null ? null
+                    : match(node.doubleStarChild, path, pos, routeMatch, variableIndex);
+        }
+        Node<V> result;
+        //当前分段的起止位置
+        int start = pos + 1;
+        int end = path.indexOf('/', start);
+        if(end < 0){
+            end = length;
+        }
+        //字面量
+        Node<V> literalChild = node.findLiteral(path, start, end);
+        if(literalChild != null && (result = match(literalChild, path, end, routeMatch, variableIndex)) != null){
+            return result;
+        }
+        //路径变量（不匹配空分段）
+        if(node.variableChild != null && end > start){
+            if(routeMatch != null){
+                routeMatch.capture(variableIndex, start, end);
+            }
+            if((result = match(node.variableChild, path, end, routeMatch, variableIndex + 1)) != null){
+                return result;
+            }
+        }
+        //*
+        if(node.starChild != null && end > start
+                && (result = match(node.starChild, path, end, routeMatch, variableIndex)) != null){
+            return result;
+        }
+        //**，依次尝试匹配零段，一段，两段……直到路径末尾
+        if(node.doubleStarChild != null){
+            int next = pos;
+            while(true){
+                if((result = match(node.doubleStarChild, path, next, routeMatch, variableIndex)) != null){
+                    return result;
+                }
+                if(next == length){
+                    return null;
+                }
+                next = path.indexOf('/', next + 1);
+                if(next < 0){
+                    next = length;
+                }
+            }
+        }
+        return null;
+    }
+    /**
+     * @BelongsProject: api-gateway-server
+     * @BelongsPackage: org.wyh.gateway.core.route
+     * @Author: wyh
+     * @Date: 2024-12-09 10:40
+     * @Description: （静态内部类）前缀树的构建器
+     */
+    public static final class Builder<V> {
+        //根节点
+        private final Node<V> root = new Node<>();
+        //所有路由模式中路径变量的最大数量
+        private int maxVariableCount;
+        //路由的数量
+        private int size;
+        /**
+         * @date: 2024-12-09 10:42
+         * @description: 添加一条路由。若路由模式已存在，则覆盖原有的路由值
+         * @Param pattern: 路由模式（必须以/开头）
+         * @Param value: 路由值
+         * @return: org.wyh.gateway.core.route.RouteTrie.Builder<V>
+         */
+        public Builder<V> add(String pattern, V value){
+            if(pattern == null || pattern.isEmpty() || pattern.charAt(0) != '/'){
+                throw new IllegalArgumentException("路由模式必须以/开头: " + pattern);
+            }
+            Node<V> node = root;
+            List<String> variableNames = new ArrayList<>();
+            for (String segment : pattern.substring(1).split("/", -1)) {
+                if("**".equals(segment)){
+                    if(node.doubleStarChild == null){
+                        node.doubleStarChild = new Node<>();
+                    }
+                    node = node.doubleStarChild;
+                }else if("*".equals(segment)){
+                    if(node.starChild == null){
+                        node.starChild = new Node<>();
+                    }
+                    node = node.starChild;
+                }else if(segment.length() > 2 && segment.charAt(0) == '{' && segment.charAt(segment.length() - 1) == '}'){
+                    //不同路由模式中同一位置的路径变量共享同一个节点，变量名称保存在各自的结束节点中
+                    if(node.variableChild == null){
+                        node.variableChild = new Node<>();
+                    }
+                    variableNames.add(segment.substring(1, segment.length() - 1));
+                    node = node.variableChild;
+                }else if(segment.indexOf('*') >= 0 || segment.indexOf('?') >= 0
+                        || segment.indexOf('{') >= 0 || segment.indexOf('}') >= 0){
+                    throw new IllegalArgumentException("不支持的路由模式分段: " + segment + "，路由模式: " + pattern);
+                }else{
+                    node = node.literalMap.computeIfAbsent(segment, key -> new Node<>());
+                }
+            }
+            if(node.value == null){
+                size++;
+            }
+            node.value = value;
+            node.pattern = pattern;
+            node.variableNames = variableNames.toArray(new String[0]);
+            maxVariableCount = Math.max(maxVariableCount, variableNames.size());
+            return this;
+        }
+        /**
+         * @date: 2024-12-09 10:50
+         * @description: 构建不可变的前缀树。构建器在调用该方法后不能再使用
+         * @return: org.wyh.gateway.core.route.RouteTrie<V>
+         */
+        public RouteTrie<V> build(){
+            root.freeze();
+            return new RouteTrie<>(root, maxVariableCount, size);
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package org.wyh.gateway.core.route;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import org.wyh.gateway.common.config.ServiceDefinition;
+import org.wyh.gateway.common.config.ServiceInvoker;
+import org.wyh.gateway.common.utils.AntPathMatcher;
+
+import java.util.Map;
+
+/**
+ * @BelongsProject: api-gateway-server
+ * @BelongsPackage: org.wyh.gateway.core.route
+ * @Author: wyh
+ * @Date: 2024-12-09 11:00
+ * @Description: 服务的路由信息，在服务定义到达时编译，编译完成后不可变。
+                 包括服务的匹配规则（patternPath）和所有方法调用路径（可以包含路径变量等）编译成的前缀树。
+ */
+@Slf4j
+@Getter
+public final class ServiceRoute {
+    //ANT路径规则匹配器（只在服务的匹配规则无法编译为前缀树时使用）
+    private static final AntPathMatcher antPathMatcher = new AntPathMatcher();
+    //服务定义
+    private final ServiceDefinition serviceDefinition;
+    //服务的匹配规则编译成的前缀树。若服务未设置匹配规则，则为null
+    private final RouteTrie<Boolean> patternTrie;
+    //方法调用路径编译成的前缀树
+    private final RouteTrie<ServiceInvoker> invokerTrie;
+    /**
+     * @date: 2024-12-09 11:05
+     * @description: 有参构造器。编译服务的匹配规则和方法调用路径
+                     若某个方法调用路径无法编译，则忽略该方法调用（并打印日志），不影响其他方法调用
+     * @Param serviceDefinition:
+     * @return: null
+     */
+    public ServiceRoute(ServiceDefinition serviceDefinition){
+        this.serviceDefinition = serviceDefinition;
+        String patternPath = serviceDefinition.getPatternPath();
+        RouteTrie<Boolean> trie = null;
+        if(StringUtils.isNotBlank(patternPath)){
+            try{
+                trie = new RouteTrie.Builder<Boolean>().add(patternPath, Boolean.TRUE).build();
+            }catch (IllegalArgumentException e){
+                //前缀树只支持按分段匹配，对于分段内的通配符（如/a*/**），退回到使用ANT路径规则匹配器
+                log.warn("服务: {} 的匹配规则: {} 无法编译，将使用ANT匹配: {}",
+                        serviceDefinition.getUniqueId(), patternPath, e.getMessage());
+            }
+        }
+        this.patternTrie = trie;
+        RouteTrie.Builder<ServiceInvoker> builder = new RouteTrie.Builder<>();
+        Map<String, ServiceInvoker> invokerMap = serviceDefinition.getInvokerMap();
+        if(invokerMap != null){
+            for (Map.Entry<String, ServiceInvoker> entry : invokerMap.entrySet()) {
+                try{
+                    builder.add(entry.getKey(), entry.getValue());
+                }catch (IllegalArgumentException e){
+                    log.warn("服务: {} 的方法调用路径无法编译: {}", serviceDefinition.getUniqueId(), e.getMessage());
+                }
+            }
+        }
+        this.invokerTrie = builder.build();
+    }
+    /**
+     * @date: 2024-12-09 11:10
+     * @description: 判断请求路径是否与服务的匹配规则相匹配
+     * @Param path:
+     * @return: boolean
+     */
+    public boolean matchPattern(String path){
+        String patternPath = serviceDefinition.getPatternPath();
+        if(StringUtils.isBlank(patternPath)){
+            return true;
+        }
+        if(patternTrie != null){
+            return patternTrie.match(path, null);
+        }
+        return antPathMatcher.match(patternPath, path);
+    }
+    /**
+     * @date: 2024-12-09 11:12
+     * @description: 根据请求路径查找对应的方法调用，并捕获路径变量
+     * @Param path:
+     * @return: org.wyh.gateway.core.route.RouteMatch<org.wyh.gateway.common.config.ServiceInvoker> 若未找到，则返回null
+     */
+    public RouteMatch<ServiceInvoker> matchInvoker(String path){
+        return invokerTrie.match(path);
+    }
+}